@@ -75,6 +75,15 @@ class ContainerNodeNameMap {
         return Collections.unmodifiableSet(containerSet);
     }
 
+    /**
+     * Retrieves the identifiers of all containers registered in this mapping.
+     *
+     * @return an immutable copy of the identifiers of all registered containers.
+     */
+    public Set<String> getAllContainerIds() {
+        return Collections.unmodifiableSet(new HashSet<>(containerIdNodeNameMap.keySet()));
+    }
+
     /**
      * Merges the current instance with another instance of
      * <code>ContainerNodeNameMapping</code>, returning a new instance of
@@ -85,7 +94,8 @@ class ContainerNodeNameMap {
      *            The other instance of <code>ContainerNodeNameMapping</code>,
      *            which shall be merged with the current instance.
      * @return the new instance of <code>ContainerNodeNameMapping</code>, which
-     *         contains all mappings available to both original instances.
+     *         contains all mappings available to both original instances, and
+     *         is incomplete if either of them was.
      */
     public ContainerNodeNameMap merge(ContainerNodeNameMap other) {
         ContainerNodeNameMap result = new ContainerNodeNameMap();
@@ -96,6 +106,8 @@ class ContainerNodeNameMap {
         result.containerSet.addAll(containerSet);
         result.containerSet.addAll(other.containerSet);
 
+        result.containerListIncomplete = containerListIncomplete || other.containerListIncomplete;
+
         return result;
     }
 
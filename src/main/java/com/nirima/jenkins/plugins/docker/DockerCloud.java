@@ -16,6 +16,7 @@ import com.github.dockerjava.api.command.PullImageCmd;
 import com.github.dockerjava.api.command.PushImageCmd;
 import com.github.dockerjava.api.command.StartContainerCmd;
 import com.github.dockerjava.api.model.AuthConfig;
+import com.github.dockerjava.api.model.Container;
 import com.github.dockerjava.api.model.Version;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -32,19 +33,27 @@ import hudson.slaves.NodeProvisioner;
 import hudson.util.FormValidation;
 import io.jenkins.docker.DockerTransientNode;
 import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.metrics.DockerMetrics;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.RandomAccess;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import jenkins.authentication.tokens.api.AuthenticationTokens;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
@@ -82,6 +91,16 @@ public class DockerCloud extends Cloud {
     @CheckForNull
     private transient Map<Long, DockerTemplate> jobTemplates;
 
+    /** Changes whenever {@link #jobTemplates} changes. */
+    private transient volatile long jobTemplatesGeneration;
+
+    /** Source of values for {@link #jobTemplatesGeneration}. */
+    private static final AtomicLong JOB_TEMPLATES_GENERATIONS = new AtomicLong();
+
+    /** Which templates match which labels; replaced whenever the templates change. */
+    @CheckForNull
+    private transient volatile DockerTemplateIndex templateIndex;
+
     @Deprecated
     private transient DockerServerEndpoint dockerHost;
 
@@ -118,9 +137,12 @@ public class DockerCloud extends Cloud {
     /**
      * Track the count per image name for images currently being
      * provisioned, but not necessarily reported yet by docker.
+     * Indexed by cloud name and then by template image. Reads are lock-free;
+     * updates are atomic per cloud (see {@link #adjustContainersInProgress}),
+     * so clouds never contend with one another.
      */
     @Restricted(NoExternalUse.class)
-    static final Map<String, Map<String, Integer>> CONTAINERS_IN_PROGRESS = new HashMap<>();
+    static final ConcurrentMap<String, Map<String, Integer>> CONTAINERS_IN_PROGRESS = new ConcurrentHashMap<>();
 
     /**
      * Indicate if docker host used to run container is exposed inside container as DOCKER_HOST environment variable
@@ -137,7 +159,8 @@ public class DockerCloud extends Cloud {
 
         super(name);
         this.dockerApi = dockerApi;
-        this.templates = templates;
+        // our own copy, as we never change the list in place (see getTemplateIndex)
+        this.templates = templates == null ? null : new ArrayList<>(templates);
         if (name == null || name.isBlank()) {
             LOGGER.warn("Docker cloud requires a non-blank name after Jenkins 2.402");
         }
@@ -213,6 +236,80 @@ public class DockerCloud extends Cloud {
         return dockerApi;
     }
 
+    /**
+     * Gets all the docker hosts that this cloud may put containers on.
+     *
+     * @return Our docker hosts. For a plain {@link DockerCloud}, that's just
+     *         {@link #getDockerApi()}.
+     */
+    @NonNull
+    public List<DockerAPI> getDockerApis() {
+        return dockerApi == null ? Collections.emptyList() : Collections.singletonList(dockerApi);
+    }
+
+    /**
+     * Finds which of our docker hosts has the given URI.
+     *
+     * @param dockerHostUri The URI of a docker host, or null if not known.
+     * @return The matching entry from {@link #getDockerApis()}, else
+     *         {@link #getDockerApi()}.
+     */
+    @Restricted(NoExternalUse.class)
+    public DockerAPI getDockerApi(@CheckForNull String dockerHostUri) {
+        if (dockerHostUri != null) {
+            for (final DockerAPI api : getDockerApis()) {
+                if (dockerHostUri.equals(api.getDockerHost().getUri())) {
+                    return api;
+                }
+            }
+        }
+        return getDockerApi();
+    }
+
+    /**
+     * Chooses the docker host that a new container should be put on, reserving
+     * any per-host capacity that needs reserving.
+     *
+     * @param template The template we're about to provision.
+     * @return The docker host, or null if none of our docker hosts can take
+     *         another container right now. If non-null, the caller must later
+     *         call {@link #releaseDockerApi(DockerAPI, DockerTemplate, boolean, long)}.
+     */
+    @CheckForNull
+    protected DockerAPI reserveDockerApi(@NonNull DockerTemplate template) {
+        return getDockerApi();
+    }
+
+    /**
+     * As {@link #reserveDockerApi(DockerTemplate)}, but for a container that
+     * has to go on a particular docker host, e.g. because that's where its
+     * standby container is.
+     *
+     * @param template The template we're about to provision.
+     * @param api The docker host the container has to go on.
+     * @return The docker host, or null if it isn't one of ours or can't take
+     *         another container right now. If non-null, the caller must later
+     *         call {@link #releaseDockerApi(DockerAPI, DockerTemplate, boolean, long)}.
+     */
+    @CheckForNull
+    protected DockerAPI reserveDockerApi(@NonNull DockerTemplate template, @NonNull DockerAPI api) {
+        return api;
+    }
+
+    /**
+     * Called once provisioning on a docker host chosen by
+     * {@link #reserveDockerApi(DockerTemplate)} has finished.
+     *
+     * @param api The docker host.
+     * @param template The template that was provisioned.
+     * @param succeeded Whether provisioning succeeded.
+     * @param durationInNanos How long provisioning took.
+     */
+    protected void releaseDockerApi(
+            @NonNull DockerAPI api, @NonNull DockerTemplate template, boolean succeeded, long durationInNanos) {
+        // nothing to do
+    }
+
     @Deprecated
     public int getConnectTimeout() {
         return dockerApi.getConnectTimeout();
@@ -303,21 +400,60 @@ public class DockerCloud extends Cloud {
     private static void adjustContainersInProgress(DockerCloud cloud, DockerTemplate template, int adjustment) {
         final String cloudId = cloud.name;
         final String templateId = getTemplateId(template);
-        synchronized (CONTAINERS_IN_PROGRESS) {
-            Map<String, Integer> mapForThisCloud =
-                    CONTAINERS_IN_PROGRESS.computeIfAbsent(cloudId, unused -> new HashMap<>());
-            final Integer oldValue = mapForThisCloud.get(templateId);
-            final int oldNumber = oldValue == null ? 0 : oldValue;
-            final int newNumber = oldNumber + adjustment;
-            if (newNumber != 0) {
-                mapForThisCloud.put(templateId, newNumber);
-            } else {
-                mapForThisCloud.remove(templateId);
-                if (mapForThisCloud.isEmpty()) {
-                    CONTAINERS_IN_PROGRESS.remove(cloudId);
-                }
+        CONTAINERS_IN_PROGRESS.compute(cloudId, (unused, mapForThisCloudOrNull) -> {
+            final Map<String, Integer> mapForThisCloud =
+                    mapForThisCloudOrNull == null ? new ConcurrentHashMap<>() : mapForThisCloudOrNull;
+            mapForThisCloud.merge(templateId, adjustment, DockerCloud::sumOrNullIfZero);
+            return mapForThisCloud.isEmpty() ? null : mapForThisCloud;
+        });
+    }
+
+    /**
+     * Atomically checks that there's capacity for another container of the
+     * given template and, if there is, increases the count of agents being
+     * "provisioned" so that nobody else can take that capacity.
+     *
+     * @param template The template we want to provision.
+     * @param cloudAllowanceOrNegative How many containers this cloud may have
+     *            in progress, or negative if unlimited.
+     * @param templateAllowanceOrNegative How many containers this template
+     *            may have in progress, or negative if unlimited.
+     * @return true if we reserved capacity (and must later call
+     *         {@link #decrementContainersInProgress(DockerTemplate)}), false if
+     *         we're full.
+     */
+    private boolean tryReserveContainerInProgress(
+            DockerTemplate template, int cloudAllowanceOrNegative, int templateAllowanceOrNegative) {
+        final String templateId = getTemplateId(template);
+        final boolean[] reserved = new boolean[1];
+        CONTAINERS_IN_PROGRESS.compute(name, (unused, mapForThisCloudOrNull) -> {
+            final Map<String, Integer> mapForThisCloud =
+                    mapForThisCloudOrNull == null ? new ConcurrentHashMap<>() : mapForThisCloudOrNull;
+            if (cloudAllowanceOrNegative >= 0 && sum(mapForThisCloud) >= cloudAllowanceOrNegative) {
+                return mapForThisCloudOrNull;
+            }
+            if (templateAllowanceOrNegative >= 0
+                    && mapForThisCloud.getOrDefault(templateId, 0) >= templateAllowanceOrNegative) {
+                return mapForThisCloudOrNull;
             }
+            mapForThisCloud.merge(templateId, 1, DockerCloud::sumOrNullIfZero);
+            reserved[0] = true;
+            return mapForThisCloud.isEmpty() ? null : mapForThisCloud;
+        });
+        return reserved[0];
+    }
+
+    private static Integer sumOrNullIfZero(Integer oldValue, Integer adjustment) {
+        final int newValue = oldValue + adjustment;
+        return newValue == 0 ? null : newValue;
+    }
+
+    private static int sum(Map<String, Integer> counts) {
+        int total = 0;
+        for (int count : counts.values()) {
+            total += count;
         }
+        return total;
     }
 
     private static String getTemplateId(DockerTemplate template) {
@@ -329,31 +465,30 @@ public class DockerCloud extends Cloud {
     public int countContainersInProgress(DockerTemplate template) {
         final String cloudId = super.name;
         final String templateId = getTemplateId(template);
-        synchronized (CONTAINERS_IN_PROGRESS) {
-            final Map<String, Integer> allInProgressOrNull = CONTAINERS_IN_PROGRESS.get(cloudId);
-            final Integer templateInProgressOrNull =
-                    allInProgressOrNull == null ? null : allInProgressOrNull.get(templateId);
-            final int templateInProgress = templateInProgressOrNull == null ? 0 : templateInProgressOrNull;
-            return templateInProgress;
-        }
+        final Map<String, Integer> allInProgressOrNull = CONTAINERS_IN_PROGRESS.get(cloudId);
+        final Integer templateInProgressOrNull =
+                allInProgressOrNull == null ? null : allInProgressOrNull.get(templateId);
+        final int templateInProgress = templateInProgressOrNull == null ? 0 : templateInProgressOrNull;
+        return templateInProgress;
     }
 
     int countContainersInProgress() {
         final String cloudId = this.name;
-        synchronized (CONTAINERS_IN_PROGRESS) {
-            final Map<String, Integer> allInProgressOrNull = CONTAINERS_IN_PROGRESS.get(cloudId);
-            int totalInProgressForCloud = 0;
-            if (allInProgressOrNull != null) {
-                for (int count : allInProgressOrNull.values()) {
-                    totalInProgressForCloud += count;
-                }
-            }
-            return totalInProgressForCloud;
-        }
+        final Map<String, Integer> allInProgressOrNull = CONTAINERS_IN_PROGRESS.get(cloudId);
+        return allInProgressOrNull == null ? 0 : sum(allInProgressOrNull);
     }
 
+    /**
+     * Works out what agents we should provision and reserves capacity for them,
+     * then hands the actual provisioning off to a background thread.
+     * <p>
+     * This method does not hold any locks while talking to docker, and the
+     * capacity reservations are atomic, so it can safely be called
+     * concurrently for different {@link Label}s.
+     * </p>
+     */
     @Override
-    public synchronized Collection<NodeProvisioner.PlannedNode> provision(
+    public Collection<NodeProvisioner.PlannedNode> provision(
             final Label label, final int numberOfExecutorsRequired) {
         if (getDisabled().isDisabled()) {
             return Collections.emptyList();
@@ -391,62 +526,60 @@ public class DockerCloud extends Cloud {
             while (remainingWorkload > 0 && !matchingTemplates.isEmpty()) {
                 final DockerTemplate t = matchingTemplates.get(0); // get first
 
-                final boolean thereIsCapacityToProvisionFromThisTemplate = canAddProvisionedAgent(t);
+                // take any standby container first, so it doesn't count against our capacity
+                final DockerWarmPool poolOrNull = DockerWarmPool.forTemplate(this, t);
+                DockerWarmPool.StandbyContainer standbyOrNull = poolOrNull == null ? null : poolOrNull.take();
+                // if this returns true then we've reserved capacity and so we must decrement afterwards
+                final boolean thereIsCapacityToProvisionFromThisTemplate = reserveCapacityToProvisionAgent(t);
                 if (!thereIsCapacityToProvisionFromThisTemplate) {
+                    if (standbyOrNull != null) {
+                        poolOrNull.giveBack(standbyOrNull);
+                    }
                     matchingTemplates.remove(t);
                     continue;
                 }
-                LOGGER.info(
-                        "Will provision '{}', for label: '{}', in cloud: '{}'", t.getImage(), label, getDisplayName());
-
-                final ProvisioningActivity.Id id = new ProvisioningActivity.Id(
-                        DockerCloud.this.name, t.getName() + " (" + t.getImage() + ")", null);
-                final CompletableFuture<Node> plannedNode = new CompletableFuture<>();
-                r.add(new TrackedPlannedNode(id, t.getNumExecutors(), plannedNode));
-
-                final Runnable taskToCreateNewAgent = new Runnable() {
-                    @Override
-                    public void run() {
-                        DockerTransientNode agent = null;
-                        try {
-                            // TODO where can we log provisioning progress ?
-                            final DockerAPI api = DockerCloud.this.getDockerApi();
-                            agent = t.provisionNode(api, TaskListener.NULL);
-                            agent.setDockerAPI(api);
-                            agent.setCloudId(DockerCloud.this.name);
-                            agent.setProvisioningId(id);
-                            plannedNode.complete(agent);
-
-                            // On provisioning completion, let's trigger NodeProvisioner
-                            agent.robustlyAddToJenkins();
-
-                        } catch (Exception ex) {
-                            LOGGER.error(
-                                    "Error in provisioning; template='{}' for cloud='{}'", t, getDisplayName(), ex);
-                            plannedNode.completeExceptionally(ex);
-                            if (agent != null) {
-                                agent.terminate(LOGGER);
-                            }
-                            if (ex instanceof RuntimeException) {
-                                throw (RuntimeException) ex;
-                            } else if (ex instanceof IOException) {
-                                throw new UncheckedIOException((IOException) ex);
-                            } else {
-                                throw new RuntimeException(ex);
-                            }
-                        } finally {
-                            decrementContainersInProgress(t);
-                        }
+                DockerAPI apiOrNull = null;
+                if (standbyOrNull != null) {
+                    // a standby container can only be started on the docker host it's on
+                    apiOrNull = reserveDockerApi(t, standbyOrNull.getDockerApi());
+                    if (apiOrNull == null) {
+                        poolOrNull.giveBack(standbyOrNull);
+                        standbyOrNull = null;
                     }
-                };
+                }
+                if (apiOrNull == null) {
+                    apiOrNull = reserveDockerApi(t);
+                }
+                if (apiOrNull == null) {
+                    LOGGER.debug("Not provisioning '{}'; no docker host in cloud '{}' can take it", t.getImage(), name);
+                    decrementContainersInProgress(t);
+                    matchingTemplates.remove(t);
+                    continue;
+                }
+                LOGGER.info(
+                        "Will provision '{}', for label: '{}', in cloud: '{}'{}",
+                        t.getImage(),
+                        label,
+                        getDisplayName(),
+                        standbyOrNull == null ? "" : " using a standby container");
+
                 boolean taskToCreateAgentHasBeenQueuedSoItWillDoTheDecrement = false;
-                incrementContainersInProgress(t);
                 try {
+                    final ProvisioningActivity.Id id = new ProvisioningActivity.Id(
+                            DockerCloud.this.name, t.getName() + " (" + t.getImage() + ")", null);
+                    final CompletableFuture<Node> plannedNode = new CompletableFuture<>();
+                    final Runnable taskToCreateNewAgent = newTaskToCreateNewAgent(
+                            t, id, plannedNode, apiOrNull, poolOrNull, standbyOrNull);
                     Computer.threadPoolForRemoting.submit(taskToCreateNewAgent);
                     taskToCreateAgentHasBeenQueuedSoItWillDoTheDecrement = true;
+                    r.add(new TrackedPlannedNode(id, t.getNumExecutors(), plannedNode));
                 } finally {
                     if (!taskToCreateAgentHasBeenQueuedSoItWillDoTheDecrement) {
                         decrementContainersInProgress(t);
+                        releaseDockerApi(apiOrNull, t, false, 0L);
+                        if (standbyOrNull != null) {
+                            poolOrNull.giveBack(standbyOrNull);
+                        }
                     }
                 }
 
@@ -461,11 +594,76 @@ public class DockerCloud extends Cloud {
                 final DockerDisabled reasonForDisablement = getDisabled();
                 reasonForDisablement.disableBySystem("Cloud provisioning failure", milliseconds, e);
                 setDisabled(reasonForDisablement);
+                DockerMetrics.AUTO_DISABLES.increment(name, "");
             }
             return Collections.emptyList();
         }
     }
 
+    /**
+     * Creates the task that does the actual (slow) provisioning of an agent.
+     * The task will call {@link #decrementContainersInProgress(DockerTemplate)}
+     * and {@link #releaseDockerApi(DockerAPI, DockerTemplate, boolean, long)}
+     * once it's done, and will then top up the template's warm pool (if any).
+     */
+    private Runnable newTaskToCreateNewAgent(
+            final DockerTemplate t,
+            final ProvisioningActivity.Id id,
+            final CompletableFuture<Node> plannedNode,
+            final DockerAPI api,
+            @CheckForNull final DockerWarmPool poolOrNull,
+            @CheckForNull final DockerWarmPool.StandbyContainer standbyOrNull) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                DockerTransientNode agent = null;
+                final long provisioningStartedNanos = System.nanoTime();
+                boolean succeeded = false;
+                try {
+                    // TODO where can we log provisioning progress ?
+                    if (standbyOrNull != null && DockerWarmPool.isUsable(standbyOrNull)) {
+                        agent = t.provisionNodeFromStandby(api, standbyOrNull, name, TaskListener.NULL);
+                    } else {
+                        agent = t.provisionNode(api, name, TaskListener.NULL);
+                    }
+                    agent.setDockerAPI(api);
+                    agent.setCloudId(DockerCloud.this.name);
+                    agent.setProvisioningId(id);
+                    agent.setProvisioningStartedNanos(provisioningStartedNanos);
+                    plannedNode.complete(agent);
+
+                    // On provisioning completion, let's trigger NodeProvisioner
+                    agent.robustlyAddToJenkins();
+                    succeeded = true;
+                } catch (Exception ex) {
+                    LOGGER.error("Error in provisioning; template='{}' for cloud='{}'", t, getDisplayName(), ex);
+                    DockerMetrics.PROVISIONING_FAILURES.increment(DockerCloud.this.name, t.getName());
+                    plannedNode.completeExceptionally(ex);
+                    if (agent != null) {
+                        agent.terminate(LOGGER);
+                    }
+                    if (ex instanceof RuntimeException) {
+                        throw (RuntimeException) ex;
+                    } else if (ex instanceof IOException) {
+                        throw new UncheckedIOException((IOException) ex);
+                    } else {
+                        throw new RuntimeException(ex);
+                    }
+                } finally {
+                    decrementContainersInProgress(t);
+                    releaseDockerApi(api, t, succeeded, System.nanoTime() - provisioningStartedNanos);
+                    if (standbyOrNull != null) {
+                        // the agent is now known to Jenkins (or has been cleaned up)
+                        DockerWarmPool.release(standbyOrNull);
+                    }
+                    if (poolOrNull != null) {
+                        poolOrNull.refill();
+                    }
+                }
+            }
+        };
+    }
+
     /*
      * for publishers/builders. Simply runs container in docker cloud
      */
@@ -511,12 +709,7 @@ public class DockerCloud extends Cloud {
      */
     @CheckForNull
     public DockerTemplate getTemplate(Label label) {
-        List<DockerTemplate> matchingTemplates = getTemplates(label);
-        if (!matchingTemplates.isEmpty()) {
-            return matchingTemplates.get(0);
-        }
-
-        return null;
+        return getTemplateIndex().getTemplate(label);
     }
 
     /**
@@ -524,11 +717,8 @@ public class DockerCloud extends Cloud {
      *
      * @param t The template to be added.
      */
-    public synchronized void addTemplate(DockerTemplate t) {
-        if (templates == null) {
-            templates = new ArrayList<>();
-        }
-        templates.add(t);
+    public void addTemplate(DockerTemplate t) {
+        changeTemplates(newTemplates -> newTemplates.add(t));
     }
 
     /**
@@ -539,6 +729,7 @@ public class DockerCloud extends Cloud {
      */
     public synchronized void addJobTemplate(long jobId, DockerTemplate template) {
         getJobTemplates().put(jobId, template);
+        jobTemplatesGeneration = JOB_TEMPLATES_GENERATIONS.incrementAndGet();
     }
 
     /**
@@ -550,10 +741,44 @@ public class DockerCloud extends Cloud {
         if (getJobTemplates().remove(jobId) == null) {
             LOGGER.warn("Couldn't remove template for job with id: {}", jobId);
         }
+        jobTemplatesGeneration = JOB_TEMPLATES_GENERATIONS.incrementAndGet();
     }
 
+    /**
+     * Gets our templates.
+     * <p>
+     * The list returned can be changed, but each change replaces our list of
+     * templates with a changed copy (as {@link #addTemplate(DockerTemplate)}
+     * and {@link #removeTemplate(DockerTemplate)} do), so
+     * {@link #provision(Label, int)} never sees a list that is part-way
+     * through being changed, and iterating over the list returned iterates
+     * over the templates as they were when iteration started.
+     * </p>
+     *
+     * @return A live view of our templates.
+     */
     public List<DockerTemplate> getTemplates() {
-        return templates == null ? Collections.emptyList() : templates;
+        return new TemplatesView();
+    }
+
+    @NonNull
+    private List<DockerTemplate> getCurrentTemplates() {
+        final List<DockerTemplate> current = templates;
+        return current == null ? Collections.emptyList() : current;
+    }
+
+    /**
+     * Changes our templates copy-on-write, as {@link #provision(Label, int)}
+     * reads them without holding any lock.
+     *
+     * @param change What to do to a copy of our templates.
+     * @return Whatever the change returned.
+     */
+    private synchronized <T> T changeTemplates(Function<List<DockerTemplate>, T> change) {
+        final List<DockerTemplate> newTemplates = new ArrayList<>(getCurrentTemplates());
+        final T result = change.apply(newTemplates);
+        templates = newTemplates;
+        return result;
     }
 
     /**
@@ -563,29 +788,35 @@ public class DockerCloud extends Cloud {
      * @return Templates matched to requested label assuming agent Mode
      */
     public List<DockerTemplate> getTemplates(Label label) {
-        final List<DockerTemplate> dockerTemplates = new ArrayList<>();
-
-        for (DockerTemplate t : getTemplates()) {
-            if (t.getDisabled().isDisabled()) {
-                continue; // pretend it doesn't exist
-            }
-            if (label == null && t.getMode() == Node.Mode.NORMAL) {
-                dockerTemplates.add(t);
-            }
-
-            if (label != null && label.matches(t.getLabelSet())) {
-                dockerTemplates.add(t);
-            }
-        }
+        // callers are allowed to modify what we return
+        return new ArrayList<>(getTemplateIndex().getTemplates(label));
+    }
 
-        // add temporary templates matched to requested label
-        for (DockerTemplate template : getJobTemplates().values()) {
-            if (label != null && label.matches(template.getLabelSet())) {
-                dockerTemplates.add(template);
-            }
+    /**
+     * Gets the index of which templates match which labels, (re)building it
+     * if our templates have changed since it was built.
+     * <p>
+     * Our list of templates is only ever replaced (never modified in place),
+     * so identity tells us whether it's changed; job templates are modified
+     * in place, so we count those changes instead, as does
+     * {@link DockerTemplate} for changes to any template's labels or mode.
+     * </p>
+     */
+    @NonNull
+    private DockerTemplateIndex getTemplateIndex() {
+        // read the generations before the templates, so if they change
+        // while we're building, the next caller will rebuild it again.
+        final long generation = jobTemplatesGeneration;
+        final long labelsGeneration = DockerTemplate.getLabelsGeneration();
+        final List<DockerTemplate> currentTemplates = getCurrentTemplates();
+        final DockerTemplateIndex existing = templateIndex;
+        if (existing != null && existing.isFor(currentTemplates, generation, labelsGeneration)) {
+            return existing;
         }
-
-        return dockerTemplates;
+        final DockerTemplateIndex rebuilt = new DockerTemplateIndex(
+                currentTemplates, getJobTemplates().values(), generation, labelsGeneration);
+        templateIndex = rebuilt;
+        return rebuilt;
     }
 
     /**
@@ -593,9 +824,10 @@ public class DockerCloud extends Cloud {
      *
      * @return The map of job specific templates.
      */
-    private Map<Long, DockerTemplate> getJobTemplates() {
+    private synchronized Map<Long, DockerTemplate> getJobTemplates() {
         if (jobTemplates == null) {
-            jobTemplates = new HashMap<>();
+            // concurrent, as provision() reads this without holding our lock
+            jobTemplates = new ConcurrentHashMap<>();
         }
 
         return jobTemplates;
@@ -608,7 +840,7 @@ public class DockerCloud extends Cloud {
      */
     public synchronized void removeTemplate(DockerTemplate t) {
         if (templates != null) {
-            templates.remove(t);
+            changeTemplates(newTemplates -> newTemplates.remove(t));
         }
     }
 
@@ -617,6 +849,11 @@ public class DockerCloud extends Cloud {
      * the specified image.
      * <p>
      * <b>WARNING:</b> This method can be slow so it should be called sparingly.
+     * <p>
+     * The listing this is based on is shared with any other cloud using the
+     * same docker host (and credentials) that asked within the last couple of
+     * seconds, so a burst of provisioning across several clouds doesn't have to
+     * ask docker for every cloud and every image.
      *
      * @param imageName
      *            If null, then all instances belonging to this Jenkins instance
@@ -626,80 +863,166 @@ public class DockerCloud extends Cloud {
      * @throws Exception if anything went wrong.
      */
     public int countContainersInDocker(final String imageName) throws Exception {
+        int count = 0;
+        for (final DockerAPI api : getDockerApis()) {
+            count += countContainersInDocker(api, imageName);
+        }
+        return count;
+    }
+
+    /**
+     * As {@link #countContainersInDocker(String)}, but for just one docker
+     * host.
+     */
+    static int countContainersInDocker(final DockerAPI dockerApi, final String imageName) throws Exception {
         final Map<String, String> labelFilter = new HashMap<>();
         labelFilter.put(
                 DockerContainerLabelKeys.JENKINS_INSTANCE_ID,
                 DockerTemplateBase.getJenkinsInstanceIdForContainerLabel());
-        if (imageName != null) {
-            labelFilter.put(DockerContainerLabelKeys.CONTAINER_IMAGE, imageName);
+        final List<Container> containers = DockerContainerListings.list(
+                        dockerApi,
+                        labelFilter,
+                        false,
+                        System.nanoTime() - DockerContainerListings.PROVISIONING_WINDOW_IN_NANOS)
+                .getContainers();
+        if (imageName == null) {
+            return containers.size();
         }
-        final List<?> containers;
-        try (final DockerClient client = dockerApi.getClient()) {
-            containers = client.listContainersCmd().withLabelFilter(labelFilter).exec();
+        int count = 0;
+        for (final Container container : containers) {
+            final Map<String, String> labels = container.getLabels();
+            if (labels != null && imageName.equals(labels.get(DockerContainerLabelKeys.CONTAINER_IMAGE))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * As {@link #countContainersInDocker(String)}, but using the
+     * {@link DockerContainerInventory} (if enabled) so that we don't have to
+     * ask docker every time.
+     */
+    private int countRunningContainers(final String imageName) throws Exception {
+        int count = 0;
+        for (final DockerAPI api : getDockerApis()) {
+            count += countRunningContainers(api, imageName);
         }
-        final int count = containers.size();
         return count;
     }
 
     /**
-     * Check not too many already running.
+     * As {@link #countRunningContainers(String)}, but for just one docker
+     * host.
      */
-    private boolean canAddProvisionedAgent(DockerTemplate t) throws Exception {
+    static int countRunningContainers(final DockerAPI dockerApi, final String imageName) throws Exception {
+        final DockerContainerInventory inventory = DockerContainerInventory.forApi(dockerApi);
+        if (inventory == null) {
+            return countContainersInDocker(dockerApi, imageName);
+        }
+        return inventory.countRunningContainers(imageName);
+    }
+
+    /**
+     * Checks whether there's room for another standby container in a
+     * {@link DockerWarmPool} without going over our caps.
+     * Unlike {@link #reserveCapacityToProvisionAgent(DockerTemplate)}, this
+     * does not reserve anything; the standby container is counted once it's
+     * being created.
+     *
+     * @param t The template that wants a standby container.
+     * @return true if there's room.
+     */
+    boolean hasCapacityForStandbyContainer(DockerTemplate t) {
+        final String templateImage = t.getImage();
+        final int templateContainerCap = t.instanceCap;
+        final int cloudContainerCap = getContainerCap();
+        try {
+            if (cloudContainerCap > 0 && cloudContainerCap != Integer.MAX_VALUE) {
+                final int total = countRunningContainers(null)
+                        + countContainersInProgress()
+                        + DockerWarmPool.countStandbyContainers(name, null);
+                if (total >= cloudContainerCap) {
+                    return false;
+                }
+            }
+            if (templateContainerCap > 0 && templateContainerCap != Integer.MAX_VALUE) {
+                final int total = countRunningContainers(templateImage)
+                        + countContainersInProgress(t)
+                        + DockerWarmPool.countStandbyContainers(name, templateImage);
+                if (total >= templateContainerCap) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception ex) {
+            LOGGER.warn("Unable to count containers in cloud '{}'", name, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Check not too many already running and, if there's room, reserve the
+     * capacity for one more.
+     *
+     * @return true if capacity has been reserved, in which case the caller
+     *         must call {@link #decrementContainersInProgress(DockerTemplate)}
+     *         once the container has been started (or has failed).
+     */
+    private boolean reserveCapacityToProvisionAgent(DockerTemplate t) throws Exception {
         final String templateImage = t.getImage();
         final int templateContainerCap = t.instanceCap;
         final int cloudContainerCap = getContainerCap();
 
         final boolean haveCloudContainerCap = cloudContainerCap > 0 && cloudContainerCap != Integer.MAX_VALUE;
         final boolean haveTemplateContainerCap = templateContainerCap > 0 && templateContainerCap != Integer.MAX_VALUE;
-        final int estimatedTotalAgents;
-        if (haveCloudContainerCap) {
-            final int totalContainersInCloud = countContainersInDocker(null);
-            final int containersInProgress = countContainersInProgress();
-            estimatedTotalAgents = totalContainersInCloud + containersInProgress;
-            if (estimatedTotalAgents >= cloudContainerCap) {
+        // standby containers in warm pools count against our caps too
+        final int totalContainersInCloud = haveCloudContainerCap
+                ? countRunningContainers(null) + DockerWarmPool.countStandbyContainers(name, null)
+                : -1;
+        final int totalContainersOfThisTemplateInCloud = haveTemplateContainerCap
+                ? countRunningContainers(templateImage) + DockerWarmPool.countStandbyContainers(name, templateImage)
+                : -1;
+        final int cloudAllowance = haveCloudContainerCap ? Math.max(0, cloudContainerCap - totalContainersInCloud) : -1;
+        final int templateAllowance = haveTemplateContainerCap
+                ? Math.max(0, templateContainerCap - totalContainersOfThisTemplateInCloud)
+                : -1;
+        if (!tryReserveContainerInProgress(t, cloudAllowance, templateAllowance)) {
+            if (haveCloudContainerCap && totalContainersInCloud + countContainersInProgress() >= cloudContainerCap) {
                 LOGGER.debug(
                         "Not Provisioning '{}'; Cloud '{}' full with '{}' container(s)",
                         templateImage,
                         name,
                         cloudContainerCap);
-                return false; // maxed out
-            }
-        } else {
-            estimatedTotalAgents = -1;
-        }
-        final int estimatedTemplateAgents;
-        if (haveTemplateContainerCap) {
-            final int totalContainersOfThisTemplateInCloud = countContainersInDocker(templateImage);
-            final int containersInProgress = countContainersInProgress(t);
-            estimatedTemplateAgents = totalContainersOfThisTemplateInCloud + containersInProgress;
-            if (estimatedTemplateAgents >= templateContainerCap) {
+            } else {
                 LOGGER.debug(
                         "Not Provisioning '{}'. Template instance limit of '{}' reached on cloud '{}'",
                         templateImage,
                         templateContainerCap,
                         name);
-                return false; // maxed out
             }
-        } else {
-            estimatedTemplateAgents = -1;
+            return false; // maxed out
         }
+        // Note: these figures include the capacity we've just reserved.
+        final int estimatedTotalAgents = totalContainersInCloud + countContainersInProgress();
+        final int estimatedTemplateAgents = totalContainersOfThisTemplateInCloud + countContainersInProgress(t);
 
         if (haveCloudContainerCap) {
             if (haveTemplateContainerCap) {
                 LOGGER.info(
                         "Provisioning '{}' number {} (of {}) on '{}'; Total containers: {} (of {})",
                         templateImage,
-                        estimatedTemplateAgents + 1,
+                        estimatedTemplateAgents,
                         templateContainerCap,
                         name,
-                        estimatedTotalAgents,
+                        estimatedTotalAgents - 1,
                         cloudContainerCap);
             } else {
                 LOGGER.info(
                         "Provisioning '{}' on '{}'; Total containers: {} (of {})",
                         templateImage,
                         name,
-                        estimatedTotalAgents,
+                        estimatedTotalAgents - 1,
                         cloudContainerCap);
             }
         } else {
@@ -707,7 +1030,7 @@ public class DockerCloud extends Cloud {
                 LOGGER.info(
                         "Provisioning '{}' number {} (of {}) on '{}'",
                         templateImage,
-                        estimatedTemplateAgents + 1,
+                        estimatedTemplateAgents,
                         templateContainerCap,
                         name);
             } else {
@@ -908,6 +1231,69 @@ public class DockerCloud extends Cloud {
         return false;
     }
 
+    /**
+     * What {@link #getTemplates()} returns.
+     */
+    private final class TemplatesView extends AbstractList<DockerTemplate> implements RandomAccess {
+        @Override
+        public DockerTemplate get(int index) {
+            return getCurrentTemplates().get(index);
+        }
+
+        @Override
+        public int size() {
+            return getCurrentTemplates().size();
+        }
+
+        @Override
+        public Iterator<DockerTemplate> iterator() {
+            final Iterator<DockerTemplate> snapshot = getCurrentTemplates().iterator();
+            return new Iterator<>() {
+                private DockerTemplate last;
+
+                @Override
+                public boolean hasNext() {
+                    return snapshot.hasNext();
+                }
+
+                @Override
+                public DockerTemplate next() {
+                    last = snapshot.next();
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+                    removeTemplate(last);
+                    last = null;
+                }
+            };
+        }
+
+        @Override
+        public DockerTemplate set(int index, DockerTemplate element) {
+            return changeTemplates(newTemplates -> newTemplates.set(index, element));
+        }
+
+        @Override
+        public void add(int index, DockerTemplate element) {
+            modCount++;
+            changeTemplates(newTemplates -> {
+                newTemplates.add(index, element);
+                return null;
+            });
+        }
+
+        @Override
+        public DockerTemplate remove(int index) {
+            modCount++;
+            return changeTemplates(newTemplates -> newTemplates.remove(index));
+        }
+    }
+
     @Extension
     public static class DescriptorImpl extends Descriptor<Cloud> {
         public FormValidation doCheckErrorDuration(@QueryParameter String value) {
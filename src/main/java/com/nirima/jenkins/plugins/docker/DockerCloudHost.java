@@ -0,0 +1,89 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.bldToString;
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.endToString;
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.startToString;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.Objects;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * One of the docker hosts of a {@link DockerMultiHostCloud}.
+ */
+public class DockerCloudHost extends AbstractDescribableImpl<DockerCloudHost> {
+    @NonNull
+    private final DockerAPI dockerApi;
+
+    /**
+     * Max number of containers we'll run on this host, counting all of this
+     * Jenkins' containers there, whichever cloud they're from.
+     */
+    private int containerCap = Integer.MAX_VALUE;
+
+    @DataBoundConstructor
+    public DockerCloudHost(@NonNull DockerAPI dockerApi) {
+        this.dockerApi = dockerApi;
+    }
+
+    @NonNull
+    public DockerAPI getDockerApi() {
+        return dockerApi;
+    }
+
+    public int getContainerCap() {
+        return containerCap;
+    }
+
+    @DataBoundSetter
+    public void setContainerCap(int containerCap) {
+        this.containerCap = containerCap;
+    }
+
+    /**
+     * @return {@link #getContainerCap()}, or {@link Integer#MAX_VALUE} if
+     *         there is no limit.
+     */
+    int getEffectiveContainerCap() {
+        return containerCap > 0 ? containerCap : Integer.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = startToString(this);
+        bldToString(sb, "dockerApi", dockerApi);
+        bldToString(sb, "containerCap", containerCap);
+        endToString(sb);
+        return sb.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dockerApi, containerCap);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final DockerCloudHost that = (DockerCloudHost) o;
+        return containerCap == that.containerCap && Objects.equals(dockerApi, that.dockerApi);
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<DockerCloudHost> {
+        @Override
+        public String getDisplayName() {
+            return "Docker Host";
+        }
+    }
+}
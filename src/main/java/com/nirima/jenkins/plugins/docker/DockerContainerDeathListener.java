@@ -0,0 +1,192 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventActor;
+import com.github.dockerjava.api.model.EventType;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import io.jenkins.docker.DockerTransientNode;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import jenkins.model.Jenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reacts to our containers dying (or being killed for running out of memory)
+ * as soon as the docker daemon tells us, instead of waiting for the remoting
+ * channel to time out or for the {@link DockerContainerWatchdog} to notice.
+ * <p>
+ * When a container dies, its {@link DockerTransientNode} is terminated, which
+ * takes it offline and removes it from Jenkins, and the
+ * {@link hudson.slaves.NodeProvisioner}s for its labels are asked to take
+ * another look at the queue so that anything that was waiting for it gets a
+ * replacement straight away. The {@link DockerContainerInventory} will already
+ * have stopped counting the container as running, so the {@link DockerCloud}
+ * has the capacity to provision that replacement.
+ * </p>
+ * <p>
+ * A container that runs out of memory isn't necessarily dead (docker may only
+ * have killed one of its processes) so, in that case, we merely stop its node
+ * accepting any more tasks.
+ * </p>
+ */
+final class DockerContainerDeathListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerContainerDeathListener.class);
+
+    /**
+     * Set to false to leave dead containers' nodes to be cleaned up by the
+     * retention strategy and watchdog.
+     */
+    private static final boolean ENABLED =
+            JenkinsUtils.getSystemPropertyBoolean(DockerContainerDeathListener.class.getName() + ".enabled", true);
+
+    private DockerContainerDeathListener() {}
+
+    /**
+     * Called for every event on a docker host's event stream.
+     * <p>
+     * This is called on the thread that reads the event stream, so anything
+     * non-trivial is done elsewhere.
+     * </p>
+     *
+     * @param dockerApi The docker host the event came from.
+     * @param event The event docker sent us.
+     */
+    static void onEvent(@NonNull DockerAPI dockerApi, @NonNull Event event) {
+        if (!ENABLED) {
+            return;
+        }
+        onEvent(dockerApi, event, Computer.threadPoolForRemoting, DockerContainerDeathListener::containerDied);
+    }
+
+    /**
+     * As {@link #onEvent(DockerAPI, Event)}, but with the bits that need
+     * Jenkins replaceable by tests.
+     *
+     * @param dockerApi The docker host the event came from.
+     * @param event The event docker sent us.
+     * @param executor Where to deal with the container's death.
+     * @param handler What to do about the container's death.
+     */
+    static void onEvent(
+            @NonNull DockerAPI dockerApi, @NonNull Event event, @NonNull Executor executor, @NonNull Handler handler) {
+        final EventType type = event.getType();
+        if (type != null && type != EventType.CONTAINER) {
+            return;
+        }
+        final String containerId = DockerContainerInventory.getContainerId(event);
+        final String action = DockerContainerInventory.getAction(event);
+        if (containerId == null || !isDeathEvent(action)) {
+            return;
+        }
+        final EventActor actor = event.getActor();
+        final Map<String, String> attributes = actor == null ? null : actor.getAttributes();
+        final String nodeName = attributes == null ? null : attributes.get(DockerContainerLabelKeys.NODE_NAME);
+        if (nodeName == null) {
+            return; // not one of our agents' containers, so nothing for us to do
+        }
+        try {
+            executor.execute(() -> handler.containerDied(dockerApi, nodeName, containerId, action));
+        } catch (RejectedExecutionException ex) {
+            LOGGER.warn(
+                    "Unable to deal with container {} on {} reporting '{}'",
+                    containerId,
+                    dockerApi.getDockerHost().getUri(),
+                    action,
+                    ex);
+        }
+    }
+
+    /**
+     * Indicates whether an event means a container is no longer any use to us.
+     *
+     * @param action The event's action.
+     * @return true if the container is dead, dying or out of memory.
+     */
+    static boolean isDeathEvent(@CheckForNull String action) {
+        return "die".equals(action) || "oom".equals(action) || "destroy".equals(action);
+    }
+
+    /**
+     * Finds the node that's using a container. Every container we start is
+     * labelled with the name of its node, and docker tells us a container's
+     * labels in its events, so we can go straight to the node.
+     *
+     * @param nodesByName Looks up nodes by name.
+     * @param nodeName The name of the node that the container was started for.
+     * @param containerId The container ID.
+     * @return The node, or null if there's no such node or it isn't using that
+     *         container.
+     */
+    @CheckForNull
+    static DockerTransientNode findNode(
+            @NonNull Function<String, Node> nodesByName, @NonNull String nodeName, @NonNull String containerId) {
+        final Node node = nodesByName.apply(nodeName);
+        if (node instanceof DockerTransientNode) {
+            final DockerTransientNode dockerNode = (DockerTransientNode) node;
+            if (containerId.equals(dockerNode.getContainerId())) {
+                return dockerNode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * What we do when one of our agents' containers dies.
+     */
+    @FunctionalInterface
+    interface Handler {
+        void containerDied(
+                @NonNull DockerAPI dockerApi,
+                @NonNull String nodeName,
+                @NonNull String containerId,
+                @NonNull String action);
+    }
+
+    private static void containerDied(DockerAPI dockerApi, String nodeName, String containerId, String action) {
+        final Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return; // we're shutting down
+        }
+        final DockerTransientNode node = findNode(jenkins::getNode, nodeName, containerId);
+        if (node == null) {
+            return; // not one of ours, or we already got rid of it
+        }
+        if ("oom".equals(action)) {
+            LOGGER.warn(
+                    "Container {} for node '{}' on {} ran out of memory; node will not accept any more tasks",
+                    containerId,
+                    node.getNodeName(),
+                    dockerApi.getDockerHost().getUri());
+            node.setAcceptingTasks(false);
+        } else {
+            LOGGER.info(
+                    "Container {} for node '{}' on {} reported '{}'; terminating node",
+                    containerId,
+                    node.getNodeName(),
+                    dockerApi.getDockerHost().getUri(),
+                    action);
+            node.terminate(LOGGER);
+        }
+        suggestReviewNow(jenkins, node);
+    }
+
+    /**
+     * Gets the provisioners that might want to replace the node to take
+     * another look without waiting for their next scheduled review.
+     */
+    private static void suggestReviewNow(Jenkins jenkins, DockerTransientNode node) {
+        jenkins.unlabeledNodeProvisioner.suggestReviewNow();
+        for (final Label label : node.getAssignedLabels()) {
+            label.nodeProvisioner.suggestReviewNow();
+        }
+    }
+}
@@ -0,0 +1,559 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventActor;
+import com.github.dockerjava.api.model.EventType;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
+import io.jenkins.docker.client.DockerAPI;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Event-driven inventory of the containers that this Jenkins instance owns on
+ * a single docker host (as identified by its {@link DockerEndpointKey}, so
+ * clouds sharing a docker host share its inventory).
+ * <p>
+ * The inventory is seeded once from a container listing and is then kept up to
+ * date from the docker daemon's event stream (<code>create</code>,
+ * <code>start</code>, <code>die</code> and <code>destroy</code>), so that the
+ * number of running containers per image or per template can be read without
+ * having to ask docker every time. A full resync is done periodically (and
+ * whenever the event stream is lost) to repair any drift, and the
+ * {@link DockerContainerWatchdog} feeds its own listing into the inventory too.
+ * </p>
+ * <p>
+ * The same event stream also tells the {@link DockerContainerDeathListener}
+ * when one of our containers dies, so that its node can be dealt with straight
+ * away.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerContainerInventory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerContainerInventory.class);
+
+    /**
+     * Maximum age of our last full listing before we insist on a fresh one.
+     */
+    private static final long RESYNC_INTERVAL_IN_NANOS = TimeUnit.SECONDS.toNanos(JenkinsUtils.getSystemPropertyLong(
+            DockerContainerInventory.class.getName() + ".resyncIntervalInSeconds", 5L * 60L));
+
+    /**
+     * Set to false to fall back to asking docker every time.
+     */
+    private static final boolean ENABLED =
+            JenkinsUtils.getSystemPropertyBoolean(DockerContainerInventory.class.getName() + ".enabled", true);
+
+    /**
+     * How long to wait after losing the event stream before we try to get it
+     * back.
+     */
+    private static final long RESUBSCRIBE_DELAY_IN_SECONDS = JenkinsUtils.getSystemPropertyLong(
+            DockerContainerInventory.class.getName() + ".resubscribeDelayInSeconds", 10L);
+
+    private static final String[] CONTAINER_EVENTS = {"create", "start", "die", "oom", "destroy"};
+
+    private static final Map<DockerEndpointKey, DockerContainerInventory> INVENTORIES = new ConcurrentHashMap<>();
+
+    private final DockerAPI dockerApi;
+
+    /** What we know about each container, indexed by container ID. Guarded by this. */
+    private final Map<String, ContainerRecord> containersById = new HashMap<>();
+
+    /**
+     * IDs of containers we've been told were destroyed, with the time we were
+     * told. Used to stop a listing that was started before the destroy from
+     * resurrecting them. Guarded by this.
+     */
+    private final Map<String, Long> recentlyDestroyed = new HashMap<>();
+
+    private final Map<String, Integer> runningByImage = new ConcurrentHashMap<>();
+    private final Map<String, Integer> runningByTemplate = new ConcurrentHashMap<>();
+    private final AtomicInteger runningTotal = new AtomicInteger();
+
+    /** {@link System#nanoTime()} of the start of the last complete listing, or null if never seeded. */
+    private volatile Long lastResyncNanosOrNull;
+
+    /** Set when we know we've missed events, cleared by a full listing. */
+    private volatile boolean missedEvents;
+
+    /** Set while a background resync is queued or running. */
+    private final AtomicBoolean backgroundResyncInProgress = new AtomicBoolean();
+
+    /** Our subscription to the docker event stream, or null if we're not subscribed. Guarded by this. */
+    private Closeable subscriptionOrNull;
+
+    /** The client our subscription is using. Guarded by this. */
+    private DockerClient subscriptionClientOrNull;
+
+    /** {@link System#nanoTime()} when we last subscribed. */
+    private volatile long subscribedNanos;
+
+    DockerContainerInventory(@NonNull DockerAPI dockerApi) {
+        this.dockerApi = dockerApi;
+    }
+
+    /**
+     * Obtains the (shared) inventory for the given docker host.
+     *
+     * @param dockerApi The docker host.
+     * @return The inventory for that host, or null if inventories have been
+     *         disabled by system property.
+     */
+    @CheckForNull
+    public static DockerContainerInventory forApi(@NonNull DockerAPI dockerApi) {
+        if (!ENABLED) {
+            return null;
+        }
+        return INVENTORIES.computeIfAbsent(
+                DockerEndpointKey.of(dockerApi), k -> new DockerContainerInventory(dockerApi));
+    }
+
+    /**
+     * Drops (and unsubscribes) any inventory whose docker host is no longer in
+     * use.
+     *
+     * @param dockerApisInUse The docker hosts that are still configured.
+     */
+    static void retainOnly(Collection<DockerAPI> dockerApisInUse) {
+        final Set<DockerEndpointKey> endpointsInUse = new HashSet<>();
+        for (final DockerAPI dockerApi : dockerApisInUse) {
+            endpointsInUse.add(DockerEndpointKey.of(dockerApi));
+        }
+        final Iterator<Map.Entry<DockerEndpointKey, DockerContainerInventory>> it =
+                INVENTORIES.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<DockerEndpointKey, DockerContainerInventory> entry = it.next();
+            if (!endpointsInUse.contains(entry.getKey())) {
+                it.remove();
+                entry.getValue().unsubscribe();
+            }
+        }
+    }
+
+    /**
+     * Ensures that we're listening to the docker host's event stream,
+     * (re)subscribing in the background if we aren't.
+     */
+    void listenForEvents() {
+        final boolean subscribed;
+        synchronized (this) {
+            subscribed = subscriptionOrNull != null;
+        }
+        if (!subscribed) {
+            resyncInBackground();
+        }
+    }
+
+    /**
+     * Counts the containers belonging to this Jenkins instance that are
+     * currently running.
+     *
+     * @param imageNameOrNull If null, all containers are counted, otherwise
+     *            only those started from the specified image.
+     * @return The number of running containers.
+     * @throws Exception if we had to ask docker and that failed.
+     */
+    public int countRunningContainers(@CheckForNull String imageNameOrNull) throws Exception {
+        ensureCurrent();
+        return getRunningContainerCount(imageNameOrNull);
+    }
+
+    /**
+     * As {@link #countRunningContainers(String)}, but returns whatever we
+     * currently know without checking whether that's current.
+     *
+     * @param imageNameOrNull If null, all containers are counted, otherwise
+     *            only those started from the specified image.
+     * @return The number of running containers.
+     */
+    int getRunningContainerCount(@CheckForNull String imageNameOrNull) {
+        if (imageNameOrNull == null) {
+            return runningTotal.get();
+        }
+        return getCount(runningByImage, imageNameOrNull);
+    }
+
+    /**
+     * Counts the containers belonging to this Jenkins instance that are
+     * currently running and were created from a template of the given name.
+     *
+     * @param templateName The {@link DockerTemplate#getName()}.
+     * @return The number of running containers.
+     * @throws Exception if we had to ask docker and that failed.
+     */
+    public int countRunningContainersForTemplate(@NonNull String templateName) throws Exception {
+        ensureCurrent();
+        return getRunningContainerCountForTemplate(templateName);
+    }
+
+    /**
+     * As {@link #countRunningContainersForTemplate(String)}, but returns
+     * whatever we currently know without checking whether that's current.
+     *
+     * @param templateName The {@link DockerTemplate#getName()}.
+     * @return The number of running containers.
+     */
+    int getRunningContainerCountForTemplate(@NonNull String templateName) {
+        return getCount(runningByTemplate, templateName);
+    }
+
+    /**
+     * Indicates whether our counts can be trusted without asking docker, i.e.
+     * we're subscribed to events and our last full listing isn't too old.
+     *
+     * @return true if the inventory is current.
+     */
+    public boolean isCurrent() {
+        final Long lastResync = lastResyncNanosOrNull;
+        if (lastResync == null || missedEvents || System.nanoTime() - lastResync > RESYNC_INTERVAL_IN_NANOS) {
+            return false;
+        }
+        synchronized (this) {
+            return subscriptionOrNull != null;
+        }
+    }
+
+    private void ensureCurrent() throws Exception {
+        if (isCurrent()) {
+            return;
+        }
+        if (lastResyncNanosOrNull == null) {
+            // we know nothing, so the caller will have to wait for docker.
+            // subscribe first so we don't miss anything that happens while we're listing
+            subscribe();
+            resync();
+            return;
+        }
+        // we have figures, albeit possibly stale ones, so don't make the caller wait
+        resyncInBackground();
+    }
+
+    private void resyncInBackground() {
+        if (!backgroundResyncInProgress.compareAndSet(false, true)) {
+            return; // someone else is already on the case
+        }
+        boolean queued = false;
+        try {
+            Computer.threadPoolForRemoting.submit(() -> {
+                try {
+                    subscribe();
+                    resync();
+                } catch (Exception ex) {
+                    LOGGER.warn("Unable to resynchronize inventory of {}", dockerApi.getDockerHost().getUri(), ex);
+                } finally {
+                    backgroundResyncInProgress.set(false);
+                }
+            });
+            queued = true;
+        } finally {
+            if (!queued) {
+                backgroundResyncInProgress.set(false);
+            }
+        }
+    }
+
+    /**
+     * Does a full listing of our containers and replaces whatever we knew
+     * before.
+     *
+     * @throws Exception if docker could not be asked.
+     */
+    void resync() throws Exception {
+        final Map<String, String> labelFilter = new HashMap<>();
+        labelFilter.put(
+                DockerContainerLabelKeys.JENKINS_INSTANCE_ID,
+                DockerTemplateBase.getJenkinsInstanceIdForContainerLabel());
+        // anything someone else listed since we subscribed (and very recently) will do
+        final long recently = System.nanoTime() - DockerContainerListings.PROVISIONING_WINDOW_IN_NANOS;
+        final long subscribed = subscribedNanos;
+        final long notBeforeNanos = subscribed - recently > 0 ? subscribed : recently;
+        final DockerContainerListings.Listing listing =
+                DockerContainerListings.list(dockerApi, labelFilter, true, notBeforeNanos);
+        replaceWith(listing.getContainers(), listing.getStartedNanos());
+    }
+
+    /**
+     * Replaces our knowledge with the result of a full listing of our
+     * containers (made with <code>showAll</code>).
+     *
+     * @param containers The containers docker told us about.
+     * @param listingStartedNanos The {@link System#nanoTime()} from before the
+     *            listing was requested.
+     */
+    synchronized void replaceWith(@NonNull Collection<Container> containers, long listingStartedNanos) {
+        final Map<String, ContainerRecord> updatedSinceListing = new HashMap<>();
+        for (final Map.Entry<String, ContainerRecord> entry : containersById.entrySet()) {
+            if (entry.getValue().updatedNanos - listingStartedNanos >= 0) {
+                updatedSinceListing.put(entry.getKey(), entry.getValue());
+            }
+        }
+        containersById.clear();
+        for (final Container container : containers) {
+            final String containerId = container.getId();
+            if (containerId == null || recentlyDestroyed.containsKey(containerId)) {
+                continue;
+            }
+            final Map<String, String> labels = container.getLabels();
+            final String imageName = labels == null ? null : labels.get(DockerContainerLabelKeys.CONTAINER_IMAGE);
+            final String templateName = labels == null ? null : labels.get(DockerContainerLabelKeys.TEMPLATE_NAME);
+            final boolean running = "running".equals(container.getState());
+            containersById.put(
+                    containerId, new ContainerRecord(imageName, templateName, running, listingStartedNanos));
+        }
+        // events we received while the listing was in progress are more up to date than the listing
+        containersById.putAll(updatedSinceListing);
+        // anything destroyed before the listing started can't be in the listing
+        recentlyDestroyed.values().removeIf(destroyedNanos -> destroyedNanos - listingStartedNanos < 0);
+        recount();
+        lastResyncNanosOrNull = listingStartedNanos;
+        missedEvents = false;
+        LOGGER.debug(
+                "Inventory of {} resynchronized: {} containers, {} running",
+                dockerApi.getDockerHost().getUri(),
+                containersById.size(),
+                runningTotal.get());
+    }
+
+    /**
+     * Updates our knowledge based on an event from docker.
+     *
+     * @param event The event docker sent us.
+     */
+    synchronized void onEvent(@NonNull Event event) {
+        final EventType type = event.getType();
+        if (type != null && type != EventType.CONTAINER) {
+            return;
+        }
+        final EventActor actor = event.getActor();
+        final String containerId = getContainerId(event);
+        final String action = getAction(event);
+        if (containerId == null || action == null) {
+            return;
+        }
+        final Map<String, String> attributes = actor == null ? null : actor.getAttributes();
+        final ContainerRecord existing = containersById.get(containerId);
+        final String imageName = attributes != null && attributes.containsKey(DockerContainerLabelKeys.CONTAINER_IMAGE)
+                ? attributes.get(DockerContainerLabelKeys.CONTAINER_IMAGE)
+                : existing == null ? null : existing.imageName;
+        final String templateName = attributes != null && attributes.containsKey(DockerContainerLabelKeys.TEMPLATE_NAME)
+                ? attributes.get(DockerContainerLabelKeys.TEMPLATE_NAME)
+                : existing == null ? null : existing.templateName;
+        final long now = System.nanoTime();
+        switch (action) {
+            case "create":
+                if (existing == null) {
+                    put(containerId, new ContainerRecord(imageName, templateName, false, now));
+                }
+                break;
+            case "start":
+                put(containerId, new ContainerRecord(imageName, templateName, true, now));
+                break;
+            case "die":
+                put(containerId, new ContainerRecord(imageName, templateName, false, now));
+                break;
+            case "destroy":
+                remove(containerId);
+                recentlyDestroyed.put(containerId, now);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Works out which container an event is about.
+     *
+     * @param event The event docker sent us.
+     * @return The container ID, or null if docker didn't say.
+     */
+    @CheckForNull
+    static String getContainerId(@NonNull Event event) {
+        final EventActor actor = event.getActor();
+        return actor != null && actor.getId() != null ? actor.getId() : event.getId();
+    }
+
+    /**
+     * Works out what happened, coping with both old and new docker daemons.
+     *
+     * @param event The event docker sent us.
+     * @return The action, e.g. <code>die</code>, or null if docker didn't say.
+     */
+    @CheckForNull
+    static String getAction(@NonNull Event event) {
+        return event.getAction() != null ? event.getAction() : event.getStatus();
+    }
+
+    private void put(String containerId, ContainerRecord updated) {
+        final ContainerRecord previous = containersById.put(containerId, updated);
+        if (previous != null && previous.running) {
+            adjust(previous, -1);
+        }
+        if (updated.running) {
+            adjust(updated, +1);
+        }
+    }
+
+    private void remove(String containerId) {
+        final ContainerRecord previous = containersById.remove(containerId);
+        if (previous != null && previous.running) {
+            adjust(previous, -1);
+        }
+    }
+
+    private void recount() {
+        runningByImage.clear();
+        runningByTemplate.clear();
+        runningTotal.set(0);
+        for (final ContainerRecord r : containersById.values()) {
+            if (r.running) {
+                adjust(r, +1);
+            }
+        }
+    }
+
+    private void adjust(ContainerRecord r, int adjustment) {
+        runningTotal.addAndGet(adjustment);
+        adjustCount(runningByImage, r.imageName, adjustment);
+        adjustCount(runningByTemplate, r.templateName, adjustment);
+    }
+
+    private static void adjustCount(Map<String, Integer> counts, @CheckForNull String key, int adjustment) {
+        if (key != null) {
+            counts.merge(key, adjustment, (oldValue, delta) -> {
+                final int newValue = oldValue + delta;
+                return newValue == 0 ? null : newValue;
+            });
+        }
+    }
+
+    private static int getCount(Map<String, Integer> counts, String key) {
+        final Integer countOrNull = counts.get(key);
+        return countOrNull == null ? 0 : countOrNull;
+    }
+
+    private synchronized void subscribe() {
+        if (subscriptionOrNull != null) {
+            return;
+        }
+        final Map<String, String> labelFilter = new HashMap<>();
+        labelFilter.put(
+                DockerContainerLabelKeys.JENKINS_INSTANCE_ID,
+                DockerTemplateBase.getJenkinsInstanceIdForContainerLabel());
+        // the event stream can go quiet for a long time, so we need a client without a read timeout
+        final DockerClient client = dockerApi.getClient(0);
+        try {
+            subscribedNanos = System.nanoTime();
+            subscriptionOrNull = client.eventsCmd()
+                    .withLabelFilter(labelFilter)
+                    .withEventFilter(CONTAINER_EVENTS)
+                    .exec(new EventCallback());
+            subscriptionClientOrNull = client;
+        } catch (RuntimeException ex) {
+            LOGGER.warn(
+                    "Unable to subscribe to events from {}; will list containers instead",
+                    dockerApi.getDockerHost().getUri(),
+                    ex);
+            closeQuietly(client);
+        }
+    }
+
+    private synchronized void unsubscribe() {
+        final Closeable subscription = subscriptionOrNull;
+        final DockerClient client = subscriptionClientOrNull;
+        subscriptionOrNull = null;
+        subscriptionClientOrNull = null;
+        // force a resync once we're resubscribed, as we'll have missed things
+        missedEvents = true;
+        closeQuietly(subscription);
+        closeQuietly(client);
+    }
+
+    private static void closeQuietly(@CheckForNull Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.debug("Ignoring failure to close {}", closeable, ex);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return DockerContainerInventory.class.getSimpleName() + "[" + dockerApi.getDockerHost().getUri() + "]";
+    }
+
+    private class EventCallback extends ResultCallback.Adapter<Event> {
+        @Override
+        public void onNext(Event event) {
+            onEvent(event);
+            DockerContainerDeathListener.onEvent(dockerApi, event);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            LOGGER.info("Lost event stream from {}", dockerApi.getDockerHost().getUri(), throwable);
+            lostSubscription(this);
+        }
+
+        @Override
+        public void onComplete() {
+            LOGGER.debug("Event stream from {} ended", dockerApi.getDockerHost().getUri());
+            lostSubscription(this);
+        }
+    }
+
+    private synchronized void lostSubscription(EventCallback callback) {
+        if (subscriptionOrNull == callback) {
+            unsubscribe();
+            // we rely on the event stream to notice dead agents, so don't wait for someone to ask for counts
+            Timer.get().schedule(this::resubscribeIfStillInUse, RESUBSCRIBE_DELAY_IN_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void resubscribeIfStillInUse() {
+        if (INVENTORIES.get(DockerEndpointKey.of(dockerApi)) == this) {
+            listenForEvents();
+        }
+    }
+
+    private static final class ContainerRecord {
+        @CheckForNull
+        final String imageName;
+
+        @CheckForNull
+        final String templateName;
+
+        final boolean running;
+        final long updatedNanos;
+
+        ContainerRecord(
+                @CheckForNull String imageName, @CheckForNull String templateName, boolean running, long updatedNanos) {
+            this.imageName = imageName;
+            this.templateName = templateName;
+            this.running = running;
+            this.updatedNanos = updatedNanos;
+        }
+    }
+}
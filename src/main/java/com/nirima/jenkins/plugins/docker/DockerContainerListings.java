@@ -0,0 +1,224 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Container;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lists containers on behalf of everything that wants to know what's on a
+ * docker daemon, so that clouds sharing a daemon (see
+ * {@link DockerEndpointKey}) don't each ask it the same question.
+ * <p>
+ * Callers say how old a listing they're willing to accept. If someone else
+ * has already asked the same question of the same daemon recently enough (or
+ * is in the middle of asking it), the caller gets their answer; otherwise the
+ * caller asks docker and shares the answer with whoever asks next. Answers
+ * are forgotten once they're too old to be of use to anyone, so we don't hang
+ * on to the containers of docker hosts (or label filters) that are no longer
+ * being asked about.
+ * </p>
+ */
+final class DockerContainerListings {
+    /**
+     * How old a listing can be and still be used for deciding whether or not
+     * to provision.
+     */
+    static final long PROVISIONING_WINDOW_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(JenkinsUtils.getSystemPropertyLong(
+            DockerContainerListings.class.getName() + ".provisioningWindowInMilliseconds", 2000L));
+
+    /**
+     * How old a (finished) listing can get before we forget it. Nothing
+     * wants a listing this old: the provisioning window is much shorter and
+     * the {@link DockerContainerWatchdog} only accepts listings started after
+     * it started its current run.
+     */
+    private static final long EXPIRY_IN_NANOS = Math.max(PROVISIONING_WINDOW_IN_NANOS, TimeUnit.MINUTES.toNanos(1L));
+
+    /** The latest listing for each question we've been asked. */
+    private static final Map<Question, Listing> LISTINGS = new ConcurrentHashMap<>();
+
+    /** The {@link System#nanoTime()} after which we next look for expired listings. */
+    private static final AtomicLong NEXT_EVICTION_NANOS = new AtomicLong(System.nanoTime() + EXPIRY_IN_NANOS);
+
+    private DockerContainerListings() {}
+
+    /**
+     * Lists containers, sharing the answer with anyone else asking the same
+     * question of the same daemon.
+     *
+     * @param dockerApi The docker host to ask.
+     * @param labelFilter The labels the containers must have.
+     * @param showAll If true, containers that aren't running are included too.
+     * @param notBeforeNanos The {@link System#nanoTime()} before which a
+     *            listing must not have been started for it to be acceptable.
+     * @return The listing.
+     * @throws Exception if docker could not be asked.
+     */
+    @NonNull
+    static Listing list(
+            @NonNull DockerAPI dockerApi,
+            @NonNull Map<String, String> labelFilter,
+            boolean showAll,
+            long notBeforeNanos)
+            throws Exception {
+        return list(dockerApi, labelFilter, showAll, notBeforeNanos, 0);
+    }
+
+    /**
+     * As {@link #list(DockerAPI, Map, boolean, long)}, but giving up if we
+     * don't get an answer in time.
+     *
+     * @param dockerApi The docker host to ask.
+     * @param labelFilter The labels the containers must have.
+     * @param showAll If true, containers that aren't running are included too.
+     * @param notBeforeNanos The {@link System#nanoTime()} before which a
+     *            listing must not have been started for it to be acceptable.
+     * @param timeoutInSeconds How long we're prepared to wait for docker,
+     *            either to answer us or to answer whoever else is asking. A
+     *            value less than one means we use the {@link DockerAPI}'s
+     *            read timeout and wait as long as it takes.
+     * @return The listing.
+     * @throws Exception if docker could not be asked, or didn't answer in time.
+     */
+    @NonNull
+    static Listing list(
+            @NonNull DockerAPI dockerApi,
+            @NonNull Map<String, String> labelFilter,
+            boolean showAll,
+            long notBeforeNanos,
+            int timeoutInSeconds)
+            throws Exception {
+        final Question question = new Question(DockerEndpointKey.of(dockerApi), labelFilter, showAll);
+        evictExpired(System.nanoTime());
+        while (true) {
+            final Listing existing = LISTINGS.get(question);
+            if (existing != null && existing.startedNanos - notBeforeNanos >= 0) {
+                return existing.await(timeoutInSeconds);
+            }
+            final Listing ours = new Listing(System.nanoTime());
+            final boolean weAreAsking = existing == null
+                    ? LISTINGS.putIfAbsent(question, ours) == null
+                    : LISTINGS.replace(question, existing, ours);
+            if (weAreAsking) {
+                ours.ask(dockerApi, question, timeoutInSeconds);
+                return ours.await(timeoutInSeconds);
+            }
+            // someone else beat us to it, so see if their listing will do
+        }
+    }
+
+    /**
+     * Forgets listings that have finished and are too old to be of use,
+     * looking for them at most once every {@link #EXPIRY_IN_NANOS}.
+     *
+     * @param nowNanos The current {@link System#nanoTime()}.
+     */
+    static void evictExpired(long nowNanos) {
+        final long due = NEXT_EVICTION_NANOS.get();
+        if (nowNanos - due < 0 || !NEXT_EVICTION_NANOS.compareAndSet(due, nowNanos + EXPIRY_IN_NANOS)) {
+            return; // not due yet, or someone else is doing it
+        }
+        LISTINGS.values().removeIf(l -> l.containers.isDone() && nowNanos - l.startedNanos > EXPIRY_IN_NANOS);
+    }
+
+    /**
+     * The result of listing containers.
+     */
+    static final class Listing {
+        private final long startedNanos;
+        private final CompletableFuture<List<Container>> containers = new CompletableFuture<>();
+
+        private Listing(long startedNanos) {
+            this.startedNanos = startedNanos;
+        }
+
+        /** @return The {@link System#nanoTime()} from before the listing was requested. */
+        long getStartedNanos() {
+            return startedNanos;
+        }
+
+        /** @return The containers docker told us about. */
+        @NonNull
+        List<Container> getContainers() {
+            return containers.getNow(Collections.emptyList());
+        }
+
+        private void ask(DockerAPI dockerApi, Question question, int timeoutInSeconds) {
+            try (final DockerClient client =
+                    timeoutInSeconds > 0 ? dockerApi.getClient(timeoutInSeconds) : dockerApi.getClient()) {
+                final List<Container> result = client.listContainersCmd()
+                        .withShowAll(question.showAll)
+                        .withLabelFilter(question.labelFilter)
+                        .exec();
+                containers.complete(Collections.unmodifiableList(result));
+            } catch (Exception | Error ex) {
+                // don't let anyone else pick this up later
+                LISTINGS.remove(question, this);
+                containers.completeExceptionally(ex);
+            }
+        }
+
+        private Listing await(int timeoutInSeconds) throws Exception {
+            try {
+                if (timeoutInSeconds > 0) {
+                    containers.get(timeoutInSeconds, TimeUnit.SECONDS);
+                } else {
+                    containers.join();
+                }
+                return this;
+            } catch (ExecutionException | CompletionException ex) {
+                final Throwable cause = ex.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw ex;
+            }
+        }
+    }
+
+    private static final class Question {
+        private final DockerEndpointKey endpoint;
+        private final Map<String, String> labelFilter;
+        private final boolean showAll;
+
+        private Question(DockerEndpointKey endpoint, Map<String, String> labelFilter, boolean showAll) {
+            this.endpoint = endpoint;
+            this.labelFilter = Map.copyOf(labelFilter);
+            this.showAll = showAll;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(endpoint, labelFilter, showAll);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Question other = (Question) obj;
+            return showAll == other.showAll
+                    && endpoint.equals(other.endpoint)
+                    && labelFilter.equals(other.labelFilter);
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.command.CreateContainerCmd;
+import com.github.dockerjava.api.model.Capability;
+import com.github.dockerjava.api.model.Device;
+import com.github.dockerjava.api.model.HostConfig;
+import com.github.dockerjava.api.model.Mount;
+import com.github.dockerjava.api.model.PortBinding;
+import com.github.dockerjava.api.model.VolumesFrom;
+import com.google.common.collect.Iterables;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.collections.CollectionUtils;
+
+/**
+ * The container configuration of a {@link DockerTemplateBase}, parsed and
+ * validated once so that it can be applied to any number of
+ * {@link CreateContainerCmd}s without parsing it all again each time.
+ * <p>
+ * Instances are immutable. Each one remembers the template settings it was
+ * compiled from (see {@link #isCompiledFrom(Object[])}), so the template can
+ * tell when it needs a new one.
+ * </p>
+ */
+final class DockerContainerSpec {
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    /** Copy of the template settings this was compiled from. */
+    private final Object[] inputs;
+
+    private final String image;
+
+    @CheckForNull
+    private final String hostname;
+
+    @CheckForNull
+    private final String user;
+
+    @CheckForNull
+    private final List<String> groupAdd;
+
+    @CheckForNull
+    private final String[] cmd;
+
+    private final PortBinding[] portBindings;
+    private final boolean publishAllPorts;
+    private final boolean privileged;
+    private final Map<String, String> extraLabels;
+
+    @CheckForNull
+    private final Long nanoCpus;
+
+    @CheckForNull
+    private final Long cpuPeriod;
+
+    @CheckForNull
+    private final Long cpuQuota;
+
+    @CheckForNull
+    private final Integer cpuShares;
+
+    @CheckForNull
+    private final Long memory;
+
+    @CheckForNull
+    private final Long memorySwap;
+
+    @CheckForNull
+    private final String[] dns;
+
+    @CheckForNull
+    private final String networkMode;
+
+    @CheckForNull
+    private final List<Mount> mounts;
+
+    @CheckForNull
+    private final VolumesFrom[] volumesFrom;
+
+    @CheckForNull
+    private final List<Device> devices;
+
+    private final boolean tty;
+
+    @CheckForNull
+    private final String[] env;
+
+    @CheckForNull
+    private final String macAddress;
+
+    @CheckForNull
+    private final String[] extraHosts;
+
+    @CheckForNull
+    private final Long shmSize;
+
+    @CheckForNull
+    private final List<String> securityOpts;
+
+    @CheckForNull
+    private final Capability[] capAdd;
+
+    @CheckForNull
+    private final Capability[] capDrop;
+
+    /**
+     * Compiles a template's container configuration.
+     *
+     * @param t The template.
+     * @param inputs The template settings we're compiling, as returned by
+     *            {@link DockerTemplateBase#getContainerSpecInputs()}.
+     * @throws IllegalArgumentException if any of the template's settings are
+     *             invalid.
+     */
+    DockerContainerSpec(@NonNull DockerTemplateBase t, @NonNull Object[] inputs) {
+        this.inputs = deepCopy(inputs);
+        image = t.getImage();
+        hostname = emptyToNull(t.getHostname());
+        user = emptyToNull(t.getUser());
+        groupAdd = copyOrNull(t.getExtraGroups());
+        cmd = t.getDockerCommandArray();
+        portBindings = Iterables.toArray(t.getPortMappings(), PortBinding.class);
+        publishAllPorts = t.isBindAllPorts();
+        privileged = t.isPrivileged();
+        final Map<String, String> extraDockerLabelsOrNull = t.getExtraDockerLabels();
+        extraLabels = extraDockerLabelsOrNull == null
+                ? Collections.emptyMap()
+                : Collections.unmodifiableMap(new HashMap<>(extraDockerLabelsOrNull));
+
+        final String cpusOrNull = t.getCpus();
+        if (cpusOrNull != null && !cpusOrNull.isEmpty()) {
+            final Double cpu_double = Double.parseDouble(cpusOrNull) * 1e9;
+            nanoCpus = cpu_double.longValue();
+        } else {
+            nanoCpus = null;
+        }
+        cpuPeriod = positiveOrNull(t.getCpuPeriod());
+        cpuQuota = positiveOrNull(t.getCpuQuota());
+        final Integer cpuSharesOrNull = t.getCpuShares();
+        cpuShares = cpuSharesOrNull != null && cpuSharesOrNull > 0 ? cpuSharesOrNull : null;
+        memory = megabytesOrNull(t.getMemoryLimit());
+        final Integer memorySwapOrNullOrNegative = t.getMemorySwap();
+        if (memorySwapOrNullOrNegative != null) {
+            final long memorySwapOrNegative = memorySwapOrNullOrNegative.longValue();
+            memorySwap = memorySwapOrNegative > 0L ? memorySwapOrNegative * MEGABYTE : memorySwapOrNegative;
+        } else {
+            memorySwap = null;
+        }
+        dns = emptyToNull(t.getDnsHosts());
+        networkMode = emptyToNull(t.getNetwork());
+
+        // https://github.com/docker/docker/blob/ed257420025772acc38c51b0f018de3ee5564d0f/runconfig/parse.go#L182-L196
+        final String[] mountsOrNull = t.getMounts();
+        if (mountsOrNull != null && mountsOrNull.length > 0) {
+            final List<Mount> mnts = new ArrayList<>();
+            DockerTemplateBase.parseMountsStrings(mountsOrNull, mnts);
+            mounts = Collections.unmodifiableList(mnts);
+        } else {
+            mounts = null;
+        }
+        final String[] volumesFrom2OrNull = t.getVolumesFrom2();
+        if (volumesFrom2OrNull != null && volumesFrom2OrNull.length > 0) {
+            volumesFrom = new VolumesFrom[volumesFrom2OrNull.length];
+            for (int i = 0; i < volumesFrom2OrNull.length; i++) {
+                volumesFrom[i] = VolumesFrom.parse(volumesFrom2OrNull[i]);
+            }
+        } else {
+            volumesFrom = null;
+        }
+        final String[] devicesOrNull = t.getDevices();
+        if (devicesOrNull != null && devicesOrNull.length > 0) {
+            final List<Device> list = new ArrayList<>();
+            for (String deviceStr : devicesOrNull) {
+                list.add(Device.parse(deviceStr));
+            }
+            devices = Collections.unmodifiableList(list);
+        } else {
+            devices = null;
+        }
+
+        tty = t.isTty();
+        env = emptyToNull(t.getEnvironment());
+        macAddress = emptyToNull(t.getMacAddress());
+        final List<String> extraHostsOrNull = t.getExtraHosts();
+        extraHosts = CollectionUtils.isNotEmpty(extraHostsOrNull) ? extraHostsOrNull.toArray(new String[0]) : null;
+        shmSize = megabytesOrNull(t.getShmSize());
+        securityOpts = copyOrNull(t.getSecurityOpts());
+        final List<String> capabilitiesToAddOrNull = t.getCapabilitiesToAdd();
+        capAdd = CollectionUtils.isNotEmpty(capabilitiesToAddOrNull)
+                ? DockerTemplateBase.toCapabilities(capabilitiesToAddOrNull)
+                : null;
+        final List<String> capabilitiesToDropOrNull = t.getCapabilitiesToDrop();
+        capDrop = CollectionUtils.isNotEmpty(capabilitiesToDropOrNull)
+                ? DockerTemplateBase.toCapabilities(capabilitiesToDropOrNull)
+                : null;
+    }
+
+    /**
+     * @param currentInputs The template's current settings, as returned by
+     *            {@link DockerTemplateBase#getContainerSpecInputs()}.
+     * @return true if this was compiled from those settings.
+     */
+    boolean isCompiledFrom(@NonNull Object[] currentInputs) {
+        return Arrays.deepEquals(inputs, currentInputs);
+    }
+
+    /**
+     * Applies this configuration to a command. Everything we pass to the
+     * command is a copy, so whatever is done to the command afterwards can't
+     * affect us.
+     *
+     * @param containerConfig The command to be configured.
+     */
+    void applyTo(@NonNull CreateContainerCmd containerConfig) {
+        if (hostname != null) {
+            containerConfig.withHostName(hostname);
+        }
+        if (user != null) {
+            containerConfig.withUser(user);
+        }
+        if (groupAdd != null) {
+            hostConfig(containerConfig).withGroupAdd(new ArrayList<>(groupAdd));
+        }
+        if (cmd != null) {
+            containerConfig.withCmd(cmd.clone());
+        }
+
+        hostConfig(containerConfig).withPortBindings(portBindings.clone());
+        hostConfig(containerConfig).withPublishAllPorts(publishAllPorts);
+        hostConfig(containerConfig).withPrivileged(privileged);
+
+        final Map<String, String> existingLabelsOrNull = containerConfig.getLabels();
+        final Map<String, String> labels;
+        if (existingLabelsOrNull == null) {
+            labels = new HashMap<>();
+            containerConfig.withLabels(labels);
+        } else {
+            labels = existingLabelsOrNull;
+        }
+        labels.putAll(extraLabels);
+        labels.put(
+                DockerContainerLabelKeys.JENKINS_INSTANCE_ID,
+                DockerTemplateBase.getJenkinsInstanceIdForContainerLabel());
+        labels.put(DockerContainerLabelKeys.JENKINS_URL, DockerTemplateBase.getJenkinsUrlForContainerLabel());
+        labels.put(DockerContainerLabelKeys.CONTAINER_IMAGE, image);
+
+        if (nanoCpus != null) {
+            hostConfig(containerConfig).withNanoCPUs(nanoCpus);
+        }
+        if (cpuPeriod != null) {
+            hostConfig(containerConfig).withCpuPeriod(cpuPeriod);
+        }
+        if (cpuQuota != null) {
+            hostConfig(containerConfig).withCpuQuota(cpuQuota);
+        }
+        if (cpuShares != null) {
+            hostConfig(containerConfig).withCpuShares(cpuShares);
+        }
+        if (memory != null) {
+            hostConfig(containerConfig).withMemory(memory);
+        }
+        if (memorySwap != null) {
+            hostConfig(containerConfig).withMemorySwap(memorySwap);
+        }
+        if (dns != null) {
+            hostConfig(containerConfig).withDns(dns.clone());
+        }
+        if (networkMode != null) {
+            containerConfig.withNetworkDisabled(false);
+            hostConfig(containerConfig).withNetworkMode(networkMode);
+        }
+        if (mounts != null) {
+            hostConfig(containerConfig).withMounts(new ArrayList<>(mounts));
+        }
+        if (volumesFrom != null) {
+            hostConfig(containerConfig).withVolumesFrom(volumesFrom.clone());
+        }
+        if (devices != null) {
+            hostConfig(containerConfig).withDevices(new ArrayList<>(devices));
+        }
+
+        containerConfig.withTty(tty);
+
+        if (env != null) {
+            containerConfig.withEnv(env.clone());
+        }
+        if (macAddress != null) {
+            containerConfig.withMacAddress(macAddress);
+        }
+        if (extraHosts != null) {
+            hostConfig(containerConfig).withExtraHosts(extraHosts.clone());
+        }
+        if (shmSize != null) {
+            hostConfig(containerConfig).withShmSize(shmSize);
+        }
+        if (securityOpts != null) {
+            hostConfig(containerConfig).withSecurityOpts(new ArrayList<>(securityOpts));
+        }
+        if (capAdd != null) {
+            hostConfig(containerConfig).withCapAdd(capAdd.clone());
+        }
+        if (capDrop != null) {
+            hostConfig(containerConfig).withCapDrop(capDrop.clone());
+        }
+    }
+
+    @NonNull
+    private static HostConfig hostConfig(CreateContainerCmd containerConfig) {
+        final HostConfig hc = containerConfig.getHostConfig();
+        if (hc == null) {
+            throw new IllegalStateException("Can't find " + HostConfig.class.getCanonicalName() + " within "
+                    + CreateContainerCmd.class.getCanonicalName() + " " + containerConfig);
+        }
+        return hc;
+    }
+
+    /**
+     * Copies the template settings, so that changes to any arrays or
+     * collections in the template don't change our copy of them.
+     */
+    private static Object[] deepCopy(Object[] inputs) {
+        final Object[] copy = new Object[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            final Object input = inputs[i];
+            if (input instanceof Object[]) {
+                copy[i] = ((Object[]) input).clone();
+            } else if (input instanceof Collection) {
+                copy[i] = new ArrayList<>((Collection<?>) input);
+            } else if (input instanceof Map) {
+                copy[i] = new HashMap<>((Map<?, ?>) input);
+            } else {
+                copy[i] = input;
+            }
+        }
+        return copy;
+    }
+
+    @CheckForNull
+    private static String emptyToNull(@CheckForNull String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
+    @CheckForNull
+    private static String[] emptyToNull(@CheckForNull String[] a) {
+        return a == null || a.length == 0 ? null : a.clone();
+    }
+
+    @CheckForNull
+    private static List<String> copyOrNull(@CheckForNull List<String> list) {
+        return CollectionUtils.isNotEmpty(list) ? Collections.unmodifiableList(new ArrayList<>(list)) : null;
+    }
+
+    @CheckForNull
+    private static Long positiveOrNull(@CheckForNull Long l) {
+        return l != null && l > 0 ? l : null;
+    }
+
+    @CheckForNull
+    private static Long megabytesOrNull(@CheckForNull Integer megabytes) {
+        return megabytes != null && megabytes > 0 ? megabytes.longValue() * MEGABYTE : null;
+    }
+}
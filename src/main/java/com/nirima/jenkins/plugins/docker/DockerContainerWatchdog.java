@@ -8,16 +8,36 @@ import hudson.model.AsyncPeriodicWork;
 import hudson.model.Node;
 import hudson.model.TaskListener;
 import hudson.slaves.SlaveComputer;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import io.jenkins.docker.DockerTransientNode;
 import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.metrics.DockerMetrics;
 import java.io.IOException;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import jenkins.model.Jenkins;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
@@ -33,7 +53,7 @@ import org.slf4j.LoggerFactory;
  */
 @Extension
 public class DockerContainerWatchdog extends AsyncPeriodicWork {
-    private Clock clock;
+    private volatile Clock clock;
 
     public DockerContainerWatchdog() {
         super(String.format("%s Asynchronous Periodic Work", DockerContainerWatchdog.class.getSimpleName()));
@@ -69,8 +89,36 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
      */
     private static final Duration PROCESSING_TIMEOUT = Duration.ofMillis(RECURRENCE_PERIOD_IN_MS * 4 / 5);
 
+    /**
+     * The maximal amount of time we'll spend on any one cloud, so that one
+     * slow or hung docker host can't stop the others from being checked.
+     */
+    private static final long CLOUD_PROCESSING_TIMEOUT_IN_SECONDS = Math.max(
+            1L,
+            JenkinsUtils.getSystemPropertyLong(
+                    DockerContainerWatchdog.class.getName() + ".cloudTimeoutInSeconds",
+                    PROCESSING_TIMEOUT.getSeconds() / 2));
+
+    private static final long CLOUD_PROCESSING_TIMEOUT_IN_NANOS =
+            TimeUnit.SECONDS.toNanos(CLOUD_PROCESSING_TIMEOUT_IN_SECONDS);
+
+    /**
+     * The most clouds we'll check at once.
+     */
+    private static final int MAX_CONCURRENT_CLOUDS = (int) Math.max(
+            1L,
+            JenkinsUtils.getSystemPropertyLong(DockerContainerWatchdog.class.getName() + ".maxConcurrentClouds", 4L));
+
+    private static final ExecutorService CLOUD_EXECUTOR = createCloudExecutor();
+
     private static final Statistics executionStatistics = new Statistics();
 
+    /**
+     * What we saw on our previous run, so that we only need to look closely
+     * at what has changed since.
+     */
+    private Snapshot previousSnapshot = Snapshot.EMPTY;
+
     @Override
     public long getRecurrencePeriod() {
         // value is in ms.
@@ -93,10 +141,22 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         return DockerTemplateBase.getJenkinsInstanceIdForContainerLabel();
     }
 
+    protected Node getNode(String nodeName) {
+        return Jenkins.get().getNode(nodeName);
+    }
+
     protected void removeNode(DockerTransientNode dtn) throws IOException {
         Jenkins.get().removeNode(dtn);
     }
 
+    protected long getCloudProcessingTimeoutInNanos() {
+        return CLOUD_PROCESSING_TIMEOUT_IN_NANOS;
+    }
+
+    protected int getMaxConcurrentClouds() {
+        return MAX_CONCURRENT_CLOUDS;
+    }
+
     protected boolean stopAndRemoveContainer(
             DockerAPI dockerApi,
             Logger aLogger,
@@ -105,7 +165,7 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
             String containerId,
             boolean stop) {
         return DockerTransientNode.stopAndRemoveContainer(
-                dockerApi, aLogger, description, removeVolumes, containerId, stop);
+                dockerApi, getReadTimeoutInSeconds(dockerApi), aLogger, description, removeVolumes, containerId, stop);
     }
 
     /*
@@ -131,31 +191,56 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
 
         executionStatistics.addExecution();
 
+        final Snapshot previous = previousSnapshot;
+        // if we don't get all the way through, the next run will have to check everything
+        previousSnapshot = Snapshot.EMPTY;
+
         Instant start = clock.instant();
         try {
             ContainerNodeNameMap csmMerged = new ContainerNodeNameMap();
 
             Instant snapshotInstance = clock.instant();
             Map<String, Node> nodeMap = loadNodeMap();
+            final Delta delta = new Delta(previous, nodeMap.keySet());
+
+            final List<DockerCloud> allClouds = getAllClouds();
+            forgetUnusedInventories(allClouds);
+            DockerWarmPool.retainOnly(allClouds);
 
             try {
-                for (DockerCloud dc : getAllClouds()) {
-                    String uri = dc.getDockerApi().getDockerHost().getUri();
-                    if (uri == null) {
-                        LOGGER.info("Skipping unconfigured Docker Cloud {}", dc.getDisplayName());
-                        continue; // currently declines to default it, contrary to getUri Javadoc
+                final Queue<CloudTask> cloudsToCheck = new ArrayDeque<>();
+                for (DockerCloud dc : allClouds) {
+                    // a cloud may have several docker hosts, each of which needs checking
+                    for (DockerAPI dockerApi : dc.getDockerApis()) {
+                        String uri = dockerApi.getDockerHost().getUri();
+                        if (uri == null) {
+                            LOGGER.info("Skipping unconfigured Docker Cloud {}", dc.getDisplayName());
+                            continue; // currently declines to default it, contrary to getUri Javadoc
+                        }
+
+                        LOGGER.debug("Checking Docker Cloud {} at {}", dc.getDisplayName(), uri);
+                        listener.getLogger()
+                                .println(String.format("Checking Docker Cloud %s", dc.getDisplayName()));
+
+                        cloudsToCheck.add(new CloudTask(dc, dockerApi, nodeMap, snapshotInstance, delta));
                     }
-
-                    LOGGER.debug("Checking Docker Cloud {} at {}", dc.getDisplayName(), uri);
-                    listener.getLogger().println(String.format("Checking Docker Cloud %s", dc.getDisplayName()));
-
-                    csmMerged = processCloud(dc, nodeMap, csmMerged, snapshotInstance);
                 }
 
+                csmMerged = checkClouds(cloudsToCheck, snapshotInstance);
+
                 if (csmMerged.isContainerListIncomplete()) {
                     LOGGER.info("Not checking the list of nodes, as list of containers is known to be incomplete");
                 } else {
-                    cleanUpSuperfluousComputer(nodeMap, csmMerged, snapshotInstance);
+                    final Instant cleanNodesStart = clock.instant();
+                    cleanUpSuperfluousComputer(nodeMap, csmMerged, snapshotInstance, delta);
+                    observePhase("clean_nodes", cleanNodesStart);
+                    previousSnapshot = delta.toSnapshot(csmMerged);
+                    LOGGER.debug(
+                            "Checked {} of {} containers and {} of {} nodes",
+                            delta.containersChecked,
+                            csmMerged.getAllContainers().size(),
+                            delta.nodesChecked,
+                            nodeMap.size());
                 }
             } catch (WatchdogProcessingTimeout timeout) {
                 LOGGER.warn(
@@ -172,6 +257,7 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         } finally {
             Instant stop = clock.instant();
             executionStatistics.addOverallRuntime(Duration.between(start, stop).toMillis());
+            observePhase("overall", start);
         }
 
         LOGGER.debug("Docker Container Watchdog check has been completed");
@@ -211,33 +297,195 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         return nodeMap;
     }
 
+    /**
+     * Ensures we don't keep listening to docker hosts that are no longer
+     * configured, and that we are listening to those that are.
+     */
+    private static void forgetUnusedInventories(List<DockerCloud> allClouds) {
+        final Set<DockerAPI> dockerApisInUse = new HashSet<>();
+        for (DockerCloud dc : allClouds) {
+            dockerApisInUse.addAll(dc.getDockerApis());
+        }
+        DockerContainerInventory.retainOnly(dockerApisInUse);
+        for (DockerAPI dockerApi : dockerApisInUse) {
+            final DockerContainerInventory inventory = DockerContainerInventory.forApi(dockerApi);
+            if (inventory != null) {
+                inventory.listenForEvents();
+            }
+        }
+    }
+
+    /**
+     * Gets the read timeout to use when talking to a docker host, so that a
+     * host that has stopped responding can't tie up one of our threads for
+     * longer than we'd wait for it anyway.
+     */
+    private static int getReadTimeoutInSeconds(DockerAPI dockerApi) {
+        final int configured = dockerApi.getReadTimeout();
+        final long ours = CLOUD_PROCESSING_TIMEOUT_IN_SECONDS;
+        return (int) (configured > 0 ? Math.min(configured, ours) : ours);
+    }
+
+    /**
+     * Creates the threads that check clouds. We limit how many clouds we check
+     * at once ourselves, rather than by the number of threads, so that a
+     * thread stuck talking to a hung docker host doesn't hold up the others:
+     * once we've given up on it, another thread takes its place.
+     */
+    private static ExecutorService createCloudExecutor() {
+        return new ThreadPoolExecutor(
+                0,
+                Integer.MAX_VALUE,
+                1L,
+                TimeUnit.MINUTES,
+                new SynchronousQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), DockerContainerWatchdog.class.getSimpleName()));
+    }
+
+    /**
+     * Checks each cloud, no more than {@link #getMaxConcurrentClouds()} at once,
+     * collecting the results as they complete and giving up on any cloud that
+     * takes too long.
+     *
+     * @return The merged results of all clouds, marked as incomplete if any
+     *         cloud couldn't be checked.
+     */
+    private ContainerNodeNameMap checkClouds(Queue<CloudTask> cloudsToCheck, Instant snapshotInstant)
+            throws InterruptedException {
+        final CompletionService<ContainerNodeNameMap> completionService =
+                new ExecutorCompletionService<>(CLOUD_EXECUTOR);
+        final Map<Future<ContainerNodeNameMap>, CloudTask> pendingClouds = new HashMap<>();
+        final int maxConcurrentClouds = getMaxConcurrentClouds();
+        final long cloudTimeoutInNanos = getCloudProcessingTimeoutInNanos();
+        ContainerNodeNameMap csmMerged = new ContainerNodeNameMap();
+        try {
+            while (!pendingClouds.isEmpty() || !cloudsToCheck.isEmpty()) {
+                while (pendingClouds.size() < maxConcurrentClouds && !cloudsToCheck.isEmpty()) {
+                    final CloudTask task = cloudsToCheck.remove();
+                    task.submittedNanos = System.nanoTime();
+                    pendingClouds.put(completionService.submit(task), task);
+                }
+                final Future<ContainerNodeNameMap> completed = completionService.poll(1L, TimeUnit.SECONDS);
+                final CloudTask completedTask = completed == null ? null : pendingClouds.remove(completed);
+                if (completedTask != null) {
+                    csmMerged = csmMerged.merge(getCloudResult(completed, completedTask));
+                }
+                final long now = System.nanoTime();
+                final Iterator<Map.Entry<Future<ContainerNodeNameMap>, CloudTask>> it =
+                        pendingClouds.entrySet().iterator();
+                while (it.hasNext()) {
+                    final Map.Entry<Future<ContainerNodeNameMap>, CloudTask> entry = it.next();
+                    if (entry.getValue().isOverdue(now, cloudTimeoutInNanos)) {
+                        LOGGER.warn(
+                                "Gave up checking DockerCloud [name={}, dockerURI={}] after {}s",
+                                entry.getValue().dc.getDisplayName(),
+                                entry.getValue().dockerApi.getDockerHost().getUri(),
+                                TimeUnit.NANOSECONDS.toSeconds(cloudTimeoutInNanos));
+                        entry.getKey().cancel(true);
+                        it.remove();
+                        csmMerged.setContainerListIncomplete(true);
+                    }
+                }
+                checkForTimeout(snapshotInstant);
+            }
+        } finally {
+            // if we're giving up, so are they
+            for (Future<ContainerNodeNameMap> pending : pendingClouds.keySet()) {
+                pending.cancel(true);
+            }
+        }
+        return csmMerged;
+    }
+
+    private static ContainerNodeNameMap getCloudResult(Future<ContainerNodeNameMap> completed, CloudTask task)
+            throws InterruptedException {
+        try {
+            return completed.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof WatchdogProcessingTimeout) {
+                throw (WatchdogProcessingTimeout) cause;
+            }
+            LOGGER.warn(
+                    "Unexpected failure while checking DockerCloud [name={}, dockerURI={}]",
+                    task.dc.getDisplayName(),
+                    task.dockerApi.getDockerHost().getUri(),
+                    cause);
+        } catch (CancellationException e) {
+            // we gave up on it
+        }
+        final ContainerNodeNameMap incomplete = new ContainerNodeNameMap();
+        incomplete.setContainerListIncomplete(true);
+        return incomplete;
+    }
+
+    /**
+     * Checks one docker host of one cloud, recording when we asked for it to
+     * be checked so we can tell if it's taking too long.
+     */
+    private final class CloudTask implements Callable<ContainerNodeNameMap> {
+        private final DockerCloud dc;
+        private final DockerAPI dockerApi;
+        private final Map<String, Node> nodeMap;
+        private final Instant snapshotInstant;
+        private final Delta delta;
+        /** {@link System#nanoTime()} when we submitted it to be run. */
+        private long submittedNanos;
+
+        CloudTask(
+                DockerCloud dc,
+                DockerAPI dockerApi,
+                Map<String, Node> nodeMap,
+                Instant snapshotInstant,
+                Delta delta) {
+            this.dc = dc;
+            this.dockerApi = dockerApi;
+            this.nodeMap = nodeMap;
+            this.snapshotInstant = snapshotInstant;
+            this.delta = delta;
+        }
+
+        @Override
+        public ContainerNodeNameMap call() {
+            return processCloud(dc, dockerApi, nodeMap, snapshotInstant, delta);
+        }
+
+        boolean isOverdue(long nowNanos, long timeoutInNanos) {
+            return nowNanos - submittedNanos > timeoutInNanos;
+        }
+    }
+
     private ContainerNodeNameMap processCloud(
-            DockerCloud dc, Map<String, Node> nodeMap, ContainerNodeNameMap csmMerged, Instant snapshotInstant) {
-        DockerAPI dockerApi = dc.getDockerApi();
+            DockerCloud dc, DockerAPI dockerApi, Map<String, Node> nodeMap, Instant snapshotInstant, Delta delta) {
+        ContainerNodeNameMap result = new ContainerNodeNameMap();
 
-        try (final DockerClient client = dockerApi.getClient()) {
-            ContainerNodeNameMap csm = retrieveContainers(dc, client);
+        try (final DockerClient client = dockerApi.getClient(getReadTimeoutInSeconds(dockerApi))) {
+            ContainerNodeNameMap csm = retrieveContainers(dc, dockerApi, delta);
 
             DockerDisabled dcDisabled = dc.getDisabled();
             if (dcDisabled.isDisabled()) {
                 LOGGER.debug(
                         "Will not cleanup superfluous containers on DockerCloud [name={}, dockerURI={}], as it is disabled",
                         dc.getDisplayName(),
-                        dc.getDockerApi().getDockerHost().getUri());
+                        dockerApi.getDockerHost().getUri());
+                // we haven't checked them, so we'll need to once it's enabled again
+                delta.unresolvedContainerIds.addAll(csm.getAllContainerIds());
             } else {
-                cleanUpSuperfluousContainers(client, nodeMap, csm, dc, snapshotInstant);
+                final Instant cleanContainersStart = clock.instant();
+                cleanUpSuperfluousContainers(client, nodeMap, csm, dockerApi, snapshotInstant, delta);
+                observePhase("clean_containers", cleanContainersStart);
             }
 
-            csmMerged = csmMerged.merge(csm);
+            result = csm;
         } catch (IOException e) {
             LOGGER.warn(
                     "Failed to properly close a DockerClient instance after reading the list of containers and cleaning them up; ignoring",
                     e);
         } catch (ContainersRetrievalException handledByCode) {
-            csmMerged.setContainerListIncomplete(true);
+            result.setContainerListIncomplete(true);
         }
 
-        return csmMerged;
+        return result;
     }
 
     private static class ContainersRetrievalException extends Exception {
@@ -246,7 +494,7 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         }
     }
 
-    private ContainerNodeNameMap retrieveContainers(DockerCloud dc, DockerClient client)
+    private ContainerNodeNameMap retrieveContainers(DockerCloud dc, DockerAPI dockerApi, Delta delta)
             throws ContainersRetrievalException {
         /*
          * Note:
@@ -262,6 +510,9 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
          * This means that we could find a container via a different DockerClient to the
          * one from which it was created, and therefore we need to ensure that we do
          * not make any assumptions about its origin.
+         *
+         * It also means that clouds which share a docker instance (and credentials)
+         * would all get the same answer, so they share a single listing per run.
          */
         Map<String, String> labelFilter = new HashMap<>();
 
@@ -273,21 +524,29 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
 
         try {
             List<Container> containerList = null;
+            long listingStartedNanos;
             try {
-                containerList = client.listContainersCmd()
-                        .withShowAll(true)
-                        .withLabelFilter(labelFilter)
-                        .exec();
+                final DockerContainerListings.Listing listing =
+                        DockerContainerListings.list(
+                        dockerApi, labelFilter, true, delta.runStartedNanos, getReadTimeoutInSeconds(dockerApi));
+                containerList = listing.getContainers();
+                listingStartedNanos = listing.getStartedNanos();
             } catch (Exception e) {
                 LOGGER.warn(
                         "Unable to retrieve list of containers available on DockerCloud [name={}, dockerURI={}] while reading list of containers (showAll=true, labelFilters={})",
                         dc.getDisplayName(),
-                        dc.getDockerApi().getDockerHost().getUri(),
+                        dockerApi.getDockerHost().getUri(),
                         labelFilter.toString(),
                         e);
                 throw new ContainersRetrievalException(e);
             }
 
+            // we've got a complete listing, so we might as well use it to keep the inventory accurate
+            final DockerContainerInventory inventory = DockerContainerInventory.forApi(dockerApi);
+            if (inventory != null) {
+                inventory.replaceWith(containerList, listingStartedNanos);
+            }
+
             for (Container container : containerList) {
                 String containerId = container.getId();
                 String status = container.getStatus();
@@ -320,6 +579,7 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
             Instant stop = clock.instant();
             executionStatistics.addRetrieveContainerRuntime(
                     Duration.between(start, stop).toMillis());
+            observePhase("retrieve_containers", start);
         }
 
         return result;
@@ -329,20 +589,35 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
             DockerClient client,
             Map<String, Node> nodeMap,
             ContainerNodeNameMap csm,
-            DockerCloud dc,
-            Instant snapshotInstant) {
+            DockerAPI dockerApi,
+            Instant snapshotInstant,
+            Delta delta) {
         Collection<Container> allContainers = csm.getAllContainers();
 
         for (Container container : allContainers) {
             final String containerId = container.getId();
             String nodeName = csm.getNodeName(containerId);
 
+            if (!delta.isContainerToBeChecked(containerId, nodeName)) {
+                // it was fine last time, and neither it nor its node has changed since => ok
+                continue;
+            }
+            delta.containersChecked.incrementAndGet();
+
             Node node = nodeMap.get(nodeName);
             if (node != null) {
                 // the node and the container still have a proper mapping => ok
                 continue;
             }
 
+            // whatever happens next, we need to look at this container again next time
+            delta.unresolvedContainerIds.add(containerId);
+
+            if (DockerWarmPool.isStandbyContainer(containerId)) {
+                // the container is waiting in a warm pool for its node to be created => ok
+                continue;
+            }
+
             /*
              * During startup it may happen temporarily that a container exists, but the
              * corresponding node isn't there yet.
@@ -356,6 +631,11 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
 
             checkForTimeout(snapshotInstant);
 
+            if (!delta.claimContainer(dockerApi, containerId)) {
+                // another cloud using the same docker host has already dealt with it
+                continue;
+            }
+
             // this is a container, which is missing a corresponding node with us
             LOGGER.info(
                     "Container {}, which is reported to be assigned to node {}, "
@@ -367,7 +647,7 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
                     containerCreated);
 
             try {
-                terminateContainer(dc, client, container);
+                terminateContainer(dockerApi, client, container);
             } catch (Exception e) {
                 // Graceful termination failed; we need to use some force
                 LOGGER.warn("Graceful termination of Container {} failed", containerId, e);
@@ -393,10 +673,10 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         return untilMayBeCleanedUp.isNegative();
     }
 
-    private void terminateContainer(DockerCloud dc, DockerClient client, Container container) {
+    private void terminateContainer(DockerAPI dockerApi, DockerClient client, Container container) {
         boolean gracefulFailed = false;
         try {
-            terminateContainerGracefully(dc, container);
+            terminateContainerGracefully(dockerApi, container);
         } catch (TerminationException handledByCode) {
             gracefulFailed = true;
         } catch (ContainerIsTaintedException e) {
@@ -430,7 +710,7 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         }
     }
 
-    private void terminateContainerGracefully(DockerCloud dc, Container container)
+    private void terminateContainerGracefully(DockerAPI dockerApi, Container container)
             throws TerminationException, ContainerIsTaintedException {
         String containerId = container.getId();
 
@@ -445,7 +725,7 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
          * the situation could have changed in the meantime)
          */
         final String nodeName = containerLabels.get(DockerContainerLabelKeys.NODE_NAME);
-        if (nodeExistsBypassingCache(nodeName)) {
+        if (getNode(nodeName) != null) {
             LOGGER.warn(
                     "Was going to terminate container ID {}, but a node for it has appeared so it does not need removing now.",
                     container.getId());
@@ -468,7 +748,6 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
             containerRunning = false;
         }
 
-        DockerAPI dockerApi = dc.getDockerApi();
         Instant start = clock.instant();
         boolean success = stopAndRemoveContainer(
                 dockerApi,
@@ -488,30 +767,22 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         }
     }
 
-    private boolean nodeExistsBypassingCache(String nodeName) {
-        /* Note:
-         * we are using "getAllNodes()" here to prevent that
-         * we need yet another method to overwrite for our unit tests
-         */
-        for (Node node : getAllNodes()) {
-            if (nodeName.equals(node.getNodeName())) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private void cleanUpSuperfluousComputer(
-            Map<String, Node> nodeMap, ContainerNodeNameMap csmMerged, Instant snapshotInstant) {
+            Map<String, Node> nodeMap, ContainerNodeNameMap csmMerged, Instant snapshotInstant, Delta delta) {
         for (Node node : nodeMap.values()) {
             if (!(node instanceof DockerTransientNode)) {
                 // this node does not belong to us
                 continue;
             }
 
-            checkForTimeout(snapshotInstant);
-
             DockerTransientNode dtn = (DockerTransientNode) node;
+            if (!delta.isNodeToBeChecked(dtn, csmMerged)) {
+                // it was fine last time, and neither it nor its container has changed since => ok
+                continue;
+            }
+            delta.nodesChecked.incrementAndGet();
+
+            checkForTimeout(snapshotInstant);
 
             /*
              * Important note!
@@ -543,6 +814,9 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
                 continue;
             }
 
+            // whatever happens next, we need to look at this node again next time
+            delta.unresolvedNodeNames.add(dtn.getNodeName());
+
             SlaveComputer computer = dtn.getComputer();
             if (computer == null) {
                 // Probably the node is being closed down right now, so we shouldn't touch it.
@@ -570,6 +844,11 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         }
     }
 
+    private void observePhase(String phase, Instant start) {
+        DockerMetrics.WATCHDOG_PHASE.observeNanos(
+                Duration.between(start, clock.instant()).toNanos(), phase);
+    }
+
     private void checkForTimeout(Instant startedTimestamp) {
         final Instant now = clock.instant();
         Duration runtime = Duration.between(startedTimestamp, now);
@@ -579,8 +858,100 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         }
     }
 
+    /**
+     * What a run of the watchdog saw: every container and node, and which of
+     * them it couldn't reconcile.
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(Set.of(), Set.of(), Set.of(), Set.of());
+
+        private final Set<String> containerIds;
+        private final Set<String> nodeNames;
+        private final Set<String> unresolvedContainerIds;
+        private final Set<String> unresolvedNodeNames;
+
+        Snapshot(
+                Set<String> containerIds,
+                Set<String> nodeNames,
+                Set<String> unresolvedContainerIds,
+                Set<String> unresolvedNodeNames) {
+            this.containerIds = containerIds;
+            this.nodeNames = nodeNames;
+            this.unresolvedContainerIds = unresolvedContainerIds;
+            this.unresolvedNodeNames = unresolvedNodeNames;
+        }
+    }
+
+    /**
+     * Works out what has changed since the previous {@link Snapshot}, and
+     * collects what we couldn't reconcile on this run.
+     * <p>
+     * A container only needs checking if it is new, wasn't reconciled last
+     * time, or its node has gone. Likewise, a node only needs checking if it
+     * is new, wasn't reconciled last time, or its container has gone.
+     * Anything else was fine last time and still is.
+     * </p>
+     */
+    private static final class Delta {
+        /** {@link System#nanoTime()} when this run started; listings from before then are no use to us. */
+        private final long runStartedNanos = System.nanoTime();
+
+        private final Snapshot previous;
+        private final Set<String> currentNodeNames;
+        private final Set<String> removedNodeNames;
+        private final Set<String> unresolvedContainerIds = ConcurrentHashMap.newKeySet();
+        private final Set<String> unresolvedNodeNames = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger containersChecked = new AtomicInteger();
+        private final AtomicInteger nodesChecked = new AtomicInteger();
+        /** The containers we've decided to remove, per docker host, so each is removed only once. */
+        private final Map<DockerEndpointKey, Set<String>> claimedContainerIds = new ConcurrentHashMap<>();
+
+        Delta(Snapshot previous, Set<String> currentNodeNames) {
+            this.previous = previous;
+            this.currentNodeNames = Set.copyOf(currentNodeNames);
+            this.removedNodeNames = new HashSet<>(previous.nodeNames);
+            this.removedNodeNames.removeAll(this.currentNodeNames);
+        }
+
+        boolean isContainerToBeChecked(String containerId, String nodeName) {
+            return !previous.containerIds.contains(containerId)
+                    || previous.unresolvedContainerIds.contains(containerId)
+                    || removedNodeNames.contains(nodeName);
+        }
+
+        /**
+         * Clouds that share a docker host see the same containers, and are
+         * checked concurrently, so only the first to ask gets to remove any
+         * given container.
+         *
+         * @return true if the caller should remove the container.
+         */
+        boolean claimContainer(DockerAPI dockerApi, String containerId) {
+            return claimedContainerIds
+                    .computeIfAbsent(DockerEndpointKey.of(dockerApi), k -> ConcurrentHashMap.newKeySet())
+                    .add(containerId);
+        }
+
+        boolean isNodeToBeChecked(DockerTransientNode node, ContainerNodeNameMap csmMerged) {
+            final String nodeName = node.getNodeName();
+            return !previous.nodeNames.contains(nodeName)
+                    || previous.unresolvedNodeNames.contains(nodeName)
+                    || !csmMerged.isContainerIdRegistered(node.getContainerId());
+        }
+
+        Snapshot toSnapshot(ContainerNodeNameMap csmMerged) {
+            return new Snapshot(
+                    csmMerged.getAllContainerIds(),
+                    currentNodeNames,
+                    Set.copyOf(unresolvedContainerIds),
+                    Set.copyOf(unresolvedNodeNames));
+        }
+    }
+
     /**
      * Stores the internal statistics.
+     * <p>
+     * Note: Clouds are checked concurrently, so this must be thread-safe.
      */
     private static class Statistics {
         private long executions;
@@ -596,7 +967,7 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         private long retrieveContainersRuntime;
         private long retrieveContainersCalls;
 
-        public void writeStatisticsToLog() {
+        public synchronized void writeStatisticsToLog() {
             LOGGER.debug(
                     "Watchdog Statistics: "
                             + "Number of overall executions: {}, "
@@ -623,67 +994,67 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
                     getAverageRetrieveContainerRuntime());
         }
 
-        private void addExecution() {
+        private synchronized void addExecution() {
             executions++;
         }
 
-        private void addContainerRemovalGracefully(long runtime) {
+        private synchronized void addContainerRemovalGracefully(long runtime) {
             containersRemovedGracefully++;
             containersRemovedGracefullyRuntimeSum += runtime;
         }
 
-        private void addContainerRemovalForce(long runtime) {
+        private synchronized void addContainerRemovalForce(long runtime) {
             containersRemovedForce++;
             containersRemovedForceRuntimeSum += runtime;
         }
 
-        private void addContainerRemovalFailed() {
+        private synchronized void addContainerRemovalFailed() {
             containersRemovedFailed++;
         }
 
-        private void addNodeRemoved() {
+        private synchronized void addNodeRemoved() {
             nodesRemoved++;
         }
 
-        private void addNodeRemovedFailed() {
+        private synchronized void addNodeRemovedFailed() {
             nodesRemovedFailed++;
         }
 
-        private void addProcessingTimeout() {
+        private synchronized void addProcessingTimeout() {
             processingTimeout++;
         }
 
-        private void addOverallRuntime(long runtime) {
+        private synchronized void addOverallRuntime(long runtime) {
             overallRuntime += runtime;
         }
 
-        private void addRetrieveContainerRuntime(long runtime) {
+        private synchronized void addRetrieveContainerRuntime(long runtime) {
             retrieveContainersRuntime += runtime;
             retrieveContainersCalls++;
         }
 
-        private String getAverageOverallRuntime() {
+        private synchronized String getAverageOverallRuntime() {
             if (executions == 0) {
                 return "0";
             }
             return Long.toString(overallRuntime / executions);
         }
 
-        private String getContainerRemovalAverageDurationForce() {
+        private synchronized String getContainerRemovalAverageDurationForce() {
             if (containersRemovedForce == 0) {
                 return "0";
             }
             return Long.toString(containersRemovedForceRuntimeSum / containersRemovedForce);
         }
 
-        private String getContainerRemovalAverageDurationGracefully() {
+        private synchronized String getContainerRemovalAverageDurationGracefully() {
             if (containersRemovedGracefully == 0) {
                 return "0";
             }
             return Long.toString(containersRemovedGracefullyRuntimeSum / containersRemovedGracefully);
         }
 
-        private String getAverageRetrieveContainerRuntime() {
+        private synchronized String getAverageRetrieveContainerRuntime() {
             if (retrieveContainersCalls == 0) {
                 return "0";
             }
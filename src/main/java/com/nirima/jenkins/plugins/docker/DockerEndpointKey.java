@@ -0,0 +1,67 @@
+package com.nirima.jenkins.plugins.docker;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.Objects;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Identifies a docker daemon as we see it: its URI and the credentials we use
+ * to talk to it.
+ * <p>
+ * Several {@link DockerCloud}s (e.g. with different templates, limits or
+ * timeouts) may point at the same daemon with the same credentials, in which
+ * case they all see the same containers and can share anything we learn about
+ * them.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerEndpointKey {
+    @CheckForNull
+    private final String uri;
+
+    @CheckForNull
+    private final String credentialsId;
+
+    DockerEndpointKey(@CheckForNull String uri, @CheckForNull String credentialsId) {
+        this.uri = uri;
+        this.credentialsId = credentialsId;
+    }
+
+    /**
+     * Gets the key for a docker host.
+     *
+     * @param dockerApi The docker host.
+     * @return Its key.
+     */
+    @NonNull
+    public static DockerEndpointKey of(@NonNull DockerAPI dockerApi) {
+        final DockerServerEndpoint dockerHost = dockerApi.getDockerHost();
+        return new DockerEndpointKey(dockerHost.getUri(), dockerHost.getCredentialsId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(uri, credentialsId);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final DockerEndpointKey other = (DockerEndpointKey) obj;
+        return Objects.equals(uri, other.uri) && Objects.equals(credentialsId, other.credentialsId);
+    }
+
+    @Override
+    public String toString() {
+        return "DockerEndpointKey{uri=" + uri + ", credentialsId=" + credentialsId + '}';
+    }
+}
@@ -0,0 +1,368 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Image;
+import com.github.dockerjava.api.model.Info;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides which of the docker hosts of a {@link DockerMultiHostCloud} a new
+ * container should go on.
+ * <p>
+ * Each host is scored on how loaded it is (the containers running on it,
+ * including any we're still provisioning there, relative to its CPUs and
+ * memory as reported by <code>docker info</code>), how long provisioning on
+ * it has been taking recently, and whether it already has the image. The
+ * lowest score wins. Hosts that are at their container cap are skipped, as
+ * are hosts that have recently failed too often or that we can't talk to.
+ * </p>
+ * <p>
+ * What we know about each host is kept per {@link DockerEndpointKey}, so
+ * clouds that share a docker host share what we know about it.
+ * </p>
+ */
+class DockerHostScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerHostScheduler.class);
+
+    static final DockerHostScheduler INSTANCE = new DockerHostScheduler();
+
+    /** How long we trust what <code>docker info</code> told us. */
+    private static final long HOST_INFO_TTL_IN_NANOS = TimeUnit.SECONDS.toNanos(JenkinsUtils.getSystemPropertyLong(
+            DockerHostScheduler.class.getName() + ".hostInfoCacheSeconds", 30L));
+
+    /** How many provisioning failures in a row make us stop using a host for a while. */
+    private static final long FAILURES_BEFORE_EXCLUSION = JenkinsUtils.getSystemPropertyLong(
+            DockerHostScheduler.class.getName() + ".failuresBeforeExclusion", 3L);
+
+    /** Weight given to the latest provisioning duration in the moving average. */
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    /** Provisioning duration that doubles a host's score. */
+    private static final double LATENCY_SCALE_IN_MILLIS = 10_000.0;
+
+    /** Factor applied to a host's score if it'll have to pull the image. */
+    private static final double IMAGE_MISSING_PENALTY = 1.5;
+
+    private static final double BYTES_PER_GIB = 1024.0 * 1024.0 * 1024.0;
+
+    private final Map<DockerEndpointKey, HostState> states = new ConcurrentHashMap<>();
+
+    DockerHostScheduler() {}
+
+    /**
+     * Chooses a host for a new container and reserves a slot on it. The
+     * caller must call {@link #release(DockerAPI, boolean, long, long)} once
+     * provisioning has finished.
+     *
+     * @param hosts The hosts to choose from.
+     * @param image The image the container will run.
+     * @param unhealthyMillis How long to stop using a host for if we can't
+     *            talk to it.
+     * @return The chosen host, or null if none of them can take another
+     *         container.
+     */
+    @CheckForNull
+    DockerCloudHost reserve(@NonNull List<DockerCloudHost> hosts, @NonNull String image, long unhealthyMillis) {
+        final long now = readTimeNowInNanoseconds();
+        // ask docker before we take the lock, as that may take a while
+        final List<Candidate> candidates = new ArrayList<>(hosts.size());
+        for (final DockerCloudHost host : hosts) {
+            final DockerAPI api = host.getDockerApi();
+            final HostState state = stateOf(api);
+            if (state.isExcluded(now)) {
+                LOGGER.debug("Not considering {} as it is currently excluded", uriOf(api));
+                continue;
+            }
+            final HostSnapshot snapshot = state.snapshot;
+            if (snapshot == null || now - snapshot.takenNanos >= HOST_INFO_TTL_IN_NANOS) {
+                requestSnapshot(api, state, unhealthyMillis);
+            }
+            final int running;
+            try {
+                running = countRunningContainers(api);
+            } catch (Exception ex) {
+                LOGGER.warn("Unable to count containers on {}; excluding it for {}ms", uriOf(api), unhealthyMillis, ex);
+                state.exclude(now, unhealthyMillis);
+                continue;
+            }
+            final boolean imagePresent = isImagePresent(api, snapshot, image);
+            candidates.add(new Candidate(host, state, snapshot, running, imagePresent));
+        }
+        // inProgress is only ever incremented while holding this lock, so the
+        // caps can't be exceeded by concurrent reservations
+        synchronized (this) {
+            Candidate best = null;
+            double bestScore = Double.MAX_VALUE;
+            for (final Candidate c : candidates) {
+                final int inProgress = c.state.inProgress.get();
+                if (c.running + inProgress >= c.host.getEffectiveContainerCap()) {
+                    LOGGER.debug("Not considering {} as it is at its container cap", uriOf(c.host.getDockerApi()));
+                    continue;
+                }
+                final double score = c.score(inProgress);
+                if (best == null || score < bestScore) {
+                    best = c;
+                    bestScore = score;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            best.state.inProgress.incrementAndGet();
+            LOGGER.debug(
+                    "Chose {} (score {}) for a container of {}", uriOf(best.host.getDockerApi()), bestScore, image);
+            return best.host;
+        }
+    }
+
+    /**
+     * Records that provisioning on a host chosen by
+     * {@link #reserve(List, String, long)} has finished.
+     *
+     * @param api The host.
+     * @param succeeded Whether provisioning succeeded.
+     * @param durationInNanos How long provisioning took.
+     * @param unhealthyMillis How long to stop using the host for if it keeps
+     *            failing.
+     */
+    void release(@NonNull DockerAPI api, boolean succeeded, long durationInNanos, long unhealthyMillis) {
+        final HostState state = stateOf(api);
+        state.inProgress.decrementAndGet();
+        if (succeeded) {
+            state.recordSuccess(durationInNanos);
+        } else if (state.recordFailure() && unhealthyMillis > 0L) {
+            LOGGER.warn(
+                    "Provisioning on {} failed {} times in a row; excluding it for {}ms",
+                    uriOf(api),
+                    FAILURES_BEFORE_EXCLUSION,
+                    unhealthyMillis);
+            state.exclude(readTimeNowInNanoseconds(), unhealthyMillis);
+        }
+    }
+
+    /**
+     * Scores a host; lower is better.
+     *
+     * @param containers How many containers are (or will soon be) running on
+     *            it.
+     * @param cpus How many CPUs it has, or zero if not known.
+     * @param memTotalBytes How much memory it has, or zero if not known.
+     * @param latencyMillis How long provisioning on it has recently taken.
+     * @param imagePresent Whether it already has the image.
+     * @return The score.
+     */
+    static double score(int containers, int cpus, long memTotalBytes, double latencyMillis, boolean imagePresent) {
+        double capacity = cpus > 0 ? cpus : 1.0;
+        if (memTotalBytes > 0L) {
+            capacity = Math.min(capacity, memTotalBytes / BYTES_PER_GIB);
+        }
+        capacity = Math.max(1.0, capacity);
+        double score = (containers + 1) / capacity;
+        score *= 1.0 + latencyMillis / LATENCY_SCALE_IN_MILLIS;
+        if (!imagePresent) {
+            score *= IMAGE_MISSING_PENALTY;
+        }
+        return score;
+    }
+
+    // Test accessors
+
+    /** Counts the containers of ours that are running on a host. */
+    int countRunningContainers(@NonNull DockerAPI api) throws Exception {
+        return DockerCloud.countRunningContainers(api, null);
+    }
+
+    /** Asks a host about itself. */
+    @NonNull
+    HostSnapshot readSnapshot(@NonNull DockerAPI api) throws Exception {
+        try (DockerClient client = api.getClient()) {
+            final Info info = client.infoCmd().exec();
+            final Set<String> images = new HashSet<>();
+            for (final Image i : client.listImagesCmd().exec()) {
+                final String[] repoTags = i.getRepoTags();
+                if (repoTags != null) {
+                    images.addAll(Arrays.asList(repoTags));
+                }
+            }
+            return new HostSnapshot(
+                    readTimeNowInNanoseconds(),
+                    zeroIfNull(info.getNCPU()),
+                    info.getMemTotal() == null ? 0L : info.getMemTotal(),
+                    zeroIfNull(info.getContainersRunning()),
+                    images);
+        }
+    }
+
+    /** Runs a background task. */
+    void runInBackground(@NonNull Runnable task) {
+        Computer.threadPoolForRemoting.submit(task);
+    }
+
+    long readTimeNowInNanoseconds() {
+        return System.nanoTime();
+    }
+
+    // Implementation
+
+    @NonNull
+    private HostState stateOf(@NonNull DockerAPI api) {
+        return states.computeIfAbsent(DockerEndpointKey.of(api), k -> new HostState());
+    }
+
+    private void requestSnapshot(final DockerAPI api, final HostState state, final long unhealthyMillis) {
+        if (!state.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        runInBackground(() -> {
+            try {
+                state.snapshot = readSnapshot(api);
+            } catch (Exception ex) {
+                LOGGER.warn("Unable to get info from {}; excluding it for {}ms", uriOf(api), unhealthyMillis, ex);
+                state.exclude(readTimeNowInNanoseconds(), unhealthyMillis);
+            } finally {
+                state.refreshing.set(false);
+            }
+        });
+    }
+
+    private static boolean isImagePresent(DockerAPI api, @CheckForNull HostSnapshot snapshot, String image) {
+        if (DockerImageFreshnessCache.getIfFresh(api, image, Long.MAX_VALUE) != null) {
+            return true;
+        }
+        return snapshot != null && snapshot.images.contains(image);
+    }
+
+    private static String uriOf(DockerAPI api) {
+        return api.getDockerHost().getUri();
+    }
+
+    private static int zeroIfNull(@CheckForNull Integer i) {
+        return i == null ? 0 : i;
+    }
+
+    /** What <code>docker info</code> (and friends) told us about a host. */
+    static final class HostSnapshot {
+        final long takenNanos;
+        final int cpus;
+        final long memTotalBytes;
+        final int containersRunning;
+        final Set<String> images;
+
+        HostSnapshot(long takenNanos, int cpus, long memTotalBytes, int containersRunning, Set<String> images) {
+            this.takenNanos = takenNanos;
+            this.cpus = cpus;
+            this.memTotalBytes = memTotalBytes;
+            this.containersRunning = containersRunning;
+            this.images = Collections.unmodifiableSet(images);
+        }
+    }
+
+    /** What we know about a host. */
+    private static final class HostState {
+        /** Containers we've chosen to put here that haven't finished provisioning. */
+        final AtomicInteger inProgress = new AtomicInteger();
+
+        /** Set while {@link #snapshot} is being refreshed. */
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        @CheckForNull
+        volatile HostSnapshot snapshot;
+
+        /** {@link System#nanoTime()} until which we're not using this host, or null if we are. */
+        @CheckForNull
+        private volatile Long excludedUntilNanosOrNull;
+
+        /** Moving average of how long provisioning takes. Guarded by this. */
+        private double latencyMillis;
+
+        /** Guarded by this. */
+        private int consecutiveFailures;
+
+        boolean isExcluded(long now) {
+            final Long until = excludedUntilNanosOrNull;
+            return until != null && now - until < 0L;
+        }
+
+        void exclude(long now, long millis) {
+            if (millis > 0L) {
+                excludedUntilNanosOrNull = now + TimeUnit.MILLISECONDS.toNanos(millis);
+            }
+        }
+
+        synchronized void recordSuccess(long durationInNanos) {
+            final double millis = durationInNanos / 1_000_000.0;
+            if (latencyMillis == 0.0) {
+                latencyMillis = millis;
+            } else {
+                latencyMillis += LATENCY_SMOOTHING * (millis - latencyMillis);
+            }
+            consecutiveFailures = 0;
+        }
+
+        /** @return true if the host has now failed too many times in a row. */
+        synchronized boolean recordFailure() {
+            if (++consecutiveFailures >= FAILURES_BEFORE_EXCLUSION) {
+                consecutiveFailures = 0;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized double getLatencyMillis() {
+            return latencyMillis;
+        }
+    }
+
+    /** A host we could put the container on. */
+    private static final class Candidate {
+        final DockerCloudHost host;
+        final HostState state;
+
+        @CheckForNull
+        final HostSnapshot snapshot;
+
+        final int running;
+        final boolean imagePresent;
+
+        Candidate(
+                DockerCloudHost host,
+                HostState state,
+                @CheckForNull HostSnapshot snapshot,
+                int running,
+                boolean imagePresent) {
+            this.host = host;
+            this.state = state;
+            this.snapshot = snapshot;
+            this.running = running;
+            this.imagePresent = imagePresent;
+        }
+
+        double score(int inProgress) {
+            // docker may know of containers that aren't ours
+            final int containers = Math.max(running, snapshot == null ? 0 : snapshot.containersRunning) + inProgress;
+            return DockerHostScheduler.score(
+                    containers,
+                    snapshot == null ? 0 : snapshot.cpus,
+                    snapshot == null ? 0L : snapshot.memTotalBytes,
+                    state.getLatencyMillis(),
+                    imagePresent);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.command.InspectImageResponse;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers, per docker host (see {@link DockerEndpointKey}), when we last
+ * pulled each image and what that pull resolved to, so that templates using
+ * {@link DockerImagePullStrategy#PULL_IF_STALE} pull at most once per TTL and
+ * don't need to talk to docker at all about the image while it's fresh.
+ */
+final class DockerImageFreshnessCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerImageFreshnessCache.class);
+
+    /** Docker host to image name to what we know about it. */
+    private static final Map<DockerEndpointKey, Map<String, Entry>> ENTRIES = new ConcurrentHashMap<>();
+
+    private DockerImageFreshnessCache() {}
+
+    /**
+     * Looks up an image that we pulled recently.
+     *
+     * @param dockerApi The docker host.
+     * @param image The image.
+     * @param ttlInMilliseconds How long ago the pull may have been.
+     * @return The image as it was inspected after the last pull, or null if
+     *         we haven't pulled it within the TTL.
+     */
+    @CheckForNull
+    static InspectImageResponse getIfFresh(
+            @NonNull DockerAPI dockerApi, @NonNull String image, long ttlInMilliseconds) {
+        final Map<String, Entry> imagesOnHost = ENTRIES.get(DockerEndpointKey.of(dockerApi));
+        final Entry entry = imagesOnHost == null ? null : imagesOnHost.get(image);
+        if (entry == null) {
+            return null;
+        }
+        final long ageInNanos = System.nanoTime() - entry.pulledAtNanos;
+        if (ageInNanos >= TimeUnit.MILLISECONDS.toNanos(ttlInMilliseconds)) {
+            return null;
+        }
+        return entry.inspection;
+    }
+
+    /**
+     * Records that we've just pulled an image.
+     *
+     * @param dockerApi The docker host.
+     * @param image The image.
+     * @param inspection The result of inspecting the image after the pull.
+     */
+    static void record(
+            @NonNull DockerAPI dockerApi, @NonNull String image, @NonNull InspectImageResponse inspection) {
+        final Entry latest = new Entry(System.nanoTime(), inspection);
+        final Entry previous = ENTRIES.computeIfAbsent(DockerEndpointKey.of(dockerApi), k -> new ConcurrentHashMap<>())
+                .put(image, latest);
+        if (previous != null && !Objects.equals(previous.getDigest(), latest.getDigest())) {
+            LOGGER.info(
+                    "Image '{}' on {} changed from {} to {}",
+                    image,
+                    dockerApi.getDockerHost().getUri(),
+                    previous.getDigest(),
+                    latest.getDigest());
+        }
+    }
+
+    /**
+     * Forgets what we know about an image, e.g. because we failed to use it
+     * and hence don't trust what we know about it.
+     *
+     * @param dockerApi The docker host.
+     * @param image The image.
+     */
+    static void invalidate(@NonNull DockerAPI dockerApi, @NonNull String image) {
+        final Map<String, Entry> imagesOnHost = ENTRIES.get(DockerEndpointKey.of(dockerApi));
+        if (imagesOnHost != null) {
+            imagesOnHost.remove(image);
+        }
+    }
+
+    private static final class Entry {
+        private final long pulledAtNanos;
+        private final InspectImageResponse inspection;
+
+        private Entry(long pulledAtNanos, InspectImageResponse inspection) {
+            this.pulledAtNanos = pulledAtNanos;
+            this.inspection = inspection;
+        }
+
+        /** The image ID is the digest of the image's config, so it changes whenever the image does. */
+        @CheckForNull
+        private String getDigest() {
+            return inspection.getId();
+        }
+    }
+}
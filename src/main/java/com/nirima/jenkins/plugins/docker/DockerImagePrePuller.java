@@ -0,0 +1,213 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.metrics.DockerMetrics;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodic job which pulls the images of all enabled {@link DockerTemplate}s
+ * onto their docker hosts in the background, so that the pull done by
+ * {@link DockerTemplate#provisionNode} finds the image already up to date
+ * instead of making the new agent wait for it.
+ * <p>
+ * Each template's {@link DockerImagePullStrategy} decides whether its image
+ * needs pulling. Pulls on any one docker host happen one at a time, and only a
+ * limited number of them are done per run, so we don't swamp a host (or its
+ * registry) with pulls.
+ * </p>
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class DockerImagePrePuller extends AsyncPeriodicWork {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerImagePrePuller.class);
+
+    private static final long RECURRENCE_PERIOD_IN_MS = JenkinsUtils.getSystemPropertyLong(
+                    DockerImagePrePuller.class.getName() + ".recurrenceInSeconds", 15L * 60L)
+            * 1000L;
+
+    private static final boolean ENABLED =
+            JenkinsUtils.getSystemPropertyBoolean(DockerImagePrePuller.class.getName() + ".enabled", true);
+
+    /** The most images we'll pull on any one docker host during one run. */
+    private static final long MAX_PULLS_PER_HOST_PER_RUN = JenkinsUtils.getSystemPropertyLong(
+            DockerImagePrePuller.class.getName() + ".maxPullsPerHostPerRun", 4L);
+
+    /** URIs of the docker hosts we're currently pre-pulling images on. */
+    private static final Set<String> HOSTS_BEING_PRE_PULLED = ConcurrentHashMap.newKeySet();
+
+    public DockerImagePrePuller() {
+        super(String.format("%s Asynchronous Periodic Work", DockerImagePrePuller.class.getSimpleName()));
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD_IN_MS;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        if (!ENABLED) {
+            return;
+        }
+        for (final HostWork work : findImagesToPrePull(DockerCloud.instances()).values()) {
+            if (!HOSTS_BEING_PRE_PULLED.add(work.dockerUri)) {
+                LOGGER.debug("Not pre-pulling images on {} as the previous run is still busy", work.dockerUri);
+                continue;
+            }
+            boolean queued = false;
+            try {
+                Computer.threadPoolForRemoting.submit(() -> prePullImagesOnHost(work));
+                queued = true;
+            } finally {
+                if (!queued) {
+                    HOSTS_BEING_PRE_PULLED.remove(work.dockerUri);
+                }
+            }
+        }
+    }
+
+    /**
+     * Works out which images each docker host should have. A cloud with
+     * several docker hosts wants its images on all of them.
+     *
+     * @param clouds All the clouds currently configured.
+     * @return The work to do, indexed by docker host URI.
+     */
+    @NonNull
+    static Map<String, HostWork> findImagesToPrePull(Collection<DockerCloud> clouds) {
+        final Map<String, HostWork> result = new LinkedHashMap<>();
+        for (final DockerCloud cloud : clouds) {
+            if (cloud.getDisabled().isDisabled()) {
+                continue;
+            }
+            for (final DockerAPI api : cloud.getDockerApis()) {
+                final String dockerUri = api.getDockerHost().getUri();
+                for (final DockerTemplate template : cloud.getTemplates()) {
+                    if (template.getDisabled().isDisabled()
+                            || template.getPullStrategy() == DockerImagePullStrategy.PULL_NEVER) {
+                        continue;
+                    }
+                    final HostWork work = result.computeIfAbsent(dockerUri, k -> new HostWork(k, api));
+                    work.imagesWanted.putIfAbsent(template.getFullImageId(), new WantedImage(cloud.name, template));
+                }
+            }
+        }
+        return result;
+    }
+
+    static void prePullImagesOnHost(HostWork work) {
+        try {
+            int pulls = 0;
+            for (final Map.Entry<String, WantedImage> entry : work.imagesWanted.entrySet()) {
+                if (pulls >= MAX_PULLS_PER_HOST_PER_RUN) {
+                    LOGGER.debug("Leaving remaining images on {} until the next run", work.dockerUri);
+                    break;
+                }
+                if (prePullIfNecessary(work, entry.getKey(), entry.getValue())) {
+                    pulls++;
+                }
+            }
+        } finally {
+            HOSTS_BEING_PRE_PULLED.remove(work.dockerUri);
+        }
+    }
+
+    /**
+     * Pulls an image, if its template's pull strategy says it needs pulling.
+     *
+     * @return true if we tried to pull the image.
+     */
+    private static boolean prePullIfNecessary(HostWork work, String image, WantedImage wanted) {
+        final DockerTemplate template = wanted.template;
+        final DockerImagePullStrategy pullStrategy = template.getPullStrategy();
+        try {
+            if (pullStrategy.usesImageFreshnessCache()) {
+                // refresh anything that'd go stale before our next run
+                final long ttl = Math.max(0L, template.getEffectivePullTtlInMilliseconds() - RECURRENCE_PERIOD_IN_MS);
+                if (DockerImageFreshnessCache.getIfFresh(work.api, image, ttl) != null) {
+                    return false;
+                }
+            } else {
+                try (final DockerClient client = work.api.getClient()) {
+                    if (!pullStrategy.shouldPullImage(client, image)) {
+                        return false;
+                    }
+                }
+            }
+            final long startTime = System.nanoTime();
+            final long bytes = DockerImagePullCoordinator.pull(
+                    work.api, image, template.getRegistry(), template.getPullTimeout(), TaskListener.NULL);
+            final long pullTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            DockerMetrics.IMAGE_PULL.observeSince(startTime, wanted.cloudName, template.getName());
+            DockerMetrics.IMAGE_PULL_BYTES.add(bytes, wanted.cloudName, image);
+            if (pullStrategy.usesImageFreshnessCache()) {
+                try (final DockerClient client = work.api.getClient()) {
+                    DockerImageFreshnessCache.record(work.api, image, client.inspectImageCmd(image).exec());
+                }
+            }
+            LOGGER.info(
+                    "Pre-pulled image '{}' on {} in {} ms, downloading {} bytes",
+                    image,
+                    work.dockerUri,
+                    pullTime,
+                    bytes);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Interrupted while pre-pulling image '{}' on {}", image, work.dockerUri, ex);
+            return true;
+        } catch (Exception ex) {
+            LOGGER.warn("Unable to pre-pull image '{}' on {}", image, work.dockerUri, ex);
+            return true;
+        }
+    }
+
+    /**
+     * The images we want to pull on one docker host.
+     */
+    static final class HostWork {
+        private final String dockerUri;
+        private final DockerAPI api;
+        /** The (first) cloud and template that want each image. */
+        private final Map<String, WantedImage> imagesWanted = new LinkedHashMap<>();
+
+        private HostWork(String dockerUri, DockerAPI api) {
+            this.dockerUri = dockerUri;
+            this.api = api;
+        }
+
+        Set<String> getImages() {
+            return imagesWanted.keySet();
+        }
+    }
+
+    /**
+     * Who wants an image, so we know how to pull it and who to record the
+     * pull against.
+     */
+    private static final class WantedImage {
+        private final String cloudName;
+        private final DockerTemplate template;
+
+        private WantedImage(String cloudName, DockerTemplate template) {
+            this.cloudName = cloudName;
+            this.template = template;
+        }
+    }
+}
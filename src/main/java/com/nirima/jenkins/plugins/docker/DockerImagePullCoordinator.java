@@ -0,0 +1,204 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.PullImageCmd;
+import com.github.dockerjava.api.command.PullImageResultCallback;
+import com.github.dockerjava.api.model.PullResponseItem;
+import com.github.dockerjava.api.model.ResponseItem;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.TaskListener;
+import io.jenkins.docker.client.DockerAPI;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerRegistryEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ensures that we only ever have one pull of any given image in progress on
+ * any given docker host. If a pull is requested while an identical one (the
+ * same image onto the same docker host, from the same registry with the same
+ * credentials) is already in progress, the caller waits for the existing pull to finish
+ * instead of starting another one, and gets to see the rest of its progress
+ * output.
+ */
+final class DockerImagePullCoordinator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerImagePullCoordinator.class);
+
+    private static final Map<PullKey, PullInProgress> PULLS_IN_PROGRESS = new ConcurrentHashMap<>();
+
+    private DockerImagePullCoordinator() {}
+
+    /**
+     * Pulls an image, or waits for an identical pull that's already in
+     * progress.
+     *
+     * @param api The docker host to pull the image onto.
+     * @param image The image to pull.
+     * @param registryOrNull The registry (credentials) to use, if any.
+     * @param pullTimeout The activity timeout, in seconds, for the pull.
+     * @param listener Where to report progress.
+     * @return The number of bytes we downloaded, which is zero if we waited
+     *         for someone else's pull instead.
+     * @throws IOException if the pull failed.
+     * @throws InterruptedException if we were interrupted while waiting.
+     */
+    static long pull(
+            @NonNull DockerAPI api,
+            @NonNull String image,
+            @CheckForNull DockerRegistryEndpoint registryOrNull,
+            int pullTimeout,
+            @NonNull TaskListener listener)
+            throws IOException, InterruptedException {
+        final Map<String, Long> layerSizes = new ConcurrentHashMap<>();
+        singleFlight(api.getDockerHost().getUri(), image, registryOrNull, listener, progress -> {
+            LOGGER.info("Pulling image '{}'. This may take awhile...", image);
+            final long startTime = System.currentTimeMillis();
+            try (final DockerClient client = api.getClient(pullTimeout)) {
+                final PullImageCmd cmd = client.pullImageCmd(image);
+                DockerCloud.setRegistryAuthentication(cmd, registryOrNull, Jenkins.get());
+                cmd.exec(new PullImageResultCallback() {
+                            @Override
+                            public void onNext(PullResponseItem item) {
+                                super.onNext(item);
+                                recordLayerSize(layerSizes, item);
+                                progress.accept(item.getStatus());
+                            }
+                        })
+                        .awaitCompletion();
+            }
+            final long pullTime = System.currentTimeMillis() - startTime;
+            LOGGER.info("Finished pulling image '{}', took {} ms", image, pullTime);
+        });
+        long bytes = 0L;
+        for (final Long layerSize : layerSizes.values()) {
+            bytes += layerSize;
+        }
+        return bytes;
+    }
+
+    private static void recordLayerSize(Map<String, Long> layerSizes, PullResponseItem item) {
+        final ResponseItem.ProgressDetail detail = item.getProgressDetail();
+        final Long totalOrNull = detail == null ? null : detail.getTotal();
+        if (item.getId() != null && "Downloading".equals(item.getStatus()) && totalOrNull != null) {
+            layerSizes.put(item.getId(), totalOrNull);
+        }
+    }
+
+    /**
+     * Runs the given pull unless an identical one is already in progress, in
+     * which case we wait for that one instead.
+     *
+     * @param dockerUri The docker host.
+     * @param image The image.
+     * @param registryOrNull The registry (credentials) the pull will use, if
+     *            any. Pulls using different credentials are never shared, as
+     *            one might be allowed to pull the image when the other isn't.
+     * @param listener Where to report progress.
+     * @param pull The code that does the pull, reporting progress to the
+     *            {@link Consumer} it is given.
+     * @throws IOException if the pull failed.
+     * @throws InterruptedException if we were interrupted.
+     */
+    static void singleFlight(
+            String dockerUri,
+            String image,
+            @CheckForNull DockerRegistryEndpoint registryOrNull,
+            TaskListener listener,
+            PullAction pull)
+            throws IOException, InterruptedException {
+        final PullKey key = new PullKey(dockerUri, image, registryOrNull);
+        final PullInProgress ours = new PullInProgress();
+        ours.listeners.add(listener);
+        final PullInProgress existing = PULLS_IN_PROGRESS.putIfAbsent(key, ours);
+        if (existing != null) {
+            existing.listeners.add(listener);
+            try {
+                listener.getLogger().println("Waiting for pull of image " + image + " that's already in progress");
+                existing.awaitResult(image);
+            } finally {
+                existing.listeners.remove(listener);
+            }
+            return;
+        }
+        try {
+            pull.pull(ours::report);
+            ours.result.complete(null);
+        } catch (IOException | InterruptedException | RuntimeException | Error ex) {
+            ours.result.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            PULLS_IN_PROGRESS.remove(key, ours);
+        }
+    }
+
+    /**
+     * Code that pulls an image.
+     */
+    @FunctionalInterface
+    interface PullAction {
+        void pull(Consumer<String> progress) throws IOException, InterruptedException;
+    }
+
+    private static final class PullInProgress {
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private final List<TaskListener> listeners = new CopyOnWriteArrayList<>();
+
+        private void report(String line) {
+            for (final TaskListener l : listeners) {
+                l.getLogger().println(line);
+            }
+        }
+
+        private void awaitResult(String image) throws IOException, InterruptedException {
+            try {
+                result.get();
+            } catch (ExecutionException ex) {
+                throw new IOException("Pull of image " + image + " failed", ex.getCause());
+            }
+        }
+    }
+
+    private static final class PullKey {
+        private final String dockerUri;
+        private final String image;
+        private final String registryUrl;
+        private final String registryCredentialsId;
+
+        private PullKey(String dockerUri, String image, @CheckForNull DockerRegistryEndpoint registryOrNull) {
+            this.dockerUri = dockerUri;
+            this.image = image;
+            this.registryUrl = registryOrNull == null ? null : registryOrNull.getUrl();
+            this.registryCredentialsId = registryOrNull == null ? null : registryOrNull.getCredentialsId();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final PullKey other = (PullKey) obj;
+            return Objects.equals(dockerUri, other.dockerUri)
+                    && Objects.equals(image, other.image)
+                    && Objects.equals(registryUrl, other.registryUrl)
+                    && Objects.equals(registryCredentialsId, other.registryCredentialsId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(dockerUri, image, registryUrl, registryCredentialsId);
+        }
+    }
+}
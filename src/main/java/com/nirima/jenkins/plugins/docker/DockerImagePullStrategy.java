@@ -29,6 +29,22 @@ public enum DockerImagePullStrategy {
             return imageName.endsWith(":latest");
         }
     },
+    PULL_IF_STALE("Pull if not pulled within the pull TTL") {
+        @Override
+        public boolean pullIfNotExists(String imageName) {
+            return true;
+        }
+
+        @Override
+        public boolean pullIfExists(String imageName) {
+            return true;
+        }
+
+        @Override
+        public boolean usesImageFreshnessCache() {
+            return true;
+        }
+    },
     PULL_NEVER("Never pull") {
         @Override
         public boolean pullIfNotExists(String imageName) {
@@ -56,6 +72,16 @@ public enum DockerImagePullStrategy {
 
     public abstract boolean pullIfExists(String imageName);
 
+    /**
+     * Indicates whether the result of a pull may be reused, without asking
+     * docker anything, until the template's pull TTL has expired.
+     *
+     * @return true if {@link DockerImageFreshnessCache} should be used.
+     */
+    public boolean usesImageFreshnessCache() {
+        return false;
+    }
+
     public boolean shouldPullImage(DockerClient client, String image) {
         // simply check without asking docker
         if (pullIfExists(image) && pullIfNotExists(image)) {
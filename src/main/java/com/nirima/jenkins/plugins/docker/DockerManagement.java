@@ -10,7 +10,6 @@ import hudson.model.Saveable;
 import io.jenkins.docker.client.DockerAPI;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.List;
 import java.util.stream.Collectors;
 import jenkins.model.Jenkins;
 import org.kohsuke.stapler.StaplerProxy;
@@ -92,12 +91,13 @@ public class DockerManagement extends ManagementLink implements StaplerProxy, De
 
         public String getActiveHosts() {
             try {
-                final DockerAPI dockerApi = cloud.getDockerApi();
-                final List<?> containers;
-                try (final DockerClient client = dockerApi.getClient()) {
-                    containers = client.listContainersCmd().exec();
+                int containers = 0;
+                for (final DockerAPI dockerApi : cloud.getDockerApis()) {
+                    try (final DockerClient client = dockerApi.getClient()) {
+                        containers += client.listContainersCmd().exec().size();
+                    }
                 }
-                return "(" + containers.size() + ")";
+                return "(" + containers + ")";
             } catch (Exception ex) {
                 return "Error: " + ex;
             }
@@ -6,12 +6,16 @@ import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
 import hudson.Extension;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
+import io.jenkins.docker.DockerContainerTerminator;
+import io.jenkins.docker.DockerProvisioningStatistics;
 import io.jenkins.docker.client.DockerAPI;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import jenkins.model.Jenkins;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
@@ -39,28 +43,19 @@ public class DockerManagementServer implements Describable<DockerManagementServe
         theCloud = JenkinsUtils.getCloudByNameOrThrow(name);
     }
 
-    public Collection getImages() {
-        if (!Jenkins.get().hasPermission(Jenkins.ADMINISTER)) {
-            return Collections.emptyList();
-        }
-        final DockerAPI dockerApi = theCloud.getDockerApi();
-        try (final DockerClient client = dockerApi.getClient()) {
-            return client.listImagesCmd().exec();
-        } catch (IOException ex) {
-            throw new UncheckedIOException(ex);
+    /**
+     * @return Each of the cloud's docker hosts.
+     */
+    public List<Host> getHosts() {
+        final List<Host> result = new ArrayList<>();
+        for (final DockerAPI dockerApi : theCloud.getDockerApis()) {
+            result.add(new Host(dockerApi));
         }
+        return result;
     }
 
-    public Collection getProcesses() {
-        if (!Jenkins.get().hasPermission(Jenkins.ADMINISTER)) {
-            return Collections.emptyList();
-        }
-        final DockerAPI dockerApi = theCloud.getDockerApi();
-        try (final DockerClient client = dockerApi.getClient()) {
-            return client.listContainersCmd().exec();
-        } catch (IOException ex) {
-            throw new UncheckedIOException(ex);
-        }
+    public List<DockerProvisioningStatistics.TemplateStatistics> getProvisioningStatistics() {
+        return DockerProvisioningStatistics.forCloud(name);
     }
 
     public String asTime(Long time) {
@@ -78,16 +73,65 @@ public class DockerManagementServer implements Describable<DockerManagementServe
 
     @SuppressWarnings("unused")
     @RequirePOST
-    public void doControlSubmit(@QueryParameter("stopId") String stopId, StaplerRequest req, StaplerResponse rsp)
+    public void doControlSubmit(
+            @QueryParameter("stopId") String stopId,
+            @QueryParameter("hostUri") String hostUri,
+            StaplerRequest req,
+            StaplerResponse rsp)
             throws IOException {
         Jenkins.get().checkPermission(Jenkins.ADMINISTER);
-        final DockerAPI dockerApi = theCloud.getDockerApi();
+        final DockerAPI dockerApi = theCloud.getDockerApi(hostUri);
         try (final DockerClient client = dockerApi.getClient()) {
             client.stopContainerCmd(stopId).exec();
         }
         rsp.sendRedirect(".");
     }
 
+    /**
+     * One of the cloud's docker hosts.
+     */
+    public static final class Host {
+        private final DockerAPI dockerApi;
+
+        Host(DockerAPI dockerApi) {
+            this.dockerApi = dockerApi;
+        }
+
+        public String getUri() {
+            return dockerApi.getDockerHost().getUri();
+        }
+
+        public Collection getImages() {
+            if (!Jenkins.get().hasPermission(Jenkins.ADMINISTER)) {
+                return Collections.emptyList();
+            }
+            try (final DockerClient client = dockerApi.getClient()) {
+                return client.listImagesCmd().exec();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        public Collection getProcesses() {
+            if (!Jenkins.get().hasPermission(Jenkins.ADMINISTER)) {
+                return Collections.emptyList();
+            }
+            try (final DockerClient client = dockerApi.getClient()) {
+                return client.listContainersCmd().exec();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        public DockerAPI.ClientUsageStatistics getClientUsageStatistics() {
+            return dockerApi.getClientUsageStatistics();
+        }
+
+        public DockerContainerTerminator.Statistics getTerminationStatistics() {
+            return DockerContainerTerminator.getStatistics(dockerApi);
+        }
+    }
+
     @Extension
     public static final class DescriptorImpl extends Descriptor<DockerManagementServer> {
         @Override
@@ -0,0 +1,134 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.bldToString;
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.endToString;
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.startToString;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * A {@link DockerCloud} that spreads its containers over several docker hosts.
+ * <p>
+ * Each new container goes on whichever host {@link DockerHostScheduler}
+ * reckons is best placed to run it, subject to each host's own container
+ * cap as well as the cloud's, and so does each of the standby containers of
+ * any {@link DockerWarmPool}. The first host is the "primary" host, which is
+ * what {@link #getDockerApi()} returns.
+ * </p>
+ */
+public class DockerMultiHostCloud extends DockerCloud {
+    private List<DockerCloudHost> hosts;
+
+    @DataBoundConstructor
+    public DockerMultiHostCloud(String name, List<DockerCloudHost> hosts, List<DockerTemplate> templates) {
+        super(name, primaryOf(hosts), templates);
+        this.hosts = new ArrayList<>(hosts);
+    }
+
+    @NonNull
+    private static DockerAPI primaryOf(@CheckForNull List<DockerCloudHost> hosts) {
+        if (hosts == null || hosts.isEmpty()) {
+            throw new IllegalArgumentException("A docker cloud with multiple hosts needs at least one host");
+        }
+        return hosts.get(0).getDockerApi();
+    }
+
+    @NonNull
+    public List<DockerCloudHost> getHosts() {
+        return hosts == null ? Collections.emptyList() : Collections.unmodifiableList(hosts);
+    }
+
+    @NonNull
+    @Override
+    public List<DockerAPI> getDockerApis() {
+        final List<DockerCloudHost> ourHosts = getHosts();
+        final List<DockerAPI> result = new ArrayList<>(ourHosts.size());
+        for (final DockerCloudHost host : ourHosts) {
+            result.add(host.getDockerApi());
+        }
+        return result;
+    }
+
+    @CheckForNull
+    @Override
+    protected DockerAPI reserveDockerApi(@NonNull DockerTemplate template) {
+        final DockerCloudHost host = DockerHostScheduler.INSTANCE.reserve(
+                getHosts(), template.getFullImageId(), getEffectiveErrorDurationInMilliseconds());
+        return host == null ? null : host.getDockerApi();
+    }
+
+    @CheckForNull
+    @Override
+    protected DockerAPI reserveDockerApi(@NonNull DockerTemplate template, @NonNull DockerAPI api) {
+        final DockerEndpointKey wanted = DockerEndpointKey.of(api);
+        for (final DockerCloudHost host : getHosts()) {
+            if (wanted.equals(DockerEndpointKey.of(host.getDockerApi()))) {
+                final DockerCloudHost reserved = DockerHostScheduler.INSTANCE.reserve(
+                        Collections.singletonList(host),
+                        template.getFullImageId(),
+                        getEffectiveErrorDurationInMilliseconds());
+                return reserved == null ? null : reserved.getDockerApi();
+            }
+        }
+        return null; // no longer one of our hosts
+    }
+
+    @Override
+    protected void releaseDockerApi(
+            @NonNull DockerAPI api, @NonNull DockerTemplate template, boolean succeeded, long durationInNanos) {
+        DockerHostScheduler.INSTANCE.release(
+                api, succeeded, durationInNanos, getEffectiveErrorDurationInMilliseconds());
+    }
+
+    @Override
+    protected Object readResolve() {
+        if (hosts == null) {
+            hosts = new ArrayList<>();
+        }
+        super.readResolve();
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = startToString(this);
+        bldToString(sb, "name", name);
+        bldToString(sb, "hosts", hosts);
+        bldToString(sb, "containerCap", getContainerCap());
+        bldToString(sb, "exposeDockerHost", isExposeDockerHost());
+        bldToString(sb, "disabled", getDisabled());
+        bldToString(sb, "templates", getTemplates());
+        endToString(sb);
+        return sb.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hashCode(hosts);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) {
+            return false;
+        }
+        final DockerMultiHostCloud that = (DockerMultiHostCloud) o;
+        return Objects.equals(hosts, that.hosts);
+    }
+
+    @Extension
+    public static class DescriptorImpl extends DockerCloud.DescriptorImpl {
+        @Override
+        public String getDisplayName() {
+            return "Docker (multiple hosts)";
+        }
+    }
+}
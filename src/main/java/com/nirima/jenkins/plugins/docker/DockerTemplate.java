@@ -10,15 +10,13 @@ import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.startToString
 import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.api.command.CreateContainerCmd;
 import com.github.dockerjava.api.command.InspectImageResponse;
-import com.github.dockerjava.api.command.PullImageCmd;
-import com.github.dockerjava.api.command.PullImageResultCallback;
 import com.github.dockerjava.api.exception.DockerClientException;
 import com.github.dockerjava.api.exception.NotFoundException;
 import com.github.dockerjava.api.model.ContainerConfig;
 import com.github.dockerjava.api.model.PortBinding;
-import com.github.dockerjava.api.model.PullResponseItem;
 import com.google.common.base.Strings;
 import com.nirima.jenkins.plugins.docker.launcher.DockerComputerLauncher;
+import com.nirima.jenkins.plugins.docker.strategy.DockerMultiBuildRetentionStrategy;
 import com.nirima.jenkins.plugins.docker.strategy.DockerOnceRetentionStrategy;
 import com.nirima.jenkins.plugins.docker.utils.UniqueIdGenerator;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
@@ -37,10 +35,12 @@ import hudson.slaves.NodeProperty;
 import hudson.slaves.NodePropertyDescriptor;
 import hudson.slaves.RetentionStrategy;
 import hudson.util.FormValidation;
+import io.jenkins.docker.DockerProvisioningTimeline;
 import io.jenkins.docker.DockerTransientNode;
 import io.jenkins.docker.client.DockerAPI;
 import io.jenkins.docker.connector.DockerComputerConnector;
 import io.jenkins.docker.connector.DockerComputerJNLPConnector;
+import io.jenkins.docker.metrics.DockerMetrics;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -50,6 +50,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.docker.commons.credentials.DockerRegistryEndpoint;
@@ -68,6 +70,12 @@ public class DockerTemplate implements Describable<DockerTemplate> {
      */
     public static final int DEFAULT_STOP_TIMEOUT = 10;
 
+    /**
+     * The default time in minutes ({@value #DEFAULT_PULL_TTL} minutes) that an image pulled using
+     * {@link DockerImagePullStrategy#PULL_IF_STALE} is considered up to date.
+     */
+    public static final int DEFAULT_PULL_TTL = 60;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(DockerTemplate.class.getName());
 
     private static final UniqueIdGenerator ID_GENERATOR = new UniqueIdGenerator(36);
@@ -75,6 +83,13 @@ public class DockerTemplate implements Describable<DockerTemplate> {
     /** Default value for {@link #getName()} if {@link #name} is null. */
     private static final String DEFAULT_NAME = "docker";
 
+    /**
+     * Changes whenever any template's labels or mode change in place, so that
+     * {@link DockerCloud} knows that which templates match which labels may
+     * have changed too.
+     */
+    private static final AtomicLong LABELS_GENERATION = new AtomicLong();
+
     private int configVersion = 2;
 
     private final @CheckForNull String labelString;
@@ -106,12 +121,18 @@ public class DockerTemplate implements Describable<DockerTemplate> {
 
     private int pullTimeout;
 
+    /** How long, in minutes, a {@link DockerImagePullStrategy#PULL_IF_STALE} pull stays fresh. 0 means default. */
+    private int pullTtl;
+
     private @CheckForNull List<? extends NodeProperty<?>> nodeProperties;
 
     private @CheckForNull DockerDisabled disabled;
 
     private @CheckForNull String name;
 
+    /** How many standby containers to keep in the {@link DockerWarmPool}. */
+    private int minimumIdle;
+
     /**
      * Default constructor; give an unusable instance.
      *
@@ -362,6 +383,7 @@ public class DockerTemplate implements Describable<DockerTemplate> {
     @DataBoundSetter
     public void setMode(Node.Mode mode) {
         this.mode = mode;
+        LABELS_GENERATION.incrementAndGet();
     }
 
     public Node.Mode getMode() {
@@ -412,6 +434,14 @@ public class DockerTemplate implements Describable<DockerTemplate> {
         return labelSet;
     }
 
+    /**
+     * @return A value that changes whenever the labels or mode of any template
+     *         have changed.
+     */
+    static long getLabelsGeneration() {
+        return LABELS_GENERATION.get();
+    }
+
     @NonNull
     public DockerImagePullStrategy getPullStrategy() {
         return pullStrategy != null ? pullStrategy : DockerImagePullStrategy.PULL_LATEST;
@@ -435,6 +465,20 @@ public class DockerTemplate implements Describable<DockerTemplate> {
         this.pullTimeout = pullTimeout;
     }
 
+    public int getPullTtl() {
+        return pullTtl;
+    }
+
+    @DataBoundSetter
+    public void setPullTtl(int pullTtl) {
+        this.pullTtl = Math.max(0, pullTtl);
+    }
+
+    long getEffectivePullTtlInMilliseconds() {
+        final int minutes = pullTtl > 0 ? pullTtl : DEFAULT_PULL_TTL;
+        return TimeUnit.MINUTES.toMillis(minutes);
+    }
+
     @CheckForNull
     public List<? extends NodeProperty<?>> getNodeProperties() {
         final List<? extends NodeProperty<?>> nullOrNotEmpty = fixEmpty(nodeProperties);
@@ -481,6 +525,15 @@ public class DockerTemplate implements Describable<DockerTemplate> {
         return name.trim();
     }
 
+    public int getMinimumIdle() {
+        return minimumIdle;
+    }
+
+    @DataBoundSetter
+    public void setMinimumIdle(int minimumIdle) {
+        this.minimumIdle = Math.max(0, minimumIdle);
+    }
+
     /**
      * Xstream ignores default field values, so set them explicitly
      */
@@ -514,6 +567,7 @@ public class DockerTemplate implements Describable<DockerTemplate> {
 
             try {
                 labelSet = Label.parse(labelString); // fails sometimes under debugger
+                LABELS_GENERATION.incrementAndGet();
             } catch (Throwable t) {
                 LOGGER.error("Can't parse labels: ", t);
             }
@@ -536,6 +590,7 @@ public class DockerTemplate implements Describable<DockerTemplate> {
         final DockerTemplate template = new DockerTemplate(dockerTemplateBase, connector, label, remoteFs, "1");
         template.setMode(Node.Mode.EXCLUSIVE);
         template.setPullStrategy(getPullStrategy());
+        template.setPullTtl(pullTtl);
         template.setRemoveVolumes(removeVolumes);
         template.setStopTimeout(stopTimeout);
         template.setRetentionStrategy((DockerOnceRetentionStrategy) retentionStrategy);
@@ -563,8 +618,10 @@ public class DockerTemplate implements Describable<DockerTemplate> {
                 && instanceCap == other.instanceCap
                 && mode == other.mode
                 && pullTimeout == other.pullTimeout
+                && pullTtl == other.pullTtl
                 && removeVolumes == other.removeVolumes
                 && stopTimeout == other.stopTimeout
+                && minimumIdle == other.minimumIdle
                 && Objects.equals(connector, other.connector)
                 && Objects.equals(remoteFs, other.remoteFs)
                 && Objects.equals(dockerTemplateBase, other.dockerTemplateBase)
@@ -586,8 +643,10 @@ public class DockerTemplate implements Describable<DockerTemplate> {
                 instanceCap,
                 mode,
                 pullTimeout,
+                pullTtl,
                 removeVolumes,
                 stopTimeout,
+                minimumIdle,
                 connector,
                 remoteFs,
                 dockerTemplateBase,
@@ -615,9 +674,11 @@ public class DockerTemplate implements Describable<DockerTemplate> {
         bldToString(sb, "stopTimeout", stopTimeout);
         bldToString(sb, "pullStrategy", getPullStrategy());
         bldToString(sb, "pullTimeout", pullTimeout);
+        bldToString(sb, "pullTtl", pullTtl);
         bldToString(sb, "nodeProperties", getNodeProperties());
         bldToString(sb, "disabled", getDisabled());
         bldToString(sb, "name", name);
+        bldToString(sb, "minimumIdle", minimumIdle);
         endToString(sb);
         return sb.toString();
     }
@@ -632,69 +693,156 @@ public class DockerTemplate implements Describable<DockerTemplate> {
     }
 
     @NonNull
-    InspectImageResponse pullImage(DockerAPI api, TaskListener listener) throws IOException, InterruptedException {
+    InspectImageResponse pullImage(
+            DockerAPI api, String cloudName, TaskListener listener, DockerProvisioningTimeline timeline)
+            throws IOException, InterruptedException {
         final String image = getFullImageId();
+        final DockerImagePullStrategy pullStrategy = getPullStrategy();
+        if (pullStrategy.usesImageFreshnessCache()) {
+            final InspectImageResponse fresh =
+                    DockerImageFreshnessCache.getIfFresh(api, image, getEffectivePullTtlInMilliseconds());
+            if (fresh != null) {
+                return fresh;
+            }
+        }
 
         final boolean shouldPullImage;
         try (final DockerClient client = api.getClient()) {
-            shouldPullImage = getPullStrategy().shouldPullImage(client, image);
+            shouldPullImage = pullStrategy.shouldPullImage(client, image);
         }
         if (shouldPullImage) {
             // TODO create a FlyWeightTask so end-user get visibility on pull operation progress
-            LOGGER.info("Pulling image '{}'. This may take awhile...", image);
-
-            long startTime = System.currentTimeMillis();
-
-            try (final DockerClient client = api.getClient(pullTimeout)) {
-                final PullImageCmd cmd = client.pullImageCmd(image);
-                final DockerRegistryEndpoint registry = getRegistry();
-                DockerCloud.setRegistryAuthentication(cmd, registry, Jenkins.get());
-                cmd.exec(new PullImageResultCallback() {
-                            @Override
-                            public void onNext(PullResponseItem item) {
-                                super.onNext(item);
-                                listener.getLogger().println(item.getStatus());
-                            }
-                        })
-                        .awaitCompletion();
-            }
-
-            long pullTime = System.currentTimeMillis() - startTime;
-            LOGGER.info("Finished pulling image '{}', took {} ms", image, pullTime);
+            // Note: if others are pulling the same image already, we just wait for them.
+            final long pullStartedNanos = System.nanoTime();
+            final DockerProvisioningTimeline.Phase pullPhase = timeline.begin(DockerProvisioningTimeline.PULL);
+            final long bytes = DockerImagePullCoordinator.pull(api, image, getRegistry(), pullTimeout, listener);
+            pullPhase.end();
+            DockerMetrics.IMAGE_PULL.observeSince(pullStartedNanos, cloudName, getName());
+            DockerMetrics.IMAGE_PULL_BYTES.add(bytes, cloudName, image);
         }
 
         final InspectImageResponse result;
+        final DockerProvisioningTimeline.Phase inspectPhase = timeline.begin(DockerProvisioningTimeline.INSPECT);
         try (final DockerClient client = api.getClient()) {
             result = client.inspectImageCmd(image).exec();
         } catch (NotFoundException e) {
             throw new DockerClientException("Could not pull image: " + image, e);
         }
+        inspectPhase.end();
+        if (pullStrategy.usesImageFreshnessCache()) {
+            DockerImageFreshnessCache.record(api, image, result);
+        }
         return result;
     }
 
     @Restricted(NoExternalUse.class)
     public DockerTransientNode provisionNode(DockerAPI api, TaskListener listener)
             throws IOException, Descriptor.FormException, InterruptedException {
+        return provisionNode(api, "", listener);
+    }
+
+    /**
+     * Provisions a node in a new container.
+     *
+     * @param api The docker host to put the container on.
+     * @param cloudName The name of the cloud we're provisioning for (for
+     *            labelling metrics), or "" if not provisioning for a cloud.
+     * @param listener Where to log progress.
+     * @return The new node.
+     */
+    @Restricted(NoExternalUse.class)
+    public DockerTransientNode provisionNode(DockerAPI api, String cloudName, TaskListener listener)
+            throws IOException, Descriptor.FormException, InterruptedException {
         try {
-            final InspectImageResponse image = pullImage(api, listener);
+            final DockerProvisioningTimeline timeline = new DockerProvisioningTimeline();
+            final InspectImageResponse image = pullImage(api, cloudName, listener, timeline);
             final String effectiveRemoteFsDir = getEffectiveRemoteFs(image);
             try (final DockerClient client = api.getClient()) {
-                return doProvisionNode(api, client, effectiveRemoteFsDir, listener);
+                return doProvisionNode(api, client, effectiveRemoteFsDir, cloudName, listener, timeline);
             }
         } catch (IOException | Descriptor.FormException | InterruptedException | RuntimeException ex) {
-            final DockerCloud ourCloud = DockerCloud.findCloudForTemplate(this);
-            final long milliseconds = ourCloud == null ? 0L : ourCloud.getEffectiveErrorDurationInMilliseconds();
-            if (milliseconds > 0L) {
-                // if anything went wrong, disable ourselves for a while
-                final String reason = "Template provisioning failed.";
-                final DockerDisabled reasonForDisablement = getDisabled();
-                reasonForDisablement.disableBySystem(reason, milliseconds, ex);
-                setDisabled(reasonForDisablement);
-            }
+            // the image may have been removed from under us, so don't rely on what we know about it
+            DockerImageFreshnessCache.invalidate(api, getFullImageId());
+            disableAfterProvisioningFailure(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Provisions a node using a container previously created by
+     * {@link #createStandbyContainer(DockerAPI, String, TaskListener)}.
+     *
+     * @param api The docker host the container was created on.
+     * @param standby The container to use.
+     * @param cloudName The name of the cloud we're provisioning for.
+     * @param listener Where to log progress.
+     * @return The new node.
+     */
+    @Restricted(NoExternalUse.class)
+    DockerTransientNode provisionNodeFromStandby(
+            DockerAPI api, DockerWarmPool.StandbyContainer standby, String cloudName, TaskListener listener)
+            throws IOException, Descriptor.FormException, InterruptedException {
+        try (final DockerClient client = api.getClient()) {
+            LOGGER.info(
+                    "Using standby container ID {} for node {} from image: {}",
+                    standby.getContainerId(),
+                    standby.getNodeName(),
+                    getImage());
+            return startNodeForContainer(
+                    api,
+                    client,
+                    standby.getNodeName(),
+                    standby.getContainerId(),
+                    standby.getEffectiveRemoteFsDir(),
+                    cloudName,
+                    listener,
+                    standby.getTimeline());
+        } catch (IOException | Descriptor.FormException | InterruptedException | RuntimeException ex) {
+            disableAfterProvisioningFailure(ex);
             throw ex;
         }
     }
 
+    /**
+     * Pulls our image (if necessary) and creates, but does not start, a
+     * container that can later be turned into a node by
+     * {@link #provisionNodeFromStandby(DockerAPI, DockerWarmPool.StandbyContainer, String, TaskListener)}.
+     *
+     * @param api The docker host to create the container on.
+     * @param cloudName The name of the cloud whose warm pool wants it.
+     * @param listener Where to log progress.
+     * @return The container that was created.
+     */
+    @Restricted(NoExternalUse.class)
+    DockerWarmPool.StandbyContainer createStandbyContainer(DockerAPI api, String cloudName, TaskListener listener)
+            throws IOException, InterruptedException {
+        final DockerProvisioningTimeline timeline = new DockerProvisioningTimeline();
+        final InspectImageResponse image = pullImage(api, cloudName, listener, timeline);
+        final String effectiveRemoteFsDir = getEffectiveRemoteFs(image);
+        try (final DockerClient client = api.getClient()) {
+            final CreateContainerCmd cmd = createContainerCmd(api, client, effectiveRemoteFsDir, timeline);
+            final String nodeName = getNodeNameFromContainerConfig(cmd);
+            final String containerId = execCreateContainerCmd(cmd, cloudName, timeline);
+            LOGGER.info(
+                    "Created standby container ID {} for node {} from image: {}", containerId, nodeName, getImage());
+            return new DockerWarmPool.StandbyContainer(
+                    api, containerId, nodeName, effectiveRemoteFsDir, timeline, System.nanoTime());
+        }
+    }
+
+    private void disableAfterProvisioningFailure(Exception ex) {
+        final DockerCloud ourCloud = DockerCloud.findCloudForTemplate(this);
+        final long milliseconds = ourCloud == null ? 0L : ourCloud.getEffectiveErrorDurationInMilliseconds();
+        if (milliseconds > 0L) {
+            // if anything went wrong, disable ourselves for a while
+            final String reason = "Template provisioning failed.";
+            final DockerDisabled reasonForDisablement = getDisabled();
+            reasonForDisablement.disableBySystem(reason, milliseconds, ex);
+            setDisabled(reasonForDisablement);
+            DockerMetrics.AUTO_DISABLES.increment(ourCloud.name, getName());
+        }
+    }
+
     @NonNull
     private String getEffectiveRemoteFs(final InspectImageResponse image) {
         final String remoteFsOrNull = getRemoteFs();
@@ -713,29 +861,70 @@ public class DockerTemplate implements Describable<DockerTemplate> {
         return "/";
     }
 
+    private CreateContainerCmd createContainerCmd(
+            final DockerAPI api,
+            final DockerClient client,
+            final String effectiveRemoteFsDir,
+            final DockerProvisioningTimeline timeline)
+            throws IOException, InterruptedException {
+        final CreateContainerCmd cmd = client.createContainerCmd(getImage());
+        fillContainerConfig(cmd);
+        final DockerProvisioningTimeline.Phase hookPhase =
+                timeline.begin(DockerProvisioningTimeline.BEFORE_CONTAINER_CREATED);
+        getConnector().beforeContainerCreated(api, effectiveRemoteFsDir, cmd);
+        hookPhase.end();
+        return cmd;
+    }
+
+    private String execCreateContainerCmd(
+            final CreateContainerCmd cmd, final String cloudName, final DockerProvisioningTimeline timeline) {
+        final long createStartedNanos = System.nanoTime();
+        final DockerProvisioningTimeline.Phase createPhase = timeline.begin(DockerProvisioningTimeline.CREATE);
+        final String containerId = cmd.exec().getId();
+        createPhase.end();
+        DockerMetrics.CONTAINER_CREATE.observeSince(createStartedNanos, cloudName, getName());
+        return containerId;
+    }
+
     private DockerTransientNode doProvisionNode(
             final DockerAPI api,
             final DockerClient client,
             final String effectiveRemoteFsDir,
-            final TaskListener listener)
+            final String cloudName,
+            final TaskListener listener,
+            final DockerProvisioningTimeline timeline)
             throws IOException, Descriptor.FormException, InterruptedException {
         final String ourImage = getImage(); // can't be null
         LOGGER.info("Trying to run container for image \"{}\"", ourImage);
-        final DockerComputerConnector ourConnector = getConnector();
-
-        final CreateContainerCmd cmd = client.createContainerCmd(ourImage);
-        fillContainerConfig(cmd);
-
-        ourConnector.beforeContainerCreated(api, effectiveRemoteFsDir, cmd);
+        final CreateContainerCmd cmd = createContainerCmd(api, client, effectiveRemoteFsDir, timeline);
 
         final String nodeName = getNodeNameFromContainerConfig(cmd);
         LOGGER.info("Trying to run container for node {} from image: {}", nodeName, ourImage);
-        boolean finallyRemoveTheContainer = true;
-        final String containerId = cmd.exec().getId();
-        // if we get this far, we have created the container so,
-        // if we fail to return the node, we need to ensure it's cleaned up.
+        final String containerId = execCreateContainerCmd(cmd, cloudName, timeline);
         LOGGER.info("Started container ID {} for node {} from image: {}", containerId, nodeName, ourImage);
+        return startNodeForContainer(
+                api, client, nodeName, containerId, effectiveRemoteFsDir, cloudName, listener, timeline);
+    }
 
+    /**
+     * Creates the node for a container we've created, and starts the
+     * container. If this fails, the container is removed.
+     */
+    private DockerTransientNode startNodeForContainer(
+            final DockerAPI api,
+            final DockerClient client,
+            final String nodeName,
+            final String containerId,
+            final String effectiveRemoteFsDir,
+            final String cloudName,
+            final TaskListener listener,
+            final DockerProvisioningTimeline timeline)
+            throws IOException, Descriptor.FormException, InterruptedException {
+        final String ourImage = getImage(); // can't be null
+        final DockerComputerConnector ourConnector = getConnector();
+        // we have created the container so,
+        // if we fail to return the node, we need to ensure it's cleaned up.
+        boolean finallyRemoveTheContainer = true;
         try {
             final DockerTransientNode node = new DockerTransientNode(nodeName, containerId, effectiveRemoteFsDir);
             node.setNodeDescription(
@@ -747,11 +936,26 @@ public class DockerTemplate implements Describable<DockerTemplate> {
             node.setRemoveVolumes(isRemoveVolumes());
             node.setStopTimeout(getStopTimeout());
             node.setDockerAPI(api);
+            node.setTemplateName(getName());
+            node.setProvisioningTimeline(timeline);
+            final DockerProvisioningTimeline.Phase beforeStartPhase =
+                    timeline.begin(DockerProvisioningTimeline.BEFORE_CONTAINER_STARTED);
             ourConnector.beforeContainerStarted(api, effectiveRemoteFsDir, node);
+            beforeStartPhase.end();
+            final long startStartedNanos = System.nanoTime();
+            final DockerProvisioningTimeline.Phase startPhase = timeline.begin(DockerProvisioningTimeline.START);
             client.startContainerCmd(containerId).exec();
+            startPhase.end();
+            DockerMetrics.CONTAINER_START.observeSince(startStartedNanos, cloudName, getName());
+            final DockerProvisioningTimeline.Phase afterStartPhase =
+                    timeline.begin(DockerProvisioningTimeline.AFTER_CONTAINER_STARTED);
             ourConnector.afterContainerStarted(api, effectiveRemoteFsDir, node);
+            afterStartPhase.end();
+            final DockerProvisioningTimeline.Phase launcherPhase =
+                    timeline.begin(DockerProvisioningTimeline.CREATE_LAUNCHER);
             final ComputerLauncher nodeLauncher =
                     ourConnector.createLauncher(api, containerId, effectiveRemoteFsDir, listener);
+            launcherPhase.end();
             node.setLauncher(nodeLauncher);
             finallyRemoveTheContainer = false;
             return node;
@@ -862,14 +1066,29 @@ public class DockerTemplate implements Describable<DockerTemplate> {
             return Jenkins.get().getDescriptor(DockerOnceRetentionStrategy.class);
         }
 
+        public List<Descriptor> getRetentionStrategyDescriptors() {
+            final List<Descriptor> result = new ArrayList<>();
+            result.add(Jenkins.get().getDescriptor(DockerOnceRetentionStrategy.class));
+            result.add(Jenkins.get().getDescriptor(DockerMultiBuildRetentionStrategy.class));
+            return result;
+        }
+
         public FormValidation doCheckPullTimeout(@QueryParameter String value) {
             return FormValidation.validateNonNegativeInteger(value);
         }
 
+        public FormValidation doCheckPullTtl(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
         public FormValidation doCheckStopTimeout(@QueryParameter String value) {
             return FormValidation.validateNonNegativeInteger(value);
         }
 
+        public FormValidation doCheckMinimumIdle(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
         @Override
         public String getDisplayName() {
             return "Docker Template";
@@ -16,8 +16,6 @@ import com.github.dockerjava.api.model.Bind;
 import com.github.dockerjava.api.model.BindOptions;
 import com.github.dockerjava.api.model.BindPropagation;
 import com.github.dockerjava.api.model.Capability;
-import com.github.dockerjava.api.model.Device;
-import com.github.dockerjava.api.model.HostConfig;
 import com.github.dockerjava.api.model.Mount;
 import com.github.dockerjava.api.model.MountType;
 import com.github.dockerjava.api.model.PortBinding;
@@ -28,7 +26,6 @@ import com.github.dockerjava.core.NameParser;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
-import com.google.common.collect.Iterables;
 import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -43,20 +40,20 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import jenkins.model.Jenkins;
-import org.apache.commons.collections.CollectionUtils;
+import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.docker.commons.credentials.DockerRegistryEndpoint;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
 
 /**
  * Base for docker templates - does not include Jenkins items like labels.
@@ -144,6 +141,9 @@ public class DockerTemplateBase implements Describable<DockerTemplateBase>, Seri
 
     private @CheckForNull Map<String, String> extraDockerLabels;
 
+    /** See {@link #getContainerSpec()}. */
+    private @CheckForNull transient volatile DockerContainerSpec containerSpec;
+
     @DataBoundConstructor
     public DockerTemplateBase(String image) {
         if (image == null) {
@@ -738,161 +738,65 @@ public class DockerTemplateBase implements Describable<DockerTemplateBase>, Seri
     }
 
     public CreateContainerCmd fillContainerConfig(CreateContainerCmd containerConfig) {
-        final String hostnameOrNull = getHostname();
-        if (hostnameOrNull != null && !hostnameOrNull.isEmpty()) {
-            containerConfig.withHostName(hostnameOrNull);
-        }
-
-        final String userOrNull = getUser();
-        if (userOrNull != null && !userOrNull.isEmpty()) {
-            containerConfig.withUser(userOrNull);
-        }
-
-        final List<String> extraGroupsOrNull = getExtraGroups();
-        if (CollectionUtils.isNotEmpty(extraGroupsOrNull)) {
-            hostConfig(containerConfig).withGroupAdd(extraGroupsOrNull);
-        }
-
-        final String[] cmdOrNull = getDockerCommandArray();
-        if (cmdOrNull != null && cmdOrNull.length > 0) {
-            containerConfig.withCmd(cmdOrNull);
-        }
-
-        hostConfig(containerConfig).withPortBindings(Iterables.toArray(getPortMappings(), PortBinding.class));
-        hostConfig(containerConfig).withPublishAllPorts(bindAllPorts);
-        hostConfig(containerConfig).withPrivileged(privileged);
-
-        final Map<String, String> existingLabelsOrNull = containerConfig.getLabels();
-        final Map<String, String> labels;
-        if (existingLabelsOrNull == null) {
-            labels = new HashMap<>();
-            containerConfig.withLabels(labels);
-        } else {
-            labels = existingLabelsOrNull;
-        }
-        final Map<String, String> extraDockerLabelsOrNull = getExtraDockerLabels();
-        if (extraDockerLabelsOrNull != null && !extraDockerLabelsOrNull.isEmpty()) {
-            labels.putAll(extraDockerLabelsOrNull);
-        }
-        labels.put(DockerContainerLabelKeys.JENKINS_INSTANCE_ID, getJenkinsInstanceIdForContainerLabel());
-        labels.put(DockerContainerLabelKeys.JENKINS_URL, getJenkinsUrlForContainerLabel());
-        labels.put(DockerContainerLabelKeys.CONTAINER_IMAGE, getImage());
-
-        final String cpusOrNull = getCpus();
-        if (cpusOrNull != null && !cpusOrNull.isEmpty()) {
-            final Double cpu_double = Double.parseDouble(cpusOrNull) * 1e9;
-            final Long nanoCpus = cpu_double.longValue();
-            hostConfig(containerConfig).withNanoCPUs(nanoCpus);
-        }
-
-        final Long cpuPeriodOrNull = getCpuPeriod();
-        if (cpuPeriodOrNull != null && cpuPeriodOrNull > 0) {
-            hostConfig(containerConfig).withCpuPeriod(cpuPeriodOrNull);
-        }
-
-        final Long cpuQuotaOrNull = getCpuQuota();
-        if (cpuQuotaOrNull != null && cpuQuotaOrNull > 0) {
-            hostConfig(containerConfig).withCpuQuota(cpuQuotaOrNull);
-        }
-
-        final Integer cpuSharesOrNull = getCpuShares();
-        if (cpuSharesOrNull != null && cpuSharesOrNull > 0) {
-            hostConfig(containerConfig).withCpuShares(cpuSharesOrNull);
-        }
-
-        final Integer memoryLimitOrNull = getMemoryLimit();
-        if (memoryLimitOrNull != null && memoryLimitOrNull > 0) {
-            final long memoryInByte = memoryLimitOrNull.longValue() * 1024L * 1024L;
-            hostConfig(containerConfig).withMemory(memoryInByte);
-        }
-
-        final Integer memorySwapOrNullOrNegative = getMemorySwap();
-        if (memorySwapOrNullOrNegative != null) {
-            final long memorySwapOrNegative = memorySwapOrNullOrNegative.longValue();
-            if (memorySwapOrNegative > 0L) {
-                long memorySwapInByte = memorySwapOrNegative * 1024L * 1024L;
-                hostConfig(containerConfig).withMemorySwap(memorySwapInByte);
-            } else {
-                hostConfig(containerConfig).withMemorySwap(memorySwapOrNegative);
-            }
-        }
-
-        final String[] dnsHostsOrNull = getDnsHosts();
-        if (dnsHostsOrNull != null && dnsHostsOrNull.length > 0) {
-            hostConfig(containerConfig).withDns(dnsHostsOrNull);
-        }
-
-        final String networkOrNull = getNetwork();
-        if (networkOrNull != null && networkOrNull.length() > 0) {
-            containerConfig.withNetworkDisabled(false);
-            hostConfig(containerConfig).withNetworkMode(networkOrNull);
-        }
-
-        // https://github.com/docker/docker/blob/ed257420025772acc38c51b0f018de3ee5564d0f/runconfig/parse.go#L182-L196
-        final String[] mountsOrNull = getMounts();
-        if (mountsOrNull != null && mountsOrNull.length > 0) {
-            ArrayList<Mount> mnts = new ArrayList<>();
-            parseMountsStrings(mountsOrNull, mnts);
-            hostConfig(containerConfig).withMounts(mnts);
-        }
-
-        final String[] volumesFrom2OrNull = getVolumesFrom2();
-        if (volumesFrom2OrNull != null && volumesFrom2OrNull.length > 0) {
-            ArrayList<VolumesFrom> volFrom = new ArrayList<>();
-            for (String volFromStr : volumesFrom2OrNull) {
-                volFrom.add(VolumesFrom.parse(volFromStr));
-            }
-            hostConfig(containerConfig).withVolumesFrom(volFrom.toArray(new VolumesFrom[0]));
-        }
-
-        final String[] devicesOrNull = getDevices();
-        if (devicesOrNull != null && devicesOrNull.length > 0) {
-            final List<Device> list = new ArrayList<>();
-            for (String deviceStr : devicesOrNull) {
-                list.add(Device.parse(deviceStr));
-            }
-            hostConfig(containerConfig).withDevices(list);
-        }
-
-        containerConfig.withTty(tty);
-
-        final String[] environmentOrNull = getEnvironment();
-        if (environmentOrNull != null && environmentOrNull.length > 0) {
-            containerConfig.withEnv(environmentOrNull);
-        }
-
-        final String macAddressOrNull = getMacAddress();
-        if (macAddressOrNull != null && !macAddressOrNull.isEmpty()) {
-            containerConfig.withMacAddress(macAddressOrNull);
-        }
-
-        final List<String> extraHostsOrNull = getExtraHosts();
-        if (CollectionUtils.isNotEmpty(extraHostsOrNull)) {
-            hostConfig(containerConfig).withExtraHosts(extraHostsOrNull.toArray(new String[0]));
-        }
-
-        final Integer shmSizeOrNull = getShmSize();
-        if (shmSizeOrNull != null && shmSizeOrNull.intValue() > 0) {
-            final long shmSizeInByte = shmSizeOrNull.longValue() * 1024L * 1024L;
-            hostConfig(containerConfig).withShmSize(shmSizeInByte);
-        }
-
-        final List<String> securityOptionsOrNull = getSecurityOpts();
-        if (CollectionUtils.isNotEmpty(securityOptionsOrNull)) {
-            hostConfig(containerConfig).withSecurityOpts(securityOptionsOrNull);
-        }
-
-        final List<String> capabilitiesToAddOrNull = getCapabilitiesToAdd();
-        if (CollectionUtils.isNotEmpty(capabilitiesToAddOrNull)) {
-            hostConfig(containerConfig).withCapAdd(toCapabilities(capabilitiesToAddOrNull));
-        }
+        getContainerSpec().applyTo(containerConfig);
+        return containerConfig;
+    }
 
-        final List<String> capabilitiesToDropOrNull = getCapabilitiesToDrop();
-        if (CollectionUtils.isNotEmpty(capabilitiesToDropOrNull)) {
-            hostConfig(containerConfig).withCapDrop(toCapabilities(capabilitiesToDropOrNull));
+    /**
+     * Gets our container configuration, compiled ready for use. This is only
+     * compiled again if our settings have changed since it was last compiled.
+     *
+     * @return Our compiled container configuration.
+     * @throws IllegalArgumentException if any of our settings are invalid.
+     */
+    @NonNull
+    DockerContainerSpec getContainerSpec() {
+        final Object[] inputs = getContainerSpecInputs();
+        final DockerContainerSpec existing = containerSpec;
+        if (existing != null && existing.isCompiledFrom(inputs)) {
+            return existing;
         }
+        final DockerContainerSpec compiled = new DockerContainerSpec(this, inputs);
+        containerSpec = compiled;
+        return compiled;
+    }
 
-        return containerConfig;
+    /**
+     * Lists all the settings that {@link DockerContainerSpec} is compiled
+     * from. Many of our fields are public, so we can't rely on our setters to
+     * tell us when these have changed.
+     */
+    @NonNull
+    Object[] getContainerSpecInputs() {
+        return new Object[] {
+            hostname,
+            user,
+            extraGroups,
+            dockerCommand,
+            bindPorts,
+            bindAllPorts,
+            privileged,
+            extraDockerLabels,
+            cpus,
+            cpuPeriod,
+            cpuQuota,
+            cpuShares,
+            memoryLimit,
+            memorySwap,
+            dnsHosts,
+            network,
+            mounts,
+            volumesFrom2,
+            devices,
+            tty,
+            environment,
+            macAddress,
+            extraHosts,
+            shmSize,
+            securityOpts,
+            capabilitiesToAdd,
+            capabilitiesToDrop
+        };
     }
 
     /**
@@ -901,7 +805,7 @@ public class DockerTemplateBase implements Describable<DockerTemplateBase>, Seri
      * @param mountListResult List to which any {@link Mount}s should be stored in.
      * @throws IllegalArgumentException if anything is invalid.
      */
-    private static void parseMountsStrings(final String[] mounts, List<Mount> mountListResult) {
+    static void parseMountsStrings(final String[] mounts, List<Mount> mountListResult) {
         for (String mnt : mounts) {
             parseMountsString(mnt, mountListResult);
         }
@@ -1016,17 +920,7 @@ public class DockerTemplateBase implements Describable<DockerTemplateBase>, Seri
         return mnts.toArray(new String[0]);
     }
 
-    @NonNull
-    private static HostConfig hostConfig(CreateContainerCmd containerConfig) {
-        final HostConfig hc = containerConfig.getHostConfig();
-        if (hc == null) {
-            throw new IllegalStateException("Can't find " + HostConfig.class.getCanonicalName() + " within "
-                    + CreateContainerCmd.class.getCanonicalName() + " " + containerConfig);
-        }
-        return hc;
-    }
-
-    private static Capability[] toCapabilities(List<String> capabilitiesString) {
+    static Capability[] toCapabilities(List<String> capabilitiesString) {
         final ArrayList<Capability> res = new ArrayList<>();
         for (String capability : capabilitiesString) {
             try {
@@ -1264,6 +1158,22 @@ public class DockerTemplateBase implements Describable<DockerTemplateBase>, Seri
     @Extension
     public static class DescriptorImpl extends Descriptor<DockerTemplateBase> {
 
+        /**
+         * Checks that the new template's container configuration is valid, so
+         * that mistakes are reported when the configuration is saved instead
+         * of every time we try to provision from it.
+         */
+        @Override
+        public DockerTemplateBase newInstance(StaplerRequest req, @NonNull JSONObject formData) throws FormException {
+            final DockerTemplateBase instance = super.newInstance(req, formData);
+            try {
+                instance.getContainerSpec();
+            } catch (IllegalArgumentException ex) {
+                throw new FormException("Invalid container settings: " + ex.getMessage(), ex, "dockerTemplateBase");
+            }
+            return instance;
+        }
+
         public FormValidation doCheckMountsString(@QueryParameter String mountsString) {
             try {
                 final String[] mounts = splitAndFilterEmpty(mountsString, "\n");
@@ -0,0 +1,176 @@
+package com.nirima.jenkins.plugins.docker;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Label;
+import hudson.model.Node;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which of a {@link DockerCloud}'s templates match which
+ * {@link Label}, so that the queue asking the same question over and over
+ * again doesn't mean checking every label against every template every time.
+ * <p>
+ * An index is immutable as far as its templates are concerned: it is built
+ * for one particular list of templates and set of job templates, with the
+ * labels and modes they had at the time, and {@link DockerCloud} replaces it
+ * with a new one when any of those change.
+ * Whether a template is disabled is not part of the index, as templates
+ * disabled by the system re-enable themselves after a while; that is checked
+ * on each lookup, but only against the templates that match.
+ * </p>
+ */
+final class DockerTemplateIndex {
+    /**
+     * We stop remembering new labels after this many, in case something is
+     * asking about lots of different one-off label expressions.
+     */
+    private static final int MAX_CACHED_LABELS = 1024;
+
+    private final List<DockerTemplate> templates;
+    private final List<DockerTemplate> jobTemplates;
+    private final long jobTemplatesGeneration;
+    private final long labelsGeneration;
+    private final Matches unlabelled;
+    private final Map<Label, Matches> byLabel = new ConcurrentHashMap<>();
+
+    /**
+     * @param templates The cloud's templates. This list must not change; the
+     *            cloud must replace it instead.
+     * @param jobTemplates The cloud's job templates.
+     * @param jobTemplatesGeneration Identifies the state of the job templates
+     *            (which can change in place).
+     * @param labelsGeneration Identifies the labels and modes of all templates
+     *            (which can change in place), see
+     *            {@link DockerTemplate#getLabelsGeneration()}.
+     */
+    DockerTemplateIndex(
+            @NonNull List<DockerTemplate> templates,
+            @NonNull Collection<DockerTemplate> jobTemplates,
+            long jobTemplatesGeneration,
+            long labelsGeneration) {
+        this.templates = templates;
+        this.jobTemplates = new ArrayList<>(jobTemplates);
+        this.jobTemplatesGeneration = jobTemplatesGeneration;
+        this.labelsGeneration = labelsGeneration;
+        final List<DockerTemplate> normal = new ArrayList<>();
+        for (final DockerTemplate t : templates) {
+            if (t.getMode() == Node.Mode.NORMAL) {
+                normal.add(t);
+            }
+        }
+        this.unlabelled = new Matches(normal, normal.size());
+    }
+
+    /**
+     * @return true if this index was built for the given templates and job
+     *         templates, as they are now.
+     */
+    boolean isFor(
+            @NonNull List<DockerTemplate> currentTemplates,
+            long currentJobTemplatesGeneration,
+            long currentLabelsGeneration) {
+        return templates == currentTemplates
+                && jobTemplatesGeneration == currentJobTemplatesGeneration
+                && labelsGeneration == currentLabelsGeneration;
+    }
+
+    /**
+     * Gets the (enabled) templates that match a label, in the same order as
+     * {@link DockerCloud#getTemplates(Label)} has always returned them: the
+     * cloud's templates first, then its job templates.
+     *
+     * @param label The label to be matched, or null if no label was provided.
+     * @return The matching templates. This must not be modified.
+     */
+    @NonNull
+    List<DockerTemplate> getTemplates(@CheckForNull Label label) {
+        final Matches matches = getMatches(label);
+        // job templates have never been checked for being disabled
+        for (int i = 0; i < matches.numberOfTemplates; i++) {
+            if (matches.all.get(i).getDisabled().isDisabled()) {
+                return withoutDisabled(matches);
+            }
+        }
+        return matches.all;
+    }
+
+    /**
+     * Gets the first (enabled) template that matches a label.
+     *
+     * @param label The label to be matched, or null if no label was provided.
+     * @return The first matching template, or null if there are none.
+     */
+    @CheckForNull
+    DockerTemplate getTemplate(@CheckForNull Label label) {
+        final Matches matches = getMatches(label);
+        for (int i = 0; i < matches.all.size(); i++) {
+            final DockerTemplate t = matches.all.get(i);
+            if (i >= matches.numberOfTemplates || !t.getDisabled().isDisabled()) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    private Matches getMatches(@CheckForNull Label label) {
+        if (label == null) {
+            return unlabelled;
+        }
+        final Matches existing = byLabel.get(label);
+        if (existing != null) {
+            return existing;
+        }
+        final Matches computed = match(label);
+        if (byLabel.size() < MAX_CACHED_LABELS) {
+            byLabel.putIfAbsent(label, computed);
+        }
+        return computed;
+    }
+
+    private Matches match(@NonNull Label label) {
+        final List<DockerTemplate> result = new ArrayList<>();
+        for (final DockerTemplate t : templates) {
+            if (label.matches(t.getLabelSet())) {
+                result.add(t);
+            }
+        }
+        final int numberOfTemplates = result.size();
+        for (final DockerTemplate t : jobTemplates) {
+            if (label.matches(t.getLabelSet())) {
+                result.add(t);
+            }
+        }
+        return new Matches(result, numberOfTemplates);
+    }
+
+    private static List<DockerTemplate> withoutDisabled(Matches matches) {
+        final List<DockerTemplate> result = new ArrayList<>(matches.all.size());
+        for (int i = 0; i < matches.all.size(); i++) {
+            final DockerTemplate t = matches.all.get(i);
+            if (i >= matches.numberOfTemplates || !t.getDisabled().isDisabled()) {
+                result.add(t);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /** The templates that match a label. */
+    private static final class Matches {
+        /** The cloud's templates, followed by its job templates. */
+        final List<DockerTemplate> all;
+
+        /** How many of {@link #all} are the cloud's templates. */
+        final int numberOfTemplates;
+
+        Matches(List<DockerTemplate> all, int numberOfTemplates) {
+            this.all = Collections.unmodifiableList(all);
+            this.numberOfTemplates = numberOfTemplates;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.InspectContainerResponse;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import io.jenkins.docker.DockerProvisioningTimeline;
+import io.jenkins.docker.client.DockerAPI;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of standby containers for a {@link DockerTemplate} that has a
+ * {@link DockerTemplate#getMinimumIdle()} set.
+ * <p>
+ * Standby containers have had their image pulled and have been created, but
+ * not started. {@link DockerCloud#provision} hands them out in preference to
+ * creating new containers, so new agents only have to wait for the container
+ * to start and connect. The pool is refilled in the background, standby
+ * containers count towards the cloud's and template's container caps, and any
+ * standby container that no longer belongs to a pool (e.g. because the
+ * template was reconfigured) is removed by the {@link DockerContainerWatchdog}.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerWarmPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerWarmPool.class);
+
+    /** All pools, indexed by template. Guarded by itself. */
+    private static final Map<DockerTemplate, DockerWarmPool> POOLS = new IdentityHashMap<>();
+
+    /** IDs of all containers that are currently sitting in a pool. */
+    private static final Set<String> STANDBY_CONTAINER_IDS = ConcurrentHashMap.newKeySet();
+
+    /**
+     * How long a standby container can sit in a pool before we'd rather not
+     * use it, e.g. because its image may well have been updated since.
+     */
+    private static final long MAX_STANDBY_AGE_IN_NANOS = TimeUnit.MINUTES.toNanos(JenkinsUtils.getSystemPropertyLong(
+            DockerWarmPool.class.getName() + ".maxStandbyAgeInMinutes", 60L));
+
+    @NonNull
+    private final DockerCloud cloud;
+
+    @NonNull
+    private final DockerTemplate template;
+
+    private final ConcurrentLinkedDeque<StandbyContainer> standby = new ConcurrentLinkedDeque<>();
+
+    /** Number of standby containers we're in the process of creating. */
+    private final AtomicInteger refillsInProgress = new AtomicInteger();
+
+    /** Set once this pool has been replaced or is no longer wanted. */
+    private volatile boolean abandoned;
+
+    private DockerWarmPool(@NonNull DockerCloud cloud, @NonNull DockerTemplate template) {
+        this.cloud = cloud;
+        this.template = template;
+    }
+
+    /**
+     * Obtains the pool for a template.
+     *
+     * @param cloud The cloud the template belongs to.
+     * @param template The template.
+     * @return The pool, or null if the template does not want one.
+     */
+    @CheckForNull
+    static DockerWarmPool forTemplate(@NonNull DockerCloud cloud, @NonNull DockerTemplate template) {
+        synchronized (POOLS) {
+            final DockerWarmPool existing = POOLS.get(template);
+            if (existing != null && existing.cloud == cloud) {
+                return existing;
+            }
+            if (template.getMinimumIdle() <= 0) {
+                // any existing pool is another cloud's, so isn't ours to use
+                return null;
+            }
+            final DockerWarmPool created = new DockerWarmPool(cloud, template);
+            POOLS.put(template, created);
+            if (existing != null) {
+                existing.abandon();
+            }
+            return created;
+        }
+    }
+
+    /**
+     * Indicates if a container is sitting in a pool, waiting to be used.
+     *
+     * @param containerId The container ID.
+     * @return true if the container is in a pool and hence should be left
+     *         alone.
+     */
+    static boolean isStandbyContainer(String containerId) {
+        return STANDBY_CONTAINER_IDS.contains(containerId);
+    }
+
+    /**
+     * Counts the standby containers (including those being created) that
+     * belong to a cloud.
+     *
+     * @param cloudName The {@link DockerCloud#name}.
+     * @param imageOrNull If not null, only count containers of this image.
+     * @return The number of standby containers.
+     */
+    static int countStandbyContainers(@NonNull String cloudName, @CheckForNull String imageOrNull) {
+        int total = 0;
+        for (final DockerWarmPool pool : getAllPools()) {
+            if (cloudName.equals(pool.cloud.name)
+                    && (imageOrNull == null || imageOrNull.equals(pool.template.getImage()))) {
+                total += pool.standby.size() + pool.refillsInProgress.get();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Drops all pools whose template is no longer part of the given clouds.
+     * Their standby containers are then no longer protected, so the
+     * {@link DockerContainerWatchdog} will remove them.
+     *
+     * @param clouds All the clouds currently configured.
+     */
+    static void retainOnly(Collection<DockerCloud> clouds) {
+        final Map<DockerTemplate, DockerCloud> templatesInUse = new IdentityHashMap<>();
+        for (final DockerCloud c : clouds) {
+            for (final DockerTemplate t : c.getTemplates()) {
+                templatesInUse.put(t, c);
+            }
+        }
+        final List<DockerWarmPool> abandoned = new ArrayList<>();
+        synchronized (POOLS) {
+            final Iterator<Map.Entry<DockerTemplate, DockerWarmPool>> it =
+                    POOLS.entrySet().iterator();
+            while (it.hasNext()) {
+                final DockerWarmPool pool = it.next().getValue();
+                if (templatesInUse.get(pool.template) != pool.cloud) {
+                    it.remove();
+                    abandoned.add(pool);
+                }
+            }
+        }
+        for (final DockerWarmPool pool : abandoned) {
+            pool.abandon();
+        }
+    }
+
+    /**
+     * Refills the pools of all the templates of the given clouds.
+     *
+     * @param clouds All the clouds currently configured.
+     */
+    static void refillAll(Collection<DockerCloud> clouds) {
+        for (final DockerCloud c : clouds) {
+            for (final DockerTemplate t : c.getTemplates()) {
+                final DockerWarmPool pool = forTemplate(c, t);
+                if (pool != null) {
+                    pool.refill();
+                }
+            }
+        }
+    }
+
+    private static List<DockerWarmPool> getAllPools() {
+        synchronized (POOLS) {
+            return new ArrayList<>(POOLS.values());
+        }
+    }
+
+    /**
+     * Takes a standby container out of the pool. The container remains
+     * protected from the {@link DockerContainerWatchdog} until it is passed to
+     * {@link #release(StandbyContainer)}, which the caller must do once the
+     * container's node exists (or has failed to). Any standby containers that
+     * have been waiting too long are thrown away, leaving them for the
+     * {@link DockerContainerWatchdog} to remove.
+     *
+     * @return A standby container, or null if there aren't any.
+     */
+    @CheckForNull
+    StandbyContainer take() {
+        StandbyContainer container;
+        while ((container = standby.pollFirst()) != null) {
+            if (System.nanoTime() - container.getCreatedNanos() < MAX_STANDBY_AGE_IN_NANOS) {
+                return container;
+            }
+            LOGGER.info("Throwing away stale standby container {} from {}", container.getContainerId(), this);
+            release(container);
+        }
+        return null;
+    }
+
+    /**
+     * Checks that a standby container, from {@link #take()}, can still be
+     * used, i.e. that it still exists and hasn't been started (or died).
+     *
+     * @param container The container.
+     * @return true if it can be used. If not, the caller should leave it for
+     *         the {@link DockerContainerWatchdog} to remove.
+     * @throws IOException if we couldn't ask docker.
+     */
+    static boolean isUsable(@NonNull StandbyContainer container) throws IOException {
+        final String containerId = container.getContainerId();
+        try (final DockerClient client = container.getDockerApi().getClient()) {
+            final InspectContainerResponse.ContainerState state =
+                    client.inspectContainerCmd(containerId).exec().getState();
+            final String status = state == null ? null : state.getStatus();
+            if ("created".equals(status)) {
+                return true;
+            }
+            LOGGER.info("Not using standby container {} as its status is {}", containerId, status);
+            return false;
+        } catch (NotFoundException ex) {
+            LOGGER.info("Not using standby container {} as it no longer exists", containerId);
+            return false;
+        }
+    }
+
+    /**
+     * Puts a standby container, previously obtained from {@link #take()}, back
+     * into the pool because it wasn't used after all.
+     *
+     * @param container The container to put back.
+     */
+    void giveBack(@NonNull StandbyContainer container) {
+        standby.addFirst(container);
+    }
+
+    /**
+     * Stops protecting a container that was taken out of a pool.
+     *
+     * @param container The container from {@link #take()}.
+     */
+    static void release(@NonNull StandbyContainer container) {
+        STANDBY_CONTAINER_IDS.remove(container.getContainerId());
+    }
+
+    /**
+     * Starts creating standby containers (in the background) until the pool
+     * holds {@link DockerTemplate#getMinimumIdle()} containers, as long as
+     * there's capacity for them. Surplus standby containers are dropped.
+     */
+    void refill() {
+        final int minimumIdle = template.getMinimumIdle();
+        while (standby.size() > minimumIdle) {
+            final StandbyContainer surplus = take();
+            if (surplus == null) {
+                break;
+            }
+            release(surplus);
+            LOGGER.info("Dropping surplus standby container {} for {}", surplus.getContainerId(), this);
+        }
+        if (abandoned || cloud.getDisabled().isDisabled() || template.getDisabled().isDisabled()) {
+            return;
+        }
+        while (standby.size() + refillsInProgress.get() < minimumIdle) {
+            if (!cloud.hasCapacityForStandbyContainer(template)) {
+                LOGGER.debug("Not refilling {} as there's no capacity", this);
+                return;
+            }
+            refillsInProgress.incrementAndGet();
+            boolean queued = false;
+            try {
+                Computer.threadPoolForRemoting.submit(this::createStandbyContainer);
+                queued = true;
+            } finally {
+                if (!queued) {
+                    refillsInProgress.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void createStandbyContainer() {
+        try {
+            // let the cloud choose the docker host, just as it does for new agents
+            final DockerAPI api = cloud.reserveDockerApi(template);
+            if (api == null) {
+                LOGGER.debug("Not refilling {} as none of its docker hosts can take another container", this);
+                return;
+            }
+            final long startedNanos = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                final StandbyContainer created = template.createStandbyContainer(api, cloud.name, TaskListener.NULL);
+                STANDBY_CONTAINER_IDS.add(created.getContainerId());
+                standby.addLast(created);
+                succeeded = true;
+                if (abandoned) {
+                    abandon(); // we were abandoned while we were busy
+                }
+            } finally {
+                cloud.releaseDockerApi(api, template, succeeded, System.nanoTime() - startedNanos);
+            }
+        } catch (Exception ex) {
+            LOGGER.warn("Unable to create standby container for {}", this, ex);
+        } finally {
+            refillsInProgress.decrementAndGet();
+        }
+    }
+
+    /**
+     * Stops protecting our standby containers, leaving them for the
+     * {@link DockerContainerWatchdog} to remove.
+     */
+    private void abandon() {
+        abandoned = true;
+        StandbyContainer container;
+        while ((container = take()) != null) {
+            release(container);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "warm pool of " + template.getName() + " (" + template.getImage() + ") in cloud " + cloud.name;
+    }
+
+    /**
+     * A container that has been created, but not started, for later use as a
+     * {@link io.jenkins.docker.DockerTransientNode}.
+     */
+    static final class StandbyContainer {
+        private final DockerAPI dockerApi;
+        private final String containerId;
+        private final String nodeName;
+        private final String effectiveRemoteFsDir;
+        private final DockerProvisioningTimeline timeline;
+        private final long createdNanos;
+
+        StandbyContainer(
+                DockerAPI dockerApi,
+                String containerId,
+                String nodeName,
+                String effectiveRemoteFsDir,
+                DockerProvisioningTimeline timeline,
+                long createdNanos) {
+            this.dockerApi = dockerApi;
+            this.containerId = containerId;
+            this.nodeName = nodeName;
+            this.effectiveRemoteFsDir = effectiveRemoteFsDir;
+            this.timeline = timeline;
+            this.createdNanos = createdNanos;
+        }
+
+        /** @return The docker host the container is on. */
+        DockerAPI getDockerApi() {
+            return dockerApi;
+        }
+
+        String getContainerId() {
+            return containerId;
+        }
+
+        String getNodeName() {
+            return nodeName;
+        }
+
+        String getEffectiveRemoteFsDir() {
+            return effectiveRemoteFsDir;
+        }
+
+        /** @return The timeline of pulling the image and creating the container. */
+        DockerProvisioningTimeline getTimeline() {
+            return timeline;
+        }
+
+        /** @return The {@link System#nanoTime()} at which the container was created. */
+        long getCreatedNanos() {
+            return createdNanos;
+        }
+    }
+
+    /**
+     * Keeps the warm pools topped up.
+     */
+    @Extension
+    public static class Refiller extends AsyncPeriodicWork {
+        private static final long RECURRENCE_PERIOD_IN_MS = JenkinsUtils.getSystemPropertyLong(
+                        DockerWarmPool.class.getName() + ".refillIntervalInSeconds", 60L)
+                * 1000L;
+
+        public Refiller() {
+            super(String.format("%s Refiller", DockerWarmPool.class.getSimpleName()));
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return RECURRENCE_PERIOD_IN_MS;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            refillAll(DockerCloud.instances());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.nirima.jenkins.plugins.docker.strategy;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Item;
+import hudson.model.Queue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which docker agents are being held back, for a short while, for
+ * the next build of the job that they last ran, so that the build gets a
+ * container with a warm workspace.
+ * <p>
+ * Holds are made by {@link DockerMultiBuildRetentionStrategy} once it has
+ * reset a container, are enforced by {@link DockerJobAffinityDispatcher}, and
+ * end when the agent accepts its next build, is terminated, or when the hold
+ * expires, whichever comes first.
+ * </p>
+ */
+final class DockerJobAffinity {
+    static final DockerJobAffinity INSTANCE = new DockerJobAffinity();
+
+    /** Holds by node name. We only ever expect a handful of these. */
+    private final Map<String, Hold> holds = new ConcurrentHashMap<>();
+
+    /**
+     * Holds a node for the next build of a job.
+     *
+     * @param nodeName The node to be held.
+     * @param jobName The full name of the job it's being held for.
+     * @param untilMilliseconds When the hold expires.
+     */
+    void hold(@NonNull String nodeName, @NonNull String jobName, long untilMilliseconds) {
+        holds.put(nodeName, new Hold(jobName, untilMilliseconds));
+    }
+
+    /**
+     * Ends any hold on a node.
+     *
+     * @param nodeName The node that is no longer held.
+     */
+    void release(@NonNull String nodeName) {
+        holds.remove(nodeName);
+    }
+
+    /**
+     * @param nodeName The node of interest.
+     * @param nowMilliseconds The current time.
+     * @return The full name of the job the node is being held for, or null if
+     *         it isn't being held.
+     */
+    @CheckForNull
+    String getJobHeldFor(@NonNull String nodeName, long nowMilliseconds) {
+        final Hold hold = holds.get(nodeName);
+        if (hold == null) {
+            return null;
+        }
+        if (hold.hasExpired(nowMilliseconds)) {
+            holds.remove(nodeName, hold);
+            return null;
+        }
+        return hold.jobName;
+    }
+
+    /**
+     * @param jobName The full name of the job of interest.
+     * @param nowMilliseconds The current time.
+     * @return The name of a node being held for the job, or null if there
+     *         aren't any.
+     */
+    @CheckForNull
+    String getNodeHeldFor(@NonNull String jobName, long nowMilliseconds) {
+        for (final Map.Entry<String, Hold> entry : holds.entrySet()) {
+            final Hold hold = entry.getValue();
+            if (hold.hasExpired(nowMilliseconds)) {
+                holds.remove(entry.getKey(), hold);
+            } else if (hold.jobName.equals(jobName)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Works out which job a task belongs to, in a way that gives the same
+     * answer for a build that's queued as for the same build once it's
+     * running, e.g. both the Pipeline and its <code>node</code> blocks.
+     *
+     * @param task The task.
+     * @return The full name of the job, or null if it isn't part of one.
+     */
+    @CheckForNull
+    static String getJobName(@CheckForNull Queue.Task task) {
+        if (task == null) {
+            return null;
+        }
+        final Queue.Task owner = task.getOwnerTask();
+        if (owner instanceof Item) {
+            return ((Item) owner).getFullName();
+        }
+        return null;
+    }
+
+    private static final class Hold {
+        final String jobName;
+        final long untilMilliseconds;
+
+        Hold(String jobName, long untilMilliseconds) {
+            this.jobName = jobName;
+            this.untilMilliseconds = untilMilliseconds;
+        }
+
+        boolean hasExpired(long nowMilliseconds) {
+            return nowMilliseconds >= untilMilliseconds;
+        }
+    }
+}
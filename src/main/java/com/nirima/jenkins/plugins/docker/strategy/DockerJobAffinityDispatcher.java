@@ -0,0 +1,167 @@
+package com.nirima.jenkins.plugins.docker.strategy;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+import java.util.function.Predicate;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Routes builds to docker agents that are being held for them by
+ * {@link DockerJobAffinity}.
+ * <ul>
+ * <li>An agent that is being held for a job won't take builds of any other
+ * job.</li>
+ * <li>A build of a job that has an agent being held for it won't go anywhere
+ * else.</li>
+ * <li>...and while that agent isn't (yet) free to take it, the build is kept
+ * blocked rather than buildable, as Jenkins provisions new agents for
+ * buildable items that no executor has taken, but not for blocked ones.</li>
+ * </ul>
+ * Both stop once the hold ends, so at worst builds are delayed by the (short)
+ * time that the agent is held for.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class DockerJobAffinityDispatcher extends QueueTaskDispatcher {
+    private final DockerJobAffinity affinity;
+
+    public DockerJobAffinityDispatcher() {
+        this(DockerJobAffinity.INSTANCE);
+    }
+
+    DockerJobAffinityDispatcher(DockerJobAffinity affinity) {
+        this.affinity = affinity;
+    }
+
+    @Override
+    public CauseOfBlockage canRun(Queue.Item item) {
+        final Label label = item.getAssignedLabel();
+        return canRun(
+                DockerJobAffinity.getJobName(item.task),
+                System.currentTimeMillis(),
+                heldNodeName -> isHeldButNotFree(heldNodeName, label));
+    }
+
+    /**
+     * Decides whether a build can leave the queue at all.
+     *
+     * @param jobName The job that the build belongs to, if any.
+     * @param nowMilliseconds The current time.
+     * @param heldNodeWillTakeIt Says whether a node being held for the job
+     *            could take the build, but isn't free to do so just yet.
+     * @return null if the build can run, else the reason why not.
+     */
+    @CheckForNull
+    CauseOfBlockage canRun(@CheckForNull String jobName, long nowMilliseconds, Predicate<String> heldNodeWillTakeIt) {
+        if (jobName == null) {
+            return null;
+        }
+        final String heldNodeName = affinity.getNodeHeldFor(jobName, nowMilliseconds);
+        if (heldNodeName != null && heldNodeWillTakeIt.test(heldNodeName)) {
+            return new BecauseHeldNodeIsWaiting(heldNodeName);
+        }
+        return null;
+    }
+
+    @Override
+    public CauseOfBlockage canTake(Node node, Queue.BuildableItem item) {
+        final Label label = item.getAssignedLabel();
+        return canTake(
+                node.getNodeName(),
+                DockerJobAffinity.getJobName(item.task),
+                System.currentTimeMillis(),
+                heldNodeName -> canTakeHeld(heldNodeName, label));
+    }
+
+    /**
+     * Decides whether a node can take a build.
+     *
+     * @param nodeName The node that could take the build.
+     * @param jobName The job that the build belongs to, if any.
+     * @param nowMilliseconds The current time.
+     * @param heldNodeCanTakeIt Says whether a node being held for the job could
+     *            take the build.
+     * @return null if the node can take it, else the reason why not.
+     */
+    @CheckForNull
+    CauseOfBlockage canTake(
+            String nodeName, @CheckForNull String jobName, long nowMilliseconds, Predicate<String> heldNodeCanTakeIt) {
+        final String heldFor = affinity.getJobHeldFor(nodeName, nowMilliseconds);
+        if (heldFor != null) {
+            return heldFor.equals(jobName) ? null : new BecauseNodeIsHeld(nodeName, heldFor);
+        }
+        if (jobName == null) {
+            return null;
+        }
+        final String heldNodeName = affinity.getNodeHeldFor(jobName, nowMilliseconds);
+        if (heldNodeName != null && heldNodeCanTakeIt.test(heldNodeName)) {
+            return new BecauseHeldNodeIsWaiting(heldNodeName);
+        }
+        return null;
+    }
+
+    private static boolean isHeldButNotFree(String nodeName, @CheckForNull Label label) {
+        final Node node = Jenkins.get().getNode(nodeName);
+        if (node == null || !isSuitable(node, label)) {
+            return false;
+        }
+        final Computer c = node.toComputer();
+        if (c == null) {
+            return false;
+        }
+        // if it's free then we let the build through, and canTake sends it there
+        return !(c.isOnline() && c.isAcceptingTasks() && c.countIdle() > 0);
+    }
+
+    private static boolean isSuitable(Node node, @CheckForNull Label label) {
+        return label == null ? node.getMode() == Node.Mode.NORMAL : label.contains(node);
+    }
+
+    private static boolean canTakeHeld(String nodeName, @CheckForNull Label label) {
+        final Node node = Jenkins.get().getNode(nodeName);
+        if (node == null) {
+            return false;
+        }
+        final Computer c = node.toComputer();
+        if (c == null || !c.isOnline() || !c.isAcceptingTasks()) {
+            return false;
+        }
+        return isSuitable(node, label);
+    }
+
+    static final class BecauseNodeIsHeld extends CauseOfBlockage {
+        private final String nodeName;
+        private final String jobName;
+
+        BecauseNodeIsHeld(String nodeName, String jobName) {
+            this.nodeName = nodeName;
+            this.jobName = jobName;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return nodeName + " is being held for the next build of " + jobName;
+        }
+    }
+
+    static final class BecauseHeldNodeIsWaiting extends CauseOfBlockage {
+        private final String nodeName;
+
+        BecauseHeldNodeIsWaiting(String nodeName) {
+            this.nodeName = nodeName;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "Waiting for " + nodeName + ", which last ran this job";
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package com.nirima.jenkins.plugins.docker.strategy;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.command.InspectExecResponse;
+import com.github.dockerjava.api.model.Frame;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Descriptor;
+import hudson.model.Executor;
+import hudson.model.OneOffExecutor;
+import hudson.model.Queue;
+import hudson.model.Queue.FlyweightTask;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.slaves.RetentionStrategy;
+import hudson.util.FormValidation;
+import io.jenkins.docker.DockerComputer;
+import io.jenkins.docker.DockerTransientNode;
+import io.jenkins.docker.client.DockerAPI;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jenkinsci.plugins.durabletask.executors.ContinuableExecutable;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Retention strategy that allows our docker agents to run several builds
+ * before being terminated, resetting the container between builds.
+ * <ul>
+ * <li>Trivial work (as defined by {@link DockerOnceRetentionStrategy}) is not
+ * counted as a build and does not trigger a reset.</li>
+ * <li>Once a build has been accepted, no further builds are accepted until it
+ * has finished and the container has been reset.</li>
+ * <li>The reset checks for any of the configured contamination markers, wipes
+ * the workspaces (if configured to) and then runs the configured reset script,
+ * all via <code>docker exec</code>.</li>
+ * <li>The container is terminated instead of being reset if the build failed
+ * (or was aborted), or if we can't yet tell whether it failed (as is usually
+ * the case when a Pipeline <code>node</code> block ends, as the Pipeline only
+ * gets its result once it has finished), if any of the contamination markers
+ * are present, if the
+ * reset fails, or if the container has run as many builds as it's allowed to,
+ * or has been in use for as long as it's allowed to be.</li>
+ * </ul>
+ * <p>
+ * Optionally, once reset, the agent can be held for a few seconds for the next
+ * build of the job it just ran, so that job gets the benefit of any caches
+ * left in the container (see {@link DockerJobAffinityDispatcher}).
+ * </p>
+ * <p>
+ * This extends {@link DockerOnceRetentionStrategy} so that templates can use
+ * it wherever they could use that, and it behaves exactly like that when
+ * limited to one build.
+ * </p>
+ */
+public class DockerMultiBuildRetentionStrategy extends DockerOnceRetentionStrategy {
+
+    private static final Logger LOGGER = Logger.getLogger(DockerMultiBuildRetentionStrategy.class.getName());
+    private static final int DEFAULT_MAXBUILDS = 10;
+    private static final int DEFAULT_MAXMINUTES = 60;
+    /** How long we let the reset take before we give up on the container. */
+    private static final long RESET_TIMEOUT_SECONDS = JenkinsUtils.getSystemPropertyLong(
+            DockerMultiBuildRetentionStrategy.class.getName() + ".resetTimeoutSeconds", 300L);
+
+    private int maxBuilds = DEFAULT_MAXBUILDS;
+    private int maxMinutes = DEFAULT_MAXMINUTES;
+    private boolean wipeWorkspaces = true;
+    private String resetScript;
+    private String contaminationMarkers;
+    private int affinitySeconds;
+    /**
+     * This will be null (the starting value) until our node has started a
+     * build, and is then the number of builds it has started.
+     */
+    private Integer numberOfBuildsStarted;
+    /**
+     * This will be null (the starting value) until our node has started a
+     * build, and is then when it started the first one.
+     */
+    private Long firstBuildStartedMilliseconds;
+    /**
+     * This will be null (the starting value) or {@link Boolean#TRUE} if our node
+     * has done something non-trivial since it was last reset.
+     */
+    private Boolean resetNeeded;
+    /**
+     * The full name of the job whose build this node started most recently, if
+     * known.
+     */
+    private String lastJobName;
+
+    /**
+     * Creates the retention strategy.
+     *
+     * @param idleMinutes number of minutes of idleness after which to kill the
+     *                    agent; serves a backup in case the strategy fails to
+     *                    detect the end of a task
+     * @param maxBuilds   number of builds after which to kill the agent.
+     * @param maxMinutes  number of minutes after its first build started after
+     *                    which to kill the agent (once it's done).
+     */
+    @DataBoundConstructor
+    public DockerMultiBuildRetentionStrategy(int idleMinutes, int maxBuilds, int maxMinutes) {
+        super(idleMinutes);
+        this.maxBuilds = maxBuilds;
+        this.maxMinutes = maxMinutes;
+    }
+
+    public int getMaxBuilds() {
+        if (maxBuilds < 1) {
+            maxBuilds = DEFAULT_MAXBUILDS;
+        }
+        return maxBuilds;
+    }
+
+    public int getMaxMinutes() {
+        if (maxMinutes < 1) {
+            maxMinutes = DEFAULT_MAXMINUTES;
+        }
+        return maxMinutes;
+    }
+
+    public boolean isWipeWorkspaces() {
+        return wipeWorkspaces;
+    }
+
+    @DataBoundSetter
+    public void setWipeWorkspaces(boolean wipeWorkspaces) {
+        this.wipeWorkspaces = wipeWorkspaces;
+    }
+
+    @CheckForNull
+    public String getResetScript() {
+        return resetScript;
+    }
+
+    @DataBoundSetter
+    public void setResetScript(String resetScript) {
+        this.resetScript = Util.fixEmptyAndTrim(resetScript);
+    }
+
+    @CheckForNull
+    public String getContaminationMarkers() {
+        return contaminationMarkers;
+    }
+
+    @DataBoundSetter
+    public void setContaminationMarkers(String contaminationMarkers) {
+        this.contaminationMarkers = Util.fixEmptyAndTrim(contaminationMarkers);
+    }
+
+    public int getAffinitySeconds() {
+        return affinitySeconds;
+    }
+
+    /**
+     * @param affinitySeconds number of seconds, after being reset, for which
+     *                        the agent only takes another build of the job it
+     *                        just ran. Zero (or less) disables this.
+     */
+    @DataBoundSetter
+    public void setAffinitySeconds(int affinitySeconds) {
+        this.affinitySeconds = Math.max(0, affinitySeconds);
+    }
+
+    public int getNumberOfBuildsStarted() {
+        return numberOfBuildsStarted == null ? 0 : numberOfBuildsStarted.intValue();
+    }
+
+    @DataBoundSetter
+    public void setNumberOfBuildsStarted(Integer numberOfBuildsStarted) {
+        if (numberOfBuildsStarted != null && numberOfBuildsStarted.intValue() != 0) {
+            this.numberOfBuildsStarted = numberOfBuildsStarted;
+        } else {
+            this.numberOfBuildsStarted = null;
+        }
+    }
+
+    public boolean getResetNeeded() {
+        return resetNeeded != null && resetNeeded.booleanValue();
+    }
+
+    @DataBoundSetter
+    public void setResetNeeded(Boolean resetNeeded) {
+        if (resetNeeded != null && resetNeeded.booleanValue()) {
+            this.resetNeeded = Boolean.TRUE;
+        } else {
+            this.resetNeeded = null;
+        }
+    }
+
+    @Override
+    public long check(@NonNull DockerComputer c) {
+        if (computerIsIdle(c) && !getResetNeeded() && (getTerminateOnceDone() || isTooOld())) {
+            LOGGER.log(
+                    Level.FINE,
+                    "Disconnecting {0} as it's idle and has done all the builds it is allowed to do",
+                    computerName(c));
+            terminateContainer(c);
+            return 1; // check again in 1 minute
+        }
+        return super.check(c);
+    }
+
+    @Override
+    public synchronized void taskAccepted(Executor executor, Queue.Task task) {
+        final int newNumberOfTasksInProgress = getNumberOfTasksInProgress() + 1;
+        setNumberOfTasksInProgress(newNumberOfTasksInProgress);
+        if (isTrivial(executor, task)) {
+            LOGGER.log(Level.FINER, "Node {0} has started trivial task {1}. Tasks in progress now={2}", new Object[] {
+                executor.getOwner().getName(), task, newNumberOfTasksInProgress
+            });
+            return;
+        }
+        if (firstBuildStartedMilliseconds == null) {
+            firstBuildStartedMilliseconds = currentMilliseconds();
+        }
+        final int newNumberOfBuildsStarted = getNumberOfBuildsStarted() + 1;
+        setNumberOfBuildsStarted(newNumberOfBuildsStarted);
+        lastJobName = DockerJobAffinity.getJobName(task);
+        releaseHold((DockerComputer) executor.getOwner());
+        // don't accept anything else until we've been reset
+        setResetNeeded(true);
+        LOGGER.log(
+                Level.FINER,
+                "Node {0} has started build {1} of {2}, task {3}. Tasks in progress now={4}.",
+                new Object[] {
+                    executor.getOwner().getName(),
+                    newNumberOfBuildsStarted,
+                    getMaxBuilds(),
+                    task,
+                    newNumberOfTasksInProgress
+                });
+    }
+
+    @Override
+    public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
+        done(executor, task, taskFailed(executor));
+    }
+
+    @Override
+    public void taskCompletedWithProblems(Executor executor, Queue.Task task, long durationMS, Throwable problems) {
+        done(executor, task, true);
+    }
+
+    private synchronized void done(Executor executor, Queue.Task task, boolean failed) {
+        final DockerComputer c = (DockerComputer) executor.getOwner();
+        final int newNumberOfTasksInProgress = getNumberOfTasksInProgress() - 1;
+        setNumberOfTasksInProgress(newNumberOfTasksInProgress);
+        if (failed && getResetNeeded()) {
+            // whatever else is still running, this container can't be trusted now.
+            setTerminateOnceDone(true);
+        }
+        if (newNumberOfTasksInProgress != 0) {
+            LOGGER.log(Level.FINER, "Node {0} has completed Task {1}. Tasks in progress now={2}", new Object[] {
+                computerName(c), task, newNumberOfTasksInProgress
+            });
+            return;
+        }
+        if (!getResetNeeded()) {
+            LOGGER.log(
+                    Level.FINER,
+                    "Node {0} has completed Task {1}. Not resetting as only trivial work has been done.",
+                    new Object[] {computerName(c), task});
+            return;
+        }
+        if (getNumberOfBuildsStarted() >= getMaxBuilds() || isTooOld()) {
+            setTerminateOnceDone(true);
+        }
+        if (getTerminateOnceDone()) {
+            LOGGER.log(
+                    Level.FINE,
+                    "Node {0} has completed Task {1} after {2} build(s). Terminating as {3}.",
+                    new Object[] {
+                        computerName(c), task, getNumberOfBuildsStarted(), failed ? "the build failed" : "it is used up"
+                    });
+            terminateContainer(c);
+            return;
+        }
+        LOGGER.log(
+                Level.FINER,
+                "Node {0} has completed Task {1} after {2} build(s). Resetting it for the next build.",
+                new Object[] {computerName(c), task, getNumberOfBuildsStarted()});
+        runInBackground(() -> resetOrTerminate(c));
+    }
+
+    private void resetOrTerminate(DockerComputer c) {
+        boolean reset = false;
+        try {
+            reset = resetContainer(c);
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.WARNING, "Interrupted while resetting " + computerName(c), ex);
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "Failed to reset " + computerName(c), ex);
+        }
+        synchronized (this) {
+            if (reset && !getTerminateOnceDone()) {
+                LOGGER.log(Level.FINE, "Node {0} has been reset and is ready for its next build", computerName(c));
+                holdForLastJob(c);
+                setResetNeeded(false);
+                return;
+            }
+            setTerminateOnceDone(true);
+        }
+        LOGGER.log(Level.FINE, "Terminating {0} as it could not be reset", computerName(c));
+        terminateContainer(c);
+    }
+
+    private void holdForLastJob(DockerComputer c) {
+        final String nodeName = computerName(c);
+        if (affinitySeconds > 0 && lastJobName != null && nodeName != null) {
+            LOGGER.log(Level.FINER, "Holding {0} for the next build of {1} for up to {2}s", new Object[] {
+                nodeName, lastJobName, affinitySeconds
+            });
+            DockerJobAffinity.INSTANCE.hold(
+                    nodeName, lastJobName, currentMilliseconds() + SECONDS.toMillis(affinitySeconds));
+        }
+    }
+
+    private void releaseHold(DockerComputer c) {
+        final String nodeName = computerName(c);
+        if (nodeName != null) {
+            DockerJobAffinity.INSTANCE.release(nodeName);
+        }
+    }
+
+    private boolean isTooOld() {
+        final Long started = firstBuildStartedMilliseconds;
+        return started != null && currentMilliseconds() - started >= MINUTES.toMillis(getMaxMinutes());
+    }
+
+    /**
+     * As {@link DockerOnceRetentionStrategy}, we don't count
+     * {@link FlyweightTask}s, {@link OneOffExecutor}s or the start of a
+     * {@link ContinuableExecutable} that will continue.
+     */
+    private static boolean isTrivial(Executor executor, Queue.Task task) {
+        return task instanceof FlyweightTask
+                || executor instanceof OneOffExecutor
+                || (executor instanceof ContinuableExecutable && ((ContinuableExecutable) executor).willContinue());
+    }
+
+    /**
+     * Builds the shell script that we run inside the container to reset it.
+     * The script exits with a non-zero status if the container is contaminated
+     * or if any part of the reset failed.
+     *
+     * @return A script for <code>/bin/sh -c</code>.
+     */
+    @Restricted(NoExternalUse.class)
+    String makeResetScript() {
+        final StringBuilder s = new StringBuilder();
+        s.append("cd \"$JENKINS_AGENT_WORKDIR\" || exit 1\n");
+        for (final String marker : splitMarkers(contaminationMarkers)) {
+            final String quoted = quote(marker);
+            s.append("if [ -e ")
+                    .append(quoted)
+                    .append(" ]; then echo \"Found contamination marker \"")
+                    .append(quoted)
+                    .append("; exit 1; fi\n");
+        }
+        if (wipeWorkspaces) {
+            s.append("rm -rf ./workspace || exit 1\n");
+        }
+        if (resetScript != null) {
+            s.append("set -e\n").append(resetScript).append('\n');
+        }
+        return s.toString();
+    }
+
+    private static List<String> splitMarkers(String markers) {
+        final List<String> result = new ArrayList<>();
+        if (markers != null) {
+            for (final String line : markers.split("\n")) {
+                final String marker = Util.fixEmptyAndTrim(line);
+                if (marker != null) {
+                    result.add(marker);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    // Made accessible for unit-test use only
+    @Restricted(NoExternalUse.class)
+    protected void runInBackground(Runnable task) {
+        Computer.threadPoolForRemoting.submit(task);
+    }
+
+    /**
+     * Based on the (current) result of the run that the task was part of.
+     * <p>
+     * When the task was only part of the run (e.g. a Pipeline
+     * <code>node</code> block), the run usually won't have a result yet, and
+     * any failure within the task needn't have been reported to us as a
+     * problem, so we assume the worst.
+     * </p>
+     *
+     * @return true if the build has failed (or been aborted), or might have.
+     */
+    // Made accessible for unit-test use only
+    @Restricted(NoExternalUse.class)
+    protected boolean taskFailed(Executor executor) {
+        Queue.Executable executable = executor.getCurrentExecutable();
+        boolean partOfRun = false;
+        while (executable != null && !(executable instanceof Run)) {
+            executable = executable.getParentExecutable();
+            partOfRun = true;
+        }
+        if (executable == null) {
+            return false;
+        }
+        final Result result = ((Run<?, ?>) executable).getResult();
+        if (result == null) {
+            return partOfRun;
+        }
+        return result.isWorseThan(Result.UNSTABLE);
+    }
+
+    /**
+     * Runs the reset script inside the container.
+     *
+     * @return true if the container has been reset, false if it can't be
+     *         reused.
+     */
+    // Made accessible for unit-test use only
+    @Restricted(NoExternalUse.class)
+    protected boolean resetContainer(DockerComputer c) throws Exception {
+        final DockerTransientNode node = c.getNode();
+        if (node == null) {
+            return false;
+        }
+        final DockerAPI api = node.getDockerAPI();
+        final String containerId = node.getContainerId();
+        final PrintStream logger = c.getListener().getLogger();
+        try (final DockerClient client = api.getClient()) {
+            final String execId = client.execCreateCmd(containerId)
+                    .withAttachStdout(true)
+                    .withAttachStderr(true)
+                    .withEnv(List.of("JENKINS_AGENT_WORKDIR=" + node.getRemoteFS()))
+                    .withCmd("/bin/sh", "-c", makeResetScript())
+                    .exec()
+                    .getId();
+            final ResultCallback.Adapter<Frame> output = new ResultCallback.Adapter<Frame>() {
+                @Override
+                public void onNext(Frame frame) {
+                    logger.print(new String(frame.getPayload(), StandardCharsets.UTF_8));
+                }
+            };
+            final boolean finished = client.execStartCmd(execId)
+                    .exec(output)
+                    .awaitCompletion(RESET_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!finished) {
+                logger.println("Reset of container " + containerId + " did not finish within "
+                        + RESET_TIMEOUT_SECONDS + " seconds");
+                return false;
+            }
+            final InspectExecResponse exec = client.inspectExecCmd(execId).exec();
+            final Long exitCode = exec.getExitCodeLong();
+            if (exitCode == null || exitCode.longValue() != 0L) {
+                logger.println("Reset of container " + containerId + " failed with exit code " + exitCode);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    @Override
+    protected void terminateContainer(DockerComputer c) {
+        releaseHold(c);
+        super.terminateContainer(c);
+    }
+
+    @Override
+    public synchronized boolean isAcceptingTasks(DockerComputer c) {
+        return super.isAcceptingTasks(c) && !getResetNeeded() && !isTooOld();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(
+                super.hashCode(),
+                maxBuilds,
+                maxMinutes,
+                wipeWorkspaces,
+                resetScript,
+                contaminationMarkers,
+                affinitySeconds);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) {
+            return false;
+        }
+        DockerMultiBuildRetentionStrategy that = (DockerMultiBuildRetentionStrategy) o;
+        return maxBuilds == that.maxBuilds
+                && maxMinutes == that.maxMinutes
+                && wipeWorkspaces == that.wipeWorkspaces
+                && affinitySeconds == that.affinitySeconds
+                && Objects.equals(resetScript, that.resetScript)
+                && Objects.equals(contaminationMarkers, that.contaminationMarkers);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<RetentionStrategy<?>> {
+        @Override
+        public String getDisplayName() {
+            return "Reuse docker container for several builds";
+        }
+
+        public FormValidation doCheckIdleMinutes(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckMaxBuilds(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckMaxMinutes(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckAffinitySeconds(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+    }
+}
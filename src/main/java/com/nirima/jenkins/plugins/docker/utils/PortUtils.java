@@ -1,11 +1,26 @@
 package com.nirima.jenkins.plugins.docker.utils;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.HealthState;
+import com.github.dockerjava.api.command.InspectContainerResponse;
 import com.trilead.ssh2.Connection;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.jenkins.docker.client.DockerAPI;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
@@ -15,6 +30,23 @@ import org.slf4j.LoggerFactory;
 public class PortUtils {
     private static final Logger LOGGER = LoggerFactory.getLogger(PortUtils.class);
 
+    /**
+     * How long we wait after the first failed attempt before trying again.
+     * Each subsequent wait is double the previous one, up to the configured
+     * retry delay.
+     */
+    private static final long INITIAL_RETRY_DELAY_MILLIS = JenkinsUtils.getSystemPropertyLong(
+            PortUtils.class.getName() + ".initialRetryDelayMillis", 5L);
+
+    /**
+     * The most connection attempts we'll make at once. Attempts only need a
+     * thread while they're connecting; waiting between attempts doesn't.
+     */
+    private static final int MAX_CONCURRENT_ATTEMPTS = (int) Math.max(
+            1L, JenkinsUtils.getSystemPropertyLong(PortUtils.class.getName() + ".maxConcurrentAttempts", 16L));
+
+    private static final ExecutorService ATTEMPT_EXECUTOR = createAttemptExecutor();
+
     /**
      * @param host hostname to connect to
      * @param port port to open socket
@@ -29,6 +61,32 @@ public class PortUtils {
         return new ConnectionCheck(address.getHostString(), address.getPort());
     }
 
+    /**
+     * Gets the status of a container's <code>HEALTHCHECK</code>, for use with
+     * {@link ConnectionCheck#withHealthCheck(Callable)}.
+     *
+     * @param api The docker daemon the container is on.
+     * @param containerId The container.
+     * @return Something that returns the container's health status (e.g.
+     *         "starting" or "healthy"), its state (e.g. "exited") if it is no
+     *         longer running, or null if it has no health check.
+     */
+    @NonNull
+    @Restricted(NoExternalUse.class)
+    public static Callable<String> containerHealth(@NonNull DockerAPI api, @NonNull String containerId) {
+        return () -> {
+            try (final DockerClient client = api.getClient()) {
+                final InspectContainerResponse.ContainerState state =
+                        client.inspectContainerCmd(containerId).exec().getState();
+                if (!Boolean.TRUE.equals(state.getRunning())) {
+                    return state.getStatus();
+                }
+                final HealthState health = state.getHealth();
+                return health == null ? null : health.getStatus();
+            }
+        };
+    }
+
     @Restricted(NoExternalUse.class)
     public static class ConnectionCheck {
         private final String host;
@@ -38,6 +96,11 @@ public class PortUtils {
         private int retries = DEFAULT_RETRIES;
         protected static final int DEFAULT_RETRY_DELAY_SECONDS = 2;
         private long retryDelay = SECONDS.toMillis(DEFAULT_RETRY_DELAY_SECONDS);
+        protected static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 2;
+        private int connectTimeoutMillis = (int) SECONDS.toMillis(DEFAULT_CONNECT_TIMEOUT_SECONDS);
+
+        @CheckForNull
+        private Callable<String> healthCheck;
 
         private ConnectionCheck(String host, int port) {
             this.host = host;
@@ -45,8 +108,11 @@ public class PortUtils {
         }
 
         /**
-         * Sets the number of retries, such that {@link #execute()} will try
-         * once more than this. If this is not set then a default of
+         * Sets the number of retries. Together with
+         * {@link #withEveryRetryWaitFor(int, TimeUnit)}, this determines how
+         * long {@link #execute()} will keep trying for, i.e. as long as it
+         * would take to make this many retries waiting the full retry delay
+         * before each one. If this is not set then a default of
          * {@value #DEFAULT_RETRIES} will be used.
          *
          * @param numberOfRetries
@@ -60,8 +126,10 @@ public class PortUtils {
         }
 
         /**
-         * Sets the delay between tries. If this is not set then a default of
-         * {@value #DEFAULT_RETRY_DELAY_SECONDS} seconds will be used.
+         * Sets the longest delay between tries. We start by retrying after a
+         * few milliseconds and double the delay each time, up to this. If this
+         * is not set then a default of {@value #DEFAULT_RETRY_DELAY_SECONDS}
+         * seconds will be used.
          *
          * @param time
          *            The lengthy of time.
@@ -74,6 +142,37 @@ public class PortUtils {
             return this;
         }
 
+        /**
+         * Sets how long each attempt to connect may take. If this is not set
+         * then a default of {@value #DEFAULT_CONNECT_TIMEOUT_SECONDS} seconds
+         * will be used.
+         *
+         * @param time
+         *            The lengthy of time.
+         * @param units
+         *            The units of that length.
+         * @return this
+         */
+        public ConnectionCheck withConnectTimeout(int time, TimeUnit units) {
+            connectTimeoutMillis = (int) units.toMillis(time);
+            return this;
+        }
+
+        /**
+         * Makes us consult the health of the container before each attempt to
+         * connect: we don't try to connect while its health is "starting",
+         * and we give up as soon as it's no longer running.
+         *
+         * @param healthStatus
+         *            Returns the health status, as per
+         *            {@link PortUtils#containerHealth(DockerAPI, String)}.
+         * @return this
+         */
+        public ConnectionCheck withHealthCheck(@CheckForNull Callable<String> healthStatus) {
+            healthCheck = healthStatus;
+            return this;
+        }
+
         public ConnectionCheckSSH useSSH() {
             return new ConnectionCheckSSH(this);
         }
@@ -82,7 +181,8 @@ public class PortUtils {
          * @return true if socket opened successfully, false otherwise
          */
         public boolean executeOnce() {
-            try (Socket ignored = new Socket(host, port)) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
                 return true;
             } catch (IOException handledByCode) {
                 return false;
@@ -91,9 +191,9 @@ public class PortUtils {
 
         /**
          * Tests the connection. If {@link #withRetries(int)} was set to more
-         * than zero then more than one attempt will be made, waiting (for the
-         * period specified by {@link #withEveryRetryWaitFor(int, TimeUnit)})
-         * between attempts.
+         * than zero then more than one attempt will be made, waiting (for
+         * exponentially increasing periods, up to that specified by
+         * {@link #withEveryRetryWaitFor(int, TimeUnit)}) between attempts.
          *
          * @return true if the connection succeeded, false if it failed despite
          *         any retries.
@@ -101,21 +201,64 @@ public class PortUtils {
          *             if interrupted while waiting between retries.
          */
         public boolean execute() throws InterruptedException {
+            return await(executeAsync());
+        }
+
+        /**
+         * Tests the connection, as per {@link #execute()}, without tying up a
+         * thread while waiting between attempts.
+         *
+         * @return A future that completes with true if the connection
+         *         succeeded, false if it failed despite any retries.
+         */
+        @NonNull
+        public CompletableFuture<Boolean> executeAsync() {
             LOGGER.trace("Testing connectivity to {} port {}", host, port);
-            for (int i = 1; i <= retries; i++) {
-                if (executeOnce()) {
-                    return true;
+            final long budgetMillis = Math.max(0, retries) * retryDelay;
+            final CompletableFuture<Boolean> result = retry(this::attemptOnce, budgetMillis, retryDelay);
+            result.thenAccept(connected -> {
+                if (!connected) {
+                    LOGGER.warn(
+                            "Could not connect to {} port {}. Are you sure this location is contactable from Jenkins?",
+                            host,
+                            port);
                 }
-                Thread.sleep(retryDelay);
+            });
+            return result;
+        }
+
+        private Attempt.Outcome attemptOnce(int tryNumber) {
+            final Attempt.Outcome health = checkHealth();
+            if (health != null) {
+                return health;
             }
-            if (executeOnce()) {
-                return true;
+            return executeOnce() ? Attempt.Outcome.SUCCEEDED : Attempt.Outcome.FAILED;
+        }
+
+        /**
+         * @return null if it's worth trying to connect, else what to do
+         *         instead.
+         */
+        @CheckForNull
+        Attempt.Outcome checkHealth() {
+            if (healthCheck == null) {
+                return null;
+            }
+            final String status;
+            try {
+                status = healthCheck.call();
+            } catch (Exception ex) {
+                LOGGER.debug("Unable to get health of container with {}:{}, ignoring it", host, port, ex);
+                return null;
+            }
+            if ("starting".equals(status)) {
+                return Attempt.Outcome.FAILED;
+            }
+            if ("exited".equals(status) || "dead".equals(status)) {
+                LOGGER.warn("Container with {}:{} is {}; no point waiting for it", host, port, status);
+                return Attempt.Outcome.GAVE_UP;
             }
-            LOGGER.warn(
-                    "Could not connect to {} port {}. Are you sure this location is contactable from Jenkins?",
-                    host,
-                    port);
-            return false;
+            return null;
         }
     }
 
@@ -136,10 +279,12 @@ public class PortUtils {
         /**
          * Tests the SSH connection. If the parent
          * {@link ConnectionCheck#withRetries(int)} was set to more than zero
-         * then more than one attempt will be made, waiting (for the period
-         * specified by the parent
-         * {@link ConnectionCheck#withEveryRetryWaitFor(int, TimeUnit)}) between
-         * attempts. Note that, prior to testing that the port accepts SSH
+         * then more than one attempt will be made, waiting (for exponentially
+         * increasing periods, up to that specified by the parent
+         * {@link ConnectionCheck#withEveryRetryWaitFor(int, TimeUnit)})
+         * between attempts, for as long as it would take to make that many
+         * retries if each SSH attempt timed out and each wait was the full
+         * retry delay. Note that, prior to testing that the port accepts SSH
          * connection, it will first be tested to verify that it is open to TCP
          * connections using {@link ConnectionCheck#execute()}, and this will
          * also be subjected to retries, so that the total retry time for a port
@@ -148,54 +293,195 @@ public class PortUtils {
          *
          * @return true if the connection succeeded, false if it failed despite
          *         any retries.
-         * @throws InterruptedException
-         *             if interrupted while waiting between retries. Connects to
-         *             sshd on host:port. Retries while attempts reached with
-         *             delay First with tcp port wait, then with ssh connection
-         *             wait
-         *
          * @throws IllegalStateException
          *             if the TCP port is not reachable despite retries.
          * @throws InterruptedException
          *             if interrupted while waiting between retries.
          */
         public boolean execute() throws InterruptedException {
-            if (!parent.execute()) {
-                throw new IllegalStateException(String.format("Port %d is not opened to connect to", parent.port));
-            }
+            return await(executeAsync());
+        }
 
-            final int retries = Math.max(0, parent.retries);
-            final long retryDelay = parent.retryDelay;
-            final int totalTriesIntended = retries + 1;
-            int thisTryNumber;
-            for (thisTryNumber = 1; thisTryNumber <= retries; thisTryNumber++) {
-                if (executeOnce(thisTryNumber, totalTriesIntended)) {
-                    return true;
+        /**
+         * Tests the SSH connection, as per {@link #execute()}, without tying up
+         * a thread while waiting between attempts.
+         *
+         * @return A future that completes with true if the connection
+         *         succeeded, false if it failed despite any retries, or
+         *         exceptionally with an {@link IllegalStateException} if the TCP
+         *         port is not reachable despite retries.
+         */
+        @NonNull
+        public CompletableFuture<Boolean> executeAsync() {
+            final CompletableFuture<Boolean> result = new CompletableFuture<>();
+            final CompletableFuture<Boolean> portCheck = parent.executeAsync();
+            result.whenComplete((r, t) -> portCheck.cancel(true));
+            portCheck.whenComplete((portIsOpen, portFailure) -> {
+                if (portFailure != null) {
+                    result.completeExceptionally(portFailure);
+                    return;
                 }
-                Thread.sleep(retryDelay);
-            }
-            // last attempt
-            return executeOnce(thisTryNumber, totalTriesIntended);
+                if (!portIsOpen) {
+                    result.completeExceptionally(new IllegalStateException(
+                            String.format("Port %d is not opened to connect to", parent.port)));
+                    return;
+                }
+                final int retries = Math.max(0, parent.retries);
+                final long budgetMillis = retries * (parent.retryDelay + sshTimeoutMillis) + sshTimeoutMillis;
+                final CompletableFuture<Boolean> sshCheck = retry(this::attemptOnce, budgetMillis, parent.retryDelay);
+                result.whenComplete((r, t) -> sshCheck.cancel(true));
+                sshCheck.whenComplete((connected, sshFailure) -> {
+                    if (sshFailure != null) {
+                        result.completeExceptionally(sshFailure);
+                        return;
+                    }
+                    if (!connected) {
+                        LOGGER.error(
+                                "Failed to connect to {}:{} using SSH within {}ms",
+                                parent.host,
+                                parent.port,
+                                budgetMillis);
+                    }
+                    result.complete(connected);
+                });
+            });
+            return result;
         }
 
-        private boolean executeOnce(final int thisTryNumber, final int totalTriesIntended) {
+        private Attempt.Outcome attemptOnce(final int tryNumber) {
+            final Attempt.Outcome health = parent.checkHealth();
+            if (health != null) {
+                return health;
+            }
             final Connection sshConnection = new Connection(parent.host, parent.port);
             try {
                 sshConnection.connect(null, sshTimeoutMillis, sshTimeoutMillis, sshTimeoutMillis);
                 LOGGER.info("SSH port is open on {}:{}", parent.host, parent.port);
-                return true;
+                return Attempt.Outcome.SUCCEEDED;
             } catch (IOException e) {
-                LOGGER.error(
-                        "Failed to connect to {}:{} (try {}/{}) - {}",
+                LOGGER.debug(
+                        "Failed to connect to {}:{} (try {}) - {}",
                         parent.host,
                         parent.port,
-                        thisTryNumber,
-                        totalTriesIntended,
+                        tryNumber,
                         e.getMessage());
-                return false;
+                return Attempt.Outcome.FAILED;
             } finally {
                 sshConnection.close();
             }
         }
     }
+
+    /**
+     * One attempt at something we'll keep retrying.
+     */
+    @FunctionalInterface
+    interface Attempt {
+        enum Outcome {
+            SUCCEEDED,
+            FAILED,
+            /** Failed, and there's no point trying again. */
+            GAVE_UP
+        }
+
+        /**
+         * @param tryNumber 1 for the first attempt, 2 for the second, etc.
+         * @return How the attempt went.
+         */
+        Outcome tryOnce(int tryNumber);
+    }
+
+    /**
+     * Makes attempts until one succeeds or we run out of time, waiting
+     * {@link #INITIAL_RETRY_DELAY_MILLIS} after the first failure and twice
+     * as long after each subsequent failure, up to a maximum.
+     *
+     * @param attempt What to try.
+     * @param budgetMillis How long we keep trying for. There's always at least
+     *            one attempt, and an attempt started within this time is
+     *            allowed to complete.
+     * @param maxDelayMillis The longest we'll wait between attempts.
+     * @return A future that completes with true once an attempt succeeds, or
+     *         false if we ran out of time or gave up. Cancelling it stops any
+     *         further attempts.
+     */
+    @NonNull
+    static CompletableFuture<Boolean> retry(@NonNull Attempt attempt, long budgetMillis, long maxDelayMillis) {
+        final Retry retry = new Retry(attempt, budgetMillis, maxDelayMillis);
+        ATTEMPT_EXECUTOR.execute(retry);
+        return retry.result;
+    }
+
+    private static final class Retry implements Runnable {
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private final Attempt attempt;
+        private final long deadlineNanos;
+        private final long maxDelayMillis;
+        private long delayMillis;
+        private int tryNumber;
+
+        Retry(Attempt attempt, long budgetMillis, long maxDelayMillis) {
+            this.attempt = attempt;
+            this.deadlineNanos = System.nanoTime() + MILLISECONDS.toNanos(budgetMillis);
+            this.maxDelayMillis = Math.max(0L, maxDelayMillis);
+            this.delayMillis = Math.min(INITIAL_RETRY_DELAY_MILLIS, this.maxDelayMillis);
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                return; // cancelled
+            }
+            final Attempt.Outcome outcome;
+            try {
+                outcome = attempt.tryOnce(++tryNumber);
+            } catch (RuntimeException ex) {
+                result.completeExceptionally(ex);
+                return;
+            }
+            if (outcome == Attempt.Outcome.SUCCEEDED) {
+                result.complete(true);
+                return;
+            }
+            final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (outcome == Attempt.Outcome.GAVE_UP || remainingMillis <= 0) {
+                result.complete(false);
+                return;
+            }
+            final long waitMillis = Math.min(delayMillis, remainingMillis);
+            delayMillis = Math.min(delayMillis * 2, maxDelayMillis);
+            CompletableFuture.delayedExecutor(waitMillis, MILLISECONDS, ATTEMPT_EXECUTOR)
+                    .execute(this);
+        }
+    }
+
+    /**
+     * Waits for a check to complete, cancelling it if we're interrupted.
+     */
+    private static boolean await(CompletableFuture<Boolean> check) throws InterruptedException {
+        try {
+            return check.get();
+        } catch (InterruptedException ex) {
+            check.cancel(true);
+            throw ex;
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static ExecutorService createAttemptExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                MAX_CONCURRENT_ATTEMPTS,
+                MAX_CONCURRENT_ATTEMPTS,
+                1L,
+                TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), PortUtils.class.getSimpleName()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 }
@@ -10,6 +10,7 @@ import java.io.IOException;
 import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
 import org.jenkinsci.plugins.cloudstats.TrackedItem;
 import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.kohsuke.stapler.export.Exported;
 
 /**
  * Represents remote (running) container
@@ -41,6 +42,18 @@ public class DockerComputer extends AbstractCloudComputer<DockerTransientNode> i
         return nodeOrNull == null ? null : nodeOrNull.getCloudId();
     }
 
+    /**
+     * @return How long each step of provisioning this agent took, if known.
+     *         This is also available from the remote API, e.g.
+     *         <code>api/json?tree=provisioningTimeline[*[*]]</code>.
+     */
+    @Exported
+    @CheckForNull
+    public DockerProvisioningTimeline getProvisioningTimeline() {
+        final DockerTransientNode nodeOrNull = getNode();
+        return nodeOrNull == null ? null : nodeOrNull.getProvisioningTimeline();
+    }
+
     @Override
     public EnvVars getEnvironment() throws IOException, InterruptedException {
         EnvVars variables = super.getEnvironment();
@@ -51,7 +64,9 @@ public class DockerComputer extends AbstractCloudComputer<DockerTransientNode> i
         final DockerCloud cloudOrNull = getCloud();
         if (cloudOrNull != null && cloudOrNull.isExposeDockerHost()) {
             variables.put("JENKINS_CLOUD_ID", cloudOrNull.name);
-            final DockerAPI dockerApi = cloudOrNull.getDockerApi();
+            final DockerTransientNode nodeOrNull = getNode();
+            final DockerAPI dockerApi =
+                    nodeOrNull == null ? cloudOrNull.getDockerApi() : nodeOrNull.getDockerAPI();
             final DockerServerEndpoint dockerHost = dockerApi.getDockerHost();
             final String dockerHostUriOrNull = dockerHost.getUri();
             if (dockerHostUriOrNull != null) {
@@ -0,0 +1,312 @@
+package io.jenkins.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.jenkins.docker.client.DockerAPI;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops and removes containers in the background, on threads of its own so
+ * that a large number of terminations can't tie up
+ * {@link Computer#threadPoolForRemoting}.
+ * <p>
+ * Work is queued per {@link DockerAPI}, and only a limited number of threads
+ * work on any one queue at a time so we don't overload a docker host. Each
+ * thread works through the queue in batches, using one {@link DockerClient} per
+ * batch. If we can't get a {@link DockerClient}, we try again later, a few
+ * times, before giving up.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerContainerTerminator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerContainerTerminator.class);
+
+    /** The most threads we'll have terminating containers on any one docker host */
+    private static final int MAX_CONCURRENCY_PER_HOST = (int) JenkinsUtils.getSystemPropertyLong(
+            DockerContainerTerminator.class.getName() + ".maxConcurrencyPerHost", 4L);
+
+    /** How many containers a thread deals with before getting a fresh {@link DockerClient} */
+    private static final int BATCH_SIZE =
+            (int) JenkinsUtils.getSystemPropertyLong(DockerContainerTerminator.class.getName() + ".batchSize", 10L);
+
+    /** How many times we try to get a {@link DockerClient} for a task before giving up on it */
+    private static final int MAX_ATTEMPTS =
+            (int) JenkinsUtils.getSystemPropertyLong(DockerContainerTerminator.class.getName() + ".maxAttempts", 5L);
+
+    /**
+     * How long we wait before trying again after failing to get a
+     * {@link DockerClient}, multiplied by the number of attempts so far.
+     * Not final, so that tests can change it.
+     */
+    @Restricted(NoExternalUse.class)
+    static long retryDelayInMilliseconds = JenkinsUtils.getSystemPropertyLong(
+            DockerContainerTerminator.class.getName() + ".retryDelayInMilliseconds", 10000L);
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), DockerContainerTerminator.class.getSimpleName()));
+
+    private static final Map<DockerAPI, HostQueue> QUEUES = new ConcurrentHashMap<>();
+
+    private DockerContainerTerminator() {}
+
+    /**
+     * Something to be done to a container.
+     */
+    @FunctionalInterface
+    public interface ContainerTask {
+        /**
+         * Does whatever needs doing. This must not throw.
+         *
+         * @param client The {@link DockerClient} to use.
+         */
+        void run(@NonNull DockerClient client);
+    }
+
+    /**
+     * Queues up a task that stops and/or removes a container.
+     *
+     * @param api The docker host the container is on.
+     * @param task The task.
+     */
+    public static void submit(@NonNull DockerAPI api, @NonNull ContainerTask task) {
+        final HostQueue queue = QUEUES.computeIfAbsent(api, HostQueue::new);
+        queue.add(task);
+    }
+
+    /**
+     * Reports on how we're doing for a docker host.
+     *
+     * @param api The docker host.
+     * @return Statistics about terminations on that host.
+     */
+    @NonNull
+    public static Statistics getStatistics(@NonNull DockerAPI api) {
+        final HostQueue queue = QUEUES.get(api);
+        return queue == null ? new Statistics(0, 0, 0L, 0L, 0L) : queue.getStatistics();
+    }
+
+    private static final class HostQueue {
+        private final DockerAPI api;
+        private final Queue<PendingTask> pending = new ConcurrentLinkedQueue<>();
+        /** Number of pending tasks; tracked separately as {@link Queue#size()} is expensive */
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicInteger inProgress = new AtomicInteger();
+        private final AtomicInteger workers = new AtomicInteger();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong totalLatencyInNanos = new AtomicLong();
+        private final AtomicLong maxLatencyInNanos = new AtomicLong();
+
+        private HostQueue(DockerAPI api) {
+            this.api = api;
+        }
+
+        private void add(ContainerTask task) {
+            queued.incrementAndGet();
+            pending.add(new PendingTask(task, System.nanoTime(), 0));
+            startWorkerIfNeeded();
+        }
+
+        private void startWorkerIfNeeded() {
+            while (!pending.isEmpty()) {
+                final int currentWorkers = workers.get();
+                if (currentWorkers >= MAX_CONCURRENCY_PER_HOST) {
+                    return; // the existing workers will get to it
+                }
+                if (workers.compareAndSet(currentWorkers, currentWorkers + 1)) {
+                    try {
+                        EXECUTOR.submit(this::work);
+                    } catch (RejectedExecutionException ex) {
+                        workers.decrementAndGet();
+                        LOGGER.error("Unable to terminate containers on {}", api.getDockerHost().getUri(), ex);
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void work() {
+            try {
+                boolean moreToDo = true;
+                while (moreToDo) {
+                    moreToDo = workOnBatch();
+                }
+            } finally {
+                workers.decrementAndGet();
+                // in case something was queued after we looked but before we stopped
+                startWorkerIfNeeded();
+            }
+        }
+
+        /** @return true if there may be more to do. */
+        private boolean workOnBatch() {
+            final PendingTask first = pending.poll();
+            if (first == null) {
+                return false;
+            }
+            final DockerClient client;
+            try {
+                client = api.getClient();
+            } catch (RuntimeException ex) {
+                // each task that can't get a client is put aside to try again later
+                retryLater(first, ex);
+                return true;
+            }
+            try {
+                PendingTask next = first;
+                int done = 0;
+                while (next != null) {
+                    run(client, next);
+                    next = ++done < BATCH_SIZE ? pending.poll() : null;
+                }
+            } finally {
+                try {
+                    client.close();
+                } catch (IOException | RuntimeException ex) {
+                    LOGGER.debug("Failed to close client for {}", api.getDockerHost().getUri(), ex);
+                }
+            }
+            return true;
+        }
+
+        private void retryLater(PendingTask task, RuntimeException cause) {
+            final int attempts = task.attempts + 1;
+            final String uri = api.getDockerHost().getUri();
+            if (attempts >= MAX_ATTEMPTS) {
+                LOGGER.error(
+                        "Unable to terminate a container on {} after {} attempts; giving up.", uri, attempts, cause);
+                queued.decrementAndGet();
+                recordCompletion(task);
+                return;
+            }
+            final long delay = retryDelayInMilliseconds * attempts;
+            LOGGER.warn(
+                    "Unable to terminate a container on {} (attempt {} of {}); will try again in {}ms.",
+                    uri,
+                    attempts,
+                    MAX_ATTEMPTS,
+                    delay,
+                    cause);
+            final PendingTask retry = new PendingTask(task.task, task.queuedNanos, attempts);
+            Timer.get()
+                    .schedule(
+                            () -> {
+                                pending.add(retry);
+                                startWorkerIfNeeded();
+                            },
+                            delay,
+                            TimeUnit.MILLISECONDS);
+        }
+
+        private void run(DockerClient client, PendingTask task) {
+            queued.decrementAndGet();
+            inProgress.incrementAndGet();
+            try {
+                task.task.run(client);
+            } catch (RuntimeException ex) {
+                LOGGER.error("Unexpected failure terminating a container on {}", api.getDockerHost().getUri(), ex);
+            } finally {
+                inProgress.decrementAndGet();
+                recordCompletion(task);
+            }
+        }
+
+        private void recordCompletion(PendingTask task) {
+            final long latency = System.nanoTime() - task.queuedNanos;
+            completed.incrementAndGet();
+            totalLatencyInNanos.addAndGet(latency);
+            maxLatencyInNanos.accumulateAndGet(latency, Math::max);
+        }
+
+        private Statistics getStatistics() {
+            return new Statistics(
+                    queued.get(),
+                    inProgress.get(),
+                    completed.get(),
+                    totalLatencyInNanos.get(),
+                    maxLatencyInNanos.get());
+        }
+    }
+
+    private static final class PendingTask {
+        private final ContainerTask task;
+        private final long queuedNanos;
+        /** How many times we've failed to get a {@link DockerClient} for this */
+        private final int attempts;
+
+        private PendingTask(ContainerTask task, long queuedNanos, int attempts) {
+            this.task = task;
+            this.queuedNanos = queuedNanos;
+            this.attempts = attempts;
+        }
+    }
+
+    /**
+     * How terminations on one docker host are going.
+     */
+    public static final class Statistics {
+        private final int queued;
+        private final int inProgress;
+        private final long completed;
+        private final long totalLatencyInNanos;
+        private final long maxLatencyInNanos;
+
+        Statistics(int queued, int inProgress, long completed, long totalLatencyInNanos, long maxLatencyInNanos) {
+            this.queued = queued;
+            this.inProgress = inProgress;
+            this.completed = completed;
+            this.totalLatencyInNanos = totalLatencyInNanos;
+            this.maxLatencyInNanos = maxLatencyInNanos;
+        }
+
+        /** @return How many terminations are waiting to start. */
+        public int getQueued() {
+            return queued;
+        }
+
+        /** @return How many terminations are happening right now. */
+        public int getInProgress() {
+            return inProgress;
+        }
+
+        /** @return How many terminations have finished (whether or not they succeeded). */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /** @return The average time from being queued to finishing, in milliseconds. */
+        public long getAverageLatencyInMilliseconds() {
+            return completed == 0L ? 0L : TimeUnit.NANOSECONDS.toMillis(totalLatencyInNanos / completed);
+        }
+
+        /** @return The longest time from being queued to finishing, in milliseconds. */
+        public long getMaxLatencyInMilliseconds() {
+            return TimeUnit.NANOSECONDS.toMillis(maxLatencyInNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics{queued=" + queued + ", inProgress=" + inProgress + ", completed=" + completed
+                    + ", averageLatencyInMilliseconds=" + getAverageLatencyInMilliseconds()
+                    + ", maxLatencyInMilliseconds=" + getMaxLatencyInMilliseconds() + '}';
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package io.jenkins.docker;
+
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Remembers the {@link DockerProvisioningTimeline}s of recently provisioned
+ * agents so we can tell which phases of provisioning are slow for each
+ * template.
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerProvisioningStatistics {
+    /** How many timelines we keep for each template. */
+    private static final int SAMPLES_PER_TEMPLATE = JenkinsUtils.getSystemPropertyLong(
+                    DockerProvisioningStatistics.class.getName() + ".samplesPerTemplate", 100L)
+            .intValue();
+
+    private static final Map<Key, Deque<DockerProvisioningTimeline>> RECENT = new ConcurrentHashMap<>();
+
+    private DockerProvisioningStatistics() {}
+
+    /**
+     * Records a completed timeline.
+     *
+     * @param cloudName The name of the cloud the agent came from, if any.
+     * @param templateName The name of the template the agent came from, if
+     *            any.
+     * @param timeline The agent's timeline.
+     */
+    public static void record(
+            @CheckForNull String cloudName,
+            @CheckForNull String templateName,
+            @NonNull DockerProvisioningTimeline timeline) {
+        if (SAMPLES_PER_TEMPLATE <= 0) {
+            return;
+        }
+        final Deque<DockerProvisioningTimeline> recent =
+                RECENT.computeIfAbsent(new Key(cloudName, templateName), k -> new ArrayDeque<>());
+        synchronized (recent) {
+            recent.addLast(timeline);
+            while (recent.size() > SAMPLES_PER_TEMPLATE) {
+                recent.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Summarises the recent timelines of every template of a cloud.
+     *
+     * @param cloudName The name of the cloud.
+     * @return Statistics for each template that has provisioned agents
+     *         recently, ordered by template name.
+     */
+    @NonNull
+    public static List<TemplateStatistics> forCloud(@CheckForNull String cloudName) {
+        final Map<String, TemplateStatistics> result = new TreeMap<>();
+        final String cloud = Objects.toString(cloudName, "");
+        for (final Map.Entry<Key, Deque<DockerProvisioningTimeline>> entry : RECENT.entrySet()) {
+            if (entry.getKey().cloudName.equals(cloud)) {
+                final List<DockerProvisioningTimeline> timelines;
+                synchronized (entry.getValue()) {
+                    timelines = new ArrayList<>(entry.getValue());
+                }
+                final String template = entry.getKey().templateName;
+                result.put(template, new TemplateStatistics(template, timelines));
+            }
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    /** Forgets everything. For use by tests. */
+    static void clear() {
+        RECENT.clear();
+    }
+
+    /**
+     * Computes a percentile using the nearest-rank method.
+     *
+     * @param sortedValues The values, sorted in ascending order.
+     * @param percentile The percentile, from 0 (exclusive) to 100 (inclusive).
+     * @return The percentile.
+     */
+    static long percentile(List<Long> sortedValues, int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.size());
+        return sortedValues.get(Math.max(rank, 1) - 1);
+    }
+
+    /**
+     * How long each phase of provisioning took for a template's recent
+     * agents.
+     */
+    public static final class TemplateStatistics {
+        private final String templateName;
+        private final int samples;
+        private final List<PhaseStatistics> phases;
+
+        TemplateStatistics(String templateName, List<DockerProvisioningTimeline> timelines) {
+            this.templateName = templateName;
+            this.samples = timelines.size();
+            // keep phases in the order they happen
+            final Map<String, List<Long>> durationsByPhase = new LinkedHashMap<>();
+            for (final DockerProvisioningTimeline timeline : timelines) {
+                for (final DockerProvisioningTimeline.Phase phase : timeline.getPhases()) {
+                    final Long duration = phase.getDurationInMilliseconds();
+                    if (duration != null) {
+                        durationsByPhase
+                                .computeIfAbsent(phase.getName(), k -> new ArrayList<>())
+                                .add(duration);
+                    }
+                }
+            }
+            final List<PhaseStatistics> phaseStatistics = new ArrayList<>(durationsByPhase.size());
+            for (final Map.Entry<String, List<Long>> entry : durationsByPhase.entrySet()) {
+                final List<Long> durations = entry.getValue();
+                Collections.sort(durations);
+                phaseStatistics.add(new PhaseStatistics(
+                        entry.getKey(), durations.size(), percentile(durations, 50), percentile(durations, 95)));
+            }
+            this.phases = Collections.unmodifiableList(phaseStatistics);
+        }
+
+        /** @return The name of the template, or "" if it has none. */
+        @NonNull
+        public String getTemplateName() {
+            return templateName;
+        }
+
+        /** @return The number of agents these statistics are based on. */
+        public int getSamples() {
+            return samples;
+        }
+
+        @NonNull
+        public List<PhaseStatistics> getPhases() {
+            return phases;
+        }
+    }
+
+    /**
+     * How long one phase of provisioning took.
+     */
+    public static final class PhaseStatistics {
+        private final String name;
+        private final int count;
+        private final long p50InMilliseconds;
+        private final long p95InMilliseconds;
+
+        PhaseStatistics(String name, int count, long p50InMilliseconds, long p95InMilliseconds) {
+            this.name = name;
+            this.count = count;
+            this.p50InMilliseconds = p50InMilliseconds;
+            this.p95InMilliseconds = p95InMilliseconds;
+        }
+
+        @NonNull
+        public String getName() {
+            return name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getP50InMilliseconds() {
+            return p50InMilliseconds;
+        }
+
+        public long getP95InMilliseconds() {
+            return p95InMilliseconds;
+        }
+    }
+
+    private static final class Key {
+        private final String cloudName;
+        private final String templateName;
+
+        Key(String cloudName, String templateName) {
+            this.cloudName = Objects.toString(cloudName, "");
+            this.templateName = Objects.toString(templateName, "");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return cloudName.equals(other.cloudName) && templateName.equals(other.templateName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(cloudName, templateName);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package io.jenkins.docker;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Records how long each step of provisioning a {@link DockerTransientNode}
+ * took, from pulling its image to it coming online.
+ * <p>
+ * This is shown on the {@link DockerComputer} page, can be retrieved as JSON
+ * from its remote API, and is aggregated per template by
+ * {@link DockerProvisioningStatistics}.
+ * </p>
+ */
+@ExportedBean
+public class DockerProvisioningTimeline implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final String PULL = "pull";
+    public static final String INSPECT = "inspect";
+    public static final String BEFORE_CONTAINER_CREATED = "beforeContainerCreated";
+    public static final String CREATE = "create";
+    public static final String BEFORE_CONTAINER_STARTED = "beforeContainerStarted";
+    public static final String START = "start";
+    public static final String AFTER_CONTAINER_STARTED = "afterContainerStarted";
+    public static final String CREATE_LAUNCHER = "createLauncher";
+    public static final String LAUNCH = "launch";
+
+    private final List<Phase> phases = new CopyOnWriteArrayList<>();
+
+    /** Set once the node has come online; nothing more is recorded after that. */
+    private volatile boolean complete;
+
+    /**
+     * Notes that a phase has started.
+     *
+     * @param name The name of the phase, e.g. {@link #PULL}.
+     * @return The phase, which the caller must {@link Phase#end()} once it has
+     *         completed successfully.
+     */
+    @NonNull
+    @Restricted(NoExternalUse.class)
+    public Phase begin(@NonNull String name) {
+        final Phase phase = new Phase(name);
+        phases.add(phase);
+        return phase;
+    }
+
+    /**
+     * Finds a phase that has started but not yet ended.
+     *
+     * @param name The name of the phase.
+     * @return The most recent phase of that name if it's still in progress,
+     *         else null.
+     */
+    @CheckForNull
+    @Restricted(NoExternalUse.class)
+    public Phase getUnfinished(@NonNull String name) {
+        for (int i = phases.size() - 1; i >= 0; i--) {
+            final Phase phase = phases.get(i);
+            if (phase.getName().equals(name)) {
+                return phase.getDurationInMilliseconds() == null ? phase : null;
+            }
+        }
+        return null;
+    }
+
+    @Restricted(NoExternalUse.class)
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Restricted(NoExternalUse.class)
+    public void setComplete() {
+        complete = true;
+    }
+
+    /** @return The phases, in the order they started. */
+    @Exported
+    @NonNull
+    public List<Phase> getPhases() {
+        return Collections.unmodifiableList(phases);
+    }
+
+    /**
+     * @return The wall-clock time from the start of the first phase to the end
+     *         of the last one, in milliseconds, or null if any phase is still in
+     *         progress.
+     */
+    @Exported
+    @CheckForNull
+    public Long getTotalDurationInMilliseconds() {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (final Phase phase : phases) {
+            final Long duration = phase.getDurationInMilliseconds();
+            if (duration == null) {
+                return null;
+            }
+            first = Math.min(first, phase.getStartedAt());
+            last = Math.max(last, phase.getStartedAt() + duration);
+        }
+        return phases.isEmpty() ? null : last - first;
+    }
+
+    @Override
+    public String toString() {
+        return "DockerProvisioningTimeline" + phases;
+    }
+
+    /**
+     * One step of provisioning.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Phase implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final long startedAt;
+        private final transient long startedNanos;
+        /** False if we've been deserialized, as {@link #startedNanos} is then meaningless. */
+        private final transient boolean timeable;
+        private volatile Long durationInMilliseconds;
+
+        private Phase(String name) {
+            this.name = name;
+            this.startedAt = System.currentTimeMillis();
+            this.startedNanos = System.nanoTime();
+            this.timeable = true;
+        }
+
+        /**
+         * Notes that the phase has completed. Only the first call has any
+         * effect, and phases that started before Jenkins was restarted will
+         * never be completed.
+         */
+        @Restricted(NoExternalUse.class)
+        public void end() {
+            if (timeable && durationInMilliseconds == null) {
+                durationInMilliseconds = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+            }
+        }
+
+        @Exported
+        @NonNull
+        public String getName() {
+            return name;
+        }
+
+        /** @return When the phase started, in milliseconds since the epoch. */
+        @Exported
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        @NonNull
+        public Date getStartedAtDate() {
+            return new Date(startedAt);
+        }
+
+        /** @return How long the phase took, or null if it has not (yet) completed. */
+        @Exported
+        @CheckForNull
+        public Long getDurationInMilliseconds() {
+            return durationInMilliseconds;
+        }
+
+        @Override
+        public String toString() {
+            return name + '=' + (durationInMilliseconds == null ? "?" : durationInMilliseconds + "ms");
+        }
+    }
+}
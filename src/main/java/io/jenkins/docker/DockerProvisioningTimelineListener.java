@@ -0,0 +1,51 @@
+package io.jenkins.docker;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Completes each agent's {@link DockerProvisioningTimeline} with the time
+ * its connector took to launch it, and records the timeline in
+ * {@link DockerProvisioningStatistics} once the agent is online.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class DockerProvisioningTimelineListener extends ComputerListener {
+
+    @Override
+    public void preLaunch(Computer c, TaskListener taskListener) {
+        final DockerProvisioningTimeline timeline = getIncompleteTimeline(c);
+        if (timeline != null && timeline.getUnfinished(DockerProvisioningTimeline.LAUNCH) == null) {
+            timeline.begin(DockerProvisioningTimeline.LAUNCH);
+        }
+    }
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        final DockerProvisioningTimeline timeline = getIncompleteTimeline(c);
+        if (timeline == null) {
+            return;
+        }
+        final DockerProvisioningTimeline.Phase launch = timeline.getUnfinished(DockerProvisioningTimeline.LAUNCH);
+        if (launch != null) {
+            launch.end();
+        }
+        timeline.setComplete();
+        final DockerTransientNode node = ((DockerComputer) c).getNode();
+        if (node != null) {
+            DockerProvisioningStatistics.record(node.getCloudId(), node.getTemplateName(), timeline);
+        }
+    }
+
+    private static DockerProvisioningTimeline getIncompleteTimeline(Computer c) {
+        if (!(c instanceof DockerComputer)) {
+            return null;
+        }
+        final DockerProvisioningTimeline timeline = ((DockerComputer) c).getProvisioningTimeline();
+        return timeline == null || timeline.isComplete() ? null : timeline;
+    }
+}
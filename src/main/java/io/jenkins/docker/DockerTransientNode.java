@@ -8,6 +8,8 @@ import com.nirima.jenkins.plugins.docker.DockerCloud;
 import com.nirima.jenkins.plugins.docker.DockerOfflineCause;
 import com.nirima.jenkins.plugins.docker.DockerTemplate;
 import com.nirima.jenkins.plugins.docker.strategy.DockerOnceRetentionStrategy;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.Extension;
@@ -18,8 +20,10 @@ import hudson.slaves.AbstractCloudSlave;
 import hudson.slaves.Cloud;
 import hudson.slaves.ComputerLauncher;
 import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.metrics.DockerMetrics;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
 import org.jenkinsci.plugins.cloudstats.TrackedItem;
@@ -37,18 +41,45 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
     private static final long serialVersionUID = 1349729340506926183L;
     private static final Logger LOGGER = LoggerFactory.getLogger(DockerTransientNode.class.getName());
 
+    /**
+     * If true, containers whose node is idle when it's terminated are killed
+     * rather than being given a chance to stop gracefully. This is off by
+     * default as an idle node's container can still be doing something that
+     * should finish cleanly, e.g. a docker-in-docker daemon or a process that
+     * the build left running.
+     */
+    private static final boolean KILL_IDLE_CONTAINERS = JenkinsUtils.getSystemPropertyBoolean(
+            DockerTransientNode.class.getName() + ".killIdleContainers", false);
+
     private final String containerId;
 
     private transient DockerAPI dockerAPI;
 
+    /**
+     * The URI of {@link #dockerAPI}, so that we can find it again (amongst
+     * our cloud's docker hosts) after a restart.
+     */
+    @CheckForNull
+    private String dockerHostUri;
+
     private boolean removeVolumes;
 
     private int stopTimeout = DockerTemplate.DEFAULT_STOP_TIMEOUT;
 
     private String cloudId;
 
+    private String templateName;
+
     private ProvisioningActivity.Id provisioningId;
 
+    private DockerProvisioningTimeline provisioningTimeline;
+
+    /** {@link System#nanoTime()} when we started provisioning this node, if known. */
+    private transient Long provisioningStartedNanos;
+
+    /** {@link System#nanoTime()} when we last started launching this node, if known. */
+    private transient Long launchStartedNanos;
+
     private AtomicBoolean acceptingTasks = new AtomicBoolean(true);
 
     /**
@@ -112,14 +143,15 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
 
     public void setDockerAPI(DockerAPI dockerAPI) {
         this.dockerAPI = dockerAPI;
+        this.dockerHostUri = dockerAPI == null ? null : dockerAPI.getDockerHost().getUri();
     }
 
-    /** @return The {@link DockerAPI} for our cloud. */
+    /** @return The {@link DockerAPI} for the docker host our container is on. */
     public DockerAPI getDockerAPI() {
         if (dockerAPI == null) {
             final DockerCloud cloud = getCloud();
             if (cloud != null) {
-                dockerAPI = cloud.getDockerApi();
+                dockerAPI = cloud.getDockerApi(dockerHostUri);
             }
         }
         return dockerAPI;
@@ -157,6 +189,49 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
         this.cloudId = cloudId;
     }
 
+    /** @return The name of the {@link DockerTemplate} this node was made from, if known. */
+    @Nullable
+    public String getTemplateName() {
+        return templateName;
+    }
+
+    public void setTemplateName(String templateName) {
+        this.templateName = templateName;
+    }
+
+    @Restricted(NoExternalUse.class)
+    @Nullable
+    public Long getProvisioningStartedNanos() {
+        return provisioningStartedNanos;
+    }
+
+    @Restricted(NoExternalUse.class)
+    public void setProvisioningStartedNanos(@Nullable Long provisioningStartedNanos) {
+        this.provisioningStartedNanos = provisioningStartedNanos;
+    }
+
+    @Restricted(NoExternalUse.class)
+    @Nullable
+    public Long getLaunchStartedNanos() {
+        return launchStartedNanos;
+    }
+
+    @Restricted(NoExternalUse.class)
+    public void setLaunchStartedNanos(@Nullable Long launchStartedNanos) {
+        this.launchStartedNanos = launchStartedNanos;
+    }
+
+    /** @return How long each step of provisioning this node took, if known. */
+    @Nullable
+    public DockerProvisioningTimeline getProvisioningTimeline() {
+        return provisioningTimeline;
+    }
+
+    @Restricted(NoExternalUse.class)
+    public void setProvisioningTimeline(DockerProvisioningTimeline provisioningTimeline) {
+        this.provisioningTimeline = provisioningTimeline;
+    }
+
     public ProvisioningActivity.Id getProvisioningId() {
         return provisioningId;
     }
@@ -248,8 +323,11 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
     private transient boolean containerRemoved;
 
     private void terminate(ILogger logger) {
+        // if we aren't running anything then there's nothing to shut down gracefully
+        boolean idle = false;
         try {
             final Computer computer = toComputer();
+            idle = computer == null || computer.isIdle();
             if (computer != null && !(computer.getOfflineCause() instanceof DockerOfflineCause)) {
                 computer.disconnect(new DockerOfflineCause());
                 logger.println("Disconnected computer for node '" + name + "'.");
@@ -259,33 +337,38 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
         }
 
         final String ourContainerId = getContainerId();
-        Computer.threadPoolForRemoting.submit(() -> {
-            synchronized (DockerTransientNode.this) {
-                if (containerRemoved) {
-                    return; // nothing left to do here
-                }
-                final DockerAPI api;
-                try {
-                    api = getDockerAPI();
-                } catch (RuntimeException ex) {
-                    logger.error(
-                            "Unable to stop and remove container '" + ourContainerId + "' for node '" + name
-                                    + "' due to exception:",
-                            ex);
-                    return;
+        final boolean killContainer = KILL_IDLE_CONTAINERS && idle;
+        DockerAPI api = null;
+        try {
+            api = getDockerAPI();
+        } catch (RuntimeException ex) {
+            logger.error(
+                    "Unable to stop and remove container '" + ourContainerId + "' for node '" + name
+                            + "' due to exception:",
+                    ex);
+        }
+        if (api != null) {
+            DockerContainerTerminator.submit(api, client -> {
+                synchronized (DockerTransientNode.this) {
+                    if (containerRemoved) {
+                        return; // nothing left to do here
+                    }
+                    final long startedNanos = System.nanoTime();
+                    final boolean[] newValues = stopAndRemoveContainer(
+                            client,
+                            logger,
+                            "for node '" + name + "'",
+                            removeVolumes,
+                            stopTimeout,
+                            ourContainerId,
+                            containerStopped,
+                            killContainer);
+                    containerStopped = newValues[0];
+                    containerRemoved = newValues[1];
+                    DockerMetrics.CONTAINER_TERMINATE.observeSince(startedNanos, cloudId, templateName);
                 }
-                final boolean[] newValues = stopAndRemoveContainer(
-                        api,
-                        logger,
-                        "for node '" + name + "'",
-                        removeVolumes,
-                        stopTimeout,
-                        ourContainerId,
-                        containerStopped);
-                containerStopped = newValues[0];
-                containerRemoved = newValues[1];
-            }
-        });
+            });
+        }
 
         try {
             Jenkins.get().removeNode(this);
@@ -298,21 +381,48 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
     /**
      * Removes a container, optionally stopping it first.
      *
+     * @param killContainer If true, and the container isn't known to be
+     *            stopped, we kill and remove it in one go instead of giving it
+     *            a chance to stop gracefully.
      * @return pair of booleans, first is true if the container is not running,
      *         second is true if the container no longer exists.
      */
     private static boolean[] stopAndRemoveContainer(
-            final DockerAPI api,
+            final DockerClient client,
             final ILogger logger,
             final String containerDescription,
             final boolean removeVolumes,
             final int stopTimeout,
             final String containerId,
-            final boolean containerAlreadyStopped) {
+            final boolean containerAlreadyStopped,
+            final boolean killContainer) {
         boolean containerNowStopped = containerAlreadyStopped;
         boolean containerNowRemoved = false;
 
-        try (final DockerClient client = api.getClient()) {
+        if (killContainer && !containerNowStopped) {
+            try {
+                client.removeContainerCmd(containerId)
+                        .withForce(true)
+                        .withRemoveVolumes(removeVolumes)
+                        .exec();
+                logger.println("Killed and removed container '" + containerId + "' " + containerDescription + ".");
+                return new boolean[] {true, true};
+            } catch (NotFoundException handledByCode) {
+                logger.println("Container '" + containerId + "' already gone " + containerDescription + ".");
+                return new boolean[] {true, true};
+            } catch (ConflictException handledByCode) {
+                logger.println("Container '" + containerId + "' removal already in progress.");
+                return new boolean[] {true, true};
+            } catch (Exception ex) {
+                logger.error(
+                        "Failed to kill container '" + containerId + "' " + containerDescription
+                                + " due to exception:",
+                        ex);
+                // fall back to doing it the slow way
+            }
+        }
+
+        try {
             if (!containerNowStopped) {
                 client.stopContainerCmd(containerId)
                         .withTimeout(stopTimeout > 0 ? stopTimeout : DockerTemplate.DEFAULT_STOP_TIMEOUT)
@@ -334,7 +444,7 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
                     ex);
         }
 
-        try (final DockerClient client = api.getClient()) {
+        try {
             if (!containerNowRemoved) {
                 client.removeContainerCmd(containerId)
                         .withRemoveVolumes(removeVolumes)
@@ -392,16 +502,83 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
             final boolean removeVolumes,
             final String containerId,
             final boolean containerAlreadyStopped) {
-        final ILogger tl = createILoggerForSLF4JLogger(logger);
-        final boolean[] containerState = stopAndRemoveContainer(
-                api,
-                tl,
+        return stopAndRemoveContainer(
+                api::getClient,
+                logger,
                 containerDescription,
                 removeVolumes,
-                DockerTemplate.DEFAULT_STOP_TIMEOUT,
                 containerId,
                 containerAlreadyStopped);
-        return containerState[1];
+    }
+
+    /**
+     * As {@link #stopAndRemoveContainer(DockerAPI, Logger, String, boolean, String, boolean)}
+     * but overriding the {@link DockerAPI}'s read timeout, so that a docker
+     * daemon that has stopped responding can't hold us up forever.
+     *
+     * @param api
+     *            The {@link DockerAPI} which the container lives on.
+     * @param readTimeoutInSeconds
+     *            The read timeout, in seconds. A value less than one means no
+     *            timeout.
+     * @param logger
+     *            Where to log progress/results to.
+     * @param containerDescription
+     *            What to call the container.
+     * @param removeVolumes
+     *            If true then we'll ask docker to remove the container's
+     *            volumes as well.
+     * @param containerId
+     *            The ID of the container to be terminated.
+     * @param containerAlreadyStopped
+     *            If true then we will assume that the container is already
+     *            stopped.
+     * @return true if the container is now stopped and removed.
+     */
+    @Restricted(NoExternalUse.class)
+    public static boolean stopAndRemoveContainer(
+            final DockerAPI api,
+            final int readTimeoutInSeconds,
+            final Logger logger,
+            final String containerDescription,
+            final boolean removeVolumes,
+            final String containerId,
+            final boolean containerAlreadyStopped) {
+        return stopAndRemoveContainer(
+                () -> api.getClient(readTimeoutInSeconds),
+                logger,
+                containerDescription,
+                removeVolumes,
+                containerId,
+                containerAlreadyStopped);
+    }
+
+    private static boolean stopAndRemoveContainer(
+            final Supplier<DockerClient> clientSupplier,
+            final Logger logger,
+            final String containerDescription,
+            final boolean removeVolumes,
+            final String containerId,
+            final boolean containerAlreadyStopped) {
+        final ILogger tl = createILoggerForSLF4JLogger(logger);
+        try (final DockerClient client = clientSupplier.get()) {
+            final boolean[] containerState = stopAndRemoveContainer(
+                    client,
+                    tl,
+                    containerDescription,
+                    removeVolumes,
+                    DockerTemplate.DEFAULT_STOP_TIMEOUT,
+                    containerId,
+                    containerAlreadyStopped,
+                    false);
+            return containerState[1];
+        } catch (Exception ex) {
+            tl.error(
+                    "Failed to stop and remove container '" + containerId + "' " + containerDescription
+                            + " due to exception:",
+                    ex);
+            return false;
+        }
     }
 
     public DockerCloud getCloud() {
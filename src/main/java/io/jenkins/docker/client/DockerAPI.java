@@ -15,6 +15,7 @@ import com.github.dockerjava.core.DockerClientBuilder;
 import com.github.dockerjava.core.SSLConfig;
 import com.github.dockerjava.httpclient5.ApacheDockerHttpClient;
 import com.github.dockerjava.transport.DockerHttpClient;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
 import hudson.Extension;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
@@ -27,7 +28,9 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
 import java.net.URI;
 import java.time.Duration;
 import java.util.List;
@@ -36,6 +39,8 @@ import java.util.concurrent.TimeUnit;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.docker.commons.credentials.DockerServerCredentials;
 import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
@@ -60,6 +65,15 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
     /** Read timeout in seconds */
     private int readTimeout;
 
+    /** Maximum number of connections each {@link DockerClient} may open; 0 means docker-java's default */
+    private int maxConnections;
+
+    /** How long, in seconds, an unused {@link DockerClient} is kept; 0 means the default */
+    private int connectionIdleTimeout;
+
+    /** How long, in seconds, a {@link DockerClient} is used for before it's replaced; 0 means forever */
+    private int connectionTimeToLive;
+
     private String apiVersion;
 
     private String hostname;
@@ -69,6 +83,23 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
      */
     private transient Boolean _isSwarm;
 
+    /** The API version the docker daemon told us it supports. */
+    private transient volatile String _daemonApiVersion;
+
+    /** Whether sockets from {@link #getSocket()} use TCP_NODELAY. */
+    private static final boolean SOCKET_TCP_NO_DELAY = JenkinsUtils.getSystemPropertyBoolean(
+            DockerAPI.class.getName() + ".socketTcpNoDelay", true);
+
+    /** Send buffer size for sockets from {@link #getSocket()}; 0 means the OS default. */
+    private static final int SOCKET_SEND_BUFFER_SIZE = JenkinsUtils.getSystemPropertyLong(
+                    DockerAPI.class.getName() + ".socketSendBufferSize", 0L)
+            .intValue();
+
+    /** Receive buffer size for sockets from {@link #getSocket()}; 0 means the OS default. */
+    private static final int SOCKET_RECEIVE_BUFFER_SIZE = JenkinsUtils.getSystemPropertyLong(
+                    DockerAPI.class.getName() + ".socketReceiveBufferSize", 0L)
+            .intValue();
+
     @DataBoundConstructor
     public DockerAPI(DockerServerEndpoint dockerHost) {
         this.dockerHost = dockerHost;
@@ -105,6 +136,33 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
         this.readTimeout = readTimeout;
     }
 
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    @DataBoundSetter
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = Math.max(0, maxConnections);
+    }
+
+    public int getConnectionIdleTimeout() {
+        return connectionIdleTimeout;
+    }
+
+    @DataBoundSetter
+    public void setConnectionIdleTimeout(int connectionIdleTimeout) {
+        this.connectionIdleTimeout = Math.max(0, connectionIdleTimeout);
+    }
+
+    public int getConnectionTimeToLive() {
+        return connectionTimeToLive;
+    }
+
+    @DataBoundSetter
+    public void setConnectionTimeToLive(int connectionTimeToLive) {
+        this.connectionTimeToLive = Math.max(0, connectionTimeToLive);
+    }
+
     public String getApiVersion() {
         return apiVersion;
     }
@@ -136,6 +194,31 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
         return _isSwarm;
     }
 
+    /**
+     * Works out which version of the docker API to use when we talk to the
+     * docker daemon directly (rather than via a {@link DockerClient}). This is
+     * the {@link #getApiVersion()} if one has been configured, otherwise it's
+     * whatever the daemon says it supports (which is cached).
+     *
+     * @return The API version, e.g. "1.43".
+     */
+    @Restricted(NoExternalUse.class)
+    public String getEffectiveApiVersion() {
+        if (apiVersion != null) {
+            return apiVersion;
+        }
+        String result = _daemonApiVersion;
+        if (result == null) {
+            try (final DockerClient client = getClient()) {
+                result = client.versionCmd().exec().getApiVersion();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            _daemonApiVersion = result;
+        }
+        return result;
+    }
+
     /**
      * Obtains a raw {@link DockerClient} pointing at our docker service
      * endpoint. You <em>MUST</em> ensure that you call
@@ -168,11 +251,97 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
      *         endpoint.
      */
     public DockerClient getClient(int activityTimeoutInSeconds) {
-        return getOrMakeClient(
-                dockerHost.getUri(), dockerHost.getCredentialsId(), activityTimeoutInSeconds, connectTimeout);
+        final DockerClientParameters cacheKey = new DockerClientParameters(
+                dockerHost.getUri(),
+                dockerHost.getCredentialsId(),
+                secondsToMillisecondsOrNull(activityTimeoutInSeconds),
+                secondsToMillisecondsOrNull(connectTimeout),
+                maxConnections > 0 ? maxConnections : null,
+                secondsToMillisecondsOrNull(connectionIdleTimeout),
+                secondsToMillisecondsOrNull(connectionTimeToLive));
+        return getOrMakeClient(cacheKey);
+    }
+
+    static Integer secondsToMillisecondsOrNull(int seconds) {
+        // anything that won't fit in an int is as good as forever anyway
+        return seconds > 0 ? (int) Math.min(seconds * 1000L, Integer.MAX_VALUE) : null;
     }
 
-    /** Caches connections until they've been unused for 5 minutes */
+    /**
+     * Reports on how many callers are using the {@link DockerClient}s we've
+     * handed out. A caller holding a client isn't necessarily using one of its
+     * connections, so this is not how busy their connection pools are.
+     *
+     * @return The usage of all the {@link DockerClient}s that talk to our
+     *         docker host with our credentials.
+     */
+    @Restricted(NoExternalUse.class)
+    public ClientUsageStatistics getClientUsageStatistics() {
+        int clients = 0;
+        int clientLeases = 0;
+        int peakClientLeases = 0;
+        for (final UsageTrackingCache.EntryUsage<DockerClientParameters> usage : CLIENT_CACHE.getUsage()) {
+            final DockerClientParameters key = usage.getKey();
+            if (Objects.equals(key.getDockerUri(), dockerHost.getUri())
+                    && Objects.equals(key.getCredentialsId(), dockerHost.getCredentialsId())) {
+                clients++;
+                clientLeases += usage.getUsageCount();
+                peakClientLeases = Math.max(peakClientLeases, usage.getPeakUsageCount());
+            }
+        }
+        return new ClientUsageStatistics(clients, clientLeases, peakClientLeases, maxConnections);
+    }
+
+    /**
+     * How many callers are using the {@link DockerClient}s for one docker
+     * host.
+     */
+    @Restricted(NoExternalUse.class)
+    public static final class ClientUsageStatistics {
+        private final int clients;
+        private final int clientLeases;
+        private final int peakClientLeases;
+        private final int maxConnectionsPerClient;
+
+        ClientUsageStatistics(int clients, int clientLeases, int peakClientLeases, int maxConnectionsPerClient) {
+            this.clients = clients;
+            this.clientLeases = clientLeases;
+            this.peakClientLeases = peakClientLeases;
+            this.maxConnectionsPerClient = maxConnectionsPerClient;
+        }
+
+        /** @return How many {@link DockerClient}s (each with its own connection pool) exist. */
+        public int getClients() {
+            return clients;
+        }
+
+        /**
+         * @return How many callers have been handed one of those
+         *         {@link DockerClient}s and not yet closed it.
+         */
+        public int getClientLeases() {
+            return clientLeases;
+        }
+
+        /** @return The most callers any one {@link DockerClient} has been handed out to at once. */
+        public int getPeakClientLeases() {
+            return peakClientLeases;
+        }
+
+        /** @return How many connections each {@link DockerClient} may open, or 0 if docker-java decides. */
+        public int getMaxConnectionsPerClient() {
+            return maxConnectionsPerClient;
+        }
+
+        @Override
+        public String toString() {
+            return "ClientUsageStatistics{clients=" + clients + ", clientLeases=" + clientLeases
+                    + ", peakClientLeases=" + peakClientLeases + ", maxConnectionsPerClient=" + maxConnectionsPerClient
+                    + '}';
+        }
+    }
+
+    /** Caches connections until they've been unused for 5 minutes (unless configured otherwise) */
     private static final UsageTrackingCache<DockerClientParameters, SharableDockerClient> CLIENT_CACHE;
 
     static {
@@ -192,19 +361,25 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
     }
 
     /** Obtains a {@link DockerClient} from the cache, or makes one and puts it in the cache, implicitly telling the cache we need it. */
-    private static DockerClient getOrMakeClient(
-            final String dockerUri, final String credentialsId, final int readTimeout, final int connectTimeout) {
-        final Integer readTimeoutInMillisecondsOrNull = readTimeout > 0 ? readTimeout * 1000 : null;
-        final Integer connectTimeoutInMillisecondsOrNull = connectTimeout > 0 ? connectTimeout * 1000 : null;
-        final DockerClientParameters cacheKey = new DockerClientParameters(
-                dockerUri, credentialsId, readTimeoutInMillisecondsOrNull, connectTimeoutInMillisecondsOrNull);
+    private static DockerClient getOrMakeClient(final DockerClientParameters cacheKey) {
+        final SharableDockerClient existingClient = CLIENT_CACHE.getAndIncrementUsage(cacheKey);
+        if (existingClient != null) {
+            return existingClient;
+        }
+        // Cache misses are rare, so we only lock when we might need to make a new client.
         synchronized (CLIENT_CACHE) {
             SharableDockerClient client = CLIENT_CACHE.getAndIncrementUsage(cacheKey);
             if (client == null) {
-                client = makeClient(
-                        dockerUri, credentialsId, readTimeoutInMillisecondsOrNull, connectTimeoutInMillisecondsOrNull);
+                client = makeClient(cacheKey);
                 LOGGER.info("Cached connection {} to {}", client, cacheKey);
-                CLIENT_CACHE.cacheAndIncrementUsage(cacheKey, client);
+                final Integer idleTimeoutOrNull = cacheKey.getIdleTimeoutInMsOrNull();
+                final Integer timeToLiveOrNull = cacheKey.getTimeToLiveInMsOrNull();
+                CLIENT_CACHE.cacheAndIncrementUsage(
+                        cacheKey,
+                        client,
+                        idleTimeoutOrNull != null ? idleTimeoutOrNull : 0L,
+                        timeToLiveOrNull != null ? timeToLiveOrNull : 0L,
+                        TimeUnit.MILLISECONDS);
             }
             return client;
         }
@@ -227,9 +402,7 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
          */
         @Override
         public void close() {
-            synchronized (CLIENT_CACHE) {
-                CLIENT_CACHE.decrementUsage(this);
-            }
+            CLIENT_CACHE.decrementUsage(this);
         }
 
         /**
@@ -245,17 +418,22 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
      * It's the caller's responsibility to dispose of the result.
      */
     @SuppressWarnings("resource")
-    private static SharableDockerClient makeClient(
-            final String dockerUri,
-            final String credentialsId,
-            final Integer readTimeoutInMillisecondsOrNull,
-            final Integer connectTimeoutInMillisecondsOrNull) {
+    private static SharableDockerClient makeClient(final DockerClientParameters parameters) {
+        final Integer readTimeoutInMillisecondsOrNull = parameters.getReadTimeoutInMsOrNull();
+        final Integer connectTimeoutInMillisecondsOrNull = parameters.getConnectTimeoutInMsOrNull();
+        final Integer maxConnectionsOrNull = parameters.getMaxConnectionsOrNull();
         DockerHttpClient httpClient = null;
         DockerClient actualClient = null;
         try {
-            httpClient = new ApacheDockerHttpClient.Builder() //
-                    .dockerHost(URI.create(dockerUri)) //
-                    .sslConfig(toSSlConfig(credentialsId)) //
+            final ApacheDockerHttpClient.Builder httpClientBuilder = new ApacheDockerHttpClient.Builder();
+            if (maxConnectionsOrNull != null) {
+                // docker-java applies this to the pool as a whole and per route, which is the same
+                // thing as we only ever talk to one docker host per client.
+                httpClientBuilder.maxConnections(maxConnectionsOrNull.intValue());
+            }
+            httpClient = httpClientBuilder //
+                    .dockerHost(URI.create(parameters.getDockerUri())) //
+                    .sslConfig(toSSlConfig(parameters.getCredentialsId())) //
                     .connectionTimeout(
                             connectTimeoutInMillisecondsOrNull != null
                                     ? Duration.ofMillis(connectTimeoutInMillisecondsOrNull.intValue())
@@ -304,7 +482,14 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
     }
 
     /**
-     * Create a plain {@link Socket} to docker API endpoint
+     * Create a plain {@link Socket} to docker API endpoint.
+     * <p>
+     * The socket is connected within our <code>connectTimeout</code> and
+     * its options can be tuned using system properties:
+     * <code>.socketTcpNoDelay</code> (true by default),
+     * <code>.socketSendBufferSize</code> and
+     * <code>.socketReceiveBufferSize</code>.
+     * </p>
      *
      * @return The {@link Socket} direct to the docker daemon.
      * @throws IOException if anything goes wrong.
@@ -312,24 +497,47 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
     public Socket getSocket() throws IOException {
         try {
             final URI uri = new URI(dockerHost.getUri());
+            final int connectTimeoutInMilliseconds = connectTimeout > 0 ? connectTimeout * 1000 : 0;
             if ("unix".equals(uri.getScheme())) {
                 final String socketFileName = uri.getPath();
                 final AFUNIXSocketAddress unix = AFUNIXSocketAddress.of(new File(socketFileName));
                 final Socket socket = AFUNIXSocket.newInstance();
-                socket.connect(unix);
+                setBufferSizes(socket);
+                socket.connect(unix, connectTimeoutInMilliseconds);
                 return socket;
             }
 
+            final Socket socket = new Socket();
+            socket.setTcpNoDelay(SOCKET_TCP_NO_DELAY);
+            setBufferSizes(socket);
+            socket.connect(new InetSocketAddress(uri.getHost(), uri.getPort()), connectTimeoutInMilliseconds);
             final SSLConfig sslConfig = toSSlConfig(dockerHost.getCredentialsId());
             if (sslConfig != null) {
-                return sslConfig.getSSLContext().getSocketFactory().createSocket(uri.getHost(), uri.getPort());
+                return sslConfig
+                        .getSSLContext()
+                        .getSocketFactory()
+                        .createSocket(socket, uri.getHost(), uri.getPort(), true);
             }
-            return new Socket(uri.getHost(), uri.getPort());
+            return socket;
         } catch (Exception e) {
             throw new IOException("Failed to create a Socker for docker URI " + dockerHost.getUri(), e);
         }
     }
 
+    private static void setBufferSizes(Socket socket) {
+        try {
+            if (SOCKET_SEND_BUFFER_SIZE > 0) {
+                socket.setSendBufferSize(SOCKET_SEND_BUFFER_SIZE);
+            }
+            if (SOCKET_RECEIVE_BUFFER_SIZE > 0) {
+                socket.setReceiveBufferSize(SOCKET_RECEIVE_BUFFER_SIZE);
+            }
+        } catch (SocketException ex) {
+            // not all socket implementations support this
+            LOGGER.debug("Unable to set buffer sizes of {}", socket, ex);
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -347,6 +555,15 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
         if (readTimeout != dockerAPI.readTimeout) {
             return false;
         }
+        if (maxConnections != dockerAPI.maxConnections) {
+            return false;
+        }
+        if (connectionIdleTimeout != dockerAPI.connectionIdleTimeout) {
+            return false;
+        }
+        if (connectionTimeToLive != dockerAPI.connectionTimeToLive) {
+            return false;
+        }
         if (!Objects.equals(dockerHost, dockerAPI.dockerHost)) {
             return false;
         }
@@ -364,6 +581,9 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
         int result = dockerHost != null ? dockerHost.hashCode() : 0;
         result = 31 * result + connectTimeout;
         result = 31 * result + readTimeout;
+        result = 31 * result + maxConnections;
+        result = 31 * result + connectionIdleTimeout;
+        result = 31 * result + connectionTimeToLive;
         result = 31 * result + (apiVersion != null ? apiVersion.hashCode() : 0);
         result = 31 * result + (hostname != null ? hostname.hashCode() : 0);
         return result;
@@ -375,6 +595,9 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
         bldToString(sb, "dockerHost", dockerHost);
         bldToString(sb, "connectTimeout", connectTimeout);
         bldToString(sb, "readTimeout", readTimeout);
+        bldToString(sb, "maxConnections", maxConnections);
+        bldToString(sb, "connectionIdleTimeout", connectionIdleTimeout);
+        bldToString(sb, "connectionTimeToLive", connectionTimeToLive);
         bldToString(sb, "apiVersion", apiVersion);
         bldToString(sb, "hostname", hostname);
         endToString(sb);
@@ -407,6 +630,18 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
             return FormValidation.validateNonNegativeInteger(value);
         }
 
+        public FormValidation doCheckMaxConnections(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckConnectionIdleTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckConnectionTimeToLive(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
         @RequirePOST
         public FormValidation doTestConnection(
                 @AncestorInPath Item context,
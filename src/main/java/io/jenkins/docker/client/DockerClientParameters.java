@@ -7,13 +7,30 @@ class DockerClientParameters {
     final String credentialsId;
     final Integer readTimeoutInMsOrNull;
     final Integer connectTimeoutInMsOrNull;
+    final Integer maxConnectionsOrNull;
+    final Integer idleTimeoutInMsOrNull;
+    final Integer timeToLiveInMsOrNull;
 
     DockerClientParameters(
             String dockerUri, String credentialsId, Integer readTimeoutInMsOrNull, Integer connectTimeoutInMsOrNull) {
+        this(dockerUri, credentialsId, readTimeoutInMsOrNull, connectTimeoutInMsOrNull, null, null, null);
+    }
+
+    DockerClientParameters(
+            String dockerUri,
+            String credentialsId,
+            Integer readTimeoutInMsOrNull,
+            Integer connectTimeoutInMsOrNull,
+            Integer maxConnectionsOrNull,
+            Integer idleTimeoutInMsOrNull,
+            Integer timeToLiveInMsOrNull) {
         this.dockerUri = dockerUri;
         this.credentialsId = credentialsId;
         this.readTimeoutInMsOrNull = readTimeoutInMsOrNull;
         this.connectTimeoutInMsOrNull = connectTimeoutInMsOrNull;
+        this.maxConnectionsOrNull = maxConnectionsOrNull;
+        this.idleTimeoutInMsOrNull = idleTimeoutInMsOrNull;
+        this.timeToLiveInMsOrNull = timeToLiveInMsOrNull;
     }
 
     public String getDockerUri() {
@@ -32,9 +49,28 @@ class DockerClientParameters {
         return connectTimeoutInMsOrNull;
     }
 
+    public Integer getMaxConnectionsOrNull() {
+        return maxConnectionsOrNull;
+    }
+
+    public Integer getIdleTimeoutInMsOrNull() {
+        return idleTimeoutInMsOrNull;
+    }
+
+    public Integer getTimeToLiveInMsOrNull() {
+        return timeToLiveInMsOrNull;
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hash(dockerUri, credentialsId, connectTimeoutInMsOrNull, readTimeoutInMsOrNull);
+        return Objects.hash(
+                dockerUri,
+                credentialsId,
+                connectTimeoutInMsOrNull,
+                readTimeoutInMsOrNull,
+                maxConnectionsOrNull,
+                idleTimeoutInMsOrNull,
+                timeToLiveInMsOrNull);
     }
 
     @Override
@@ -49,7 +85,10 @@ class DockerClientParameters {
         return Objects.equals(dockerUri, other.dockerUri)
                 && Objects.equals(credentialsId, other.credentialsId)
                 && Objects.equals(readTimeoutInMsOrNull, other.readTimeoutInMsOrNull)
-                && Objects.equals(connectTimeoutInMsOrNull, other.connectTimeoutInMsOrNull);
+                && Objects.equals(connectTimeoutInMsOrNull, other.connectTimeoutInMsOrNull)
+                && Objects.equals(maxConnectionsOrNull, other.maxConnectionsOrNull)
+                && Objects.equals(idleTimeoutInMsOrNull, other.idleTimeoutInMsOrNull)
+                && Objects.equals(timeToLiveInMsOrNull, other.timeToLiveInMsOrNull);
     }
 
     @Override
@@ -58,6 +97,9 @@ class DockerClientParameters {
                 + dockerUri + '\'' + ", credentialsId='"
                 + credentialsId + '\'' + ", readTimeoutInMsOrNull="
                 + readTimeoutInMsOrNull + ", connectTimeoutInMsOrNull="
-                + connectTimeoutInMsOrNull + '}';
+                + connectTimeoutInMsOrNull + ", maxConnectionsOrNull="
+                + maxConnectionsOrNull + ", idleTimeoutInMsOrNull="
+                + idleTimeoutInMsOrNull + ", timeToLiveInMsOrNull="
+                + timeToLiveInMsOrNull + '}';
     }
 }
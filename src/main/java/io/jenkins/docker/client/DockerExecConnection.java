@@ -0,0 +1,156 @@
+package io.jenkins.docker.client;
+
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * A raw, bidirectional connection to a process started with
+ * <code>docker exec</code>, obtained by asking the docker daemon to start
+ * the exec and upgrade the HTTP connection to a plain TCP stream.
+ * <p>
+ * The request is sent in a single write and the response headers are parsed
+ * from a buffered stream, which then carries on being used for the
+ * (multiplexed) output of the process.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerExecConnection implements Closeable {
+    /** Size of the buffer we read the exec's output through. */
+    private static final int INPUT_BUFFER_SIZE = JenkinsUtils.getSystemPropertyLong(
+                    DockerExecConnection.class.getName() + ".inputBufferSize", 16384L)
+            .intValue();
+
+    /** Longest response header line we'll accept. */
+    private static final int MAX_HEADER_LINE_LENGTH = 8192;
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+
+    private DockerExecConnection(Socket socket, InputStream in, OutputStream out) {
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Starts an exec that has already been created, attaching to its stdin,
+     * stdout and stderr.
+     *
+     * @param api The docker daemon the exec was created on.
+     * @param execId The ID of the exec.
+     * @param logger Where to log the daemon's response headers.
+     * @return The connection to the exec'd process.
+     * @throws IOException if anything goes wrong.
+     */
+    @NonNull
+    public static DockerExecConnection start(
+            @NonNull DockerAPI api, @NonNull String execId, @NonNull PrintStream logger) throws IOException {
+        final byte[] request = createStartRequest(api.getEffectiveApiVersion(), execId);
+        final Socket socket = api.getSocket();
+        try {
+            final OutputStream out = socket.getOutputStream();
+            out.write(request);
+            out.flush();
+            final InputStream in = new BufferedInputStream(socket.getInputStream(), INPUT_BUFFER_SIZE);
+            readResponseHeaders(in, logger);
+            return new DockerExecConnection(socket, in, out);
+        } catch (IOException | RuntimeException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    /** @return The (multiplexed) output of the process. */
+    @NonNull
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    /** @return The input of the process. */
+    @NonNull
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    static byte[] createStartRequest(String apiVersion, String execId) {
+        final String body = "{ \"Detach\": false, \"Tty\": false }";
+        final String request = "POST /v" + apiVersion + "/exec/" + execId + "/start HTTP/1.1\r\n"
+                + "Host: docker.sock\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Upgrade: tcp\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Content-Length: " + body.length() + "\r\n"
+                + "\r\n"
+                + body;
+        return request.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Reads the HTTP response headers, leaving the stream positioned at the
+     * start of the upgraded stream.
+     *
+     * @param in The response.
+     * @param logger Where to log the headers.
+     * @throws IOException if the daemon didn't agree to upgrade the
+     *             connection.
+     */
+    static void readResponseHeaders(InputStream in, PrintStream logger) throws IOException {
+        final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(128);
+        final String statusLine = readLine(in, lineBuffer);
+        if (statusLine == null) {
+            throw new IOException("Docker closed the connection instead of responding");
+        }
+        logger.println(statusLine);
+        if (!statusLine.startsWith("HTTP/1.1 101 ") && !statusLine.startsWith("HTTP/1.0 101 ")) {
+            // Switching Protocols
+            throw new IOException("Unexpected HTTP response status line " + statusLine);
+        }
+        String line;
+        while ((line = readLine(in, lineBuffer)) != null && !line.isEmpty()) {
+            logger.println(line);
+        }
+        if (line == null) {
+            throw new IOException("Docker closed the connection while sending HTTP response headers");
+        }
+    }
+
+    /**
+     * Reads a CRLF (or LF) terminated line.
+     *
+     * @return The line, without its terminator, or null if we reached EOF
+     *         first.
+     */
+    private static String readLine(InputStream in, ByteArrayOutputStream lineBuffer) throws IOException {
+        lineBuffer.reset();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                final byte[] bytes = lineBuffer.toByteArray();
+                final boolean endsWithCr = bytes.length > 0 && bytes[bytes.length - 1] == '\r';
+                return new String(bytes, 0, endsWithCr ? bytes.length - 1 : bytes.length, StandardCharsets.US_ASCII);
+            }
+            if (lineBuffer.size() >= MAX_HEADER_LINE_LENGTH) {
+                throw new IOException("HTTP response header line too long");
+            }
+            lineBuffer.write(c);
+        }
+        return null;
+    }
+}
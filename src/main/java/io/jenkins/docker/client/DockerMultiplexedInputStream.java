@@ -1,102 +1,278 @@
 package io.jenkins.docker.client;
 
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.NonNull;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Objects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * De-multiplex an <code>application/vnd.docker.raw-stream</code> as described on
  * <a href="https://docs.docker.com/engine/api/v1.32/#operation/ContainerAttach">Docker API documentation</a>
+ * <p>
+ * All remoting traffic of attached agents goes through here, so this does
+ * not allocate anything per frame: a single read can return data from
+ * several consecutive stdout frames (as long as that doesn't mean blocking),
+ * and stderr is kept in a bounded ring buffer whose most recent content is
+ * available from {@link #getRecentStderr()}.
+ * </p>
  *
  * @author <a href="mailto:nicolas.deloof@gmail.com">Nicolas De Loof</a>
  */
 public class DockerMultiplexedInputStream extends InputStream {
+    private static final int HEADER_SIZE = 8;
+    private static final int STDOUT = 1;
+    private static final int STDERR = 2;
+
+    /** Default size of our stderr ring buffer, in bytes. */
+    private static final int DEFAULT_STDERR_BUFFER_SIZE = JenkinsUtils.getSystemPropertyLong(
+                    DockerMultiplexedInputStream.class.getName() + ".stderrBufferSize", 8192L)
+            .intValue();
+
+    /** Size of the buffer we read stderr into before copying it into the ring buffer. */
+    private static final int STDERR_SCRATCH_SIZE = 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerMultiplexedInputStream.class);
 
     private final InputStream multiplexed;
     private final String name;
-    private int next;
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(DockerMultiplexedInputStream.class);
+    /** Reused for every frame header. */
+    private final byte[] header = new byte[HEADER_SIZE];
+
+    /** Type of the frame we're reading. */
+    private int frameType;
+
+    /** Bytes of the current frame's payload that we have yet to read. */
+    private int remaining;
+
+    /** Size of the current frame's payload, if it's stderr. */
+    private int stderrFrameSize;
+
+    /** Reused for every stderr frame; only allocated if we see any stderr. */
+    private byte[] stderrScratch;
+
+    /** The most recent stderr output. */
+    private final byte[] stderrRing;
+
+    /** Where the next stderr byte goes in {@link #stderrRing}. */
+    private int stderrRingEnd;
+
+    /** How many bytes of {@link #stderrRing} are in use. */
+    private int stderrRingLength;
+
+    /**
+     * A problem we found while reading ahead, which we'll report once the
+     * caller has had the data we'd read before it.
+     */
+    private IOException deferredException;
 
     public DockerMultiplexedInputStream(InputStream in, String streamName) {
+        this(in, streamName, DEFAULT_STDERR_BUFFER_SIZE);
+    }
+
+    DockerMultiplexedInputStream(InputStream in, String streamName, int stderrBufferSize) {
         multiplexed = in;
         name = streamName;
-        next = 0;
+        stderrRing = new byte[Math.max(stderrBufferSize, 1)];
     }
 
     @Override
     public int read() throws IOException {
-        if (!readInternal()) {
+        throwDeferredException();
+        if (!nextStdout(true)) {
             return -1; // EOF reading header
         }
-        int nextByte = multiplexed.read();
+        final int nextByte = multiplexed.read();
         if (nextByte >= 0) {
-            next--;
+            remaining--;
         }
         return nextByte;
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        if (!readInternal()) {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        throwDeferredException();
+        if (!nextStdout(true)) {
             return -1; // EOF reading header
         }
-        int bytesRead = multiplexed.read(b, off, Math.min(next, len));
-        if (bytesRead >= 0) {
-            next -= bytesRead;
+        int total = 0;
+        while (true) {
+            final int bytesRead = multiplexed.read(b, off + total, Math.min(remaining, len - total));
+            if (bytesRead < 0) {
+                return total > 0 ? total : -1;
+            }
+            remaining -= bytesRead;
+            total += bytesRead;
+            // Carry on into the rest of this frame, or the next frames, but
+            // only while we can do so without blocking.
+            try {
+                if (total == len || !nextStdout(false) || multiplexed.available() <= 0) {
+                    return total;
+                }
+            } catch (IOException ex) {
+                deferredException = ex;
+                return total;
+            }
+        }
+    }
+
+    private void throwDeferredException() throws IOException {
+        if (deferredException != null) {
+            throw deferredException;
         }
-        return bytesRead;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (remaining > 0 && frameType == STDOUT) {
+            return Math.min(remaining, multiplexed.available());
+        }
+        return 0;
     }
 
     /**
-     * @return False if we reached EOF while reading the header.
+     * Gets the most recent output the container sent to stderr, up to the
+     * size of our ring buffer.
+     *
+     * @return The most recent stderr output, or "" if there's been none.
+     */
+    @NonNull
+    public synchronized String getRecentStderr() {
+        return getRecentStderr(stderrRingLength);
+    }
+
+    /**
+     * Moves on to the payload of the next stdout frame, if we're not already
+     * in one, consuming any stderr frames we find along the way.
+     *
+     * @param mayBlock If false, we stop instead of blocking.
+     * @return True if we're now in a stdout frame with data left to read.
+     *         False if we reached EOF, or if we'd have had to block.
      */
-    private boolean readInternal() throws IOException {
-        while (next == 0) {
-            byte[] header = new byte[8];
-            int todo = 8;
-            while (todo > 0) {
-                int i = multiplexed.read(header, 8 - todo, todo);
-                if (i < 0) {
+    private boolean nextStdout(boolean mayBlock) throws IOException {
+        while (remaining == 0 || frameType != STDOUT) {
+            if (remaining == 0) {
+                if (!mayBlock && multiplexed.available() < HEADER_SIZE) {
+                    return false;
+                }
+                if (!readHeader()) {
                     return false; // EOF
                 }
-                todo -= i;
+                if (frameType == STDERR && remaining == 0) {
+                    logStderrFrame();
+                }
+            } else if (!skipStderr(mayBlock)) {
+                return false;
             }
-            int size = ((header[4] & 0xff) << 24)
-                    + ((header[5] & 0xff) << 16)
-                    + ((header[6] & 0xff) << 8)
-                    + (header[7] & 0xff);
-            switch (header[0]) {
-                case 1: // STDOUT
-                    next = size;
-                    break;
-                case 2: // STDERR
-                    // not expected. Read payload and log it for diagnostic
-                    byte[] payload = new byte[size];
-                    int received = 0;
-                    while (received < size) {
-                        int i = multiplexed.read(payload, received, size - received);
-                        if (i < 0) {
-                            break; // EOF
-                        }
-                        received += i;
-                    }
-                    if (LOGGER.isInfoEnabled()) {
-                        final String dataAsString = new String(payload, 0, received, StandardCharsets.UTF_8);
-                        final String dataAsTrimmedString = dataAsString.replaceAll("\\s*$", "");
-                        if (!dataAsTrimmedString.isEmpty()) {
-                            LOGGER.info("stderr from {}: {}", name, dataAsTrimmedString);
-                        }
-                    }
-                    break;
-                default:
-                    throw new IOException(
-                            "Unexpected application/vnd.docker.raw-stream frame type " + Arrays.toString(header));
+        }
+        return true;
+    }
+
+    /**
+     * @return False if we reached EOF while reading the header.
+     */
+    private boolean readHeader() throws IOException {
+        int todo = HEADER_SIZE;
+        while (todo > 0) {
+            final int i = multiplexed.read(header, HEADER_SIZE - todo, todo);
+            if (i < 0) {
+                return false; // EOF
             }
+            todo -= i;
+        }
+        final int size = ((header[4] & 0xff) << 24)
+                + ((header[5] & 0xff) << 16)
+                + ((header[6] & 0xff) << 8)
+                + (header[7] & 0xff);
+        switch (header[0]) {
+            case STDOUT:
+                break;
+            case STDERR:
+                // not expected. Keep the payload for diagnostics
+                stderrFrameSize = size;
+                break;
+            default:
+                throw new IOException(
+                        "Unexpected application/vnd.docker.raw-stream frame type " + Arrays.toString(header));
         }
+        frameType = header[0];
+        remaining = size;
         return true;
     }
+
+    /**
+     * Reads (some of) the rest of the current stderr frame into our ring
+     * buffer.
+     *
+     * @param mayBlock If false, we stop instead of blocking.
+     * @return False if we reached EOF, or if we'd have had to block.
+     */
+    private boolean skipStderr(boolean mayBlock) throws IOException {
+        if (stderrScratch == null) {
+            stderrScratch = new byte[STDERR_SCRATCH_SIZE];
+        }
+        while (remaining > 0) {
+            int toRead = Math.min(remaining, stderrScratch.length);
+            if (!mayBlock) {
+                toRead = Math.min(toRead, multiplexed.available());
+                if (toRead <= 0) {
+                    return false;
+                }
+            }
+            final int bytesRead = multiplexed.read(stderrScratch, 0, toRead);
+            if (bytesRead < 0) {
+                return false; // EOF
+            }
+            remaining -= bytesRead;
+            appendStderr(stderrScratch, bytesRead);
+        }
+        logStderrFrame();
+        return true;
+    }
+
+    private synchronized void appendStderr(byte[] src, int len) {
+        final int capacity = stderrRing.length;
+        int srcOffset = 0;
+        int toCopy = len;
+        if (toCopy > capacity) {
+            // only the end will fit
+            srcOffset = toCopy - capacity;
+            toCopy = capacity;
+        }
+        final int firstPart = Math.min(toCopy, capacity - stderrRingEnd);
+        System.arraycopy(src, srcOffset, stderrRing, stderrRingEnd, firstPart);
+        System.arraycopy(src, srcOffset + firstPart, stderrRing, 0, toCopy - firstPart);
+        stderrRingEnd = (stderrRingEnd + toCopy) % capacity;
+        stderrRingLength = Math.min(capacity, stderrRingLength + toCopy);
+    }
+
+    private synchronized String getRecentStderr(int length) {
+        final int capacity = stderrRing.length;
+        final int count = Math.min(length, stderrRingLength);
+        final byte[] result = new byte[count];
+        final int start = (stderrRingEnd - count + capacity) % capacity;
+        final int firstPart = Math.min(count, capacity - start);
+        System.arraycopy(stderrRing, start, result, 0, firstPart);
+        System.arraycopy(stderrRing, 0, result, firstPart, count - firstPart);
+        return new String(result, StandardCharsets.UTF_8);
+    }
+
+    private void logStderrFrame() {
+        if (LOGGER.isInfoEnabled()) {
+            final String dataAsString = getRecentStderr(stderrFrameSize);
+            final String dataAsTrimmedString = dataAsString.replaceAll("\\s*$", "");
+            if (!dataAsTrimmedString.isEmpty()) {
+                LOGGER.info("stderr from {}: {}", name, dataAsTrimmedString);
+            }
+        }
+    }
 }
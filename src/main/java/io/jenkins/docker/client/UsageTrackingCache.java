@@ -1,21 +1,29 @@
 package io.jenkins.docker.client;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
-import java.util.HashMap;
-import java.util.IdentityHashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A cache that keep things until they haven't been used for a given duration.
  * Things will be kept in the cache until they have been inactive for too long.
  * Things will not be dropped from the cache while they are active, no matter
  * how long that is.
+ * <p>
+ * This class is thread-safe and does not lock: usage counts are maintained
+ * using compare-and-set, and expired entries are swept out at most once per
+ * duration by whichever thread happens to notice that a sweep is due.
+ * </p>
+ * <p>
+ * Entries can also be given a maximum lifetime, after which they are no
+ * longer handed out and are dropped as soon as they are no longer in use.
+ * </p>
  *
  * @param <K>
  *            The type of key by which cache entries can be indexed. This must
@@ -38,12 +46,21 @@ public class UsageTrackingCache<K, V> {
         void entryDroppedFromCache(K key, V value);
     }
 
-    /** Holds all active records, indexed by key */
-    private final Map<K, CacheEntry<K, V>> activeCacheByKey;
-    /** Holds all active records, indexed by value */
-    private final Map<V, CacheEntry<K, V>> activeCacheByValue;
-    /** Holds all inactive records for a period, indexed by key */
-    private final Cache<K, CacheEntry<K, V>> durationCache;
+    /** The most we'll wait between sweeps, in nanoseconds */
+    private static final long MAX_SWEEP_INTERVAL_IN_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /** Holds all current records, active or inactive, indexed by key */
+    private final Map<K, CacheEntry<K, V>> cacheByKey = new ConcurrentHashMap<>();
+    /** Holds all records, including retired ones, indexed by value identity */
+    private final Map<Identity<V>, CacheEntry<K, V>> cacheByValue = new ConcurrentHashMap<>();
+    /** How long inactive records are kept by default, in nanoseconds */
+    private final long durationInNanos;
+    /** How often we look for expired records, in nanoseconds */
+    private final long sweepIntervalInNanos;
+    /** Told about every record we discard */
+    private final ExpiryHandler<K, V> expiryHandler;
+    /** When (in {@link System#nanoTime()} terms) we should next look for expired records */
+    private final AtomicLong nextSweepNanos;
 
     /**
      * Full constructor.
@@ -58,23 +75,10 @@ public class UsageTrackingCache<K, V> {
      */
     UsageTrackingCache(
             final long duration, @NonNull final TimeUnit unit, @NonNull final ExpiryHandler<K, V> expiryHandler) {
-        activeCacheByKey = new HashMap<>();
-        activeCacheByValue = new IdentityHashMap();
-        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
-        cacheBuilder = cacheBuilder.expireAfterAccess(duration, unit);
-        final RemovalListener removalHandler = new RemovalListener<K, CacheEntry<K, V>>() {
-            @Override
-            public void onRemoval(RemovalNotification<K, CacheEntry<K, V>> notification) {
-                final K key = notification.getKey();
-                if (!activeCacheByKey.containsKey(key)) {
-                    final CacheEntry<K, V> record = notification.getValue();
-                    final V value = record.getValue();
-                    expiryHandler.entryDroppedFromCache(key, value);
-                }
-            }
-        };
-        cacheBuilder = cacheBuilder.removalListener(removalHandler);
-        durationCache = cacheBuilder.build();
+        this.durationInNanos = unit.toNanos(duration);
+        this.sweepIntervalInNanos = Math.min(durationInNanos, MAX_SWEEP_INTERVAL_IN_NANOS);
+        this.expiryHandler = expiryHandler;
+        this.nextSweepNanos = new AtomicLong(System.nanoTime() + sweepIntervalInNanos);
     }
 
     /**
@@ -91,29 +95,24 @@ public class UsageTrackingCache<K, V> {
      */
     @CheckForNull
     public V getAndIncrementUsage(@NonNull K key) {
-        final CacheEntry<K, V> activeRecord = activeCacheByKey.get(key);
-        if (activeRecord != null) {
-            // we have an entry that's currently in use
-            activeRecord.incrementUsageCount(); // bump activity count
-            final V value = activeRecord.getValue();
-            durationCache.cleanUp(); // force cleanup activity
-            return value;
-        }
-        final CacheEntry<K, V> durationRecord = durationCache.getIfPresent(key);
-        if (durationRecord != null) {
-            final V value = durationRecord.getValue();
-            // while we don't have an entry that's currently in use, we do have
-            // one that we stopped using recently.
-            durationRecord.incrementUsageCount(); // bump its activity count
-            // put it in the "active" cache
-            activeCacheByKey.put(key, durationRecord);
-            activeCacheByValue.put(value, durationRecord);
-            // remove it from the duration cache
-            durationCache.invalidate(key);
-            durationCache.cleanUp();
-            return value;
-        }
-        durationCache.cleanUp(); // force cleanup activity
+        final long now = System.nanoTime();
+        sweepIfDue(now);
+        final CacheEntry<K, V> record = cacheByKey.get(key);
+        if (record == null) {
+            return null;
+        }
+        if (record.isPastLifetime(now)) {
+            retire(record, now);
+            return null;
+        }
+        if (record.isExpired(now)) {
+            discardIfUnused(record, now);
+            return null;
+        }
+        if (record.incrementUsageCount()) {
+            return record.getValue();
+        }
+        // it's just been discarded
         return null;
     }
 
@@ -128,15 +127,49 @@ public class UsageTrackingCache<K, V> {
      *            The entry to be cached.
      */
     public void cacheAndIncrementUsage(@NonNull K key, @NonNull V entry) {
-        final CacheEntry<K, V> record = new CacheEntry<>(key, entry, 1);
-        final CacheEntry<K, V> oldKeyRecord = activeCacheByKey.put(key, record);
-        final CacheEntry<K, V> oldValueRecord = activeCacheByValue.put(entry, record);
-        if (oldKeyRecord != null || oldValueRecord != null) {
-            final CacheEntry<K, V> oldRecord = oldKeyRecord != null ? oldKeyRecord : oldValueRecord;
-            activeCacheByKey.put(key, oldRecord);
-            activeCacheByValue.put(entry, oldRecord);
-            throw new IllegalStateException("Cannot cache " + record + " because there's already a record " + oldRecord
-                    + " present in the activeCache.");
+        cacheAndIncrementUsage(key, entry, 0L, 0L, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * As {@link #cacheAndIncrementUsage(Object, Object)}, but with entry-specific
+     * expiry settings.
+     *
+     * @param key
+     *            The key used to look up the entry in the cache.
+     * @param entry
+     *            The entry to be cached.
+     * @param idleDuration
+     *            How long the entry should be kept once inactive. Zero or
+     *            less means the cache's default.
+     * @param maxLifetime
+     *            How long after being cached the entry should stop being
+     *            handed out. Zero or less means forever.
+     * @param unit
+     *            The unit of measurement of <code>idleDuration</code> and
+     *            <code>maxLifetime</code>.
+     */
+    public void cacheAndIncrementUsage(
+            @NonNull K key, @NonNull V entry, long idleDuration, long maxLifetime, @NonNull TimeUnit unit) {
+        final long idleInNanos = idleDuration > 0L ? unit.toNanos(idleDuration) : durationInNanos;
+        final long lifetimeInNanos = maxLifetime > 0L ? unit.toNanos(maxLifetime) : 0L;
+        final CacheEntry<K, V> record = new CacheEntry<>(key, entry, 1, idleInNanos, lifetimeInNanos);
+        while (true) {
+            final CacheEntry<K, V> oldKeyRecord = cacheByKey.putIfAbsent(key, record);
+            if (oldKeyRecord == null) {
+                break;
+            }
+            if (!oldKeyRecord.isDiscarded() && !oldKeyRecord.isRetired()) {
+                throw new IllegalStateException("Cannot cache " + record + " because there's already a record "
+                        + oldKeyRecord + " present in the cache.");
+            }
+            // it's on its way out; help it along and try again.
+            cacheByKey.remove(key, oldKeyRecord);
+        }
+        final CacheEntry<K, V> oldValueRecord = cacheByValue.putIfAbsent(record.getIdentity(), record);
+        if (oldValueRecord != null) {
+            cacheByKey.remove(key, record);
+            throw new IllegalStateException("Cannot cache " + record + " because there's already a record "
+                    + oldValueRecord + " present in the cache.");
         }
     }
 
@@ -151,41 +184,163 @@ public class UsageTrackingCache<K, V> {
      *            The entry that is no longer in use.
      */
     public void decrementUsage(@NonNull V entry) {
-        durationCache.cleanUp(); // force cleanup activity
-        final CacheEntry<K, V> record = activeCacheByValue.get(entry);
-        if (record == null) {
+        final long now = System.nanoTime();
+        final CacheEntry<K, V> record = cacheByValue.get(new Identity<>(entry));
+        if (record == null || !record.decrementUsageCount(now)) {
             throw new IllegalStateException("No active record for entry " + entry);
         }
-        final boolean stillActive = record.decrementUsageCount();
-        if (stillActive) {
+        if (record.isRetired()) {
+            discardIfUnused(record, now);
+        }
+        sweepIfDue(now);
+    }
+
+    /**
+     * Reports on how much each entry in the cache is being used.
+     *
+     * @return A snapshot of the usage of every entry that hasn't yet been
+     *         dropped from the cache.
+     */
+    @NonNull
+    public List<EntryUsage<K>> getUsage() {
+        final List<EntryUsage<K>> result = new ArrayList<>();
+        for (final CacheEntry<K, V> record : cacheByValue.values()) {
+            final int usageCount = record.getUsageCount();
+            if (usageCount >= 0) {
+                result.add(new EntryUsage<>(record.getKey(), usageCount, record.getPeakUsageCount()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stops handing out a record that has outlived its lifetime. It'll be
+     * dropped once it is no longer in use.
+     */
+    private void retire(CacheEntry<K, V> record, long now) {
+        record.retire();
+        cacheByKey.remove(record.getKey(), record);
+        discardIfUnused(record, now);
+    }
+
+    /**
+     * Discards all expired records, unless someone else has done so recently.
+     */
+    private void sweepIfDue(long now) {
+        final long due = nextSweepNanos.get();
+        if (now - due < 0L || !nextSweepNanos.compareAndSet(due, now + sweepIntervalInNanos)) {
             return;
         }
-        // if we got this far then the entry has just ceased to be active.
-        final K key = record.getKey();
-        activeCacheByKey.remove(key);
-        activeCacheByValue.remove(entry);
-        durationCache.put(key, record);
-        durationCache.cleanUp();
+        for (final CacheEntry<K, V> record : cacheByValue.values()) {
+            if (record.isPastLifetime(now)) {
+                retire(record, now);
+            } else if (record.isExpired(now)) {
+                discardIfUnused(record, now);
+            }
+        }
+    }
+
+    private void discardIfUnused(CacheEntry<K, V> record, long now) {
+        if (!record.discardIfExpired(now)) {
+            return; // someone's using it again, or someone else discarded it
+        }
+        cacheByKey.remove(record.getKey(), record);
+        cacheByValue.remove(record.getIdentity(), record);
+        expiryHandler.entryDroppedFromCache(record.getKey(), record.getValue());
     }
 
     private static class CacheEntry<K, V> {
+        /** Usage count value that indicates the record has been discarded. */
+        private static final int DISCARDED = -1;
+
         private final K mKey;
-        private final V mValue;
-        private int mUsageCount;
+        private final Identity<V> mIdentity;
+        private final AtomicInteger mUsageCount;
+        private final AtomicInteger mPeakUsageCount;
+        private final long mCreatedNanos;
+        private final long mIdleNanos;
+        /** Zero means forever */
+        private final long mLifetimeNanos;
+        /** When the usage count last dropped to zero */
+        private volatile long mLastReleasedNanos;
+        /** Set once we stop handing this out */
+        private volatile boolean mRetired;
 
-        CacheEntry(K key, V value, int usageCount) {
+        CacheEntry(K key, V value, int usageCount, long idleNanos, long lifetimeNanos) {
             this.mKey = key;
-            this.mValue = value;
-            this.mUsageCount = usageCount;
+            this.mIdentity = new Identity<>(value);
+            this.mUsageCount = new AtomicInteger(usageCount);
+            this.mPeakUsageCount = new AtomicInteger(usageCount);
+            this.mCreatedNanos = System.nanoTime();
+            this.mIdleNanos = idleNanos;
+            this.mLifetimeNanos = lifetimeNanos;
+            this.mLastReleasedNanos = mCreatedNanos;
+        }
+
+        /** @return false if the record has been discarded. */
+        boolean incrementUsageCount() {
+            while (true) {
+                final int count = mUsageCount.get();
+                if (count == DISCARDED) {
+                    return false;
+                }
+                if (mUsageCount.compareAndSet(count, count + 1)) {
+                    if (count + 1 > mPeakUsageCount.get()) {
+                        mPeakUsageCount.accumulateAndGet(count + 1, Math::max);
+                    }
+                    return true;
+                }
+            }
+        }
+
+        /** @return false if the record was not in use. */
+        boolean decrementUsageCount(long now) {
+            while (true) {
+                final int count = mUsageCount.get();
+                if (count <= 0) {
+                    return false;
+                }
+                if (count == 1) {
+                    // must be set before the count can be seen as zero
+                    mLastReleasedNanos = now;
+                }
+                if (mUsageCount.compareAndSet(count, count - 1)) {
+                    return true;
+                }
+            }
+        }
+
+        boolean isExpired(long now) {
+            return mUsageCount.get() == 0 && (mRetired || now - mLastReleasedNanos >= mIdleNanos);
+        }
+
+        boolean isPastLifetime(long now) {
+            return mLifetimeNanos > 0L && !mRetired && now - mCreatedNanos >= mLifetimeNanos;
+        }
+
+        /** @return true if we discarded the record, false if it's in use or already discarded. */
+        boolean discardIfExpired(long now) {
+            return isExpired(now) && mUsageCount.compareAndSet(0, DISCARDED);
+        }
+
+        boolean isDiscarded() {
+            return mUsageCount.get() == DISCARDED;
+        }
+
+        void retire() {
+            mRetired = true;
+        }
+
+        boolean isRetired() {
+            return mRetired;
         }
 
-        void incrementUsageCount() {
-            mUsageCount++;
+        int getUsageCount() {
+            return mUsageCount.get();
         }
 
-        boolean decrementUsageCount() {
-            mUsageCount--;
-            return mUsageCount > 0;
+        int getPeakUsageCount() {
+            return mPeakUsageCount.get();
         }
 
         K getKey() {
@@ -193,12 +348,71 @@ public class UsageTrackingCache<K, V> {
         }
 
         V getValue() {
-            return mValue;
+            return mIdentity.value;
+        }
+
+        Identity<V> getIdentity() {
+            return mIdentity;
         }
 
         @Override
         public String toString() {
-            return "CacheEntry[key=" + mKey + ", value=" + mValue + ", usageCount=" + mUsageCount + "]";
+            return "CacheEntry[key=" + mKey + ", value=" + getValue() + ", usageCount=" + mUsageCount + "]";
+        }
+    }
+
+    /**
+     * How much one cache entry is being used.
+     *
+     * @param <K>
+     *            The type of key used by the cache.
+     */
+    public static final class EntryUsage<K> {
+        private final K key;
+        private final int usageCount;
+        private final int peakUsageCount;
+
+        EntryUsage(K key, int usageCount, int peakUsageCount) {
+            this.key = key;
+            this.usageCount = usageCount;
+            this.peakUsageCount = peakUsageCount;
+        }
+
+        /** @return The entry's key. */
+        public K getKey() {
+            return key;
+        }
+
+        /** @return How many users the entry has right now. */
+        public int getUsageCount() {
+            return usageCount;
+        }
+
+        /** @return The most users the entry has had at once. */
+        public int getPeakUsageCount() {
+            return peakUsageCount;
+        }
+    }
+
+    /**
+     * Wraps a value so that it's compared by identity rather than by
+     * {@link Object#equals(Object)}.
+     */
+    private static final class Identity<V> {
+        private final V value;
+
+        Identity(V value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Identity && ((Identity<?>) obj).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(value);
         }
     }
 }
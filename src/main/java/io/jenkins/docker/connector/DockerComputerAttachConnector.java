@@ -11,6 +11,9 @@ import com.github.dockerjava.api.command.CreateContainerCmd;
 import com.github.dockerjava.api.command.ExecCreateCmd;
 import com.github.dockerjava.api.command.ExecCreateCmdResponse;
 import com.github.dockerjava.api.command.InspectContainerResponse;
+import com.github.dockerjava.api.model.HostConfig;
+import com.github.dockerjava.api.model.Mount;
+import com.github.dockerjava.api.model.MountType;
 import com.google.common.base.Joiner;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -24,18 +27,16 @@ import hudson.slaves.ComputerLauncher;
 import hudson.slaves.SlaveComputer;
 import io.jenkins.docker.DockerTransientNode;
 import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.client.DockerExecConnection;
 import io.jenkins.docker.client.DockerMultiplexedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.io.PrintWriter;
 import java.io.Serializable;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
@@ -62,6 +63,8 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
     @CheckForNull
     private String[] entryPointCmd;
 
+    private boolean useRemotingVolume;
+
     @DataBoundConstructor
     public DockerComputerAttachConnector() {}
 
@@ -123,13 +126,22 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
         this.jvmArgs = fixEmpty(jvmArgs);
     }
 
+    public boolean isUseRemotingVolume() {
+        return useRemotingVolume;
+    }
+
+    @DataBoundSetter
+    public void setUseRemotingVolume(boolean useRemotingVolume) {
+        this.useRemotingVolume = useRemotingVolume;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = super.hashCode();
         result = prime * result + Arrays.hashCode(entryPointCmd);
         result = prime * result + Arrays.hashCode(jvmArgs);
-        result = prime * result + Objects.hash(javaExe, user);
+        result = prime * result + Objects.hash(javaExe, user, useRemotingVolume);
         return result;
     }
 
@@ -145,7 +157,8 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
         return Arrays.equals(entryPointCmd, other.entryPointCmd)
                 && Objects.equals(javaExe, other.javaExe)
                 && Arrays.equals(jvmArgs, other.jvmArgs)
-                && Objects.equals(user, other.user);
+                && Objects.equals(user, other.user)
+                && useRemotingVolume == other.useRemotingVolume;
     }
 
     @Override
@@ -155,6 +168,7 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
         bldToString(sb, "javaExe", javaExe);
         bldToString(sb, "jvmArgs", jvmArgs);
         bldToString(sb, "entryPointCmd", entryPointCmd);
+        bldToString(sb, "useRemotingVolume", useRemotingVolume);
         endToString(sb);
         return sb.toString();
     }
@@ -165,17 +179,45 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
         // We need our container to just sit there and do nothing when it's started.
         // We'll then (later) do a docker-exec to it to run the real Jenkins agent code.
         ensureWaiting(cmd);
+        if (useRemotingVolume) {
+            // The image has already been pulled, so we can use it to populate the volume.
+            final String volumeName = RemotingJarArchive.get().ensureVolumeExists(api, cmd.getImage());
+            final HostConfig hostConfig = cmd.getHostConfig();
+            final List<Mount> mounts = new ArrayList<>();
+            if (hostConfig.getMounts() != null) {
+                mounts.addAll(hostConfig.getMounts());
+            }
+            mounts.add(new Mount()
+                    .withType(MountType.VOLUME)
+                    .withSource(volumeName)
+                    .withTarget(getRemotingVolumeMountPoint(workdir))
+                    .withReadOnly(true));
+            hostConfig.withMounts(mounts);
+        }
     }
 
     @Override
     public void beforeContainerStarted(DockerAPI api, String workdir, DockerTransientNode node)
             throws IOException, InterruptedException {
+        if (useRemotingVolume) {
+            return; // the container will get remoting from the volume instead
+        }
         final String containerId = node.getContainerId();
         try (final DockerClient client = api.getClient()) {
             injectRemotingJar(containerId, workdir, client);
         }
     }
 
+    /**
+     * Where the remoting volume is mounted, relative to the agent's working
+     * directory, when {@link #isUseRemotingVolume()}.
+     */
+    private static final String REMOTING_VOLUME_DIR = ".jenkins-remoting";
+
+    private static String getRemotingVolumeMountPoint(String workdir) {
+        return (workdir.endsWith("/") ? workdir : workdir + '/') + REMOTING_VOLUME_DIR;
+    }
+
     @Restricted(NoExternalUse.class)
     enum ArgumentVariables {
         JavaExe("JAVA_EXE", "The Java Executable, e.g. java, /usr/bin/java etc."), //
@@ -215,8 +257,17 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
     protected ComputerLauncher createLauncher(
             DockerAPI api, String workdir, InspectContainerResponse inspect, TaskListener listener)
             throws IOException, InterruptedException {
+        // The jar is either in the working directory or in the volume mounted beneath it.
+        final String jarName = RemotingJarArchive.get().getJarName();
         return new DockerAttachLauncher(
-                api, inspect.getId(), getUser(), workdir, getJavaExe(), getJvmArgsString(), getEntryPointCmdString());
+                api,
+                inspect.getId(),
+                getUser(),
+                workdir,
+                useRemotingVolume ? REMOTING_VOLUME_DIR + '/' + jarName : jarName,
+                getJavaExe(),
+                getJvmArgsString(),
+                getEntryPointCmdString());
     }
 
     @Extension(ordinal = 100)
@@ -259,6 +310,9 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
         private final String containerId;
         private final String userOrNull;
         private final String remoteFs;
+        /** Path to the remoting jar, relative to {@link #remoteFs}. Null if we were persisted by an older version. */
+        private final String jarNameOrNull;
+
         private final String javaExeOrNull;
         private final String jvmArgsOrEmpty;
         private final String entryPointCmdOrEmpty;
@@ -268,6 +322,7 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
                 String containerId,
                 String user,
                 String remoteFs,
+                String jarName,
                 String javaExe,
                 String jvmArgs,
                 String entryPointCmd) {
@@ -275,6 +330,7 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
             this.containerId = containerId;
             this.userOrNull = user;
             this.remoteFs = remoteFs;
+            this.jarNameOrNull = jarName;
             this.javaExeOrNull = javaExe;
             this.jvmArgsOrEmpty = jvmArgs;
             this.entryPointCmdOrEmpty = entryPointCmd;
@@ -287,8 +343,9 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
             final String jenkinsUrl = Jenkins.get().getRootUrl();
             final String effectiveJavaExe = StringUtils.isNotBlank(javaExeOrNull) ? javaExeOrNull : DEFAULT_JAVA_EXE;
             final String effectiveJvmArgs = StringUtils.isNotBlank(jvmArgsOrEmpty) ? jvmArgsOrEmpty : DEFAULT_JVM_ARGS;
+            final String effectiveJarName = jarNameOrNull != null ? jarNameOrNull : remoting.getName();
             final EnvVars knownVariables = calculateVariablesForVariableSubstitution(
-                    effectiveJavaExe, effectiveJvmArgs, remoting.getName(), remoteFs, jenkinsUrl);
+                    effectiveJavaExe, effectiveJvmArgs, effectiveJarName, remoteFs, jenkinsUrl);
             final String effectiveEntryPointCmdString = StringUtils.isNotBlank(entryPointCmdOrEmpty)
                     ? entryPointCmdOrEmpty
                     : DEFAULT_ENTRY_POINT_CMD_STRING;
@@ -311,40 +368,11 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
                 final ExecCreateCmdResponse exec = cmd.exec();
                 execId = exec.getId();
             }
-            final String js = "{ \"Detach\": false, \"Tty\": false }";
-            final Socket socket = api.getSocket();
-            final OutputStream out = socket.getOutputStream();
-            final InputStream in = socket.getInputStream();
-            final PrintWriter w = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII));
-            w.println("POST /v1.32/exec/" + execId + "/start HTTP/1.1");
-            w.println("Host: docker.sock");
-            w.println("Content-Type: application/json");
-            w.println("Upgrade: tcp");
-            w.println("Connection: Upgrade");
-            w.println("Content-Length: " + js.length());
-            w.println();
-            w.println(js);
-            w.flush();
-
-            // read HTTP response headers
-            String line = readLine(in);
-            logger.println(line);
-            if (!line.startsWith("HTTP/1.1 101 ")) { // Switching Protocols
-                throw new IOException("Unexpected HTTP response status line " + line);
-            }
-
-            // Skip HTTP header
-            while ((line = readLine(in)).length() > 0) {
-                if (line.length() == 0) {
-                    break; // end of header
-                }
-                logger.println(line);
-            }
+            final DockerExecConnection connection = DockerExecConnection.start(api, execId, logger);
+            final InputStream demux = new DockerMultiplexedInputStream(
+                    connection.getInputStream(), computer.getDisplayName() + " (" + containerId + ")");
 
-            final InputStream demux =
-                    new DockerMultiplexedInputStream(in, computer.getDisplayName() + " (" + containerId + ")");
-
-            computer.setChannel(demux, out, listener, new Channel.Listener() {
+            computer.setChannel(demux, connection.getOutputStream(), listener, new Channel.Listener() {
                 @Override
                 public void onClosed(Channel channel, IOException cause) {
                     // Bye!
@@ -396,18 +424,5 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
             }
             return knownVariables;
         }
-
-        private static String readLine(InputStream in) throws IOException {
-            StringBuilder s = new StringBuilder();
-            int c;
-            while ((c = in.read()) > 0) {
-                if (c == '\r') {
-                    break; // EOL
-                }
-                s.append((char) c);
-            }
-            in.read(); // \n
-            return s.toString();
-        }
     }
 }
@@ -20,6 +20,8 @@ import io.jenkins.docker.DockerTransientNode;
 import io.jenkins.docker.client.DockerAPI;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
@@ -148,12 +150,22 @@ public abstract class DockerComputerConnector extends AbstractDescribableImpl<Do
      */
     protected String injectRemotingJar(
             @NonNull String containerId, @NonNull String workdir, @NonNull DockerClient client) {
-        // Copy agent.jar into container
-        client.copyArchiveToContainerCmd(containerId)
-                .withHostResource(remoting.getAbsolutePath())
-                .withRemotePath(workdir)
-                .exec();
-        return workdir + '/' + remoting.getName();
+        // Copy agent.jar into container, using the archive we prepared earlier
+        final RemotingJarArchive archive;
+        try {
+            archive = RemotingJarArchive.get();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to read " + remoting, ex);
+        }
+        try (InputStream tar = archive.newTarInputStream()) {
+            client.copyArchiveToContainerCmd(containerId)
+                    .withTarInputStream(tar)
+                    .withRemotePath(workdir)
+                    .exec();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return workdir + '/' + archive.getJarName();
     }
 
     @Restricted(NoExternalUse.class)
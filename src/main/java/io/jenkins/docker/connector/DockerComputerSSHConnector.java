@@ -97,6 +97,8 @@ public class DockerComputerSSHConnector extends DockerComputerConnector {
     @CheckForNull
     private Integer retryWaitTime;
 
+    private boolean useContainerHealthCheck;
+
     @DataBoundConstructor
     public DockerComputerSSHConnector(SSHKeyStrategy sshKeyStrategy) {
         this.sshKeyStrategy = sshKeyStrategy;
@@ -188,6 +190,15 @@ public class DockerComputerSSHConnector extends DockerComputerConnector {
         this.retryWaitTime = retryWaitTime;
     }
 
+    public boolean isUseContainerHealthCheck() {
+        return useContainerHealthCheck;
+    }
+
+    @DataBoundSetter
+    public void setUseContainerHealthCheck(boolean useContainerHealthCheck) {
+        this.useContainerHealthCheck = useContainerHealthCheck;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -202,7 +213,8 @@ public class DockerComputerSSHConnector extends DockerComputerConnector {
                         prefixStartSlaveCmd,
                         retryWaitTime,
                         sshKeyStrategy,
-                        suffixStartSlaveCmd);
+                        suffixStartSlaveCmd,
+                        useContainerHealthCheck);
         return result;
     }
 
@@ -226,7 +238,8 @@ public class DockerComputerSSHConnector extends DockerComputerConnector {
                 && Objects.equals(prefixStartSlaveCmd, other.prefixStartSlaveCmd)
                 && Objects.equals(retryWaitTime, other.retryWaitTime)
                 && Objects.equals(sshKeyStrategy, other.sshKeyStrategy)
-                && Objects.equals(suffixStartSlaveCmd, other.suffixStartSlaveCmd);
+                && Objects.equals(suffixStartSlaveCmd, other.suffixStartSlaveCmd)
+                && useContainerHealthCheck == other.useContainerHealthCheck;
     }
 
     @Override
@@ -244,6 +257,7 @@ public class DockerComputerSSHConnector extends DockerComputerConnector {
         bldToString(sb, "launchTimeoutSeconds", launchTimeoutSeconds);
         bldToString(sb, "maxNumRetries", maxNumRetries);
         bldToString(sb, "retryWaitTime", retryWaitTime);
+        bldToString(sb, "useContainerHealthCheck", useContainerHealthCheck);
         endToString(sb);
         return sb.toString();
     }
@@ -332,8 +346,10 @@ public class DockerComputerSSHConnector extends DockerComputerConnector {
         LOGGER.debug("container created {}", inspect);
         final InetSocketAddress address = getBindingForPort(api, inspect, port);
         // Wait until sshd has started
-        // TODO we could (also) have a more generic mechanism relying on healthcheck (inspect State.Health.Status)
         final PortUtils.ConnectionCheck connectionCheck = PortUtils.connectionCheck(address);
+        if (useContainerHealthCheck) {
+            connectionCheck.withHealthCheck(PortUtils.containerHealth(api, inspect.getId()));
+        }
         final PortUtils.ConnectionCheckSSH connectionCheckSSH = connectionCheck.useSSH();
         final Integer maxNumRetriesOrNull = getMaxNumRetries();
         if (maxNumRetriesOrNull != null) {
@@ -0,0 +1,265 @@
+package io.jenkins.docker.connector;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.model.HostConfig;
+import com.github.dockerjava.api.model.Mount;
+import com.github.dockerjava.api.model.MountType;
+import com.nirima.jenkins.plugins.docker.DockerEndpointKey;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import io.jenkins.docker.client.DockerAPI;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The remoting jar, as a tar archive ready to be given to docker.
+ * <p>
+ * The archive is built once and kept in memory, so injecting remoting into a
+ * container no longer re-reads and re-tars the jar each time. Alternatively,
+ * the jar can be put into a named volume on each docker host, once, which
+ * containers then mount read-only.
+ * </p>
+ */
+final class RemotingJarArchive {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemotingJarArchive.class);
+
+    /**
+     * Label we put on volumes we create, recording the SHA-256 of the jar
+     * they're for. This doesn't mean the jar is in there yet.
+     */
+    static final String VOLUME_LABEL = "io.jenkins.docker.remoting.sha256";
+
+    /** Where the volume is mounted in the (never started) container we use to look inside it. */
+    private static final String POPULATION_MOUNT_POINT = "/jenkins-remoting";
+
+    private static volatile RemotingJarArchive instance;
+
+    /** Used so that only one thread at a time populates each volume on each docker host. */
+    private static final Map<DockerEndpointKey, Map<String, Object>> VOLUME_LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * The volumes on each docker host that we know contain the jar, so we
+     * needn't look inside them again. Different credentials may well mean
+     * different volumes, so we don't assume they're the same docker host.
+     */
+    private static final Map<DockerEndpointKey, Set<String>> POPULATED_VOLUMES = new ConcurrentHashMap<>();
+
+    private final String jarName;
+    private final byte[] tar;
+    private final String sha256;
+    private final byte[] markerTar;
+
+    RemotingJarArchive(@NonNull String jarName, @NonNull byte[] jarContents, long lastModified) throws IOException {
+        this.jarName = jarName;
+        this.tar = toTar(jarName, jarContents, lastModified);
+        this.sha256 = Util.toHexString(sha256(jarContents));
+        this.markerTar = toTar(getMarkerName(), new byte[0], lastModified);
+    }
+
+    /**
+     * Gets the archive of the remoting jar we're running with.
+     *
+     * @return The archive.
+     * @throws IOException if the jar can't be read.
+     */
+    @NonNull
+    static RemotingJarArchive get() throws IOException {
+        RemotingJarArchive result = instance;
+        if (result == null) {
+            synchronized (RemotingJarArchive.class) {
+                result = instance;
+                if (result == null) {
+                    final File jar = DockerComputerConnector.remoting;
+                    final byte[] jarContents = Files.readAllBytes(jar.toPath());
+                    result = new RemotingJarArchive(jar.getName(), jarContents, jar.lastModified());
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** @return The name of the jar file within the archive. */
+    @NonNull
+    String getJarName() {
+        return jarName;
+    }
+
+    /** @return The SHA-256 of the jar, in hex. */
+    @NonNull
+    String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * @return A new stream of the tar archive. This reads our (shared,
+     *         immutable) archive directly, so it's cheap.
+     */
+    @NonNull
+    InputStream newTarInputStream() {
+        return new ByteArrayInputStream(tar);
+    }
+
+    /**
+     * @return The name of the volume holding this version of the jar. As it's
+     *         named after its content, different versions of remoting never
+     *         share a volume.
+     */
+    @NonNull
+    String getVolumeName() {
+        return "jenkins-remoting-" + sha256.substring(0, 16);
+    }
+
+    /**
+     * @return The name of the file we put in the volume once the jar has been
+     *         copied in successfully.
+     */
+    @NonNull
+    String getMarkerName() {
+        return ".complete-" + sha256;
+    }
+
+    /**
+     * Ensures that the docker host has a volume containing the jar, creating
+     * and populating it if necessary.
+     *
+     * @param api The docker host.
+     * @param image An image that is already present on the docker host. This
+     *            is used to create a container (that is never started) so that
+     *            we can look inside the volume and copy the jar into it.
+     * @return The name of the volume.
+     */
+    @NonNull
+    String ensureVolumeExists(@NonNull DockerAPI api, @NonNull String image) throws IOException {
+        final String volumeName = getVolumeName();
+        final DockerEndpointKey host = DockerEndpointKey.of(api);
+        final Object lock = VOLUME_LOCKS.computeIfAbsent(host, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(volumeName, k -> new Object());
+        final Set<String> populatedVolumes =
+                POPULATED_VOLUMES.computeIfAbsent(host, k -> ConcurrentHashMap.newKeySet());
+        synchronized (lock) {
+            try (final DockerClient client = api.getClient()) {
+                boolean weCreatedTheVolume = false;
+                try {
+                    client.inspectVolumeCmd(volumeName).exec();
+                    if (populatedVolumes.contains(volumeName)) {
+                        return volumeName;
+                    }
+                } catch (NotFoundException ex) {
+                    // it's been removed since we last looked, if we ever did
+                    populatedVolumes.remove(volumeName);
+                    LOGGER.info("Creating volume {} to hold {}", volumeName, jarName);
+                    client.createVolumeCmd()
+                            .withName(volumeName)
+                            .withLabels(Collections.singletonMap(VOLUME_LABEL, sha256))
+                            .exec();
+                    weCreatedTheVolume = true;
+                }
+                populateVolume(client, volumeName, image, weCreatedTheVolume);
+                populatedVolumes.add(volumeName);
+            }
+        }
+        return volumeName;
+    }
+
+    /**
+     * Ensures the volume contains the jar. We can't tell that from the volume
+     * itself (its labels are set when it's created, before we've put anything
+     * in it), so we look for the marker file that we copy in after the jar.
+     */
+    private void populateVolume(DockerClient client, String volumeName, String image, boolean weCreatedTheVolume) {
+        boolean success = false;
+        try {
+            final Mount mount = new Mount()
+                    .withType(MountType.VOLUME)
+                    .withSource(volumeName)
+                    .withTarget(POPULATION_MOUNT_POINT);
+            // The container is never started, but docker insists that it has
+            // something to run, which the image might not provide.
+            final String containerId = client.createContainerCmd(image)
+                    .withEntrypoint("/bin/sh")
+                    .withHostConfig(HostConfig.newHostConfig().withMounts(Collections.singletonList(mount)))
+                    .exec()
+                    .getId();
+            try {
+                if (!weCreatedTheVolume && hasMarker(client, containerId)) {
+                    success = true;
+                    return;
+                }
+                LOGGER.info("Populating volume {} with {} using image {}", volumeName, jarName, image);
+                client.copyArchiveToContainerCmd(containerId)
+                        .withTarInputStream(newTarInputStream())
+                        .withRemotePath(POPULATION_MOUNT_POINT)
+                        .exec();
+                // only now is it complete
+                client.copyArchiveToContainerCmd(containerId)
+                        .withTarInputStream(new ByteArrayInputStream(markerTar))
+                        .withRemotePath(POPULATION_MOUNT_POINT)
+                        .exec();
+            } finally {
+                client.removeContainerCmd(containerId).withForce(true).exec();
+            }
+            success = true;
+        } finally {
+            if (!success && weCreatedTheVolume) {
+                try {
+                    client.removeVolumeCmd(volumeName).exec();
+                } catch (RuntimeException ex) {
+                    // it has no marker, so we'll populate it again next time
+                    LOGGER.warn("Unable to remove partially populated volume {}", volumeName, ex);
+                }
+            }
+        }
+    }
+
+    private boolean hasMarker(DockerClient client, String containerId) {
+        try (InputStream marker = client.copyArchiveFromContainerCmd(
+                        containerId, POPULATION_MOUNT_POINT + '/' + getMarkerName())
+                .exec()) {
+            return marker != null;
+        } catch (NotFoundException ex) {
+            return false;
+        } catch (IOException ex) {
+            // we can't be sure what we got, so we'd better populate it (again)
+            LOGGER.debug("Unable to close marker stream from container {}", containerId, ex);
+            return false;
+        }
+    }
+
+    private static byte[] toTar(String jarName, byte[] jarContents, long lastModified) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(jarContents.length + 2048);
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(bos)) {
+            final TarArchiveEntry entry = new TarArchiveEntry(jarName);
+            entry.setSize(jarContents.length);
+            entry.setMode(0644);
+            entry.setModTime(lastModified);
+            tar.putArchiveEntry(entry);
+            tar.write(jarContents);
+            tar.closeArchiveEntry();
+        }
+        return bos.toByteArray();
+    }
+
+    private static byte[] sha256(byte[] contents) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(contents);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
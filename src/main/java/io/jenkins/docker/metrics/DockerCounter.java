@@ -0,0 +1,75 @@
+package io.jenkins.docker.metrics;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.LongAdder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * A count of things that have happened.
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerCounter extends DockerMetric<LongAdder> {
+
+    DockerCounter(@NonNull String name, @NonNull String help, @NonNull String... labelNames) {
+        super(name, help, labelNames);
+    }
+
+    /**
+     * Counts something happening.
+     *
+     * @param labelValues The values of our labels, in the order given by
+     *            {@link #getLabelNames()}.
+     */
+    public void increment(@NonNull String... labelValues) {
+        getSeries(labelValues).increment();
+        DockerMetricsListener.fireIncrement(this, labelValues);
+    }
+
+    /**
+     * Counts several things happening at once.
+     *
+     * @param amount How many things happened.
+     * @param labelValues The values of our labels, in the order given by
+     *            {@link #getLabelNames()}.
+     */
+    public void add(long amount, @NonNull String... labelValues) {
+        getSeries(labelValues).add(amount);
+        DockerMetricsListener.fireAdd(this, amount, labelValues);
+    }
+
+    /**
+     * Gets the current count.
+     *
+     * @param labelValues The values of our labels.
+     * @return How many times it has happened with those labels.
+     */
+    public long getCount(@NonNull String... labelValues) {
+        return getSeries(labelValues).sum();
+    }
+
+    @NonNull
+    @Override
+    String getType() {
+        return "counter";
+    }
+
+    @NonNull
+    @Override
+    LongAdder newSeries() {
+        return new LongAdder();
+    }
+
+    @Override
+    void writeSeries(@NonNull PrintWriter out, @NonNull String labels, @NonNull LongAdder series) {
+        out.print(getName());
+        if (!labels.isEmpty()) {
+            out.print('{');
+            out.print(labels);
+            out.print('}');
+        }
+        out.print(' ');
+        out.println(series.sum());
+    }
+}
@@ -0,0 +1,133 @@
+package io.jenkins.docker.metrics;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * A histogram of durations, in seconds.
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerHistogram extends DockerMetric<DockerHistogram.Series> {
+    /**
+     * Upper bounds of our buckets, in seconds. Provisioning steps range from
+     * milliseconds (starting a container) to many minutes (pulling a large
+     * image).
+     */
+    private static final double[] BUCKETS = {
+        0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600, Double.POSITIVE_INFINITY
+    };
+
+    DockerHistogram(@NonNull String name, @NonNull String help, @NonNull String... labelNames) {
+        super(name, help, labelNames);
+    }
+
+    /**
+     * Records how long something took.
+     *
+     * @param durationInNanos How long it took, in nanoseconds.
+     * @param labelValues The values of our labels, in the order given by
+     *            {@link #getLabelNames()}.
+     */
+    public void observeNanos(long durationInNanos, @NonNull String... labelValues) {
+        observe(durationInNanos / (double) TimeUnit.SECONDS.toNanos(1L), labelValues);
+    }
+
+    /**
+     * Records how long something took since a given time.
+     *
+     * @param startedNanos The {@link System#nanoTime()} when it started.
+     * @param labelValues The values of our labels, in the order given by
+     *            {@link #getLabelNames()}.
+     */
+    public void observeSince(long startedNanos, @NonNull String... labelValues) {
+        observeNanos(System.nanoTime() - startedNanos, labelValues);
+    }
+
+    /**
+     * Records how long something took.
+     *
+     * @param seconds How long it took, in seconds.
+     * @param labelValues The values of our labels, in the order given by
+     *            {@link #getLabelNames()}.
+     */
+    public void observe(double seconds, @NonNull String... labelValues) {
+        getSeries(labelValues).observe(seconds);
+        DockerMetricsListener.fireObservation(this, seconds, labelValues);
+    }
+
+    /**
+     * Counts how many observations have been made.
+     *
+     * @param labelValues The values of our labels.
+     * @return The number of observations made with those labels.
+     */
+    public long getCount(@NonNull String... labelValues) {
+        return getSeries(labelValues).count.sum();
+    }
+
+    @NonNull
+    @Override
+    String getType() {
+        return "histogram";
+    }
+
+    @NonNull
+    @Override
+    Series newSeries() {
+        return new Series();
+    }
+
+    @Override
+    void writeSeries(@NonNull PrintWriter out, @NonNull String labels, @NonNull Series series) {
+        long cumulativeCount = 0L;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            cumulativeCount += series.buckets[i].sum();
+            out.print(getName());
+            out.print("_bucket{");
+            out.print(withLabel(labels, "le=\"" + formatValue(BUCKETS[i]) + '"'));
+            out.print("} ");
+            out.println(cumulativeCount);
+        }
+        final String braced = labels.isEmpty() ? "" : '{' + labels + '}';
+        out.print(getName());
+        out.print("_sum");
+        out.print(braced);
+        out.print(' ');
+        out.println(formatValue(series.sum.sum()));
+        out.print(getName());
+        out.print("_count");
+        out.print(braced);
+        out.print(' ');
+        out.println(series.count.sum());
+    }
+
+    static final class Series {
+        /** Observations that fell into each bucket (not cumulative). */
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+
+        private final DoubleAdder sum = new DoubleAdder();
+        private final LongAdder count = new LongAdder();
+
+        Series() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void observe(double value) {
+            for (int i = 0; i < BUCKETS.length; i++) {
+                if (value <= BUCKETS[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            sum.add(value);
+            count.increment();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package io.jenkins.docker.metrics;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * A named metric, which records a separate series for each combination of
+ * label values it is given.
+ *
+ * @param <S> The type of each series.
+ */
+@Restricted(NoExternalUse.class)
+public abstract class DockerMetric<S> {
+    private final String name;
+    private final String help;
+    private final List<String> labelNames;
+    private final Map<List<String>, S> series = new ConcurrentHashMap<>();
+
+    DockerMetric(@NonNull String name, @NonNull String help, @NonNull String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = List.of(labelNames);
+    }
+
+    /** @return The name of the metric, e.g. <code>docker_image_pull_seconds</code>. */
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    /** @return The names of the labels that distinguish one series from another. */
+    @NonNull
+    public List<String> getLabelNames() {
+        return labelNames;
+    }
+
+    /** @return The type of the metric, as given in the text exposition format. */
+    @NonNull
+    abstract String getType();
+
+    @NonNull
+    abstract S newSeries();
+
+    /**
+     * Writes the samples of one series in the text exposition format.
+     *
+     * @param out Where to write.
+     * @param labels The series' labels, already formatted.
+     * @param series The series.
+     */
+    abstract void writeSeries(@NonNull PrintWriter out, @NonNull String labels, @NonNull S series);
+
+    @NonNull
+    final S getSeries(@NonNull String... labelValues) {
+        if (labelValues.length != labelNames.size()) {
+            throw new IllegalArgumentException(
+                    name + " expects labels " + labelNames + " but was given " + Arrays.toString(labelValues));
+        }
+        final List<String> key = Arrays.asList(labelValues.clone());
+        for (int i = 0; i < labelValues.length; i++) {
+            if (labelValues[i] == null) {
+                key.set(i, "");
+            }
+        }
+        return series.computeIfAbsent(key, k -> newSeries());
+    }
+
+    final void writeTo(@NonNull PrintWriter out) {
+        out.print("# HELP ");
+        out.print(name);
+        out.print(' ');
+        out.println(help.replace("\\", "\\\\").replace("\n", "\\n"));
+        out.print("# TYPE ");
+        out.print(name);
+        out.print(' ');
+        out.println(getType());
+        for (final Map.Entry<List<String>, S> entry : series.entrySet()) {
+            writeSeries(out, formatLabels(entry.getKey()), entry.getValue());
+        }
+    }
+
+    private String formatLabels(List<String> labelValues) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labelNames.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labelNames.get(i)).append("=\"");
+            sb.append(labelValues
+                    .get(i)
+                    .replace("\\", "\\\\")
+                    .replace("\"", "\\\"")
+                    .replace("\n", "\\n"));
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats a number as the text exposition format expects.
+     */
+    static String formatValue(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        }
+        if (value == (long) value) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * Joins already-formatted labels with an extra one.
+     */
+    static String withLabel(String labels, String extraLabel) {
+        return labels.isEmpty() ? extraLabel : labels + ',' + extraLabel;
+    }
+}
@@ -0,0 +1,87 @@
+package io.jenkins.docker.metrics;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.PrintWriter;
+import java.util.List;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * All the metrics the plugin records.
+ * <p>
+ * These are served in the Prometheus text exposition format by
+ * {@link DockerMetricsAction} and are passed on to any
+ * {@link DockerMetricsListener}s.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerMetrics {
+    public static final String CLOUD = "cloud";
+    public static final String TEMPLATE = "template";
+    public static final String IMAGE = "image";
+
+    public static final DockerHistogram IMAGE_PULL = new DockerHistogram(
+            "docker_image_pull_seconds", "Time taken to pull a template's image.", CLOUD, TEMPLATE);
+
+    public static final DockerHistogram CONTAINER_CREATE = new DockerHistogram(
+            "docker_container_create_seconds", "Time taken to create a container.", CLOUD, TEMPLATE);
+
+    public static final DockerHistogram CONTAINER_START = new DockerHistogram(
+            "docker_container_start_seconds", "Time taken to start a container.", CLOUD, TEMPLATE);
+
+    public static final DockerHistogram CONNECTOR_LAUNCH = new DockerHistogram(
+            "docker_connector_launch_seconds",
+            "Time taken from launching an agent to it coming online.",
+            CLOUD,
+            TEMPLATE);
+
+    public static final DockerHistogram TIME_TO_ONLINE = new DockerHistogram(
+            "docker_agent_time_to_online_seconds",
+            "Time taken from starting to provision an agent to it coming online.",
+            CLOUD,
+            TEMPLATE);
+
+    public static final DockerHistogram CONTAINER_TERMINATE = new DockerHistogram(
+            "docker_container_terminate_seconds", "Time taken to stop and remove a container.", CLOUD, TEMPLATE);
+
+    public static final DockerHistogram WATCHDOG_PHASE = new DockerHistogram(
+            "docker_watchdog_phase_seconds", "Time taken by each phase of the container watchdog.", "phase");
+
+    public static final DockerCounter PROVISIONING_FAILURES = new DockerCounter(
+            "docker_provisioning_failures_total", "Number of agents that failed to provision.", CLOUD, TEMPLATE);
+
+    public static final DockerCounter IMAGE_PULL_BYTES = new DockerCounter(
+            "docker_image_pull_bytes_total", "Number of bytes downloaded by image pulls.", CLOUD, IMAGE);
+
+    public static final DockerCounter AUTO_DISABLES = new DockerCounter(
+            "docker_auto_disables_total",
+            "Number of times a cloud or template was disabled by the system after a failure.",
+            CLOUD,
+            TEMPLATE);
+
+    private static final List<DockerMetric<?>> ALL = List.of(
+            IMAGE_PULL,
+            CONTAINER_CREATE,
+            CONTAINER_START,
+            CONNECTOR_LAUNCH,
+            TIME_TO_ONLINE,
+            CONTAINER_TERMINATE,
+            WATCHDOG_PHASE,
+            PROVISIONING_FAILURES,
+            IMAGE_PULL_BYTES,
+            AUTO_DISABLES);
+
+    private DockerMetrics() {}
+
+    /**
+     * Writes all our metrics in the Prometheus text exposition format.
+     *
+     * @param out Where to write them.
+     */
+    public static void writeTo(@NonNull PrintWriter out) {
+        for (final DockerMetric<?> metric : ALL) {
+            metric.writeTo(out);
+        }
+        out.flush();
+    }
+}
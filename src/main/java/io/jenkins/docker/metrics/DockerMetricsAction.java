@@ -0,0 +1,45 @@
+package io.jenkins.docker.metrics;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import java.io.IOException;
+import java.io.PrintWriter;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Serves {@link DockerMetrics} at <code>/docker-metrics/</code> in the
+ * Prometheus text exposition format, for anyone with
+ * {@link Jenkins#SYSTEM_READ} permission.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class DockerMetricsAction implements RootAction {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Override
+    public String getIconFileName() {
+        return null; // not shown in the UI
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Docker Metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "docker-metrics";
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        rsp.setContentType(CONTENT_TYPE);
+        rsp.setHeader("Cache-Control", "no-cache");
+        final PrintWriter out = new PrintWriter(rsp.getWriter());
+        DockerMetrics.writeTo(out);
+    }
+}
@@ -0,0 +1,57 @@
+package io.jenkins.docker.metrics;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import io.jenkins.docker.DockerComputer;
+import io.jenkins.docker.DockerTransientNode;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Times how long our agents take to come online, both from when their
+ * connector started launching them ({@link DockerMetrics#CONNECTOR_LAUNCH})
+ * and from when we started provisioning them
+ * ({@link DockerMetrics#TIME_TO_ONLINE}).
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class DockerMetricsComputerListener extends ComputerListener {
+
+    @Override
+    public void preLaunch(Computer c, TaskListener taskListener) {
+        final DockerTransientNode node = getNode(c);
+        if (node != null && node.getLaunchStartedNanos() == null) {
+            node.setLaunchStartedNanos(System.nanoTime());
+        }
+    }
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        final DockerTransientNode node = getNode(c);
+        if (node == null) {
+            return;
+        }
+        final String cloudName = node.getCloudId();
+        final String templateName = node.getTemplateName();
+        // only the first time each agent comes online is interesting
+        final Long launchStartedNanos = node.getLaunchStartedNanos();
+        if (launchStartedNanos != null) {
+            node.setLaunchStartedNanos(null);
+            DockerMetrics.CONNECTOR_LAUNCH.observeSince(launchStartedNanos, cloudName, templateName);
+        }
+        final Long provisioningStartedNanos = node.getProvisioningStartedNanos();
+        if (provisioningStartedNanos != null) {
+            node.setProvisioningStartedNanos(null);
+            DockerMetrics.TIME_TO_ONLINE.observeSince(provisioningStartedNanos, cloudName, templateName);
+        }
+    }
+
+    private static DockerTransientNode getNode(Computer c) {
+        if (c instanceof DockerComputer) {
+            return ((DockerComputer) c).getNode();
+        }
+        return null;
+    }
+}
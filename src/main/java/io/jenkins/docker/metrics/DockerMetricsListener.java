@@ -0,0 +1,115 @@
+package io.jenkins.docker.metrics;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import jenkins.model.Jenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives every measurement recorded in {@link DockerMetrics}, e.g. so that
+ * another plugin can forward them to its own metrics system.
+ * <p>
+ * Implementations are called on the thread doing the work that's being
+ * measured, so they must be quick and must not block.
+ * </p>
+ */
+public abstract class DockerMetricsListener implements ExtensionPoint {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerMetricsListener.class);
+
+    /**
+     * Called when something has been timed.
+     *
+     * @param metricName The name of the histogram, e.g.
+     *            <code>docker_image_pull_seconds</code>.
+     * @param labels The labels of the measurement, e.g. cloud and template
+     *            names.
+     * @param seconds How long it took, in seconds.
+     */
+    public void onObservation(@NonNull String metricName, @NonNull Map<String, String> labels, double seconds) {}
+
+    /**
+     * Called when something has been counted.
+     *
+     * @param metricName The name of the counter, e.g.
+     *            <code>docker_provisioning_failures_total</code>.
+     * @param labels The labels of the event, e.g. cloud and template names.
+     */
+    public void onIncrement(@NonNull String metricName, @NonNull Map<String, String> labels) {}
+
+    /**
+     * Called when a counter has gone up by more than one thing at a time.
+     *
+     * @param metricName The name of the counter, e.g.
+     *            <code>docker_image_pull_bytes_total</code>.
+     * @param labels The labels of the event, e.g. cloud and image names.
+     * @param amount How much the counter went up by.
+     */
+    public void onAdd(@NonNull String metricName, @NonNull Map<String, String> labels, long amount) {}
+
+    static void fireObservation(DockerHistogram histogram, double seconds, String... labelValues) {
+        final List<DockerMetricsListener> listeners = all();
+        if (listeners.isEmpty()) {
+            return;
+        }
+        final Map<String, String> labels = toMap(histogram, labelValues);
+        for (final DockerMetricsListener listener : listeners) {
+            try {
+                listener.onObservation(histogram.getName(), labels, seconds);
+            } catch (RuntimeException ex) {
+                LOGGER.warn("{} failed to handle {}", listener, histogram.getName(), ex);
+            }
+        }
+    }
+
+    static void fireIncrement(DockerCounter counter, String... labelValues) {
+        final List<DockerMetricsListener> listeners = all();
+        if (listeners.isEmpty()) {
+            return;
+        }
+        final Map<String, String> labels = toMap(counter, labelValues);
+        for (final DockerMetricsListener listener : listeners) {
+            try {
+                listener.onIncrement(counter.getName(), labels);
+            } catch (RuntimeException ex) {
+                LOGGER.warn("{} failed to handle {}", listener, counter.getName(), ex);
+            }
+        }
+    }
+
+    static void fireAdd(DockerCounter counter, long amount, String... labelValues) {
+        final List<DockerMetricsListener> listeners = all();
+        if (listeners.isEmpty()) {
+            return;
+        }
+        final Map<String, String> labels = toMap(counter, labelValues);
+        for (final DockerMetricsListener listener : listeners) {
+            try {
+                listener.onAdd(counter.getName(), labels, amount);
+            } catch (RuntimeException ex) {
+                LOGGER.warn("{} failed to handle {}", listener, counter.getName(), ex);
+            }
+        }
+    }
+
+    private static List<DockerMetricsListener> all() {
+        if (Jenkins.getInstanceOrNull() == null) {
+            return Collections.emptyList();
+        }
+        return ExtensionList.lookup(DockerMetricsListener.class);
+    }
+
+    private static Map<String, String> toMap(DockerMetric<?> metric, String... labelValues) {
+        final List<String> labelNames = metric.getLabelNames();
+        final Map<String, String> result = new LinkedHashMap<>();
+        for (int i = 0; i < labelNames.size(); i++) {
+            result.put(labelNames.get(i), labelValues[i] == null ? "" : labelValues[i]);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+}
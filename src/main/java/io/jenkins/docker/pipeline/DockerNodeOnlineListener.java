@@ -0,0 +1,95 @@
+package io.jenkins.docker.pipeline;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Tells {@link DockerNodeStepExecution} when the node it provisioned has come
+ * online, so it doesn't have to poll for it.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class DockerNodeOnlineListener extends ComputerListener {
+    /** Futures for the nodes we're waiting for, by node name. */
+    private static final ConcurrentMap<String, CompletableFuture<Computer>> WAITING = new ConcurrentHashMap<>();
+
+    /**
+     * Gets a future that completes once the named node is online.
+     * <p>
+     * Callers should complete the future themselves (e.g. with a timeout) if
+     * they give up waiting, as that's what stops us waiting for it too.
+     * </p>
+     *
+     * @param nodeName The name of the node.
+     * @param currentComputer Gets the node's {@link Computer}, if it has one.
+     *            This is checked after we start listening, in case the node
+     *            came online before then.
+     * @return A future that completes with the node's {@link Computer}.
+     */
+    @NonNull
+    static CompletableFuture<Computer> whenOnline(
+            @NonNull String nodeName, @NonNull Supplier<Computer> currentComputer) {
+        final CompletableFuture<Computer> future = WAITING.computeIfAbsent(nodeName, Waiter::new);
+        final Computer computer = currentComputer.get();
+        if (computer != null && computer.isOnline()) {
+            future.complete(computer);
+        }
+        return future;
+    }
+
+    /**
+     * @param nodeName The name of the node.
+     * @return true if something is waiting for that node to come online.
+     */
+    static boolean isWaitingFor(@CheckForNull String nodeName) {
+        return nodeName != null && WAITING.containsKey(nodeName);
+    }
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        final CompletableFuture<Computer> future = WAITING.get(c.getName());
+        if (future != null) {
+            future.complete(c);
+        }
+    }
+
+    /**
+     * A future that stops us waiting for its node before it completes, so
+     * that no-one who sees it complete can then see us still waiting.
+     */
+    private static final class Waiter extends CompletableFuture<Computer> {
+        private final String nodeName;
+
+        Waiter(String nodeName) {
+            this.nodeName = nodeName;
+        }
+
+        @Override
+        public boolean complete(Computer value) {
+            WAITING.remove(nodeName, this);
+            return super.complete(value);
+        }
+
+        @Override
+        public boolean completeExceptionally(Throwable ex) {
+            WAITING.remove(nodeName, this);
+            return super.completeExceptionally(ex);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            WAITING.remove(nodeName, this);
+            return super.cancel(mayInterruptIfRunning);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package io.jenkins.docker.pipeline;
 import com.nirima.jenkins.plugins.docker.DockerCloud;
 import com.nirima.jenkins.plugins.docker.DockerTemplate;
 import com.nirima.jenkins.plugins.docker.DockerTemplateBase;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.EnvVars;
@@ -13,6 +14,8 @@ import hudson.model.Node;
 import hudson.model.TaskListener;
 import hudson.slaves.Cloud;
 import hudson.slaves.WorkspaceList;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import io.jenkins.docker.DockerComputer;
 import io.jenkins.docker.DockerTransientNode;
 import io.jenkins.docker.client.DockerAPI;
@@ -22,7 +25,14 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
@@ -49,6 +59,28 @@ class DockerNodeStepExecution extends StepExecution {
     @Restricted(NoExternalUse.class)
     static final DockerComputerConnector DEFAULT_CONNECTOR = new DockerComputerAttachConnector();
 
+    /**
+     * How long we wait for a node to come online once its container has
+     * started before giving up on it.
+     */
+    private static final long ONLINE_TIMEOUT_IN_SECONDS = JenkinsUtils.getSystemPropertyLong(
+            DockerNodeStepExecution.class.getName() + ".onlineTimeoutInSeconds", 300L);
+
+    /**
+     * The most nodes we'll provision (i.e. pull images and create containers
+     * for) at once.
+     */
+    private static final int MAX_CONCURRENT_PROVISIONING = (int) Math.max(
+            1L,
+            JenkinsUtils.getSystemPropertyLong(
+                    DockerNodeStepExecution.class.getName() + ".maxConcurrentProvisioning", 10L));
+
+    /**
+     * Where we provision nodes, so that we don't tie up the common pool with
+     * (slow, blocking) calls to docker.
+     */
+    private static final ExecutorService PROVISIONING_EXECUTOR = createProvisioningExecutor();
+
     private final String dockerHost;
     private final String credentialsId;
     private final String image;
@@ -57,6 +89,7 @@ class DockerNodeStepExecution extends StepExecution {
     private final Serializable connector;
 
     private transient volatile CompletableFuture<DockerTransientNode> task;
+    private transient volatile CompletableFuture<Computer> online;
     private volatile String nodeName;
 
     public DockerNodeStepExecution(
@@ -113,8 +146,20 @@ class DockerNodeStepExecution extends StepExecution {
     public boolean start() throws Exception {
         final TaskListener listener = getContext().get(TaskListener.class);
         listener.getLogger().println("Launching new docker node based on " + image);
-        task = CompletableFuture.supplyAsync(() -> createNode(listener));
-        task.thenAccept(node -> invokeBody(node, listener));
+        task = CompletableFuture.supplyAsync(() -> createNode(listener), PROVISIONING_EXECUTOR)
+                .thenCompose(node -> waitUntilOnline(node, listener));
+        task.whenComplete((node, failure) -> {
+            if (failure == null) {
+                invokeBody(node, listener);
+            } else {
+                final Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause()
+                        : failure;
+                if (!(cause instanceof CancellationException)) {
+                    getContext().onFailure(cause);
+                }
+            }
+        });
         return false;
     }
 
@@ -144,36 +189,72 @@ class DockerNodeStepExecution extends StepExecution {
             api = new DockerAPI(new DockerServerEndpoint(dockerHost, credentialsId));
         }
 
-        final DockerTransientNode node;
-        Computer computer = null;
         try {
-            node = t.provisionNode(api, listener);
+            final DockerTransientNode node = t.provisionNode(api, listener);
             node.setDockerAPI(api);
             node.setAcceptingTasks(false); // Prevent this node to be used by tasks from build queue
             node.robustlyAddToJenkins();
-
-            listener.getLogger().println("Waiting for node to be online ...");
-            // TODO maybe rely on ComputerListener to catch onOnline() event ?
-            while ((computer = node.toComputer()) == null || computer.isOffline()) {
-                Thread.sleep(1000);
-            }
-            listener.getLogger().println("Node " + node.getNodeName() + " is online.");
+            return node;
         } catch (Exception e) {
-            // Provisioning failed ! capture computer log and dump to pipeline log to assist in diagnostic
-            if (computer != null) {
-                try {
-                    final String computerLogAsString = computer.getLog();
-                    listener.getLogger().println("Node provisioning failed: " + e);
-                    listener.getLogger().println(computerLogAsString);
-                    listener.getLogger().println("See log above for details.");
-                } catch (IOException x) {
-                    listener.getLogger().println("Failed to capture docker agent provisioning log " + x);
-                }
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Waits, without tying up a thread, for the node to come online. If it
+     * doesn't, it's terminated and removed.
+     */
+    private CompletableFuture<DockerTransientNode> waitUntilOnline(
+            DockerTransientNode node, TaskListener listener) {
+        listener.getLogger().println("Waiting for node to be online ...");
+        final CompletableFuture<Computer> whenOnline =
+                DockerNodeOnlineListener.whenOnline(node.getNodeName(), node::toComputer);
+        online = whenOnline;
+        return whenOnline
+                .orTimeout(ONLINE_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)
+                .handleAsync(
+                        (computer, failure) -> {
+                            if (failure == null) {
+                                listener.getLogger().println("Node " + node.getNodeName() + " is online.");
+                                return node;
+                            }
+                            throw new CompletionException(abandonNode(node, failure, listener));
+                        },
+                        PROVISIONING_EXECUTOR);
+    }
+
+    /**
+     * Gets rid of a node that didn't come online.
+     *
+     * @return The reason why it didn't.
+     */
+    private static Throwable abandonNode(DockerTransientNode node, Throwable failure, TaskListener listener) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause()
+                : failure;
+        if (cause instanceof TimeoutException) {
+            cause = new TimeoutException("Node " + node.getNodeName() + " did not come online within "
+                    + ONLINE_TIMEOUT_IN_SECONDS + " seconds");
+        }
+        // Provisioning failed ! capture computer log and dump to pipeline log to assist in diagnostic
+        final Computer computer = node.toComputer();
+        if (computer != null && !(cause instanceof CancellationException)) {
+            try {
+                final String computerLogAsString = computer.getLog();
+                listener.getLogger().println("Node provisioning failed: " + cause);
+                listener.getLogger().println(computerLogAsString);
+                listener.getLogger().println("See log above for details.");
+            } catch (IOException x) {
+                listener.getLogger().println("Failed to capture docker agent provisioning log " + x);
             }
-            getContext().onFailure(e);
-            return null;
         }
-        return node;
+        node._terminate(listener);
+        try {
+            node.robustlyRemoveFromJenkins();
+        } catch (IOException x) {
+            listener.getLogger().println("Failed to remove docker node " + node.getNodeName() + ": " + x);
+        }
+        return cause;
     }
 
     private static DockerAPI defaultApi() {
@@ -245,6 +326,22 @@ class DockerNodeStepExecution extends StepExecution {
         if (task != null) {
             task.cancel(true);
         }
+        if (online != null) {
+            // stops us waiting, and gets rid of the node
+            online.cancel(true);
+        }
+    }
+
+    private static ExecutorService createProvisioningExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                MAX_CONCURRENT_PROVISIONING,
+                MAX_CONCURRENT_PROVISIONING,
+                1L,
+                TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), DockerNodeStepExecution.class.getSimpleName()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     private static class Callback extends BodyExecutionCallback.TailCall {
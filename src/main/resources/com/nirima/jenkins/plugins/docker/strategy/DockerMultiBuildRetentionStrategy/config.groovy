@@ -0,0 +1,25 @@
+package com.nirima.jenkins.plugins.docker.strategy.DockerMultiBuildRetentionStrategy
+
+def f = namespace(lib.FormTagLib)
+
+f.entry(title: "Maximum builds", field: "maxBuilds") {
+    f.number(default: 10)
+}
+f.entry(title: "Maximum lifetime", field: "maxMinutes") {
+    f.number(default: 60)
+}
+f.entry(title: "Idle timeout", field: "idleMinutes") {
+    f.number(default: 10)
+}
+f.entry(title: "Wipe workspaces between builds", field: "wipeWorkspaces") {
+    f.checkbox(default: true)
+}
+f.entry(title: "Reset script", field: "resetScript") {
+    f.textarea()
+}
+f.entry(title: "Contamination markers", field: "contaminationMarkers") {
+    f.textarea()
+}
+f.entry(title: "Hold for same job (seconds)", field: "affinitySeconds") {
+    f.number(default: 0)
+}
@@ -1,10 +1,14 @@
-
-function stop(theId) {
+function stop(theId, theHost) {
     var input = document.getElementById('stopId');
     if (input != null) {
         input.value = theId;
     }
 
+    var hostInput = document.getElementById('hostUri');
+    if (hostInput != null && theHost != null) {
+        hostInput.value = theHost;
+    }
+
     var form = document.getElementById('control');
     form.submit();
 }
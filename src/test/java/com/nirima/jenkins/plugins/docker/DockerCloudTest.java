@@ -10,11 +10,13 @@ import com.cloudbees.plugins.credentials.domains.Domain;
 import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
 import com.github.dockerjava.api.model.AuthConfig;
 import com.nirima.jenkins.plugins.docker.strategy.DockerOnceRetentionStrategy;
+import hudson.model.Label;
 import hudson.model.Node;
 import hudson.util.Secret;
 import io.jenkins.docker.client.DockerAPI;
 import io.jenkins.docker.connector.DockerComputerAttachConnector;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -257,4 +259,88 @@ public class DockerCloudTest {
         Assert.assertEquals("secret", authConfig.getPassword());
         Assert.assertEquals("https://my.docker.registry:12345", authConfig.getRegistryAddress());
     }
+
+    @Test
+    public void templatesForLabelFollowChangesToTemplates() {
+        final DockerTemplate linux = new DockerTemplate(new DockerTemplateBase("image1"), null, "linux", null, null);
+        final DockerTemplate linuxJava =
+                new DockerTemplate(new DockerTemplateBase("image2"), null, "linux java", null, null);
+        linuxJava.setMode(Node.Mode.EXCLUSIVE);
+        final DockerCloud cloud = new DockerCloud(
+                "cloud", new DockerAPI(new DockerServerEndpoint("uri", null)), List.of(linux, linuxJava));
+        final Label linuxLabel = Label.get("linux");
+        final Label javaLabel = Label.get("java");
+
+        Assert.assertEquals(List.of(linux, linuxJava), cloud.getTemplates(linuxLabel));
+        Assert.assertEquals(List.of(linuxJava), cloud.getTemplates(javaLabel));
+        Assert.assertEquals(List.of(linux), cloud.getTemplates((Label) null));
+        Assert.assertSame(linuxJava, cloud.getTemplate(javaLabel));
+
+        final DockerTemplate java = new DockerTemplate(new DockerTemplateBase("image3"), null, "java", null, null);
+        cloud.addTemplate(java);
+        Assert.assertEquals(List.of(linuxJava, java), cloud.getTemplates(javaLabel));
+
+        cloud.removeTemplate(linuxJava);
+        Assert.assertEquals(List.of(linux), cloud.getTemplates(linuxLabel));
+        Assert.assertSame(java, cloud.getTemplate(javaLabel));
+
+        final DockerTemplate jobTemplate = java.cloneWithLabel("job-123");
+        final Label jobLabel = Label.get("job-123");
+        Assert.assertFalse(cloud.canProvision(jobLabel));
+        cloud.addJobTemplate(123L, jobTemplate);
+        Assert.assertEquals(List.of(jobTemplate), cloud.getTemplates(jobLabel));
+        Assert.assertTrue(cloud.canProvision(jobLabel));
+        cloud.removeJobTemplate(123L);
+        Assert.assertFalse(cloud.canProvision(jobLabel));
+
+        final DockerDisabled disabled = new DockerDisabled();
+        disabled.setDisabledByChoice(true);
+        java.setDisabled(disabled);
+        Assert.assertEquals(List.of(), cloud.getTemplates(javaLabel));
+        Assert.assertNull(cloud.getTemplate(javaLabel));
+        java.setDisabled(new DockerDisabled());
+        Assert.assertSame(java, cloud.getTemplate(javaLabel));
+
+        // callers may modify what they're given without affecting anyone else
+        cloud.getTemplates(linuxLabel).clear();
+        Assert.assertEquals(List.of(linux), cloud.getTemplates(linuxLabel));
+
+        // templates can be changed in place too
+        Assert.assertEquals(List.of(linux, java), cloud.getTemplates((Label) null));
+        linux.setMode(Node.Mode.EXCLUSIVE);
+        Assert.assertEquals(List.of(java), cloud.getTemplates((Label) null));
+        linux.setMode(Node.Mode.NORMAL);
+        Assert.assertEquals(List.of(linux, java), cloud.getTemplates((Label) null));
+
+        // ...and so can the list of them
+        final DockerTemplate linux2 = new DockerTemplate(new DockerTemplateBase("image4"), null, "linux", null, null);
+        cloud.getTemplates().add(linux2);
+        Assert.assertEquals(List.of(linux, linux2), cloud.getTemplates(linuxLabel));
+        cloud.getTemplates().remove(linux);
+        Assert.assertEquals(List.of(linux2), cloud.getTemplates(linuxLabel));
+        cloud.getTemplates().removeIf(t -> t == linux2);
+        Assert.assertEquals(List.of(java), cloud.getTemplates());
+        Assert.assertEquals(List.of(), cloud.getTemplates(linuxLabel));
+    }
+
+    @Test
+    public void templatesAreCopiedOnConstruction() {
+        final DockerTemplate linux = new DockerTemplate(new DockerTemplateBase("image1"), null, "linux", null, null);
+        final List<DockerTemplate> callersList = new ArrayList<>(List.of(linux));
+        final DockerCloud cloud =
+                new DockerCloud("cloud", new DockerAPI(new DockerServerEndpoint("uri", null)), callersList);
+        final Label linuxLabel = Label.get("linux");
+        Assert.assertEquals(List.of(linux), cloud.getTemplates(linuxLabel));
+
+        callersList.add(new DockerTemplate(new DockerTemplateBase("image2"), null, "linux", null, null));
+        Assert.assertEquals(List.of(linux), cloud.getTemplates());
+        Assert.assertEquals(List.of(linux), cloud.getTemplates(linuxLabel));
+    }
+
+    @Test
+    public void multiHostCloudNeedsAtLeastOneHost() {
+        Assert.assertThrows(
+                IllegalArgumentException.class, () -> new DockerMultiHostCloud("cloud", List.of(), List.of()));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new DockerMultiHostCloud("cloud", null, List.of()));
+    }
 }
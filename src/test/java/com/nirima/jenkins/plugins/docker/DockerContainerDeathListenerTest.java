@@ -0,0 +1,108 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventActor;
+import com.github.dockerjava.api.model.EventType;
+import hudson.model.Node;
+import io.jenkins.docker.DockerTransientNode;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class DockerContainerDeathListenerTest {
+
+    @Test
+    public void isDeathEventGivenDeathsThenReturnsTrue() {
+        assertTrue(DockerContainerDeathListener.isDeathEvent("die"));
+        assertTrue(DockerContainerDeathListener.isDeathEvent("oom"));
+        assertTrue(DockerContainerDeathListener.isDeathEvent("destroy"));
+    }
+
+    @Test
+    public void isDeathEventGivenOtherEventsThenReturnsFalse() {
+        assertFalse(DockerContainerDeathListener.isDeathEvent("create"));
+        assertFalse(DockerContainerDeathListener.isDeathEvent("start"));
+        assertFalse(DockerContainerDeathListener.isDeathEvent(null));
+    }
+
+    @Test
+    public void onEventGivenEventStreamThenOnlyHandlesDeathsOfOurAgentsContainers() {
+        final DockerAPI api = Mockito.mock(DockerAPI.class);
+        final List<String> handled = new ArrayList<>();
+        final DockerContainerDeathListener.Handler handler = (dockerApi, nodeName, containerId, action) -> {
+            assertSame(api, dockerApi);
+            handled.add(nodeName + " " + containerId + " " + action);
+        };
+        final List<Event> stream = List.of(
+                containerEvent("c1", "create", "node1"),
+                containerEvent("c1", "start", "node1"),
+                containerEvent("c2", "create", "node2"),
+                containerEvent("c2", "start", "node2"),
+                containerEvent("c1", "exec_die", "node1"),
+                containerEvent("c2", "oom", "node2"),
+                containerEvent("c1", "die", "node1"),
+                containerEvent("c3", "die", null), // e.g. a watchdog's or a pull's container
+                otherEvent("c2", EventType.NETWORK, "disconnect"),
+                containerEvent("c1", "destroy", "node1"));
+
+        for (final Event event : stream) {
+            DockerContainerDeathListener.onEvent(api, event, Runnable::run, handler);
+        }
+
+        assertEquals(List.of("node2 c2 oom", "node1 c1 die", "node1 c1 destroy"), handled);
+    }
+
+    @Test
+    public void findNodeGivenContainerInUseThenReturnsItsNode() {
+        final DockerTransientNode node1 = dockerNode("c1");
+        final DockerTransientNode node2 = dockerNode("c2");
+        final Map<String, Node> nodes = Map.of("other", Mockito.mock(Node.class), "node1", node1, "node2", node2);
+
+        final DockerTransientNode actual = DockerContainerDeathListener.findNode(nodes::get, "node2", "c2");
+
+        assertSame(node2, actual);
+    }
+
+    @Test
+    public void findNodeGivenContainerNotInUseThenReturnsNull() {
+        final DockerTransientNode node1 = dockerNode("c1");
+        final Map<String, Node> nodes = Map.of("other", Mockito.mock(Node.class), "node1", node1);
+
+        assertNull(DockerContainerDeathListener.findNode(nodes::get, "node1", "c2"));
+        assertNull(DockerContainerDeathListener.findNode(nodes::get, "node2", "c2"));
+        assertNull(DockerContainerDeathListener.findNode(nodes::get, "other", "c2"));
+    }
+
+    private static DockerTransientNode dockerNode(String containerId) {
+        final DockerTransientNode node = Mockito.mock(DockerTransientNode.class);
+        Mockito.when(node.getContainerId()).thenReturn(containerId);
+        return node;
+    }
+
+    private static Event containerEvent(String id, String action, String nodeNameOrNull) {
+        final Event result = otherEvent(id, EventType.CONTAINER, action);
+        final Map<String, String> labels =
+                nodeNameOrNull == null ? Map.of() : Map.of(DockerContainerLabelKeys.NODE_NAME, nodeNameOrNull);
+        Mockito.when(result.getActor().getAttributes()).thenReturn(labels);
+        return result;
+    }
+
+    private static Event otherEvent(String id, EventType type, String action) {
+        final EventActor actor = Mockito.mock(EventActor.class);
+        Mockito.when(actor.getId()).thenReturn(id);
+        final Event result = Mockito.mock(Event.class);
+        Mockito.when(result.getType()).thenReturn(type);
+        Mockito.when(result.getAction()).thenReturn(action);
+        Mockito.when(result.getActor()).thenReturn(actor);
+        return result;
+    }
+}
@@ -0,0 +1,99 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.junit.Assert.assertEquals;
+
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventActor;
+import com.github.dockerjava.api.model.EventType;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.List;
+import java.util.Map;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class DockerContainerInventoryTest {
+
+    @Test
+    public void replaceWithCountsOnlyRunningContainers() {
+        final DockerContainerInventory instance = new DockerContainerInventory(mockedApi());
+
+        instance.replaceWith(
+                List.of(
+                        container("c1", "running", "image1", "template1"),
+                        container("c2", "exited", "image1", "template1"),
+                        container("c3", "running", "image2", "template2")),
+                System.nanoTime());
+
+        assertCounts(instance, 2, 1, 1);
+    }
+
+    @Test
+    public void eventsKeepCountsUpToDate() {
+        final DockerContainerInventory instance = new DockerContainerInventory(mockedApi());
+        instance.replaceWith(List.of(), System.nanoTime());
+
+        instance.onEvent(event("c1", "create", "image1", "template1"));
+        assertCounts(instance, 0, 0, 0);
+        instance.onEvent(event("c1", "start", "image1", "template1"));
+        instance.onEvent(event("c2", "start", "image2", "template2"));
+        assertCounts(instance, 2, 1, 1);
+        instance.onEvent(event("c1", "die", "image1", "template1"));
+        assertCounts(instance, 1, 0, 1);
+        instance.onEvent(event("c2", "destroy", "image2", "template2"));
+        assertCounts(instance, 0, 0, 0);
+    }
+
+    @Test
+    public void replaceWithDoesNotResurrectContainersDestroyedDuringListing() {
+        final DockerContainerInventory instance = new DockerContainerInventory(mockedApi());
+        final long listingStarted = System.nanoTime();
+        instance.onEvent(event("c1", "start", "image1", "template1"));
+        instance.onEvent(event("c2", "destroy", "image1", "template1"));
+
+        instance.replaceWith(List.of(container("c2", "running", "image1", "template1")), listingStarted);
+
+        assertCounts(instance, 1, 1, 0);
+    }
+
+    private static void assertCounts(
+            DockerContainerInventory instance, int expectedTotal, int expectedImage1, int expectedImage2) {
+        assertEquals("total", expectedTotal, instance.getRunningContainerCount(null));
+        assertEquals("image1", expectedImage1, instance.getRunningContainerCount("image1"));
+        assertEquals("image2", expectedImage2, instance.getRunningContainerCount("image2"));
+        assertEquals("template1", expectedImage1, instance.getRunningContainerCountForTemplate("template1"));
+        assertEquals("template2", expectedImage2, instance.getRunningContainerCountForTemplate("template2"));
+    }
+
+    private static DockerAPI mockedApi() {
+        final DockerAPI result = Mockito.mock(DockerAPI.class);
+        Mockito.when(result.getDockerHost())
+                .thenReturn(new DockerServerEndpoint("tcp://mocked-docker-host:2375", null));
+        return result;
+    }
+
+    private static Map<String, String> labels(String image, String template) {
+        return Map.of(
+                DockerContainerLabelKeys.CONTAINER_IMAGE, image, DockerContainerLabelKeys.TEMPLATE_NAME, template);
+    }
+
+    private static Container container(String id, String state, String image, String template) {
+        final Container result = Mockito.mock(Container.class);
+        Mockito.when(result.getId()).thenReturn(id);
+        Mockito.when(result.getState()).thenReturn(state);
+        Mockito.when(result.getLabels()).thenReturn(labels(image, template));
+        return result;
+    }
+
+    private static Event event(String id, String action, String image, String template) {
+        final EventActor actor = Mockito.mock(EventActor.class);
+        Mockito.when(actor.getId()).thenReturn(id);
+        Mockito.when(actor.getAttributes()).thenReturn(labels(image, template));
+        final Event result = Mockito.mock(Event.class);
+        Mockito.when(result.getType()).thenReturn(EventType.CONTAINER);
+        Mockito.when(result.getAction()).thenReturn(action);
+        Mockito.when(result.getActor()).thenReturn(actor);
+        return result;
+    }
+}
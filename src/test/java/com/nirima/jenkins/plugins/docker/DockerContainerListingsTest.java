@@ -0,0 +1,122 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.ListContainersCmd;
+import com.github.dockerjava.api.model.Container;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+public class DockerContainerListingsTest {
+    private static final Map<String, String> LABEL_FILTER = Map.of(DockerContainerLabelKeys.JENKINS_INSTANCE_ID, "id");
+
+    @Test
+    public void listGivenRecentEnoughListingOfSameEndpointThenSharesIt() throws Exception {
+        final String uri = uniqueUri();
+        final ListContainersCmd cmd1 = mockListContainersCmd(List.of(Mockito.mock(Container.class)));
+        final ListContainersCmd cmd2 = mockListContainersCmd(List.of());
+        final DockerAPI api1 = mockedApi(uri, "creds", cmd1);
+        final DockerAPI api2 = mockedApi(uri, "creds", cmd2);
+        final long before = System.nanoTime();
+
+        final DockerContainerListings.Listing first = DockerContainerListings.list(api1, LABEL_FILTER, true, before);
+        final DockerContainerListings.Listing second = DockerContainerListings.list(api2, LABEL_FILTER, true, before);
+
+        assertSame(first, second);
+        assertEquals(1, second.getContainers().size());
+        Mockito.verify(cmd1, Mockito.times(1)).exec();
+        Mockito.verify(cmd2, Mockito.never()).exec();
+    }
+
+    @Test
+    public void listGivenListingThatIsTooOldThenAsksAgain() throws Exception {
+        final ListContainersCmd cmd = mockListContainersCmd(List.of());
+        final DockerAPI api = mockedApi(uniqueUri(), "creds", cmd);
+
+        DockerContainerListings.list(api, LABEL_FILTER, true, System.nanoTime());
+        DockerContainerListings.list(api, LABEL_FILTER, true, System.nanoTime());
+
+        Mockito.verify(cmd, Mockito.times(2)).exec();
+    }
+
+    @Test
+    public void listGivenDifferentCredentialsThenDoesNotShare() throws Exception {
+        final String uri = uniqueUri();
+        final ListContainersCmd cmd1 = mockListContainersCmd(List.of());
+        final ListContainersCmd cmd2 = mockListContainersCmd(List.of());
+        final long before = System.nanoTime();
+
+        DockerContainerListings.list(mockedApi(uri, "creds1", cmd1), LABEL_FILTER, true, before);
+        DockerContainerListings.list(mockedApi(uri, "creds2", cmd2), LABEL_FILTER, true, before);
+
+        Mockito.verify(cmd1, Mockito.times(1)).exec();
+        Mockito.verify(cmd2, Mockito.times(1)).exec();
+    }
+
+    @Test
+    public void listGivenFailedListingThenNextCallerAsksAgain() throws Exception {
+        final ListContainersCmd cmd = mockListContainersCmd(List.of());
+        Mockito.when(cmd.exec()).thenThrow(new IllegalStateException("daemon unavailable")).thenReturn(List.of());
+        final DockerAPI api = mockedApi(uniqueUri(), "creds", cmd);
+        final long before = System.nanoTime();
+
+        try {
+            DockerContainerListings.list(api, LABEL_FILTER, true, before);
+            fail("Expected an exception by now");
+        } catch (IllegalStateException expected) {
+            assertEquals("daemon unavailable", expected.getMessage());
+        }
+        final DockerContainerListings.Listing actual = DockerContainerListings.list(api, LABEL_FILTER, true, before);
+
+        assertEquals(0, actual.getContainers().size());
+        Mockito.verify(cmd, Mockito.times(2)).exec();
+    }
+
+    @Test
+    public void evictExpiredThenForgetsOldListings() throws Exception {
+        final ListContainersCmd cmd = mockListContainersCmd(List.of());
+        final DockerAPI api = mockedApi(uniqueUri(), "creds", cmd);
+        final long before = System.nanoTime();
+        DockerContainerListings.list(api, LABEL_FILTER, true, before);
+
+        DockerContainerListings.evictExpired(System.nanoTime() + TimeUnit.HOURS.toNanos(1L));
+        // this would have been happy with the listing we forgot
+        DockerContainerListings.list(api, LABEL_FILTER, true, before);
+
+        Mockito.verify(cmd, Mockito.times(2)).exec();
+    }
+
+    private static String uniqueUri() {
+        return "tcp://" + UUID.randomUUID() + ":2375";
+    }
+
+    private static ListContainersCmd mockListContainersCmd(List<Container> containers) {
+        final ListContainersCmd cmd = Mockito.mock(ListContainersCmd.class);
+        Mockito.when(cmd.withShowAll(ArgumentMatchers.anyBoolean())).thenReturn(cmd);
+        Mockito.when(cmd.withLabelFilter(ArgumentMatchers.anyMap())).thenReturn(cmd);
+        Mockito.when(cmd.exec()).thenReturn(containers);
+        return cmd;
+    }
+
+    private static DockerAPI mockedApi(String uri, String credentialsId, ListContainersCmd cmd) {
+        final DockerServerEndpoint endpoint = Mockito.mock(DockerServerEndpoint.class);
+        Mockito.when(endpoint.getUri()).thenReturn(uri);
+        Mockito.when(endpoint.getCredentialsId()).thenReturn(credentialsId);
+        final DockerClient client = Mockito.mock(DockerClient.class);
+        Mockito.when(client.listContainersCmd()).thenReturn(cmd);
+        final DockerAPI api = Mockito.mock(DockerAPI.class);
+        Mockito.when(api.getDockerHost()).thenReturn(endpoint);
+        Mockito.when(api.getClient()).thenReturn(client);
+        return api;
+    }
+}
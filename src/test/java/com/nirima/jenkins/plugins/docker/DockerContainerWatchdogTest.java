@@ -1,5 +1,6 @@
 package com.nirima.jenkins.plugins.docker;
 
+import com.github.dockerjava.api.command.ListContainersCmd;
 import com.github.dockerjava.api.model.Container;
 import hudson.model.Node;
 import io.jenkins.docker.DockerTransientNode;
@@ -14,6 +15,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -198,7 +202,7 @@ public class DockerContainerWatchdogTest {
         subject.runExecute();
 
         List<String> containersRemoved = subject.getContainersRemoved();
-        Assert.assertEquals(4, containersRemoved.size());
+        Assert.assertEquals(2, containersRemoved.size());
 
         int countContainer1 = 0;
         int countContainer2 = 0;
@@ -212,20 +216,60 @@ public class DockerContainerWatchdogTest {
             }
         }
 
-        Assert.assertEquals(2, countContainer1);
-        Assert.assertEquals(2, countContainer2);
+        Assert.assertEquals(1, countContainer1);
+        Assert.assertEquals(1, countContainer2);
 
-        /* NB: Why 2 here?
+        /* NB: Why only 1 here?
          * keep in mind that the same containers are associated with the same DockerClient.
-         * Thus, the same containers also appear twice to our subject - and thus will send the termination
-         * requests twice.
-         *
-         * Note that this is an acceptable real-life behavior, which is uncommon, though.
+         * Thus, the same containers also appear twice to our subject - but only one of the
+         * two clouds may send the termination requests.
          */
 
         Assert.assertEquals(0, subject.getAllRemovedNodes().size());
     }
 
+    @Test
+    public void testContainerExistsButAgentIsMissingTwoCloudsWithDifferentCredentials()
+            throws IOException, InterruptedException {
+        TestableDockerContainerWatchdog subject = new TestableDockerContainerWatchdog();
+
+        final String nodeName = "unittest-12345";
+        final String containerId = UUID.randomUUID().toString();
+
+        /* setup of cloud */
+        List<DockerCloud> listOfCloud = new LinkedList<>();
+
+        Map<String, String> labelMap = new HashMap<>();
+        labelMap.put(DockerContainerLabelKeys.NODE_NAME, nodeName);
+        labelMap.put(DockerContainerLabelKeys.TEMPLATE_NAME, "unittestTemplate");
+        labelMap.put(DockerContainerLabelKeys.REMOVE_VOLUMES, "false");
+
+        List<Container> containerList = new LinkedList<>();
+        Container c = TestableDockerContainerWatchdog.createMockedContainer(containerId, "Running", 0L, labelMap);
+        containerList.add(c);
+
+        // same host, but the credentials may well give each cloud a view of its own
+        DockerAPI dockerApi1 = TestableDockerContainerWatchdog.createMockedDockerAPI(containerList);
+        Mockito.when(dockerApi1.getDockerHost().getCredentialsId()).thenReturn("credentials1");
+        listOfCloud.add(new DockerCloud("unittestcloud1", dockerApi1, new LinkedList<>()));
+
+        DockerAPI dockerApi2 = TestableDockerContainerWatchdog.createMockedDockerAPI(containerList);
+        Mockito.when(dockerApi2.getDockerHost().getCredentialsId()).thenReturn("credentials2");
+        listOfCloud.add(new DockerCloud("unittestcloud2", dockerApi2, new LinkedList<>()));
+
+        subject.setAllClouds(listOfCloud);
+
+        /* setup of nodes */
+        subject.setAllNodes(new LinkedList<>());
+
+        subject.runExecute();
+
+        List<String> containersRemoved = subject.getContainersRemoved();
+        Assert.assertEquals(2, containersRemoved.size());
+        Assert.assertEquals(containerId, containersRemoved.get(0));
+        Assert.assertEquals(containerId, containersRemoved.get(1));
+    }
+
     @Test
     public void testContainerExistsButAgentIsMissingWithTemplate() throws IOException, InterruptedException {
         TestableDockerContainerWatchdog subject = new TestableDockerContainerWatchdog();
@@ -526,4 +570,277 @@ public class DockerContainerWatchdogTest {
         DockerTransientNode removedNode = nodes.get(0);
         Assert.assertEquals(node1, removedNode);
     }
+
+    @Test
+    public void testAgentExistsButNoContainerWhileOnlineIsCheckedAgainOnNextRun()
+            throws IOException, InterruptedException {
+        TestableDockerContainerWatchdog subject = new TestableDockerContainerWatchdog();
+
+        final String nodeName = "unittest-78901";
+        final String containerId = UUID.randomUUID().toString();
+
+        /* setup of cloud */
+        List<DockerCloud> listOfCloud = new LinkedList<>();
+
+        DockerAPI dockerApi = TestableDockerContainerWatchdog.createMockedDockerAPI(new LinkedList<>());
+        DockerCloud cloud = new DockerCloud("unittestcloud", dockerApi, new LinkedList<>());
+        listOfCloud.add(cloud);
+
+        subject.setAllClouds(listOfCloud);
+
+        /* setup of nodes */
+        LinkedList<Node> allNodes = new LinkedList<>();
+
+        DockerTransientNode node =
+                TestableDockerContainerWatchdog.createMockedDockerTransientNode(containerId, nodeName, cloud, false);
+        allNodes.add(node);
+
+        subject.setAllNodes(allNodes);
+
+        subject.runExecute();
+
+        // still online, so we leave it alone for now
+        Assert.assertEquals(0, subject.getAllRemovedNodes().size());
+
+        // ... but once it has gone offline
+        Mockito.when(node.getComputer().isOffline()).thenReturn(true);
+
+        subject.runExecute();
+
+        // ... the next run should notice, even though nothing else changed
+        List<DockerTransientNode> nodes = subject.getAllRemovedNodes();
+        Assert.assertEquals(1, nodes.size());
+        Assert.assertEquals(node, nodes.get(0));
+    }
+
+    @Test
+    public void testContainerIsCheckedAgainOnceItsAgentHasGone() throws IOException, InterruptedException {
+        TestableDockerContainerWatchdog subject = new TestableDockerContainerWatchdog();
+
+        final String nodeName = "unittest-12345";
+        final String containerId = UUID.randomUUID().toString();
+
+        /* setup of cloud */
+        List<DockerCloud> listOfCloud = new LinkedList<>();
+
+        Map<String, String> labelMap = new HashMap<>();
+        labelMap.put(DockerContainerLabelKeys.NODE_NAME, nodeName);
+        labelMap.put(DockerContainerLabelKeys.TEMPLATE_NAME, "unittesttemplate");
+        labelMap.put(DockerContainerLabelKeys.REMOVE_VOLUMES, "false");
+
+        List<Container> containerList = new LinkedList<>();
+        Container c = TestableDockerContainerWatchdog.createMockedContainer(containerId, "Running", 0L, labelMap);
+        containerList.add(c);
+
+        DockerAPI dockerApi = TestableDockerContainerWatchdog.createMockedDockerAPI(containerList);
+        DockerCloud cloud = new DockerCloud("unittestcloud", dockerApi, new LinkedList<>());
+        listOfCloud.add(cloud);
+
+        subject.setAllClouds(listOfCloud);
+
+        /* setup of nodes */
+        LinkedList<Node> allNodes = new LinkedList<>();
+        DockerTransientNode node =
+                TestableDockerContainerWatchdog.createMockedDockerTransientNode(containerId, nodeName, cloud, false);
+        allNodes.add(node);
+        subject.setAllNodes(allNodes);
+
+        subject.runExecute();
+
+        // container and node belong together, so nothing to do
+        Assert.assertEquals(0, subject.getContainersRemoved().size());
+
+        // but if the node goes away...
+        allNodes.remove(node);
+
+        subject.runExecute();
+
+        // ... then the container is an orphan
+        List<String> containersRemoved = subject.getContainersRemoved();
+        Assert.assertEquals(1, containersRemoved.size());
+        Assert.assertEquals(containerId, containersRemoved.get(0));
+    }
+
+    @Test
+    public void testContainerOnDisabledCloudIsCheckedOnceCloudIsEnabled() throws IOException, InterruptedException {
+        TestableDockerContainerWatchdog subject = new TestableDockerContainerWatchdog();
+
+        final String nodeName = "unittest-12345";
+        final String containerId = UUID.randomUUID().toString();
+
+        /* setup of cloud */
+        List<DockerCloud> listOfCloud = new LinkedList<>();
+
+        Map<String, String> labelMap = new HashMap<>();
+        labelMap.put(DockerContainerLabelKeys.NODE_NAME, nodeName);
+        labelMap.put(DockerContainerLabelKeys.TEMPLATE_NAME, "unittesttemplate");
+        labelMap.put(DockerContainerLabelKeys.REMOVE_VOLUMES, "false");
+
+        List<Container> containerList = new LinkedList<>();
+        Container c = TestableDockerContainerWatchdog.createMockedContainer(containerId, "Running", 0L, labelMap);
+        containerList.add(c);
+
+        DockerAPI dockerApi = TestableDockerContainerWatchdog.createMockedDockerAPI(containerList);
+        DockerCloud cloud = new DockerCloud("unittestcloud", dockerApi, new LinkedList<>());
+        final DockerDisabled disabled = new DockerDisabled();
+        disabled.setDisabledByChoice(true);
+        cloud.setDisabled(disabled);
+        listOfCloud.add(cloud);
+
+        subject.setAllClouds(listOfCloud);
+
+        /* setup of nodes */
+        LinkedList<Node> allNodes = new LinkedList<>();
+        subject.setAllNodes(allNodes);
+
+        subject.runExecute();
+
+        // the cloud is disabled, so its orphan is left alone
+        Assert.assertEquals(0, subject.getContainersRemoved().size());
+
+        // but once it is enabled again...
+        disabled.setDisabledByChoice(false);
+
+        subject.runExecute();
+
+        // ... the orphan is removed
+        List<String> containersRemoved = subject.getContainersRemoved();
+        Assert.assertEquals(1, containersRemoved.size());
+        Assert.assertEquals(containerId, containersRemoved.get(0));
+    }
+
+    @Test
+    public void testCloudsAreCheckedInParallel() throws IOException, InterruptedException {
+        TestableDockerContainerWatchdog subject = new TestableDockerContainerWatchdog();
+        subject.setMaxConcurrentClouds(2);
+
+        final String containerId1 = UUID.randomUUID().toString();
+        final String containerId2 = UUID.randomUUID().toString();
+
+        // neither cloud's host answers until both have been asked
+        final CountDownLatch bothAsked = new CountDownLatch(2);
+        final HostBehaviour waitForTheOther = () -> {
+            bothAsked.countDown();
+            if (!bothAsked.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Clouds were not checked in parallel");
+            }
+        };
+
+        List<DockerCloud> listOfCloud = new LinkedList<>();
+        listOfCloud.add(createCloudWithOrphan("unittestcloud1", containerId1, waitForTheOther));
+        listOfCloud.add(createCloudWithOrphan("unittestcloud2", containerId2, waitForTheOther));
+        subject.setAllClouds(listOfCloud);
+        subject.setAllNodes(new LinkedList<>());
+
+        subject.runExecute();
+
+        List<String> containersRemoved = subject.getContainersRemoved();
+        Assert.assertEquals(2, containersRemoved.size());
+        Assert.assertTrue(containersRemoved.contains(containerId1));
+        Assert.assertTrue(containersRemoved.contains(containerId2));
+    }
+
+    @Test
+    public void testHungCloudTimesOutWithoutHoldingUpOtherClouds() throws IOException, InterruptedException {
+        TestableDockerContainerWatchdog subject = new TestableDockerContainerWatchdog();
+        // one at a time, so the second cloud only gets looked at once we've given up on the first
+        subject.setMaxConcurrentClouds(1);
+        subject.setCloudProcessingTimeoutInNanos(TimeUnit.SECONDS.toNanos(1));
+
+        final String hungContainerId = UUID.randomUUID().toString();
+        final String containerId = UUID.randomUUID().toString();
+
+        final CountDownLatch hostRecovers = new CountDownLatch(1);
+        final HostBehaviour hang = () -> hostRecovers.await(30, TimeUnit.SECONDS);
+
+        List<DockerCloud> listOfCloud = new LinkedList<>();
+        listOfCloud.add(createCloudWithOrphan("unittestcloud-hung", hungContainerId, hang));
+        listOfCloud.add(createCloudWithOrphan("unittestcloud", containerId, null));
+        subject.setAllClouds(listOfCloud);
+        subject.setAllNodes(new LinkedList<>());
+
+        final long start = System.nanoTime();
+        try {
+            subject.runExecute();
+        } finally {
+            hostRecovers.countDown();
+        }
+        final long elapsedInSeconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+
+        Assert.assertTrue("took " + elapsedInSeconds + "s", elapsedInSeconds < 20);
+        List<String> containersRemoved = subject.getContainersRemoved();
+        Assert.assertEquals(1, containersRemoved.size());
+        Assert.assertEquals(containerId, containersRemoved.get(0));
+    }
+
+    @Test
+    public void testNoMoreCloudsAreCheckedAtOnceThanTheLimit() throws IOException, InterruptedException {
+        TestableDockerContainerWatchdog subject = new TestableDockerContainerWatchdog();
+        subject.setMaxConcurrentClouds(2);
+
+        final AtomicInteger checking = new AtomicInteger();
+        final AtomicInteger mostChecked = new AtomicInteger();
+        // the first two clouds are held up until both are being checked
+        final CountDownLatch firstTwoAsked = new CountDownLatch(2);
+        final HostBehaviour countConcurrentChecks = () -> {
+            mostChecked.accumulateAndGet(checking.incrementAndGet(), Math::max);
+            try {
+                firstTwoAsked.countDown();
+                firstTwoAsked.await(10, TimeUnit.SECONDS);
+                Thread.sleep(100);
+            } finally {
+                checking.decrementAndGet();
+            }
+        };
+
+        List<String> containerIds = new LinkedList<>();
+        List<DockerCloud> listOfCloud = new LinkedList<>();
+        for (int i = 0; i < 4; i++) {
+            final String containerId = UUID.randomUUID().toString();
+            containerIds.add(containerId);
+            listOfCloud.add(createCloudWithOrphan("unittestcloud" + i, containerId, countConcurrentChecks));
+        }
+        subject.setAllClouds(listOfCloud);
+        subject.setAllNodes(new LinkedList<>());
+
+        subject.runExecute();
+
+        Assert.assertEquals(2, mostChecked.get());
+        List<String> containersRemoved = subject.getContainersRemoved();
+        Assert.assertEquals(2, containersRemoved.size());
+        Assert.assertTrue(containersRemoved.containsAll(containerIds));
+    }
+
+    /**
+     * Creates a cloud, on a docker host of its own, with a single container
+     * that has no node.
+     *
+     * @param beforeListing What the host does whenever it's asked for its
+     *            containers, before it answers, or null to answer at once.
+     */
+    private static DockerCloud createCloudWithOrphan(
+            String cloudName, String containerId, HostBehaviour beforeListing) {
+        Map<String, String> labelMap = new HashMap<>();
+        labelMap.put(DockerContainerLabelKeys.NODE_NAME, "unittest-" + containerId);
+        labelMap.put(DockerContainerLabelKeys.TEMPLATE_NAME, "unittesttemplate");
+        labelMap.put(DockerContainerLabelKeys.REMOVE_VOLUMES, "false");
+
+        List<Container> containerList = new LinkedList<>();
+        containerList.add(TestableDockerContainerWatchdog.createMockedContainer(containerId, "Running", 0L, labelMap));
+
+        DockerAPI dockerApi = TestableDockerContainerWatchdog.createMockedDockerAPI(
+                "tcp://" + UUID.randomUUID() + ":2375", containerList);
+        if (beforeListing != null) {
+            ListContainersCmd listContainersCmd = dockerApi.getClient().listContainersCmd();
+            Mockito.when(listContainersCmd.exec()).thenAnswer(invocation -> {
+                beforeListing.beforeListing();
+                return containerList;
+            });
+        }
+        return new DockerCloud(cloudName, dockerApi, new LinkedList<>());
+    }
+
+    private interface HostBehaviour {
+        void beforeListing() throws Exception;
+    }
 }
@@ -0,0 +1,160 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.jenkins.docker.client.DockerAPI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.junit.Test;
+
+public class DockerHostSchedulerTest {
+    private static final long GIB = 1024L * 1024L * 1024L;
+    private static final String IMAGE = "jenkins/agent:latest";
+
+    @Test
+    public void scoreFavoursLessLoadedBiggerFasterHostsWithTheImage() {
+        final double baseline = DockerHostScheduler.score(4, 8, 32 * GIB, 0.0, true);
+
+        assertThat(DockerHostScheduler.score(8, 8, 32 * GIB, 0.0, true), greaterThan(baseline));
+        assertThat(DockerHostScheduler.score(4, 16, 32 * GIB, 0.0, true), lessThan(baseline));
+        assertThat(DockerHostScheduler.score(4, 16, 4 * GIB, 0.0, true), greaterThan(baseline));
+        assertThat(DockerHostScheduler.score(4, 8, 32 * GIB, 5000.0, true), greaterThan(baseline));
+        assertThat(DockerHostScheduler.score(4, 8, 32 * GIB, 0.0, false), greaterThan(baseline));
+        // unknown capacity is treated as one unit
+        assertThat(DockerHostScheduler.score(0, 0, 0L, 0.0, true), is(1.0));
+    }
+
+    @Test
+    public void reservesTheLeastLoadedHost() {
+        final TestScheduler instance = new TestScheduler();
+        final DockerCloudHost busy = host("tcp://busy:2375", 0);
+        final DockerCloudHost idle = host("tcp://idle:2375", 0);
+        instance.running.put("tcp://busy:2375", 5);
+        instance.running.put("tcp://idle:2375", 1);
+
+        assertThat(instance.reserve(Arrays.asList(busy, idle), IMAGE, 1000L), sameInstance(idle));
+    }
+
+    @Test
+    public void prefersHostThatAlreadyHasTheImage() {
+        final TestScheduler instance = new TestScheduler();
+        final DockerCloudHost without = host("tcp://without:2375", 0);
+        final DockerCloudHost with = host("tcp://with:2375", 0);
+        instance.images.put("tcp://with:2375", Collections.singleton(IMAGE));
+        // first call gathers the host info
+        instance.reserve(Collections.singletonList(without), "other", 1000L);
+        instance.reserve(Collections.singletonList(with), "other", 1000L);
+
+        assertThat(instance.reserve(Arrays.asList(without, with), IMAGE, 1000L), sameInstance(with));
+    }
+
+    @Test
+    public void countsReservationsInProgressAndRespectsCaps() {
+        final TestScheduler instance = new TestScheduler();
+        final DockerCloudHost capped = host("tcp://capped:2375", 2);
+        final List<DockerCloudHost> hosts = Collections.singletonList(capped);
+        instance.running.put("tcp://capped:2375", 1);
+
+        assertThat(instance.reserve(hosts, IMAGE, 1000L), sameInstance(capped));
+        assertThat(instance.reserve(hosts, IMAGE, 1000L), nullValue());
+
+        instance.release(capped.getDockerApi(), false, 0L, 1000L);
+        assertThat(instance.reserve(hosts, IMAGE, 1000L), sameInstance(capped));
+    }
+
+    @Test
+    public void spreadsConcurrentReservationsAcrossHosts() {
+        final TestScheduler instance = new TestScheduler();
+        final DockerCloudHost a = host("tcp://a:2375", 0);
+        final DockerCloudHost b = host("tcp://b:2375", 0);
+        final List<DockerCloudHost> hosts = Arrays.asList(a, b);
+
+        final DockerCloudHost first = instance.reserve(hosts, IMAGE, 1000L);
+        final DockerCloudHost second = instance.reserve(hosts, IMAGE, 1000L);
+
+        assertThat(first == second, is(false));
+    }
+
+    @Test
+    public void excludesHostThatKeepsFailingUntilErrorDurationHasPassed() {
+        final TestScheduler instance = new TestScheduler();
+        final DockerCloudHost flaky = host("tcp://flaky:2375", 0);
+        final List<DockerCloudHost> hosts = Collections.singletonList(flaky);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(instance.reserve(hosts, IMAGE, 1000L), sameInstance(flaky));
+            instance.release(flaky.getDockerApi(), false, 0L, 1000L);
+        }
+        assertThat(instance.reserve(hosts, IMAGE, 1000L), nullValue());
+
+        instance.now += TimeUnit.MILLISECONDS.toNanos(1000L);
+        assertThat(instance.reserve(hosts, IMAGE, 1000L), sameInstance(flaky));
+    }
+
+    @Test
+    public void excludesHostWeCannotTalkTo() {
+        final TestScheduler instance = new TestScheduler();
+        final DockerCloudHost down = host("tcp://down:2375", 0);
+        final DockerCloudHost up = host("tcp://up:2375", 0);
+        instance.running.put("tcp://up:2375", 10);
+        instance.running.put("tcp://down:2375", -1);
+
+        assertThat(instance.reserve(Arrays.asList(down, up), IMAGE, 1000L), sameInstance(up));
+        instance.running.put("tcp://down:2375", 0);
+        assertThat(instance.reserve(Arrays.asList(down, up), IMAGE, 1000L), sameInstance(up));
+    }
+
+    private static DockerCloudHost host(String uri, int containerCap) {
+        final DockerAPI api = mock(DockerAPI.class);
+        when(api.getDockerHost()).thenReturn(new DockerServerEndpoint(uri, null));
+        final DockerCloudHost host = new DockerCloudHost(api);
+        host.setContainerCap(containerCap);
+        return host;
+    }
+
+    private static class TestScheduler extends DockerHostScheduler {
+        /** Running containers by URI; negative means docker can't be reached. */
+        final Map<String, Integer> running = new HashMap<>();
+
+        final Map<String, Set<String>> images = new HashMap<>();
+        long now = 1234567890L;
+
+        @Override
+        int countRunningContainers(DockerAPI api) throws Exception {
+            final int count = running.getOrDefault(api.getDockerHost().getUri(), 0);
+            if (count < 0) {
+                throw new Exception("Unable to connect");
+            }
+            return count;
+        }
+
+        @Override
+        HostSnapshot readSnapshot(DockerAPI api) {
+            final String uri = api.getDockerHost().getUri();
+            return new HostSnapshot(now, 4, 16 * GIB, 0, images.getOrDefault(uri, Collections.emptySet()));
+        }
+
+        @Override
+        void runInBackground(Runnable task) {
+            task.run();
+        }
+
+        @Override
+        long readTimeNowInNanoseconds() {
+            return now;
+        }
+    }
+}
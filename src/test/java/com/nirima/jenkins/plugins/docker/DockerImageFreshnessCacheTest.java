@@ -0,0 +1,66 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.github.dockerjava.api.command.InspectImageResponse;
+import io.jenkins.docker.client.DockerAPI;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class DockerImageFreshnessCacheTest {
+
+    @Test
+    public void recordedImageIsFreshUntilTtlExpires() {
+        final DockerAPI host = api("tcp://host1:2375", null);
+        final InspectImageResponse inspection = inspection("sha256:1");
+        DockerImageFreshnessCache.record(host, "image", inspection);
+
+        assertSame(inspection, DockerImageFreshnessCache.getIfFresh(host, "image", 60000L));
+        assertSame(inspection, DockerImageFreshnessCache.getIfFresh(api("tcp://host1:2375", null), "image", 60000L));
+        assertNull(DockerImageFreshnessCache.getIfFresh(host, "image", 0L));
+    }
+
+    @Test
+    public void entriesArePerDockerHost() {
+        DockerImageFreshnessCache.record(api("tcp://host2:2375", null), "image", inspection("sha256:2"));
+
+        assertNull(DockerImageFreshnessCache.getIfFresh(api("tcp://host3:2375", null), "image", 60000L));
+    }
+
+    @Test
+    public void entriesArePerCredentials() {
+        DockerImageFreshnessCache.record(api("tcp://host5:2375", "credentials1"), "image", inspection("sha256:5"));
+
+        // other credentials may well not see the same images
+        assertNull(DockerImageFreshnessCache.getIfFresh(api("tcp://host5:2375", "credentials2"), "image", 60000L));
+        assertNull(DockerImageFreshnessCache.getIfFresh(api("tcp://host5:2375", null), "image", 60000L));
+    }
+
+    @Test
+    public void invalidatedImageIsNotFresh() {
+        final DockerAPI host = api("tcp://host4:2375", null);
+        final InspectImageResponse original = inspection("sha256:3");
+        final InspectImageResponse updated = inspection("sha256:4");
+        DockerImageFreshnessCache.record(host, "image", original);
+        DockerImageFreshnessCache.record(host, "image", updated);
+        assertSame(updated, DockerImageFreshnessCache.getIfFresh(host, "image", 60000L));
+
+        DockerImageFreshnessCache.invalidate(host, "image");
+
+        assertNull(DockerImageFreshnessCache.getIfFresh(host, "image", 60000L));
+    }
+
+    private static DockerAPI api(String dockerUri, String credentialsId) {
+        final DockerAPI result = Mockito.mock(DockerAPI.class);
+        Mockito.when(result.getDockerHost()).thenReturn(new DockerServerEndpoint(dockerUri, credentialsId));
+        return result;
+    }
+
+    private static InspectImageResponse inspection(String id) {
+        final InspectImageResponse result = Mockito.mock(InspectImageResponse.class);
+        Mockito.when(result.getId()).thenReturn(id);
+        return result;
+    }
+}
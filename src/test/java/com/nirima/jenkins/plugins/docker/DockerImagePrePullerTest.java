@@ -0,0 +1,142 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.PullImageCmd;
+import com.github.dockerjava.api.command.PullImageResultCallback;
+import com.github.dockerjava.api.model.PullResponseItem;
+import com.github.dockerjava.api.model.ResponseItem;
+import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.metrics.DockerMetrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+public class DockerImagePrePullerTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void findImagesToPrePullGroupsImagesByHostAndSkipsUnwantedTemplates() {
+        final DockerTemplate wanted = template("image1", false, DockerImagePullStrategy.PULL_LATEST);
+        final DockerTemplate duplicate = template("image1", false, DockerImagePullStrategy.PULL_ALWAYS);
+        final DockerTemplate disabled = template("image2", true, DockerImagePullStrategy.PULL_LATEST);
+        final DockerTemplate neverPulled = template("image3", false, DockerImagePullStrategy.PULL_NEVER);
+        final DockerTemplate onOtherCloud = template("image4", false, DockerImagePullStrategy.PULL_IF_STALE);
+        final DockerTemplate onDisabledCloud = template("image5", false, DockerImagePullStrategy.PULL_LATEST);
+        final List<DockerCloud> clouds = List.of(
+                cloud("tcp://host1:2375", false, wanted, duplicate, disabled, neverPulled),
+                cloud("tcp://host1:2375", false, onOtherCloud),
+                cloud("tcp://host2:2375", true, onDisabledCloud));
+
+        final Map<String, DockerImagePrePuller.HostWork> actual = DockerImagePrePuller.findImagesToPrePull(clouds);
+
+        assertThat(actual.keySet(), contains("tcp://host1:2375"));
+        assertThat(actual.get("tcp://host1:2375").getImages(), containsInAnyOrder("image1", "image4"));
+    }
+
+    @Test
+    public void findImagesToPrePullCoversEveryHostOfACloud() {
+        final DockerTemplate template = template("image1", false, DockerImagePullStrategy.PULL_LATEST);
+        final DockerCloud multiHostCloud =
+                cloud(List.of("tcp://host1:2375", "tcp://host2:2375", "tcp://host3:2375"), false, template);
+
+        final Map<String, DockerImagePrePuller.HostWork> actual =
+                DockerImagePrePuller.findImagesToPrePull(List.of(multiHostCloud));
+
+        assertThat(actual.keySet(), contains("tcp://host1:2375", "tcp://host2:2375", "tcp://host3:2375"));
+        for (final DockerImagePrePuller.HostWork work : actual.values()) {
+            assertThat(work.getImages(), contains("image1"));
+        }
+    }
+
+    @Test
+    public void prePullImagesOnHostRecordsPullTimeAndBytes() {
+        final String cloudName = "cloud-" + UUID.randomUUID();
+        final String image = "image-" + UUID.randomUUID();
+        final DockerTemplate template = template(image, false, DockerImagePullStrategy.PULL_ALWAYS);
+        Mockito.when(template.getName()).thenReturn("template");
+        final DockerAPI api = apiPulling("tcp://host1:2375", image, 1000L, 234L);
+        final DockerCloud cloud = new DockerCloud(cloudName, api, List.of(template));
+        final Map<String, DockerImagePrePuller.HostWork> work =
+                DockerImagePrePuller.findImagesToPrePull(List.of(cloud));
+
+        DockerImagePrePuller.prePullImagesOnHost(work.get("tcp://host1:2375"));
+
+        assertEquals(1L, DockerMetrics.IMAGE_PULL.getCount(cloudName, "template"));
+        assertEquals(1234L, DockerMetrics.IMAGE_PULL_BYTES.getCount(cloudName, image));
+    }
+
+    /**
+     * Creates a docker host that pulls the given image by downloading layers
+     * of the given sizes.
+     */
+    private static DockerAPI apiPulling(String dockerUri, String image, long... layerSizes) {
+        final PullImageCmd pullImageCmd = Mockito.mock(PullImageCmd.class);
+        Mockito.when(pullImageCmd.exec(ArgumentMatchers.any())).thenAnswer(invocation -> {
+            final PullImageResultCallback callback = invocation.getArgument(0);
+            for (int i = 0; i < layerSizes.length; i++) {
+                final ResponseItem.ProgressDetail detail = Mockito.mock(ResponseItem.ProgressDetail.class);
+                Mockito.when(detail.getTotal()).thenReturn(layerSizes[i]);
+                final PullResponseItem item = Mockito.mock(PullResponseItem.class);
+                Mockito.when(item.getId()).thenReturn("layer" + i);
+                Mockito.when(item.getStatus()).thenReturn("Downloading");
+                Mockito.when(item.getProgressDetail()).thenReturn(detail);
+                callback.onNext(item);
+            }
+            callback.onComplete();
+            return callback;
+        });
+        final DockerClient client = Mockito.mock(DockerClient.class);
+        Mockito.when(client.pullImageCmd(image)).thenReturn(pullImageCmd);
+        final DockerAPI result = Mockito.mock(DockerAPI.class);
+        Mockito.when(result.getClient()).thenReturn(client);
+        Mockito.when(result.getClient(ArgumentMatchers.anyInt())).thenReturn(client);
+        Mockito.when(result.getDockerHost()).thenReturn(new DockerServerEndpoint(dockerUri, null));
+        return result;
+    }
+
+    private static DockerCloud cloud(String dockerUri, boolean disabled, DockerTemplate... templates) {
+        return cloud(List.of(dockerUri), disabled, templates);
+    }
+
+    private static DockerCloud cloud(List<String> dockerUris, boolean disabled, DockerTemplate... templates) {
+        final List<DockerAPI> apis = new ArrayList<>();
+        for (final String dockerUri : dockerUris) {
+            final DockerAPI api = Mockito.mock(DockerAPI.class);
+            Mockito.when(api.getDockerHost()).thenReturn(new DockerServerEndpoint(dockerUri, null));
+            apis.add(api);
+        }
+        final DockerCloud result = Mockito.mock(DockerCloud.class);
+        Mockito.when(result.getDockerApis()).thenReturn(apis);
+        Mockito.when(result.getDisabled()).thenReturn(disabled(disabled));
+        Mockito.when(result.getTemplates()).thenReturn(List.of(templates));
+        return result;
+    }
+
+    private static DockerTemplate template(String image, boolean disabled, DockerImagePullStrategy pullStrategy) {
+        final DockerTemplate result = Mockito.mock(DockerTemplate.class);
+        Mockito.when(result.getFullImageId()).thenReturn(image);
+        Mockito.when(result.getDisabled()).thenReturn(disabled(disabled));
+        Mockito.when(result.getPullStrategy()).thenReturn(pullStrategy);
+        return result;
+    }
+
+    private static DockerDisabled disabled(boolean disabled) {
+        final DockerDisabled result = new DockerDisabled();
+        result.setDisabledByChoice(disabled);
+        return result;
+    }
+}
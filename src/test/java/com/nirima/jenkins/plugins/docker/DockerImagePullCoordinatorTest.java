@@ -0,0 +1,125 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerRegistryEndpoint;
+import org.junit.Test;
+
+public class DockerImagePullCoordinatorTest {
+
+    @Test
+    public void concurrentPullsOfSameImageOnlyPullOnceAndShareProgress() throws Exception {
+        final AtomicInteger numberOfPulls = new AtomicInteger();
+        final CountDownLatch pullStarted = new CountDownLatch(1);
+        final CountDownLatch allowPullToFinish = new CountDownLatch(1);
+        final ByteArrayOutputStream leaderOutput = new ByteArrayOutputStream();
+        final ByteArrayOutputStream waiterOutput = new ByteArrayOutputStream();
+        final DockerImagePullCoordinator.PullAction pull = progress -> {
+            numberOfPulls.incrementAndGet();
+            pullStarted.countDown();
+            allowPullToFinish.await();
+            progress.accept("Pull complete");
+        };
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<?> leader = executor.submit(() -> {
+                DockerImagePullCoordinator.singleFlight("tcp://host:2375", "image", null, listener(leaderOutput), pull);
+                return null;
+            });
+            pullStarted.await(10, TimeUnit.SECONDS);
+            final Future<?> waiter = executor.submit(() -> {
+                DockerImagePullCoordinator.singleFlight("tcp://host:2375", "image", null, listener(waiterOutput), pull);
+                return null;
+            });
+            // give the waiter time to join the pull in progress
+            Thread.sleep(500);
+            allowPullToFinish.countDown();
+            leader.get(10, TimeUnit.SECONDS);
+            waiter.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("number of pulls", 1, numberOfPulls.get());
+        assertThat(leaderOutput.toString(StandardCharsets.UTF_8), containsString("Pull complete"));
+        assertThat(waiterOutput.toString(StandardCharsets.UTF_8), containsString("Pull complete"));
+    }
+
+    @Test
+    public void concurrentPullsWithDifferentCredentialsAreNotShared() throws Exception {
+        final AtomicInteger numberOfPulls = new AtomicInteger();
+        final CountDownLatch pullStarted = new CountDownLatch(1);
+        final CountDownLatch allowPullToFinish = new CountDownLatch(1);
+        final DockerImagePullCoordinator.PullAction blockingPull = progress -> {
+            numberOfPulls.incrementAndGet();
+            pullStarted.countDown();
+            allowPullToFinish.await();
+        };
+        final DockerImagePullCoordinator.PullAction pull = progress -> numberOfPulls.incrementAndGet();
+        final DockerRegistryEndpoint alice = new DockerRegistryEndpoint("https://registry:5000", "alice");
+        final DockerRegistryEndpoint bob = new DockerRegistryEndpoint("https://registry:5000", "bob");
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            final Future<?> first = executor.submit(() -> {
+                DockerImagePullCoordinator.singleFlight(
+                        "tcp://host:2375", "private", alice, TaskListener.NULL, blockingPull);
+                return null;
+            });
+            pullStarted.await(10, TimeUnit.SECONDS);
+
+            // doesn't wait for alice's pull
+            DockerImagePullCoordinator.singleFlight("tcp://host:2375", "private", bob, TaskListener.NULL, pull);
+
+            allowPullToFinish.countDown();
+            first.get(10, TimeUnit.SECONDS);
+        } finally {
+            allowPullToFinish.countDown();
+            executor.shutdownNow();
+        }
+
+        assertEquals("number of pulls", 2, numberOfPulls.get());
+    }
+
+    @Test
+    public void sequentialPullsOfSameImageBothPull() throws Exception {
+        final AtomicInteger numberOfPulls = new AtomicInteger();
+        final DockerImagePullCoordinator.PullAction pull = progress -> numberOfPulls.incrementAndGet();
+
+        DockerImagePullCoordinator.singleFlight("tcp://host:2375", "image", null, TaskListener.NULL, pull);
+        DockerImagePullCoordinator.singleFlight("tcp://host:2375", "image", null, TaskListener.NULL, pull);
+
+        assertEquals("number of pulls", 2, numberOfPulls.get());
+    }
+
+    @Test
+    public void failedPullIsReportedToCaller() throws Exception {
+        final DockerImagePullCoordinator.PullAction pull = progress -> {
+            throw new IOException("registry unavailable");
+        };
+
+        try {
+            DockerImagePullCoordinator.singleFlight("tcp://host:2375", "image", null, TaskListener.NULL, pull);
+            fail("Expected an exception by now");
+        } catch (IOException expected) {
+            assertEquals("registry unavailable", expected.getMessage());
+        }
+    }
+
+    private static TaskListener listener(ByteArrayOutputStream output) {
+        return new StreamTaskListener(output, StandardCharsets.UTF_8);
+    }
+}
@@ -40,6 +40,10 @@ public class DockerImagePullStrategyTest {
             {true, "repo/name:latest", DockerImagePullStrategy.PULL_NEVER, false},
             {false, "repo/name:1.0", DockerImagePullStrategy.PULL_NEVER, false},
             {true, "repo/name:1.0", DockerImagePullStrategy.PULL_NEVER, false},
+            {false, "repo/name:latest", DockerImagePullStrategy.PULL_IF_STALE, true},
+            {true, "repo/name:latest", DockerImagePullStrategy.PULL_IF_STALE, true},
+            {false, "repo/name:1.0", DockerImagePullStrategy.PULL_IF_STALE, true},
+            {true, "repo/name:1.0", DockerImagePullStrategy.PULL_IF_STALE, true},
         });
     }
 
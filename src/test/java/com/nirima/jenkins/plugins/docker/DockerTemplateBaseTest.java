@@ -3,6 +3,7 @@ package com.nirima.jenkins.plugins.docker;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.endsWithIgnoringCase;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyList;
 import static org.mockito.Mockito.anyLong;
@@ -589,4 +590,53 @@ public class DockerTemplateBaseTest {
 
         verify(mockHostConfig).withVolumesFrom(expectedVolumesFromSet);
     }
+
+    @Test
+    public void containerSpecIsOnlyCompiledAgainWhenSettingsChange() {
+        final DockerTemplateBase instanceUnderTest = new DockerTemplateBase("image");
+        instanceUnderTest.setCpus("1.5");
+        instanceUnderTest.setMountsString("type=volume,destination=/cache");
+        final DockerContainerSpec first = instanceUnderTest.getContainerSpec();
+
+        assertThat(instanceUnderTest.getContainerSpec(), sameInstance(first));
+
+        instanceUnderTest.setCpus("2");
+        final DockerContainerSpec second = instanceUnderTest.getContainerSpec();
+        assertThat(second, not(sameInstance(first)));
+        assertThat(instanceUnderTest.getContainerSpec(), sameInstance(second));
+
+        // public fields can be changed in place, without calling any setter
+        instanceUnderTest.mounts[0] = "type=volume,destination=/other";
+        final CreateContainerCmd mockCmd = mock(CreateContainerCmd.class);
+        final HostConfig mockHostConfig = mock(HostConfig.class);
+        when(mockCmd.getHostConfig()).thenReturn(mockHostConfig);
+        instanceUnderTest.fillContainerConfig(mockCmd);
+        verify(mockHostConfig, times(1))
+                .withMounts(List.of(new Mount().withType(MountType.VOLUME).withTarget("/other")));
+        verify(mockHostConfig, times(1)).withNanoCPUs(2000000000L);
+    }
+
+    @Test
+    public void containerSpecCanBeAppliedRepeatedly() {
+        final DockerTemplateBase instanceUnderTest = new DockerTemplateBase("image");
+        instanceUnderTest.setEnvironmentsString("foo=bar");
+        instanceUnderTest.setCapabilitiesToAdd(List.of("AUDIT_CONTROL"));
+        for (int i = 0; i < 2; i++) {
+            final CreateContainerCmd mockCmd = mock(CreateContainerCmd.class);
+            final HostConfig mockHostConfig = mock(HostConfig.class);
+            when(mockCmd.getHostConfig()).thenReturn(mockHostConfig);
+
+            instanceUnderTest.fillContainerConfig(mockCmd);
+
+            verify(mockCmd, times(1)).withEnv("foo=bar");
+            verify(mockHostConfig, times(1)).withCapAdd(Capability.AUDIT_CONTROL);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void containerSpecGivenInvalidCpusThenThrows() {
+        final DockerTemplateBase instanceUnderTest = new DockerTemplateBase("image");
+        instanceUnderTest.setCpus("lots");
+        instanceUnderTest.getContainerSpec();
+    }
 }
@@ -0,0 +1,100 @@
+package com.nirima.jenkins.plugins.docker;
+
+import hudson.model.Label;
+import hudson.model.Node;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.ArrayList;
+import java.util.List;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how quickly a {@link DockerCloud} can work out which of its
+ * templates match a label, as the queue asks (via
+ * {@link DockerCloud#canProvision(Label)} and
+ * {@link DockerCloud#getTemplates(Label)}) several times per item per
+ * maintenance cycle.
+ * <p>
+ * The <code>scan</code> variants check every label against every template
+ * on every call, as {@link DockerCloud} used to, to give a baseline.
+ * </p>
+ */
+@JmhBenchmark
+public class DockerTemplateIndexBenchmark {
+
+    public static class CloudState extends JmhBenchmarkState {
+        @Param({"10", "150"})
+        public int numberOfTemplates;
+
+        DockerCloud cloud;
+        final List<Label> labels = new ArrayList<>();
+
+        @Override
+        public void setup() {
+            final List<DockerTemplate> templates = new ArrayList<>();
+            for (int i = 0; i < numberOfTemplates; i++) {
+                final String labelString = "tmpl-" + i + " os-" + (i % 3) + " size-" + (i % 5);
+                templates.add(new DockerTemplate(new DockerTemplateBase("image" + i), null, labelString, null, null));
+            }
+            final DockerAPI dockerApi = new DockerAPI(new DockerServerEndpoint("tcp://docker:2375", null));
+            cloud = new DockerCloud("cloud", dockerApi, templates);
+            labels.add(Label.get("tmpl-" + (numberOfTemplates - 1)));
+            labels.add(Label.get("tmpl-0"));
+            labels.add(Label.get("os-1&&size-2"));
+            labels.add(Label.get("no-such-label"));
+            labels.add(null);
+        }
+    }
+
+    @Benchmark
+    public void indexedGetTemplates(CloudState state, Blackhole bh) {
+        for (final Label label : state.labels) {
+            bh.consume(state.cloud.getTemplates(label));
+        }
+    }
+
+    @Benchmark
+    public void indexedCanProvision(CloudState state, Blackhole bh) {
+        for (final Label label : state.labels) {
+            bh.consume(state.cloud.canProvision(label));
+        }
+    }
+
+    @Benchmark
+    public void scanGetTemplates(CloudState state, Blackhole bh) {
+        for (final Label label : state.labels) {
+            bh.consume(scan(state.cloud, label));
+        }
+    }
+
+    @Benchmark
+    public void scanCanProvision(CloudState state, Blackhole bh) {
+        for (final Label label : state.labels) {
+            bh.consume(!state.cloud.getDisabled().isDisabled() && !scan(state.cloud, label).isEmpty());
+        }
+    }
+
+    /**
+     * How {@link DockerCloud#getTemplates(Label)} used to work (without job
+     * templates, which this benchmark doesn't have).
+     */
+    private static List<DockerTemplate> scan(DockerCloud cloud, Label label) {
+        final List<DockerTemplate> dockerTemplates = new ArrayList<>();
+        for (DockerTemplate t : cloud.getTemplates()) {
+            if (t.getDisabled().isDisabled()) {
+                continue;
+            }
+            if (label == null && t.getMode() == Node.Mode.NORMAL) {
+                dockerTemplates.add(t);
+            }
+            if (label != null && label.matches(t.getLabelSet())) {
+                dockerTemplates.add(t);
+            }
+        }
+        return dockerTemplates;
+    }
+}
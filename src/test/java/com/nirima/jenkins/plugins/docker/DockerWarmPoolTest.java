@@ -0,0 +1,255 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.InspectContainerCmd;
+import com.github.dockerjava.api.command.InspectContainerResponse;
+import com.github.dockerjava.api.exception.NotFoundException;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.slaves.NodeProvisioner;
+import io.jenkins.docker.DockerProvisioningTimeline;
+import io.jenkins.docker.DockerTransientNode;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+public class DockerWarmPoolTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    /** Status of each container docker knows about, indexed by container ID. */
+    private final Map<String, String> containerStatuses = new ConcurrentHashMap<>();
+
+    /** Every standby container our template has created. */
+    private final List<DockerWarmPool.StandbyContainer> standbyContainersCreated = new CopyOnWriteArrayList<>();
+
+    /** How old the standby containers our template creates are. */
+    private volatile long standbyContainerAgeInNanos;
+
+    private DockerAPI dockerApi;
+    private DockerCloud cloud;
+    private DockerTemplate template;
+
+    @Before
+    public void setUp() throws Exception {
+        final DockerClient client = Mockito.mock(DockerClient.class);
+        Mockito.when(client.inspectContainerCmd(ArgumentMatchers.anyString()))
+                .thenAnswer(invocation -> inspectContainerCmd(invocation.getArgument(0)));
+        dockerApi = Mockito.mock(DockerAPI.class);
+        Mockito.when(dockerApi.getClient()).thenReturn(client);
+        Mockito.when(dockerApi.getDockerHost()).thenReturn(new DockerServerEndpoint("tcp://warm-pool:2375", null));
+
+        template = Mockito.mock(DockerTemplate.class);
+        Mockito.when(template.getImage()).thenReturn("image-" + UUID.randomUUID());
+        Mockito.when(template.getName()).thenReturn("warm");
+        Mockito.when(template.getNumExecutors()).thenReturn(1);
+        Mockito.when(template.getDisabled()).thenReturn(new DockerDisabled());
+        Mockito.when(template.getMinimumIdle()).thenReturn(1);
+        Mockito.when(template.createStandbyContainer(
+                        ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any()))
+                .thenAnswer(invocation -> createStandbyContainer(invocation.getArgument(0)));
+        final DockerTransientNode node = Mockito.mock(DockerTransientNode.class);
+        Mockito.when(template.provisionNodeFromStandby(
+                        ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any()))
+                .thenReturn(node);
+        Mockito.when(template.provisionNode(
+                        ArgumentMatchers.any(), ArgumentMatchers.anyString(), ArgumentMatchers.any()))
+                .thenReturn(node);
+
+        cloud = Mockito.spy(new DockerCloud("cloud-" + UUID.randomUUID(), dockerApi, List.of(template)));
+        cloud.setContainerCap(0); // no cap, so we don't have to count containers
+        Mockito.doAnswer(invocation -> new ArrayList<>(List.of(template)))
+                .when(cloud)
+                .getTemplates(ArgumentMatchers.<Label>any());
+    }
+
+    @Test
+    public void standbyContainerIsHandedToTheNextProvision() throws Exception {
+        final DockerWarmPool.StandbyContainer standby = fill(DockerWarmPool.forTemplate(cloud, template));
+
+        provisionOneAgent();
+
+        Mockito.verify(template)
+                .provisionNodeFromStandby(
+                        ArgumentMatchers.same(dockerApi),
+                        ArgumentMatchers.same(standby),
+                        ArgumentMatchers.eq(cloud.name),
+                        ArgumentMatchers.any());
+        Mockito.verify(template, Mockito.never())
+                .provisionNode(ArgumentMatchers.any(), ArgumentMatchers.anyString(), ArgumentMatchers.any());
+    }
+
+    @Test
+    public void poolIsRefilledOnceAStandbyContainerIsTaken() throws Exception {
+        final DockerWarmPool.StandbyContainer standby = fill(DockerWarmPool.forTemplate(cloud, template));
+
+        provisionOneAgent();
+
+        waitUntil(
+                "pool is refilled",
+                () -> standbyContainersCreated.size() == 2
+                        && DockerWarmPool.isStandbyContainer(idOf(standbyContainersCreated.get(1))));
+        Assert.assertFalse("used container is no longer protected", DockerWarmPool.isStandbyContainer(idOf(standby)));
+    }
+
+    @Test
+    public void deadStandbyContainerIsThrownAwayRatherThanUsed() throws Exception {
+        final DockerWarmPool.StandbyContainer standby = fill(DockerWarmPool.forTemplate(cloud, template));
+        containerStatuses.put(idOf(standby), "exited");
+
+        provisionOneAgent();
+
+        Mockito.verify(template, Mockito.never())
+                .provisionNodeFromStandby(
+                        ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any());
+        Mockito.verify(template)
+                .provisionNode(
+                        ArgumentMatchers.same(dockerApi), ArgumentMatchers.eq(cloud.name), ArgumentMatchers.any());
+        waitUntil("dead container is left for the watchdog", () -> !DockerWarmPool.isStandbyContainer(idOf(standby)));
+    }
+
+    @Test
+    public void missingStandbyContainerIsNotUsable() throws Exception {
+        final DockerWarmPool.StandbyContainer standby = createStandbyContainer(dockerApi);
+        Assert.assertTrue(DockerWarmPool.isUsable(standby));
+
+        containerStatuses.remove(idOf(standby));
+        Assert.assertFalse(DockerWarmPool.isUsable(standby));
+
+        containerStatuses.put(idOf(standby), "running");
+        Assert.assertFalse(DockerWarmPool.isUsable(standby));
+    }
+
+    @Test
+    public void staleStandbyContainerIsThrownAwayRatherThanUsed() throws Exception {
+        standbyContainerAgeInNanos = TimeUnit.DAYS.toNanos(1);
+        final DockerWarmPool.StandbyContainer standby = fill(DockerWarmPool.forTemplate(cloud, template));
+
+        provisionOneAgent();
+
+        Mockito.verify(template, Mockito.never())
+                .provisionNodeFromStandby(
+                        ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any());
+        Mockito.verify(template)
+                .provisionNode(
+                        ArgumentMatchers.same(dockerApi), ArgumentMatchers.eq(cloud.name), ArgumentMatchers.any());
+        Assert.assertFalse(
+                "stale container is left for the watchdog", DockerWarmPool.isStandbyContainer(idOf(standby)));
+    }
+
+    @Test
+    public void nothingIsCreatedWhenMinimumIdleIsZero() throws Exception {
+        Mockito.when(template.getMinimumIdle()).thenReturn(0);
+
+        DockerWarmPool.refillAll(List.of(cloud));
+        provisionOneAgent();
+
+        Assert.assertNull(DockerWarmPool.forTemplate(cloud, template));
+        Mockito.verify(template, Mockito.after(500).never())
+                .createStandbyContainer(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any());
+        Assert.assertEquals(0, DockerWarmPool.countStandbyContainers(cloud.name, null));
+    }
+
+    @Test
+    public void poolsAreRemovedWhenTheTemplateChanges() throws Exception {
+        final DockerWarmPool pool = DockerWarmPool.forTemplate(cloud, template);
+        final DockerWarmPool.StandbyContainer standby = fill(pool);
+
+        // reconfiguring replaces the cloud and its templates
+        final DockerTemplate reconfigured = Mockito.mock(DockerTemplate.class);
+        Mockito.when(reconfigured.getMinimumIdle()).thenReturn(1);
+        final DockerCloud newCloud = new DockerCloud(cloud.name, dockerApi, List.of(reconfigured));
+        DockerWarmPool.retainOnly(List.of(newCloud));
+
+        Assert.assertFalse(
+                "container is left for the watchdog to remove", DockerWarmPool.isStandbyContainer(idOf(standby)));
+        Assert.assertNull(pool.take());
+        Assert.assertEquals(0, DockerWarmPool.countStandbyContainers(cloud.name, null));
+        final DockerWarmPool replacement = DockerWarmPool.forTemplate(cloud, template);
+        Assert.assertNotSame(pool, replacement);
+        // ...and no other cloud is ever given that pool
+        Mockito.when(template.getMinimumIdle()).thenReturn(0);
+        Assert.assertNull(DockerWarmPool.forTemplate(newCloud, template));
+    }
+
+    private DockerWarmPool.StandbyContainer fill(DockerWarmPool pool) throws InterruptedException {
+        Assert.assertNotNull(pool);
+        pool.refill();
+        // the cloud is told once the container is in the pool
+        Mockito.verify(cloud, Mockito.timeout(10_000))
+                .releaseDockerApi(
+                        ArgumentMatchers.same(dockerApi),
+                        ArgumentMatchers.same(template),
+                        ArgumentMatchers.eq(true),
+                        ArgumentMatchers.anyLong());
+        Assert.assertEquals(1, standbyContainersCreated.size());
+        final DockerWarmPool.StandbyContainer result = standbyContainersCreated.get(0);
+        Assert.assertTrue(DockerWarmPool.isStandbyContainer(idOf(result)));
+        return result;
+    }
+
+    private void provisionOneAgent() throws Exception {
+        final Collection<NodeProvisioner.PlannedNode> planned = cloud.provision(Label.get("warm"), 1);
+        Assert.assertEquals(1, planned.size());
+        final Node node = planned.iterator().next().future.get(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(node);
+    }
+
+    private DockerWarmPool.StandbyContainer createStandbyContainer(DockerAPI api) {
+        final String containerId = UUID.randomUUID().toString();
+        containerStatuses.put(containerId, "created");
+        final DockerWarmPool.StandbyContainer result = new DockerWarmPool.StandbyContainer(
+                api,
+                containerId,
+                "node-" + containerId,
+                "/",
+                new DockerProvisioningTimeline(),
+                System.nanoTime() - standbyContainerAgeInNanos);
+        standbyContainersCreated.add(result);
+        return result;
+    }
+
+    private InspectContainerCmd inspectContainerCmd(String containerId) {
+        final InspectContainerCmd cmd = Mockito.mock(InspectContainerCmd.class);
+        final String status = containerStatuses.get(containerId);
+        if (status == null) {
+            Mockito.when(cmd.exec()).thenThrow(new NotFoundException("No such container: " + containerId));
+        } else {
+            final InspectContainerResponse.ContainerState state =
+                    Mockito.mock(InspectContainerResponse.ContainerState.class);
+            Mockito.when(state.getStatus()).thenReturn(status);
+            final InspectContainerResponse response = Mockito.mock(InspectContainerResponse.class);
+            Mockito.when(response.getState()).thenReturn(state);
+            Mockito.when(cmd.exec()).thenReturn(response);
+        }
+        return cmd;
+    }
+
+    private static void waitUntil(String what, BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("Timed out waiting until " + what, System.nanoTime() - deadline < 0L);
+            Thread.sleep(10);
+        }
+    }
+
+    private static String idOf(DockerWarmPool.StandbyContainer standby) {
+        return standby.getContainerId();
+    }
+}
@@ -10,6 +10,7 @@ import io.jenkins.docker.DockerTransientNode;
 import io.jenkins.docker.client.DockerAPI;
 import java.io.IOException;
 import java.time.Clock;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -26,7 +27,9 @@ public class TestableDockerContainerWatchdog extends DockerContainerWatchdog {
     private List<Node> allNodes;
     private List<DockerCloud> allClouds;
     private List<DockerTransientNode> nodesRemoved = new LinkedList<>();
-    private List<String> containersRemoved = new LinkedList<>();
+    private List<String> containersRemoved = Collections.synchronizedList(new LinkedList<>());
+    private Long cloudProcessingTimeoutInNanos;
+    private Integer maxConcurrentClouds;
 
     public static void setClockOn(DockerContainerWatchdog i, Clock clock) {
         i.setClock(clock);
@@ -42,6 +45,16 @@ public class TestableDockerContainerWatchdog extends DockerContainerWatchdog {
         return allNodes;
     }
 
+    @Override
+    protected Node getNode(String nodeName) {
+        for (Node node : allNodes) {
+            if (nodeName.equals(node.getNodeName())) {
+                return node;
+            }
+        }
+        return null;
+    }
+
     @Override
     protected void removeNode(DockerTransientNode dtn) throws IOException {
         nodesRemoved.add(dtn);
@@ -52,6 +65,18 @@ public class TestableDockerContainerWatchdog extends DockerContainerWatchdog {
         return UNITTEST_JENKINS_ID;
     }
 
+    @Override
+    protected long getCloudProcessingTimeoutInNanos() {
+        return cloudProcessingTimeoutInNanos == null
+                ? super.getCloudProcessingTimeoutInNanos()
+                : cloudProcessingTimeoutInNanos;
+    }
+
+    @Override
+    protected int getMaxConcurrentClouds() {
+        return maxConcurrentClouds == null ? super.getMaxConcurrentClouds() : maxConcurrentClouds;
+    }
+
     @Override
     protected boolean stopAndRemoveContainer(
             DockerAPI dockerApi,
@@ -72,12 +97,22 @@ public class TestableDockerContainerWatchdog extends DockerContainerWatchdog {
         this.allClouds = allClouds;
     }
 
+    public void setCloudProcessingTimeoutInNanos(long cloudProcessingTimeoutInNanos) {
+        this.cloudProcessingTimeoutInNanos = cloudProcessingTimeoutInNanos;
+    }
+
+    public void setMaxConcurrentClouds(int maxConcurrentClouds) {
+        this.maxConcurrentClouds = maxConcurrentClouds;
+    }
+
     public List<DockerTransientNode> getAllRemovedNodes() {
         return List.copyOf(nodesRemoved);
     }
 
     public List<String> getContainersRemoved() {
-        return List.copyOf(containersRemoved);
+        synchronized (containersRemoved) {
+            return List.copyOf(containersRemoved);
+        }
     }
 
     public void runExecute() throws IOException, InterruptedException {
@@ -87,11 +122,16 @@ public class TestableDockerContainerWatchdog extends DockerContainerWatchdog {
     }
 
     public static DockerAPI createMockedDockerAPI(List<Container> containerList) {
+        return createMockedDockerAPI("tcp://mocked-docker-host:2375", containerList);
+    }
+
+    public static DockerAPI createMockedDockerAPI(String dockerUri, List<Container> containerList) {
         DockerAPI result = Mockito.mock(DockerAPI.class);
         DockerClient client = Mockito.mock(DockerClient.class);
         Mockito.when(result.getClient()).thenReturn(client);
+        Mockito.when(result.getClient(ArgumentMatchers.anyInt())).thenReturn(client);
         DockerServerEndpoint dockerServerEndpoint = Mockito.mock(DockerServerEndpoint.class);
-        Mockito.when(dockerServerEndpoint.getUri()).thenReturn("tcp://mocked-docker-host:2375");
+        Mockito.when(dockerServerEndpoint.getUri()).thenReturn(dockerUri);
         Mockito.when(result.getDockerHost()).thenReturn(dockerServerEndpoint);
         ListContainersCmd listContainerCmd = Mockito.mock(ListContainersCmd.class);
         Mockito.when(client.listContainersCmd()).thenReturn(listContainerCmd);
@@ -0,0 +1,88 @@
+package com.nirima.jenkins.plugins.docker.strategy;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.junit.Test;
+
+public class DockerJobAffinityDispatcherTest {
+    private static final long NOW = 1000000000000L;
+
+    @Test
+    public void givenNoHoldsThenAnythingGoes() {
+        final DockerJobAffinityDispatcher instance = new DockerJobAffinityDispatcher(new DockerJobAffinity());
+
+        assertThat(instance.canTake("node", "job", NOW, n -> true), nullValue());
+        assertThat(instance.canTake("node", null, NOW, n -> true), nullValue());
+    }
+
+    @Test
+    public void heldNodeOnlyTakesBuildsOfItsJob() {
+        final DockerJobAffinity affinity = new DockerJobAffinity();
+        final DockerJobAffinityDispatcher instance = new DockerJobAffinityDispatcher(affinity);
+        affinity.hold("warm", "folder/job", NOW + 1000L);
+
+        assertThat(instance.canTake("warm", "folder/job", NOW, n -> true), nullValue());
+        assertThat(
+                instance.canTake("warm", "folder/other", NOW, n -> true),
+                instanceOf(DockerJobAffinityDispatcher.BecauseNodeIsHeld.class));
+        assertThat(
+                instance.canTake("warm", null, NOW, n -> true),
+                instanceOf(DockerJobAffinityDispatcher.BecauseNodeIsHeld.class));
+    }
+
+    @Test
+    public void buildOfHeldJobWaitsForHeldNode() {
+        final DockerJobAffinity affinity = new DockerJobAffinity();
+        final DockerJobAffinityDispatcher instance = new DockerJobAffinityDispatcher(affinity);
+        affinity.hold("warm", "job", NOW + 1000L);
+
+        assertThat(
+                instance.canTake("cold", "job", NOW, "warm"::equals),
+                instanceOf(DockerJobAffinityDispatcher.BecauseHeldNodeIsWaiting.class));
+        assertThat(instance.canTake("cold", "other", NOW, "warm"::equals), nullValue());
+        // ...unless the held node can't take it after all
+        assertThat(instance.canTake("cold", "job", NOW, n -> false), nullValue());
+    }
+
+    @Test
+    public void buildOfHeldJobStaysBlockedUntilHeldNodeIsFree() {
+        final DockerJobAffinity affinity = new DockerJobAffinity();
+        final DockerJobAffinityDispatcher instance = new DockerJobAffinityDispatcher(affinity);
+        affinity.hold("warm", "job", NOW + 1000L);
+
+        assertThat(
+                instance.canRun("job", NOW, "warm"::equals),
+                instanceOf(DockerJobAffinityDispatcher.BecauseHeldNodeIsWaiting.class));
+        assertThat(instance.canRun("other", NOW, n -> true), nullValue());
+        assertThat(instance.canRun(null, NOW, n -> true), nullValue());
+        // once it's free (or can't take it after all) the build is buildable
+        assertThat(instance.canRun("job", NOW, n -> false), nullValue());
+        // ...and it's not held up forever
+        assertThat(instance.canRun("job", NOW + 1000L, n -> true), nullValue());
+    }
+
+    @Test
+    public void holdsExpire() {
+        final DockerJobAffinity affinity = new DockerJobAffinity();
+        final DockerJobAffinityDispatcher instance = new DockerJobAffinityDispatcher(affinity);
+        affinity.hold("warm", "job", NOW + 1000L);
+
+        assertThat(instance.canTake("warm", "other", NOW + 1000L, n -> true), nullValue());
+        assertThat(instance.canTake("cold", "job", NOW + 1000L, n -> true), nullValue());
+        assertThat(affinity.getNodeHeldFor("job", NOW), nullValue());
+    }
+
+    @Test
+    public void holdsCanBeReleased() {
+        final DockerJobAffinity affinity = new DockerJobAffinity();
+        final DockerJobAffinityDispatcher instance = new DockerJobAffinityDispatcher(affinity);
+        affinity.hold("warm", "job", NOW + 1000L);
+
+        affinity.release("warm");
+
+        assertThat(instance.canTake("warm", "other", NOW, n -> true), nullValue());
+        assertThat(instance.canTake("cold", "job", NOW, n -> true), nullValue());
+    }
+}
@@ -0,0 +1,381 @@
+package com.nirima.jenkins.plugins.docker.strategy;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import hudson.model.Executor;
+import hudson.model.Item;
+import hudson.model.Queue.Executable;
+import hudson.model.Queue.FlyweightTask;
+import hudson.model.Queue.Task;
+import hudson.model.Result;
+import hudson.model.Run;
+import io.jenkins.docker.DockerComputer;
+import org.junit.Test;
+
+public class DockerMultiBuildRetentionStrategyTest {
+    @Test
+    public void constructorGivenNoDataThenDefaults() {
+        // Given
+        final ClassUnderTest instance = new ClassUnderTest(0, 0, 0);
+
+        // When
+        final int actualIdleMinutes = instance.getIdleMinutes();
+        final int actualMaxBuilds = instance.getMaxBuilds();
+        final int actualMaxMinutes = instance.getMaxMinutes();
+
+        // Then
+        assertThat(actualIdleMinutes, equalTo(10));
+        assertThat(actualMaxBuilds, equalTo(10));
+        assertThat(actualMaxMinutes, equalTo(60));
+        assertThat(instance.isWipeWorkspaces(), equalTo(true));
+        assertThat(instance.getNumberOfBuildsStarted(), equalTo(0));
+        assertThat(instance.getResetNeeded(), equalTo(false));
+    }
+
+    @Test
+    public void buildIsFollowedByResetAndThenNextBuildIsAccepted() throws Exception {
+        // Given
+        final ClassUnderTest instance = new ClassUnderTest(1, 3, 60);
+        final DockerComputer mockComputer = mock(DockerComputer.class);
+        final Executor mockExecutor = mockExecutor(mockComputer);
+        final Task mockTask = mock(Task.class);
+        when(instance.mock.resetContainer(mockComputer)).thenReturn(true);
+
+        // When
+        instance.taskAccepted(mockExecutor, mockTask);
+        final boolean acceptingDuringBuild = instance.isAcceptingTasks(mockComputer);
+        instance.taskCompleted(mockExecutor, mockTask, 123L);
+        final boolean acceptingAfterReset = instance.isAcceptingTasks(mockComputer);
+
+        // Then
+        assertThat(acceptingDuringBuild, equalTo(false));
+        assertThat(acceptingAfterReset, equalTo(true));
+        assertThat(instance.getNumberOfBuildsStarted(), equalTo(1));
+        verify(instance.mock, times(1)).resetContainer(mockComputer);
+        verify(instance.mock, never()).terminateContainer(mockComputer);
+    }
+
+    @Test
+    public void trivialTaskDoesNotCountAsBuild() throws Exception {
+        // Given
+        final ClassUnderTest instance = new ClassUnderTest(1, 3, 60);
+        final DockerComputer mockComputer = mock(DockerComputer.class);
+        final Executor mockExecutor = mockExecutor(mockComputer);
+        final Task mockTask = mock(FlyweightTask.class);
+
+        // When
+        instance.taskAccepted(mockExecutor, mockTask);
+        instance.taskCompleted(mockExecutor, mockTask, 123L);
+
+        // Then
+        assertThat(instance.getNumberOfBuildsStarted(), equalTo(0));
+        assertThat(instance.isAcceptingTasks(mockComputer), equalTo(true));
+        verify(instance.mock, never()).resetContainer(mockComputer);
+        verify(instance.mock, never()).terminateContainer(mockComputer);
+    }
+
+    @Test
+    public void failedBuildTerminatesWithoutReset() throws Exception {
+        // Given
+        final ClassUnderTest instance = new ClassUnderTest(1, 3, 60);
+        final DockerComputer mockComputer = mock(DockerComputer.class);
+        final Executor mockExecutor = mockExecutor(mockComputer);
+        final Task mockTask = mock(Task.class);
+        when(instance.mock.taskFailed(mockExecutor)).thenReturn(true);
+
+        // When
+        instance.taskAccepted(mockExecutor, mockTask);
+        instance.taskCompleted(mockExecutor, mockTask, 123L);
+
+        // Then
+        assertThat(instance.isAcceptingTasks(mockComputer), equalTo(false));
+        verify(instance.mock, never()).resetContainer(mockComputer);
+        verify(instance.mock, times(1)).terminateContainer(mockComputer);
+    }
+
+    @Test
+    public void buildWithProblemsTerminatesWithoutReset() throws Exception {
+        // Given
+        final ClassUnderTest instance = new ClassUnderTest(1, 3, 60);
+        final DockerComputer mockComputer = mock(DockerComputer.class);
+        final Executor mockExecutor = mockExecutor(mockComputer);
+        final Task mockTask = mock(Task.class);
+
+        // When
+        instance.taskAccepted(mockExecutor, mockTask);
+        instance.taskCompletedWithProblems(mockExecutor, mockTask, 123L, new Throwable());
+
+        // Then
+        verify(instance.mock, never()).resetContainer(mockComputer);
+        verify(instance.mock, times(1)).terminateContainer(mockComputer);
+    }
+
+    @Test
+    public void failedResetTerminates() throws Exception {
+        // Given
+        final ClassUnderTest instance = new ClassUnderTest(1, 3, 60);
+        final DockerComputer mockComputer = mock(DockerComputer.class);
+        final Executor mockExecutor = mockExecutor(mockComputer);
+        final Task mockTask = mock(Task.class);
+        when(instance.mock.resetContainer(mockComputer)).thenReturn(false);
+
+        // When
+        instance.taskAccepted(mockExecutor, mockTask);
+        instance.taskCompleted(mockExecutor, mockTask, 123L);
+
+        // Then
+        assertThat(instance.isAcceptingTasks(mockComputer), equalTo(false));
+        verify(instance.mock, times(1)).terminateContainer(mockComputer);
+    }
+
+    @Test
+    public void terminatesOnceMaxBuildsHaveBeenDone() throws Exception {
+        // Given
+        final ClassUnderTest instance = new ClassUnderTest(1, 2, 60);
+        final DockerComputer mockComputer = mock(DockerComputer.class);
+        final Executor mockExecutor = mockExecutor(mockComputer);
+        final Task mockTask = mock(Task.class);
+        when(instance.mock.resetContainer(mockComputer)).thenReturn(true);
+
+        // When
+        instance.taskAccepted(mockExecutor, mockTask);
+        instance.taskCompleted(mockExecutor, mockTask, 123L);
+        instance.taskAccepted(mockExecutor, mockTask);
+        instance.taskCompleted(mockExecutor, mockTask, 123L);
+
+        // Then
+        assertThat(instance.getNumberOfBuildsStarted(), equalTo(2));
+        verify(instance.mock, times(1)).resetContainer(mockComputer);
+        verify(instance.mock, times(1)).terminateContainer(mockComputer);
+    }
+
+    @Test
+    public void stopsAcceptingBuildsOnceMaxMinutesHavePassed() throws Exception {
+        // Given
+        final long msInAminute = 60L * 1000L;
+        final long startTime = 1000000000000L;
+        final ClassUnderTest instance = new ClassUnderTest(1, 10, 5);
+        final DockerComputer mockComputer = mock(DockerComputer.class);
+        final Executor mockExecutor = mockExecutor(mockComputer);
+        final Task mockTask = mock(Task.class);
+        when(instance.mock.resetContainer(mockComputer)).thenReturn(true);
+        when(instance.mock.computerIsIdle(mockComputer)).thenReturn(true);
+        when(instance.mock.currentMilliseconds()).thenReturn(startTime);
+        instance.taskAccepted(mockExecutor, mockTask);
+        when(instance.mock.currentMilliseconds()).thenReturn(startTime + 2 * msInAminute);
+        instance.taskCompleted(mockExecutor, mockTask, 123L);
+        final boolean acceptingBeforeExpiry = instance.isAcceptingTasks(mockComputer);
+
+        // When
+        when(instance.mock.currentMilliseconds()).thenReturn(startTime + 5 * msInAminute);
+        final boolean acceptingAfterExpiry = instance.isAcceptingTasks(mockComputer);
+        instance.check(mockComputer);
+
+        // Then
+        assertThat(acceptingBeforeExpiry, equalTo(true));
+        assertThat(acceptingAfterExpiry, equalTo(false));
+        verify(instance.mock, times(1)).terminateContainer(mockComputer);
+    }
+
+    @Test
+    public void resetScriptChecksMarkersThenWipesThenRunsScript() {
+        // Given
+        final ClassUnderTest instance = new ClassUnderTest(1, 10, 60);
+        instance.setContaminationMarkers("  /tmp/dirty \n\nit's.bad\n");
+        instance.setResetScript("rm -rf /tmp/*");
+
+        // When
+        final String actual = instance.makeResetScript();
+
+        // Then
+        assertThat(actual, containsString("if [ -e '/tmp/dirty' ]"));
+        assertThat(actual, containsString("if [ -e 'it'\\''s.bad' ]"));
+        assertThat(actual.indexOf("it'\\''s.bad"), lessThan(actual.indexOf("rm -rf ./workspace")));
+        assertThat(actual.indexOf("rm -rf ./workspace"), lessThan(actual.indexOf("rm -rf /tmp/*")));
+
+        // When
+        instance.setWipeWorkspaces(false);
+        instance.setContaminationMarkers(null);
+        instance.setResetScript("");
+        final String actualMinimal = instance.makeResetScript();
+
+        // Then
+        assertThat(actualMinimal, not(containsString("rm -rf")));
+        assertThat(actualMinimal, not(containsString("if [ -e")));
+    }
+
+    @Test
+    public void testHashCodeAndEquals() {
+        final ClassUnderTest same1 = new ClassUnderTest(12, 3, 45);
+        final ClassUnderTest same2 = new ClassUnderTest(12, 3, 45);
+        same2.setNumberOfBuildsStarted(2);
+        same2.setResetNeeded(true);
+        final ClassUnderTest diff1 = new ClassUnderTest(12, 4, 45);
+        final ClassUnderTest diff2 = new ClassUnderTest(12, 3, 46);
+        final ClassUnderTest diff3 = new ClassUnderTest(12, 3, 45);
+        diff3.setResetScript("true");
+        final ClassUnderTest diff4 = new ClassUnderTest(12, 3, 45);
+        diff4.setWipeWorkspaces(false);
+        final ClassUnderTest diff5 = new ClassUnderTest(12, 3, 45);
+        diff5.setAffinitySeconds(30);
+
+        assertThat(same1.equals(same2), equalTo(true));
+        assertThat(same1.hashCode(), equalTo(same2.hashCode()));
+        for (final ClassUnderTest d : new ClassUnderTest[] {diff1, diff2, diff3, diff4, diff5}) {
+            assertThat(same1.equals(d), equalTo(false));
+        }
+        assertThat(same1.equals(new DockerOnceRetentionStrategyTest.ClassUnderTest(12)), equalTo(false));
+    }
+
+    @Test
+    public void affinityHoldsNodeForSameJobAfterResetUntilItsNextBuild() throws Exception {
+        // Given
+        final String nodeName = "affinityHoldsNode";
+        final long now = 1000000000000L;
+        final ClassUnderTest instance = new ClassUnderTest(1, 10, 60);
+        instance.setAffinitySeconds(30);
+        final DockerComputer mockComputer = mock(DockerComputer.class);
+        final Executor mockExecutor = mockExecutor(mockComputer);
+        final Task mockTask = mock(Task.class, withSettings().extraInterfaces(Item.class));
+        when(mockTask.getOwnerTask()).thenReturn(mockTask);
+        when(((Item) mockTask).getFullName()).thenReturn("folder/job");
+        when(instance.mock.computerName(mockComputer)).thenReturn(nodeName);
+        when(instance.mock.currentMilliseconds()).thenReturn(now);
+        when(instance.mock.resetContainer(mockComputer)).thenReturn(true);
+
+        // When
+        instance.taskAccepted(mockExecutor, mockTask);
+        final String heldDuringBuild = DockerJobAffinity.INSTANCE.getJobHeldFor(nodeName, now);
+        instance.taskCompleted(mockExecutor, mockTask, 123L);
+        final String heldAfterReset = DockerJobAffinity.INSTANCE.getJobHeldFor(nodeName, now);
+        final String heldLater = DockerJobAffinity.INSTANCE.getJobHeldFor(nodeName, now + 29999L);
+        instance.taskAccepted(mockExecutor, mockTask);
+        final String heldDuringNextBuild = DockerJobAffinity.INSTANCE.getJobHeldFor(nodeName, now);
+
+        // Then
+        assertThat(heldDuringBuild, nullValue());
+        assertThat(heldAfterReset, equalTo("folder/job"));
+        assertThat(heldLater, equalTo("folder/job"));
+        assertThat(heldDuringNextBuild, nullValue());
+    }
+
+    @Test
+    public void taskFailedGivenBuildThenGoesByItsResult() {
+        // Given
+        final DockerMultiBuildRetentionStrategy instance = new DockerMultiBuildRetentionStrategy(1, 3, 60);
+        final Executable passed = mockRun(Result.UNSTABLE);
+        final Executable failed = mockRun(Result.FAILURE);
+        final Executable aborted = mockRun(Result.ABORTED);
+
+        // When/Then
+        assertThat(instance.taskFailed(mockExecutor(passed)), equalTo(false));
+        assertThat(instance.taskFailed(mockExecutor(failed)), equalTo(true));
+        assertThat(instance.taskFailed(mockExecutor(aborted)), equalTo(true));
+    }
+
+    @Test
+    public void taskFailedGivenPartOfBuildThenFailedUnlessBuildIsKnownToBeOk() {
+        // Given
+        final DockerMultiBuildRetentionStrategy instance = new DockerMultiBuildRetentionStrategy(1, 3, 60);
+        final Executable nodeBlockOfUnfinishedPipeline = mockPlaceholder(mockRun(null));
+        final Executable nodeBlockOfFailedPipeline = mockPlaceholder(mockRun(Result.FAILURE));
+        final Executable nodeBlockOfPassingPipeline = mockPlaceholder(mockRun(Result.SUCCESS));
+
+        // When/Then
+        assertThat(instance.taskFailed(mockExecutor(nodeBlockOfUnfinishedPipeline)), equalTo(true));
+        assertThat(instance.taskFailed(mockExecutor(nodeBlockOfFailedPipeline)), equalTo(true));
+        assertThat(instance.taskFailed(mockExecutor(nodeBlockOfPassingPipeline)), equalTo(false));
+    }
+
+    /** Like a freestyle build or a Pipeline run. */
+    private static Executable mockRun(Result result) {
+        final Run<?, ?> mockRun = mock(Run.class, withSettings().extraInterfaces(Executable.class));
+        when(mockRun.getResult()).thenReturn(result);
+        return (Executable) mockRun;
+    }
+
+    /** Like a Pipeline <code>node</code> block. */
+    private static Executable mockPlaceholder(Executable run) {
+        final Executable mockPlaceholder = mock(Executable.class);
+        when(mockPlaceholder.getParentExecutable()).thenReturn(run);
+        return mockPlaceholder;
+    }
+
+    private static Executor mockExecutor(Executable executable) {
+        final Executor mockExecutor = mock(Executor.class);
+        when(mockExecutor.getCurrentExecutable()).thenReturn(executable);
+        return mockExecutor;
+    }
+
+    private static Executor mockExecutor(DockerComputer computer) {
+        final Executor mockExecutor = mock(Executor.class);
+        when(mockExecutor.getOwner()).thenReturn(computer);
+        return mockExecutor;
+    }
+
+    public interface IClassUnderTest extends DockerOnceRetentionStrategyTest.IClassUnderTest {
+        boolean taskFailed(Executor executor);
+
+        boolean resetContainer(DockerComputer c) throws Exception;
+    }
+
+    public static class ClassUnderTest extends DockerMultiBuildRetentionStrategy {
+        private final IClassUnderTest mock;
+
+        public ClassUnderTest(int idleMinutes, int maxBuilds, int maxMinutes) {
+            super(idleMinutes, maxBuilds, maxMinutes);
+            mock = mock(IClassUnderTest.class);
+        }
+
+        @Override
+        protected long currentMilliseconds() {
+            return mock.currentMilliseconds();
+        }
+
+        @Override
+        protected boolean computerIsIdle(DockerComputer c) {
+            return mock.computerIsIdle(c);
+        }
+
+        @Override
+        protected void terminateContainer(DockerComputer c) {
+            mock.terminateContainer(c);
+        }
+
+        @Override
+        protected long computerIdleStartMilliseconds(DockerComputer c) {
+            return mock.computerIdleStartMilliseconds(c);
+        }
+
+        @Override
+        protected String computerName(DockerComputer c) {
+            return mock.computerName(c);
+        }
+
+        @Override
+        protected boolean taskFailed(Executor executor) {
+            return mock.taskFailed(executor);
+        }
+
+        @Override
+        protected boolean resetContainer(DockerComputer c) throws Exception {
+            return mock.resetContainer(c);
+        }
+
+        @Override
+        protected void runInBackground(Runnable task) {
+            task.run();
+        }
+    }
+}
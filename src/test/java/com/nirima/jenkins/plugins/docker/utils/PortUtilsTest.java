@@ -6,6 +6,7 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
@@ -13,8 +14,10 @@ import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExternalResource;
@@ -182,6 +185,121 @@ public class PortUtilsTest {
                 allOf(greaterThanOrEqualTo(minAllowedTime), lessThanOrEqualTo(maxExpectedTime)));
     }
 
+    @Test
+    public void shouldNoticePortSoonAfterItOpens() throws Exception {
+        // Given
+        // retries back off from a few milliseconds, so we shouldn't have to wait
+        // anything like the full retry delay after the port becomes available.
+        final long bringPortUpAfter = DELAY / 4;
+        final long maxExpectedTime = DELAY - 1;
+        server.stopAndRebindAfter(bringPortUpAfter, MILLISECONDS);
+
+        // When
+        final long before = currentTimeMillis();
+        final boolean actual = PortUtils.connectionCheck(server.host(), server.port())
+                .withRetries(RETRY_COUNT)
+                .withEveryRetryWaitFor(2 * DELAY, MILLISECONDS)
+                .execute();
+        final long after = currentTimeMillis();
+        final long actualDuration = after - before;
+
+        // Then
+        assertThat("Used port should be connectible", actual, equalTo(true));
+        assertThat(
+                "Should retry soon after port is up",
+                actualDuration,
+                allOf(
+                        greaterThanOrEqualTo(bringPortUpAfter - minimumFudgeFactor(DELAY)),
+                        lessThanOrEqualTo(maxExpectedTime)));
+    }
+
+    @Test
+    public void shouldNotConnectWhileContainerIsStarting() throws Exception {
+        // Given
+        final AtomicInteger healthChecks = new AtomicInteger();
+
+        // When
+        final boolean actual = PortUtils.connectionCheck(server.host(), server.port())
+                .withRetries(1)
+                .withEveryRetryWaitFor(DELAY / 10, MILLISECONDS)
+                .withHealthCheck(() -> {
+                    healthChecks.incrementAndGet();
+                    return "starting";
+                })
+                .execute();
+
+        // Then
+        assertThat("Port should not be tried while container is starting", actual, equalTo(false));
+        assertThat("Health should be checked repeatedly", healthChecks.get(), greaterThan(1));
+    }
+
+    @Test
+    public void shouldConnectOnceContainerIsHealthy() throws Exception {
+        // When
+        final boolean actual = PortUtils.connectionCheck(server.host(), server.port())
+                .withHealthCheck(() -> "healthy")
+                .execute();
+
+        // Then
+        assertThat("Used port should be connectible", actual, equalTo(true));
+    }
+
+    @Test
+    public void shouldIgnoreFailingHealthCheck() throws Exception {
+        // When
+        final boolean actual = PortUtils.connectionCheck(server.host(), server.port())
+                .withHealthCheck(() -> {
+                    throw new IOException("docker is unavailable");
+                })
+                .execute();
+
+        // Then
+        assertThat("Used port should be connectible", actual, equalTo(true));
+    }
+
+    @Test
+    public void shouldGiveUpAsSoonAsContainerHasExited() throws Exception {
+        // Given
+        final long maxExpectedTime = DELAY - 1;
+
+        // When
+        final long before = currentTimeMillis();
+        final boolean actual = PortUtils.connectionCheck("localhost", 0)
+                .withRetries(RETRY_COUNT)
+                .withEveryRetryWaitFor(DELAY, MILLISECONDS)
+                .withHealthCheck(() -> "exited")
+                .execute();
+        final long after = currentTimeMillis();
+        final long actualDuration = after - before;
+
+        // Then
+        assertThat("Exited container should not be connectible", actual, equalTo(false));
+        assertThat("Should not wait", actualDuration, lessThanOrEqualTo(maxExpectedTime));
+    }
+
+    @Test
+    public void shouldStopTryingOnceCancelled() throws Exception {
+        // Given
+        final AtomicInteger attempts = new AtomicInteger();
+        final CompletableFuture<Boolean> check = PortUtils.connectionCheck("localhost", 0)
+                .withRetries(RETRY_COUNT)
+                .withEveryRetryWaitFor(DELAY / 10, MILLISECONDS)
+                .withHealthCheck(() -> {
+                    attempts.incrementAndGet();
+                    return null;
+                })
+                .executeAsync();
+        Thread.sleep(DELAY / 10);
+
+        // When
+        check.cancel(true);
+        final int attemptsWhenCancelled = attempts.get();
+        Thread.sleep(DELAY / 2);
+
+        // Then
+        assertThat("Should have stopped trying", attempts.get(), lessThanOrEqualTo(attemptsWhenCancelled + 1));
+    }
+
     /**
      * On Windows, timers seem to be less accurate and/or expire shortly before they should,
      * meaning that tests can complete faster than they should,
@@ -0,0 +1,101 @@
+package io.jenkins.docker;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.github.dockerjava.api.DockerClient;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class DockerContainerTerminatorTest {
+
+    @Test
+    public void submitGivenManyTasksThenRunsThemAllWithLimitedConcurrency() throws Exception {
+        final DockerAPI api = mockedApi("tcp://terminator-test-host:2375");
+        final int numberOfTasks = 50;
+        final CountDownLatch allDone = new CountDownLatch(numberOfTasks);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        for (int i = 0; i < numberOfTasks; i++) {
+            DockerContainerTerminator.submit(api, client -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(10L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                allDone.countDown();
+            });
+        }
+
+        assertTrue("all tasks ran", allDone.await(30, TimeUnit.SECONDS));
+        assertThat(maxRunning.get(), lessThanOrEqualTo(4));
+        final DockerContainerTerminator.Statistics stats = waitUntilCompleted(api, numberOfTasks);
+        assertEquals("queued", 0, stats.getQueued());
+        assertEquals("completed", numberOfTasks, stats.getCompleted());
+        assertThat(stats.getMaxLatencyInMilliseconds(), lessThanOrEqualTo(30000L));
+    }
+
+    @Test
+    public void submitGivenFailingTaskThenCarriesOn() throws Exception {
+        final DockerAPI api = mockedApi("tcp://terminator-test-host2:2375");
+        final CountDownLatch secondTaskDone = new CountDownLatch(1);
+
+        DockerContainerTerminator.submit(api, client -> {
+            throw new IllegalStateException("deliberate failure");
+        });
+        DockerContainerTerminator.submit(api, client -> secondTaskDone.countDown());
+
+        assertTrue("second task ran", secondTaskDone.await(30, TimeUnit.SECONDS));
+        assertEquals("completed", 2L, waitUntilCompleted(api, 2).getCompleted());
+    }
+
+    @Test
+    public void submitGivenDockerHostUnreachableThenTriesAgain() throws Exception {
+        final DockerAPI api = mockedApi("tcp://terminator-test-host3:2375");
+        Mockito.when(api.getClient())
+                .thenThrow(new IllegalStateException("deliberate failure"))
+                .thenReturn(Mockito.mock(DockerClient.class));
+        final long originalDelay = DockerContainerTerminator.retryDelayInMilliseconds;
+        DockerContainerTerminator.retryDelayInMilliseconds = 10L;
+        try {
+            final CountDownLatch taskDone = new CountDownLatch(1);
+
+            DockerContainerTerminator.submit(api, client -> taskDone.countDown());
+
+            assertTrue("task ran", taskDone.await(30, TimeUnit.SECONDS));
+            assertEquals("completed", 1L, waitUntilCompleted(api, 1).getCompleted());
+            Mockito.verify(api, Mockito.times(2)).getClient();
+        } finally {
+            DockerContainerTerminator.retryDelayInMilliseconds = originalDelay;
+        }
+    }
+
+    private static DockerContainerTerminator.Statistics waitUntilCompleted(DockerAPI api, long expected)
+            throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            final DockerContainerTerminator.Statistics stats = DockerContainerTerminator.getStatistics(api);
+            if (stats.getCompleted() >= expected) {
+                return stats;
+            }
+            Thread.sleep(100L);
+        }
+        return DockerContainerTerminator.getStatistics(api);
+    }
+
+    private static DockerAPI mockedApi(String uri) {
+        final DockerAPI result = Mockito.mock(DockerAPI.class);
+        Mockito.when(result.getDockerHost()).thenReturn(new DockerServerEndpoint(uri, null));
+        Mockito.when(result.getClient()).thenReturn(Mockito.mock(DockerClient.class));
+        return result;
+    }
+}
@@ -0,0 +1,105 @@
+package io.jenkins.docker;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+public class DockerProvisioningStatisticsTest {
+
+    @After
+    public void tearDown() {
+        DockerProvisioningStatistics.clear();
+    }
+
+    @Test
+    public void percentileGivenSortedValuesThenUsesNearestRank() {
+        final List<Long> values = new ArrayList<>();
+        for (long i = 1; i <= 20; i++) {
+            values.add(i * 10);
+        }
+
+        assertEquals(100L, DockerProvisioningStatistics.percentile(values, 50));
+        assertEquals(190L, DockerProvisioningStatistics.percentile(values, 95));
+        assertEquals(200L, DockerProvisioningStatistics.percentile(values, 100));
+        assertEquals(7L, DockerProvisioningStatistics.percentile(Arrays.asList(7L), 50));
+        assertEquals(7L, DockerProvisioningStatistics.percentile(Arrays.asList(7L), 95));
+    }
+
+    @Test
+    public void forCloudGivenTimelinesThenSummarisesEachTemplateOfThatCloudOnly() {
+        DockerProvisioningStatistics.record("cloud", "b", completedTimeline(DockerProvisioningTimeline.CREATE));
+        DockerProvisioningStatistics.record(
+                "cloud", "a", completedTimeline(DockerProvisioningTimeline.PULL, DockerProvisioningTimeline.START));
+        DockerProvisioningStatistics.record("cloud", "a", completedTimeline(DockerProvisioningTimeline.START));
+        DockerProvisioningStatistics.record("otherCloud", "a", completedTimeline(DockerProvisioningTimeline.START));
+
+        final List<DockerProvisioningStatistics.TemplateStatistics> actual =
+                DockerProvisioningStatistics.forCloud("cloud");
+
+        assertEquals(2, actual.size());
+        final DockerProvisioningStatistics.TemplateStatistics a = actual.get(0);
+        assertEquals("a", a.getTemplateName());
+        assertEquals(2, a.getSamples());
+        assertEquals(2, a.getPhases().size());
+        assertEquals(DockerProvisioningTimeline.PULL, a.getPhases().get(0).getName());
+        assertEquals(1, a.getPhases().get(0).getCount());
+        assertEquals(DockerProvisioningTimeline.START, a.getPhases().get(1).getName());
+        assertEquals(2, a.getPhases().get(1).getCount());
+        assertEquals("b", actual.get(1).getTemplateName());
+        assertThat(DockerProvisioningStatistics.forCloud("unknownCloud"), empty());
+    }
+
+    @Test
+    public void forCloudGivenUnfinishedPhaseThenIgnoresIt() {
+        final DockerProvisioningTimeline timeline = completedTimeline(DockerProvisioningTimeline.CREATE);
+        final DockerProvisioningTimeline.Phase unfinished = timeline.begin(DockerProvisioningTimeline.LAUNCH);
+        DockerProvisioningStatistics.record(null, null, timeline);
+
+        final List<DockerProvisioningStatistics.TemplateStatistics> actual =
+                DockerProvisioningStatistics.forCloud(null);
+
+        assertEquals(1, actual.size());
+        assertEquals("", actual.get(0).getTemplateName());
+        assertEquals(1, actual.get(0).getPhases().size());
+        assertThat(timeline.getUnfinished(DockerProvisioningTimeline.LAUNCH), sameInstance(unfinished));
+        assertThat(timeline.getTotalDurationInMilliseconds(), nullValue());
+    }
+
+    @Test
+    public void timelineGivenPhasesThenKeepsThemInOrder() {
+        final DockerProvisioningTimeline timeline = completedTimeline(
+                DockerProvisioningTimeline.PULL, DockerProvisioningTimeline.CREATE, DockerProvisioningTimeline.START);
+
+        final List<String> names = new ArrayList<>();
+        for (final DockerProvisioningTimeline.Phase phase : timeline.getPhases()) {
+            names.add(phase.getName());
+        }
+
+        assertThat(
+                names,
+                contains(
+                        DockerProvisioningTimeline.PULL,
+                        DockerProvisioningTimeline.CREATE,
+                        DockerProvisioningTimeline.START));
+        assertThat(timeline.getUnfinished(DockerProvisioningTimeline.START), nullValue());
+        assertThat(timeline.getTotalDurationInMilliseconds(), greaterThanOrEqualTo(0L));
+    }
+
+    private static DockerProvisioningTimeline completedTimeline(String... phaseNames) {
+        final DockerProvisioningTimeline timeline = new DockerProvisioningTimeline();
+        for (final String phaseName : phaseNames) {
+            timeline.begin(phaseName).end();
+        }
+        return timeline;
+    }
+}
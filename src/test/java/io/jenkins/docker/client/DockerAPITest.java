@@ -0,0 +1,25 @@
+package io.jenkins.docker.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class DockerAPITest {
+    @Test
+    public void secondsToMillisecondsOrNullGivenNothingThenReturnsNull() {
+        assertNull(DockerAPI.secondsToMillisecondsOrNull(0));
+        assertNull(DockerAPI.secondsToMillisecondsOrNull(-1));
+    }
+
+    @Test
+    public void secondsToMillisecondsOrNullGivenSecondsThenReturnsMilliseconds() {
+        assertEquals(Integer.valueOf(60000), DockerAPI.secondsToMillisecondsOrNull(60));
+    }
+
+    @Test
+    public void secondsToMillisecondsOrNullGivenTooManySecondsThenDoesNotOverflow() {
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE), DockerAPI.secondsToMillisecondsOrNull(2147484));
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE), DockerAPI.secondsToMillisecondsOrNull(Integer.MAX_VALUE));
+    }
+}
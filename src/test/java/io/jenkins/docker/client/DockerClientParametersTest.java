@@ -75,6 +75,26 @@ public class DockerClientParametersTest {
         assertNotEquals(i1.hashCode(), d06.hashCode());
     }
 
+    @Test
+    public void testHashCodeAndEqualsGivenConnectionPoolSettings() {
+        final DockerClientParameters i1 = new DockerClientParameters("dockerUri", null, null, null, 10, 2000, 3000);
+        final DockerClientParameters e1 = new DockerClientParameters("dockerUri", null, null, null, 10, 2000, 3000);
+        final DockerClientParameters d01 = new DockerClientParameters("dockerUri", null, null, null, 11, 2000, 3000);
+        final DockerClientParameters d02 = new DockerClientParameters("dockerUri", null, null, null, 10, 2001, 3000);
+        final DockerClientParameters d03 = new DockerClientParameters("dockerUri", null, null, null, 10, 2000, 3001);
+        final DockerClientParameters d04 = new DockerClientParameters("dockerUri", null, null, null);
+
+        assertEquals(i1, e1);
+        assertEquals(i1.hashCode(), e1.hashCode());
+        assertNotEquals(i1, d01);
+        assertNotEquals(i1, d02);
+        assertNotEquals(i1, d03);
+        assertNotEquals(i1, d04);
+        assertEquals(Integer.valueOf(10), i1.getMaxConnectionsOrNull());
+        assertEquals(Integer.valueOf(2000), i1.getIdleTimeoutInMsOrNull());
+        assertEquals(Integer.valueOf(3000), i1.getTimeToLiveInMsOrNull());
+    }
+
     @Test
     public void testGetters() {
         final String dockerUri1 = "dockerUri";
@@ -0,0 +1,81 @@
+package io.jenkins.docker.client;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class DockerExecConnectionTest {
+
+    @Test
+    public void startRequestIsWellFormed() {
+        final String request =
+                new String(DockerExecConnection.createStartRequest("1.43", "abc123"), StandardCharsets.US_ASCII);
+        assertThat(request, startsWith("POST /v1.43/exec/abc123/start HTTP/1.1\r\n"));
+        assertThat(request, containsString("\r\nUpgrade: tcp\r\n"));
+        assertThat(request, containsString("\r\nConnection: Upgrade\r\n"));
+        final String body = "{ \"Detach\": false, \"Tty\": false }";
+        assertThat(request, containsString("\r\nContent-Length: " + body.length() + "\r\n\r\n"));
+        assertThat(request, endsWith("\r\n\r\n" + body));
+    }
+
+    @Test
+    public void responseHeadersAreConsumedUpToThePayload() throws IOException {
+        final InputStream in = stream("HTTP/1.1 101 UPGRADED\r\n"
+                + "Content-Type: application/vnd.docker.raw-stream\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Upgrade: tcp\r\n"
+                + "\r\n"
+                + "payload");
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        DockerExecConnection.readResponseHeaders(in, new PrintStream(log, true, StandardCharsets.UTF_8));
+
+        assertThat(new String(in.readAllBytes(), StandardCharsets.US_ASCII), is("payload"));
+        assertThat(log.toString(StandardCharsets.UTF_8), containsString("HTTP/1.1 101 UPGRADED"));
+    }
+
+    @Test
+    public void responseHeadersMayUseBareLineFeeds() throws IOException {
+        final InputStream in = stream("HTTP/1.0 101 Switching Protocols\nUpgrade: tcp\n\npayload");
+
+        DockerExecConnection.readResponseHeaders(in, nullLogger());
+
+        assertThat(new String(in.readAllBytes(), StandardCharsets.US_ASCII), is("payload"));
+    }
+
+    @Test
+    public void otherResponseStatusIsAnError() {
+        final InputStream in = stream("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n");
+
+        final IOException ex =
+                assertThrows(IOException.class, () -> DockerExecConnection.readResponseHeaders(in, nullLogger()));
+
+        assertThat(ex.getMessage(), containsString("404"));
+    }
+
+    @Test
+    public void truncatedResponseIsAnError() {
+        assertThrows(IOException.class, () -> DockerExecConnection.readResponseHeaders(stream(""), nullLogger()));
+        final InputStream truncated = stream("HTTP/1.1 101 UPGRADED\r\nUpgrade");
+        assertThrows(IOException.class, () -> DockerExecConnection.readResponseHeaders(truncated, nullLogger()));
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static PrintStream nullLogger() {
+        return new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,166 @@
+package io.jenkins.docker.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how quickly {@link DockerMultiplexedInputStream} can demultiplex
+ * a stream of stdout frames (with the occasional stderr frame), as it does
+ * for all the remoting traffic of attached agents.
+ * <p>
+ * The <code>legacy</code> variants use the implementation we used to have,
+ * which allocated a header per frame and a payload buffer per stderr frame
+ * and never read more than one frame at a time, to give a baseline. Run with
+ * <code>-prof gc</code> to compare allocation rates.
+ * </p>
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+public class DockerMultiplexedInputStreamBenchmark {
+    /** Total size of the stdout payload in each stream. */
+    private static final int PAYLOAD_SIZE = 1024 * 1024;
+
+    /** Every this many stdout frames, we put in a stderr frame. */
+    private static final int STDERR_EVERY = 100;
+
+    @Param({"64", "1024", "16384"})
+    public int frameSize;
+
+    private byte[] multiplexed;
+    private final byte[] readBuffer = new byte[8192];
+
+    @Setup
+    public void setUp() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] payload = new byte[frameSize];
+        final byte[] stderr = "warning: something happened\n".getBytes(StandardCharsets.UTF_8);
+        int framesWritten = 0;
+        for (int written = 0; written < PAYLOAD_SIZE; written += frameSize) {
+            writeFrame(out, 1, payload);
+            if (++framesWritten % STDERR_EVERY == 0) {
+                writeFrame(out, 2, stderr);
+            }
+        }
+        multiplexed = out.toByteArray();
+    }
+
+    @Benchmark
+    public long bulkRead() throws IOException {
+        return drain(new DockerMultiplexedInputStream(new ByteArrayInputStream(multiplexed), "benchmark"));
+    }
+
+    @Benchmark
+    public long legacyBulkRead() throws IOException {
+        return drain(new LegacyDemux(new ByteArrayInputStream(multiplexed)));
+    }
+
+    private long drain(InputStream in) throws IOException {
+        long total = 0;
+        int bytesRead;
+        while ((bytesRead = in.read(readBuffer, 0, readBuffer.length)) >= 0) {
+            total += bytesRead;
+        }
+        return total;
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, int type, byte[] payload) {
+        final int size = payload.length;
+        out.write(type);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(size >>> 24);
+        out.write(size >>> 16);
+        out.write(size >>> 8);
+        out.write(size);
+        out.write(payload, 0, size);
+    }
+
+    /**
+     * How {@link DockerMultiplexedInputStream} used to work.
+     */
+    private static final class LegacyDemux extends InputStream {
+        private static final Logger LOGGER = LoggerFactory.getLogger(DockerMultiplexedInputStream.class);
+
+        private final InputStream multiplexed;
+        private int next;
+
+        LegacyDemux(InputStream multiplexed) {
+            this.multiplexed = multiplexed;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!readInternal()) {
+                return -1;
+            }
+            final int nextByte = multiplexed.read();
+            if (nextByte >= 0) {
+                next--;
+            }
+            return nextByte;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!readInternal()) {
+                return -1;
+            }
+            final int bytesRead = multiplexed.read(b, off, Math.min(next, len));
+            if (bytesRead >= 0) {
+                next -= bytesRead;
+            }
+            return bytesRead;
+        }
+
+        private boolean readInternal() throws IOException {
+            while (next == 0) {
+                final byte[] header = new byte[8];
+                int todo = 8;
+                while (todo > 0) {
+                    final int i = multiplexed.read(header, 8 - todo, todo);
+                    if (i < 0) {
+                        return false;
+                    }
+                    todo -= i;
+                }
+                final int size = ((header[4] & 0xff) << 24)
+                        + ((header[5] & 0xff) << 16)
+                        + ((header[6] & 0xff) << 8)
+                        + (header[7] & 0xff);
+                if (header[0] == 1) {
+                    next = size;
+                } else {
+                    final byte[] payload = new byte[size];
+                    int received = 0;
+                    while (received < size) {
+                        final int i = multiplexed.read(payload, received, size - received);
+                        if (i < 0) {
+                            break;
+                        }
+                        received += i;
+                    }
+                    if (LOGGER.isInfoEnabled()) {
+                        final String dataAsString = new String(payload, 0, received, StandardCharsets.UTF_8);
+                        final String dataAsTrimmedString = dataAsString.replaceAll("\\s*$", "");
+                        if (!dataAsTrimmedString.isEmpty()) {
+                            LOGGER.info("stderr from {}: {}", "benchmark", dataAsTrimmedString);
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
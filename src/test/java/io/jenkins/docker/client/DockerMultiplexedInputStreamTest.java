@@ -1,9 +1,11 @@
 package io.jenkins.docker.client;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import org.junit.Assert;
 import org.junit.Test;
@@ -535,4 +537,54 @@ public class DockerMultiplexedInputStreamTest {
             Assert.assertNotNull(tester.exception());
         }
     }
+
+    @Test
+    public void readGivenSeveralFramesAvailableThenReturnsThemAllAtOnce() throws Exception {
+        final byte[] input = {
+            1, 0, 0, 0, 0, 0, 0, 2, 65, 66, // stdout
+            2, 0, 0, 0, 0, 0, 0, 1, 88, // stderr
+            1, 0, 0, 0, 0, 0, 0, 0, // empty stdout
+            1, 0, 0, 0, 0, 0, 0, 3, 67, 68, 69, // stdout
+        };
+        final DockerMultiplexedInputStream stream =
+                new DockerMultiplexedInputStream(new ByteArrayInputStream(input), "test");
+        final byte[] buffer = new byte[10];
+
+        final int actual = stream.read(buffer, 0, buffer.length);
+
+        Assert.assertEquals(5, actual);
+        Assert.assertArrayEquals(new byte[] {65, 66, 67, 68, 69}, Arrays.copyOf(buffer, actual));
+        Assert.assertEquals(-1, stream.read(buffer, 0, buffer.length));
+        Assert.assertEquals("X", stream.getRecentStderr());
+    }
+
+    @Test
+    public void readGivenSingleBytesThenCrossesFrames() throws Exception {
+        final byte[] input = {
+            1, 0, 0, 0, 0, 0, 0, 1, 65, 2, 0, 0, 0, 0, 0, 0, 1, 88, 1, 0, 0, 0, 0, 0, 0, 1, 66,
+        };
+        final DockerMultiplexedInputStream stream =
+                new DockerMultiplexedInputStream(new ByteArrayInputStream(input), "test");
+
+        Assert.assertEquals(65, stream.read());
+        Assert.assertEquals(66, stream.read());
+        Assert.assertEquals(-1, stream.read());
+    }
+
+    @Test
+    public void getRecentStderrGivenMoreThanFitsThenKeepsTheMostRecent() throws Exception {
+        final ByteArrayOutputStream input = new ByteArrayOutputStream();
+        for (final String text : new String[] {"first line\n", "second\n", "third\n"}) {
+            final byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+            input.write(new byte[] {2, 0, 0, 0, 0, 0, 0, (byte) payload.length});
+            input.write(payload);
+        }
+        input.write(new byte[] {1, 0, 0, 0, 0, 0, 0, 1, 65});
+        final DockerMultiplexedInputStream stream =
+                new DockerMultiplexedInputStream(new ByteArrayInputStream(input.toByteArray()), "test", 10);
+
+        Assert.assertEquals("", stream.getRecentStderr());
+        Assert.assertEquals(65, stream.read());
+        Assert.assertEquals("ond\nthird\n", stream.getRecentStderr());
+    }
 }
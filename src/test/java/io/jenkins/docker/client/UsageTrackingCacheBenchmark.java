@@ -0,0 +1,101 @@
+package io.jenkins.docker.client;
+
+import java.util.concurrent.TimeUnit;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures how quickly {@link UsageTrackingCache} users can acquire and
+ * release a shared entry, as {@link DockerAPI#getClient()} and
+ * {@link java.io.Closeable#close()} do for every docker call.
+ * <p>
+ * The <code>legacy</code> variants give a baseline: they use the Guava-based
+ * {@link LegacyUsageTrackingCache} that this replaced, wrapping each call in
+ * the one shared monitor, as {@link DockerAPI} used to.
+ * </p>
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+public class UsageTrackingCacheBenchmark {
+    private static final String KEY = "tcp://docker-host:2375";
+
+    private UsageTrackingCache<String, Object> cache;
+    private LegacyUsageTrackingCache<String, Object> legacyCache;
+
+    @Setup
+    public void setUp() {
+        cache = new UsageTrackingCache<>(5, TimeUnit.MINUTES, (key, value) -> {});
+        cache.cacheAndIncrementUsage(KEY, new Object()); // keep it active throughout
+        legacyCache = new LegacyUsageTrackingCache<>(5, TimeUnit.MINUTES, (key, value) -> {});
+        legacyCache.cacheAndIncrementUsage(KEY, new Object());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object lockFree1Thread() {
+        return acquireAndRelease();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object lockFree4Threads() {
+        return acquireAndRelease();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object lockFree16Threads() {
+        return acquireAndRelease();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Object lockFree64Threads() {
+        return acquireAndRelease();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object legacy1Thread() {
+        return acquireAndReleaseLegacy();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object legacy4Threads() {
+        return acquireAndReleaseLegacy();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object legacy16Threads() {
+        return acquireAndReleaseLegacy();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Object legacy64Threads() {
+        return acquireAndReleaseLegacy();
+    }
+
+    private Object acquireAndRelease() {
+        final Object value = cache.getAndIncrementUsage(KEY);
+        cache.decrementUsage(value);
+        return value;
+    }
+
+    private Object acquireAndReleaseLegacy() {
+        final Object value;
+        synchronized (legacyCache) {
+            value = legacyCache.getAndIncrementUsage(KEY);
+        }
+        synchronized (legacyCache) {
+            legacyCache.decrementUsage(value);
+        }
+        return value;
+    }
+}
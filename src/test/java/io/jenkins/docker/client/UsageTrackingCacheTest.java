@@ -7,6 +7,9 @@ import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 
@@ -150,6 +153,83 @@ public class UsageTrackingCacheTest {
         assertNothingExpired(expiryList);
     }
 
+    @Test
+    public void concurrentUsageGivenActiveDataThenKeepsAccurateCount() throws Exception {
+        final String key = "key";
+        final Object value = value("value");
+        final List<Object> expiryList = new ArrayList<>();
+        final UsageTrackingCache.ExpiryHandler<String, Object> expiryHandler = expiryTracker(expiryList);
+        final UsageTrackingCache<String, Object> instance = new UsageTrackingCache<>(1, TimeUnit.DAYS, expiryHandler);
+        instance.cacheAndIncrementUsage(key, value); // count=1
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 10000; j++) {
+                        final Object actual = instance.getAndIncrementUsage(key);
+                        assertEquals(value, actual);
+                        instance.decrementUsage(actual);
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        instance.decrementUsage(value); // count=0 so inactive
+
+        try {
+            instance.decrementUsage(value);
+            fail("Expected an exception by now");
+        } catch (IllegalStateException expected) {
+        }
+        assertNothingExpired(expiryList);
+    }
+
+    @Test
+    public void getAndIncrementUsageGivenActiveDataPastItsLifetimeThenReturnsNullAndExpiresItOnceUnused()
+            throws Exception {
+        final String key = "key";
+        final Object value = value("value");
+        final List<Object> expiryList = new ArrayList<>();
+        final UsageTrackingCache.ExpiryHandler<String, Object> expiryHandler = expiryTracker(expiryList);
+        final UsageTrackingCache<String, Object> instance = new UsageTrackingCache<>(1, TimeUnit.DAYS, expiryHandler);
+        instance.cacheAndIncrementUsage(key, value, 0L, 1L, TimeUnit.MILLISECONDS); // count=1
+        Thread.sleep(50L); // force it past its lifetime
+
+        final Object actual = instance.getAndIncrementUsage(key);
+        assertNull(actual);
+        assertNothingExpired(expiryList);
+        final Object replacement = value("replacement");
+        instance.cacheAndIncrementUsage(key, replacement);
+
+        instance.decrementUsage(value); // count=0 so no longer needed
+        assertExpired(expiryList, key, value);
+        assertEquals(replacement, instance.getAndIncrementUsage(key));
+    }
+
+    @Test
+    public void getUsageGivenActiveDataThenReportsUsage() {
+        final String key = "key";
+        final Object value = value("value");
+        final List<Object> expiryList = new ArrayList<>();
+        final UsageTrackingCache.ExpiryHandler<String, Object> expiryHandler = expiryTracker(expiryList);
+        final UsageTrackingCache<String, Object> instance = new UsageTrackingCache<>(1, TimeUnit.DAYS, expiryHandler);
+        instance.cacheAndIncrementUsage(key, value); // count=1
+        instance.getAndIncrementUsage(key); // count=2
+        instance.decrementUsage(value); // count=1
+
+        final List<UsageTrackingCache.EntryUsage<String>> actual = instance.getUsage();
+
+        assertEquals(1, actual.size());
+        assertEquals(key, actual.get(0).getKey());
+        assertEquals(1, actual.get(0).getUsageCount());
+        assertEquals(2, actual.get(0).getPeakUsageCount());
+    }
+
     private static Object value(final String s) {
         return new Object() {
             @Override
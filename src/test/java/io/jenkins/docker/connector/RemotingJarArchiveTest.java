@@ -0,0 +1,221 @@
+package io.jenkins.docker.connector;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.CopyArchiveFromContainerCmd;
+import com.github.dockerjava.api.command.CopyArchiveToContainerCmd;
+import com.github.dockerjava.api.command.CreateContainerCmd;
+import com.github.dockerjava.api.command.CreateContainerResponse;
+import com.github.dockerjava.api.command.CreateVolumeCmd;
+import com.github.dockerjava.api.command.InspectVolumeCmd;
+import com.github.dockerjava.api.command.InspectVolumeResponse;
+import com.github.dockerjava.api.command.RemoveContainerCmd;
+import com.github.dockerjava.api.command.RemoveVolumeCmd;
+import com.github.dockerjava.api.exception.NotFoundException;
+import io.jenkins.docker.client.DockerAPI;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+public class RemotingJarArchiveTest {
+
+    @Test
+    public void newTarInputStreamThenEachStreamContainsTheJar() throws Exception {
+        final byte[] jarContents = "pretend this is a jar".getBytes(StandardCharsets.UTF_8);
+        final RemotingJarArchive instance = new RemotingJarArchive("remoting.jar", jarContents, 1234000L);
+
+        for (int i = 0; i < 2; i++) {
+            try (InputStream is = instance.newTarInputStream();
+                    TarArchiveInputStream tar = new TarArchiveInputStream(is)) {
+                final TarArchiveEntry entry = tar.getNextTarEntry();
+                assertEquals("remoting.jar", entry.getName());
+                assertEquals(jarContents.length, entry.getSize());
+                assertEquals(0644, entry.getMode());
+                assertEquals(1234000L, entry.getModTime().getTime());
+                final byte[] actual = new byte[jarContents.length];
+                assertEquals(jarContents.length, tar.read(actual));
+                assertArrayEquals(jarContents, actual);
+                assertThat(tar.getNextTarEntry(), nullValue());
+            }
+        }
+    }
+
+    @Test
+    public void getVolumeNameThenNamedAfterContent() throws Exception {
+        final byte[] jarContents = "abc".getBytes(StandardCharsets.UTF_8);
+        final RemotingJarArchive instance = new RemotingJarArchive("remoting.jar", jarContents, 0L);
+        final RemotingJarArchive sameContent = new RemotingJarArchive("other-name.jar", jarContents, 99000L);
+        final RemotingJarArchive otherContent =
+                new RemotingJarArchive("remoting.jar", "abd".getBytes(StandardCharsets.UTF_8), 0L);
+
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", instance.getSha256());
+        assertEquals("jenkins-remoting-ba7816bf8f01cfea", instance.getVolumeName());
+        assertEquals(instance.getVolumeName(), sameContent.getVolumeName());
+        assertThat(otherContent.getVolumeName(), not(instance.getVolumeName()));
+        assertThat(otherContent.getVolumeName(), startsWith("jenkins-remoting-"));
+    }
+
+    @Test
+    public void ensureVolumeExistsGivenVolumeWithoutMarkerThenPopulatesItOnce() throws Exception {
+        final RemotingJarArchive instance = new RemotingJarArchive("remoting.jar", new byte[] {1, 2, 3}, 0L);
+        final MockedDocker docker = new MockedDocker(true, false);
+
+        assertEquals(instance.getVolumeName(), instance.ensureVolumeExists(docker.api, "some-image"));
+        assertEquals(instance.getVolumeName(), instance.ensureVolumeExists(docker.api, "some-image"));
+
+        // the jar first, then the marker saying it's all there
+        assertEquals(List.of("remoting.jar", instance.getMarkerName()), docker.copiedFileNames);
+        // the (never started) container has something to run
+        Mockito.verify(docker.createContainerCmd).withEntrypoint("/bin/sh");
+        Mockito.verify(docker.client, Mockito.times(1)).createContainerCmd("some-image");
+        Mockito.verify(docker.client, Mockito.times(1)).removeContainerCmd("helper");
+        Mockito.verify(docker.client, Mockito.never()).createVolumeCmd();
+    }
+
+    @Test
+    public void ensureVolumeExistsGivenVolumeWithMarkerThenLeavesItAlone() throws Exception {
+        final RemotingJarArchive instance = new RemotingJarArchive("remoting.jar", new byte[] {1, 2, 3}, 0L);
+        final MockedDocker docker = new MockedDocker(true, true);
+
+        instance.ensureVolumeExists(docker.api, "some-image");
+
+        assertEquals(List.of(), docker.copiedFileNames);
+        Mockito.verify(docker.client)
+                .copyArchiveFromContainerCmd("helper", "/jenkins-remoting/" + instance.getMarkerName());
+        Mockito.verify(docker.client).removeContainerCmd("helper");
+    }
+
+    @Test
+    public void ensureVolumeExistsGivenCopyFailsThenNoMarkerAndVolumeRemoved() throws Exception {
+        final RemotingJarArchive instance = new RemotingJarArchive("remoting.jar", new byte[] {1, 2, 3}, 0L);
+        final MockedDocker docker = new MockedDocker(false, false);
+        Mockito.when(docker.copyArchiveToContainerCmd.exec()).thenThrow(new IllegalStateException("disk full"));
+
+        try {
+            instance.ensureVolumeExists(docker.api, "some-image");
+            fail("Expected an exception by now");
+        } catch (IllegalStateException expected) {
+            assertEquals("disk full", expected.getMessage());
+        }
+
+        assertEquals(List.of("remoting.jar"), docker.copiedFileNames);
+        Mockito.verify(docker.client).createVolumeCmd();
+        Mockito.verify(docker.client).removeContainerCmd("helper");
+        Mockito.verify(docker.client).removeVolumeCmd(instance.getVolumeName());
+    }
+
+    @Test
+    public void ensureVolumeExistsGivenOtherCredentialsThenLooksInsideAgain() throws Exception {
+        final RemotingJarArchive instance = new RemotingJarArchive("remoting.jar", new byte[] {1, 2, 3}, 0L);
+        final String dockerUri = "tcp://" + UUID.randomUUID() + ":2375";
+        final MockedDocker docker1 = new MockedDocker(dockerUri, "credentials1", true, null);
+        final MockedDocker docker2 = new MockedDocker(dockerUri, "credentials2", true, null);
+
+        instance.ensureVolumeExists(docker1.api, "some-image");
+        instance.ensureVolumeExists(docker2.api, "some-image");
+
+        assertEquals(List.of("remoting.jar", instance.getMarkerName()), docker1.copiedFileNames);
+        assertEquals(List.of("remoting.jar", instance.getMarkerName()), docker2.copiedFileNames);
+    }
+
+    @Test
+    public void ensureVolumeExistsGivenMarkerStreamFailsToCloseThenPopulatesIt() throws Exception {
+        final RemotingJarArchive instance = new RemotingJarArchive("remoting.jar", new byte[] {1, 2, 3}, 0L);
+        final InputStream brokenMarker = new ByteArrayInputStream(new byte[0]) {
+            @Override
+            public void close() throws IOException {
+                throw new IOException("connection reset");
+            }
+        };
+        final MockedDocker docker = new MockedDocker("tcp://" + UUID.randomUUID() + ":2375", null, true, brokenMarker);
+
+        instance.ensureVolumeExists(docker.api, "some-image");
+
+        assertEquals(List.of("remoting.jar", instance.getMarkerName()), docker.copiedFileNames);
+    }
+
+    private static final class MockedDocker {
+        final DockerAPI api = Mockito.mock(DockerAPI.class);
+        final DockerClient client = Mockito.mock(DockerClient.class);
+        final CreateContainerCmd createContainerCmd = Mockito.mock(CreateContainerCmd.class, Mockito.RETURNS_SELF);
+        final CopyArchiveToContainerCmd copyArchiveToContainerCmd =
+                Mockito.mock(CopyArchiveToContainerCmd.class, Mockito.RETURNS_SELF);
+        final List<String> copiedFileNames = new ArrayList<>();
+
+        MockedDocker(boolean volumeExists, boolean volumeHasMarker) {
+            this(
+                    "tcp://" + UUID.randomUUID() + ":2375",
+                    null,
+                    volumeExists,
+                    volumeHasMarker ? new ByteArrayInputStream(new byte[0]) : null);
+        }
+
+        /**
+         * @param markerOrNull What we get when we look for the marker file,
+         *            or null if it isn't there.
+         */
+        MockedDocker(String dockerUri, String credentialsId, boolean volumeExists, InputStream markerOrNull) {
+            final DockerServerEndpoint endpoint = Mockito.mock(DockerServerEndpoint.class);
+            Mockito.when(endpoint.getUri()).thenReturn(dockerUri);
+            Mockito.when(endpoint.getCredentialsId()).thenReturn(credentialsId);
+            Mockito.when(api.getDockerHost()).thenReturn(endpoint);
+            Mockito.when(api.getClient()).thenReturn(client);
+
+            final InspectVolumeCmd inspectVolumeCmd = Mockito.mock(InspectVolumeCmd.class);
+            if (volumeExists) {
+                Mockito.when(inspectVolumeCmd.exec()).thenReturn(Mockito.mock(InspectVolumeResponse.class));
+            } else {
+                Mockito.when(inspectVolumeCmd.exec()).thenThrow(new NotFoundException("no such volume"));
+            }
+            Mockito.when(client.inspectVolumeCmd(ArgumentMatchers.anyString())).thenReturn(inspectVolumeCmd);
+            Mockito.when(client.createVolumeCmd())
+                    .thenReturn(Mockito.mock(CreateVolumeCmd.class, Mockito.RETURNS_SELF));
+            Mockito.when(client.removeVolumeCmd(ArgumentMatchers.anyString()))
+                    .thenReturn(Mockito.mock(RemoveVolumeCmd.class, Mockito.RETURNS_SELF));
+
+            final CreateContainerResponse created = new CreateContainerResponse();
+            created.setId("helper");
+            Mockito.when(createContainerCmd.exec()).thenReturn(created);
+            Mockito.when(client.createContainerCmd(ArgumentMatchers.anyString())).thenReturn(createContainerCmd);
+            Mockito.when(client.removeContainerCmd(ArgumentMatchers.anyString()))
+                    .thenReturn(Mockito.mock(RemoveContainerCmd.class, Mockito.RETURNS_SELF));
+
+            final CopyArchiveFromContainerCmd copyArchiveFromContainerCmd =
+                    Mockito.mock(CopyArchiveFromContainerCmd.class);
+            if (markerOrNull != null) {
+                Mockito.when(copyArchiveFromContainerCmd.exec()).thenReturn(markerOrNull);
+            } else {
+                Mockito.when(copyArchiveFromContainerCmd.exec()).thenThrow(new NotFoundException("no such file"));
+            }
+            Mockito.when(client.copyArchiveFromContainerCmd(ArgumentMatchers.anyString(), ArgumentMatchers.anyString()))
+                    .thenReturn(copyArchiveFromContainerCmd);
+
+            Mockito.when(copyArchiveToContainerCmd.withTarInputStream(ArgumentMatchers.any()))
+                    .thenAnswer(invocation -> {
+                        try (TarArchiveInputStream tar = new TarArchiveInputStream(invocation.getArgument(0))) {
+                            copiedFileNames.add(tar.getNextTarEntry().getName());
+                        }
+                        return copyArchiveToContainerCmd;
+                    });
+            Mockito.when(client.copyArchiveToContainerCmd(ArgumentMatchers.anyString()))
+                    .thenReturn(copyArchiveToContainerCmd);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package io.jenkins.docker.metrics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import org.junit.Test;
+
+public class DockerMetricsTest {
+
+    @Test
+    public void histogramGivenObservationsThenWritesCumulativeBucketsSumAndCount() {
+        final DockerHistogram instance = new DockerHistogram("test_seconds", "Test histogram.", "cloud", "template");
+
+        instance.observe(0.02, "c", "t");
+        instance.observe(0.2, "c", "t");
+        instance.observe(1000, "c", "t");
+        instance.observe(3, "c", "other");
+
+        assertEquals(3L, instance.getCount("c", "t"));
+        assertEquals(1L, instance.getCount("c", "other"));
+        final String actual = write(instance);
+        assertThat(actual, containsString("# HELP test_seconds Test histogram.\n"));
+        assertThat(actual, containsString("# TYPE test_seconds histogram\n"));
+        assertThat(actual, containsString("test_seconds_bucket{cloud=\"c\",template=\"t\",le=\"0.01\"} 0\n"));
+        assertThat(actual, containsString("test_seconds_bucket{cloud=\"c\",template=\"t\",le=\"0.05\"} 1\n"));
+        assertThat(actual, containsString("test_seconds_bucket{cloud=\"c\",template=\"t\",le=\"0.25\"} 2\n"));
+        assertThat(actual, containsString("test_seconds_bucket{cloud=\"c\",template=\"t\",le=\"600\"} 2\n"));
+        assertThat(actual, containsString("test_seconds_bucket{cloud=\"c\",template=\"t\",le=\"+Inf\"} 3\n"));
+        assertThat(actual, containsString("test_seconds_sum{cloud=\"c\",template=\"t\"} 1000.22\n"));
+        assertThat(actual, containsString("test_seconds_count{cloud=\"c\",template=\"t\"} 3\n"));
+        assertThat(actual, containsString("test_seconds_count{cloud=\"c\",template=\"other\"} 1\n"));
+    }
+
+    @Test
+    public void counterGivenIncrementsThenWritesTotals() {
+        final DockerCounter instance = new DockerCounter("test_total", "Test counter.", "cloud");
+
+        instance.increment("a");
+        instance.increment("a");
+        instance.increment((String) null);
+
+        assertEquals(2L, instance.getCount("a"));
+        assertEquals(1L, instance.getCount(""));
+        final String actual = write(instance);
+        assertThat(actual, containsString("# TYPE test_total counter\n"));
+        assertThat(actual, containsString("test_total{cloud=\"a\"} 2\n"));
+        assertThat(actual, containsString("test_total{cloud=\"\"} 1\n"));
+    }
+
+    @Test
+    public void counterGivenAddsThenWritesTotals() {
+        final DockerCounter instance = new DockerCounter("test_bytes_total", "Test counter.", "cloud");
+
+        instance.add(1000L, "a");
+        instance.increment("a");
+        instance.add(234L, "a");
+
+        assertEquals(1235L, instance.getCount("a"));
+        assertThat(write(instance), containsString("test_bytes_total{cloud=\"a\"} 1235\n"));
+    }
+
+    @Test
+    public void writeToGivenAwkwardLabelValuesThenEscapesThem() {
+        final DockerCounter instance = new DockerCounter("test_total", "Test counter.", "cloud");
+
+        instance.increment("say \"hello\"\\\n");
+
+        final String actual = write(instance);
+        assertThat(actual, containsString("test_total{cloud=\"say \\\"hello\\\"\\\\\\n\"} 1\n"));
+        assertThat(actual, not(containsString("hello\"\\\n")));
+    }
+
+    @Test
+    public void writeToGivenNoLabelsThenOmitsBraces() {
+        final DockerHistogram instance = new DockerHistogram("test_seconds", "Test histogram.");
+
+        instance.observe(0.5);
+
+        final String actual = write(instance);
+        assertThat(actual, containsString("test_seconds_bucket{le=\"0.5\"} 1\n"));
+        assertThat(actual, containsString("test_seconds_sum 0.5\n"));
+        assertThat(actual, containsString("test_seconds_count 1\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void observeGivenWrongNumberOfLabelsThenThrows() {
+        final DockerHistogram instance = new DockerHistogram("test_seconds", "Test histogram.", "cloud", "template");
+
+        instance.observe(1.0, "justOne");
+    }
+
+    private static String write(DockerMetric<?> metric) {
+        final StringWriter sw = new StringWriter();
+        try (PrintWriter out = new PrintWriter(sw)) {
+            metric.writeTo(out);
+        }
+        return sw.toString().replace(System.lineSeparator(), "\n");
+    }
+}
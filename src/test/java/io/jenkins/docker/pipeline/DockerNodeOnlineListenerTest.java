@@ -0,0 +1,69 @@
+package io.jenkins.docker.pipeline;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+
+public class DockerNodeOnlineListenerTest {
+
+    @Test
+    public void completesWhenNodeComesOnline() throws Exception {
+        final Computer computer = computer("comesOnline", false);
+        final CompletableFuture<Computer> future = DockerNodeOnlineListener.whenOnline("comesOnline", () -> computer);
+        assertThat(future.isDone(), is(false));
+        assertThat(DockerNodeOnlineListener.isWaitingFor("comesOnline"), is(true));
+
+        new DockerNodeOnlineListener().onOnline(computer("somethingElse", true), TaskListener.NULL);
+        assertThat(future.isDone(), is(false));
+        new DockerNodeOnlineListener().onOnline(computer, TaskListener.NULL);
+
+        assertThat(future.get(), sameInstance(computer));
+        assertThat(DockerNodeOnlineListener.isWaitingFor("comesOnline"), is(false));
+    }
+
+    @Test
+    public void completesImmediatelyIfNodeIsAlreadyOnline() throws Exception {
+        final Computer computer = computer("alreadyOnline", true);
+        final CompletableFuture<Computer> future =
+                DockerNodeOnlineListener.whenOnline("alreadyOnline", () -> computer);
+
+        assertThat(future.getNow(null), sameInstance(computer));
+        assertThat(DockerNodeOnlineListener.isWaitingFor("alreadyOnline"), is(false));
+    }
+
+    @Test
+    public void stopsWaitingOnceCallerGivesUp() {
+        final CompletableFuture<Computer> future = DockerNodeOnlineListener.whenOnline("neverOnline", () -> null)
+                .orTimeout(10, TimeUnit.MILLISECONDS);
+
+        final Throwable failure = future.handle((c, t) -> t).join();
+
+        assertThat(failure instanceof TimeoutException, is(true));
+        assertThat(DockerNodeOnlineListener.isWaitingFor("neverOnline"), is(false));
+    }
+
+    @Test
+    public void stopsWaitingOnceCallerCancels() {
+        final CompletableFuture<Computer> future = DockerNodeOnlineListener.whenOnline("cancelled", () -> null);
+
+        future.cancel(false);
+
+        assertThat(DockerNodeOnlineListener.isWaitingFor("cancelled"), is(false));
+    }
+
+    private static Computer computer(String name, boolean online) {
+        final Computer computer = mock(Computer.class);
+        when(computer.getName()).thenReturn(name);
+        when(computer.isOnline()).thenReturn(online);
+        return computer;
+    }
+}